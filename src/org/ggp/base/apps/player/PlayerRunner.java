@@ -47,6 +47,18 @@ public final class PlayerRunner
         chosenGamerClass = gamerClass;
       }
     }
+    if (chosenGamerClass == null && name.contains("."))
+    {
+      // Not a simple name - try it as a fully-qualified one.
+      try
+      {
+        chosenGamerClass = Class.forName(name);
+      }
+      catch (ClassNotFoundException e)
+      {
+        // Reported below.
+      }
+    }
     if (chosenGamerClass == null)
     {
       System.out
@@ -0,0 +1,121 @@
+package org.ggp.base.apps.server.scheduling;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.util.http.HttpRequest;
+
+/**
+ * An instance of a {@link PlayerType}, running in a local process of its own.
+ * The process is started when first needed, and restarted if it dies.  An
+ * instance plays one match at a time.
+ */
+final class LocalPlayer
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * Time to wait for a newly launched player to respond to an info request.
+   */
+  private static final long STARTUP_TIMEOUT = 60000;
+
+  static final String HOST = "127.0.0.1";
+
+  private final PlayerType type;
+  private final int        port;
+  private final File       logFile;
+  private Process          process;
+
+  LocalPlayer(PlayerType type, int port, File logFile)
+  {
+    this.type = type;
+    this.port = port;
+    this.logFile = logFile;
+  }
+
+  PlayerType getType()
+  {
+    return type;
+  }
+
+  int getPort()
+  {
+    return port;
+  }
+
+  /**
+   * @return the name under which the player is entered in matches.
+   */
+  String getName()
+  {
+    return type.getName() + "-" + port;
+  }
+
+  /**
+   * Launch the player's process, unless it's already running, and wait until
+   * it responds to requests.
+   *
+   * @throws IOException if the player couldn't be started.
+   */
+  synchronized void ensureRunning() throws IOException, InterruptedException
+  {
+    if (isRunning())
+    {
+      return;
+    }
+
+    LOGGER.info("Launching " + getName());
+    ProcessBuilder builder = new ProcessBuilder(type.getCommand(port));
+    builder.redirectErrorStream(true);
+    builder.redirectOutput((logFile == null) ? Redirect.INHERIT : Redirect.appendTo(logFile));
+    process = builder.start();
+
+    long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+    while (true)
+    {
+      try
+      {
+        HttpRequest.issueRequest(HOST, port, getName(), "( info )", 1000);
+        return;
+      }
+      catch (IOException e)
+      {
+        if (!isRunning() || System.currentTimeMillis() > deadline)
+        {
+          stop();
+          throw new IOException("Failed to start " + getName(), e);
+        }
+        Thread.sleep(250);
+      }
+    }
+  }
+
+  synchronized boolean isRunning()
+  {
+    if (process == null)
+    {
+      return false;
+    }
+    try
+    {
+      process.exitValue();
+      return false;
+    }
+    catch (IllegalThreadStateException e)
+    {
+      return true;
+    }
+  }
+
+  synchronized void stop()
+  {
+    if (process != null)
+    {
+      process.destroy();
+      process = null;
+    }
+  }
+}
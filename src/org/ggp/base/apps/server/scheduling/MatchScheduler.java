@@ -0,0 +1,322 @@
+package org.ggp.base.apps.server.scheduling;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.server.GameServer;
+import org.ggp.base.util.match.Match;
+
+/**
+ * A headless engine that plays a queue of matches between locally launched
+ * players, running as many at once as the machine's cores allow.
+ *
+ * Each match needs the cores of all its players (see {@link PlayerType}), since
+ * they may all be thinking at once.  Matches are started in queue order, but a
+ * later match may start ahead of one that doesn't yet fit if there are cores
+ * enough for it.  To stop a big match being starved by a stream of small ones,
+ * the head of the queue can only be overtaken so many times; after that,
+ * nothing else starts until it does.  A match needing more cores than the
+ * machine has is run on its own.
+ *
+ * Player processes are launched as needed, one match at a time each, and kept
+ * for reuse by later matches until the scheduler is shut down.
+ */
+public final class MatchScheduler
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  private final int                               cores;
+  private final int                               maxOvertakes;
+  private final File                              outputDir;
+
+  private final LinkedList<ScheduledMatch>        queue        = new LinkedList<>();
+  private final List<ScheduledMatch>              completed    = new ArrayList<>();
+  private final Map<PlayerType, List<LocalPlayer>> idlePlayers = new HashMap<>();
+  private final List<LocalPlayer>                 allPlayers   = new ArrayList<>();
+  private int                                     nextPort;
+  private int                                     freeCores;
+  private int                                     running;
+  private int                                     headOvertakes;
+  private int                                     playedToCompletion;
+  private long                                    startTime;
+
+  /**
+   * Create a scheduler.
+   *
+   * @param cores     - the number of cores to fill.
+   * @param firstPort - the port from which to allocate player ports.
+   * @param outputDir - directory in which to save matches and player logs, or
+   *                    null not to save them.
+   */
+  public MatchScheduler(int cores, int firstPort, File outputDir)
+  {
+    this.cores = cores;
+    this.maxOvertakes = cores;
+    this.outputDir = outputDir;
+    nextPort = firstPort;
+    freeCores = cores;
+  }
+
+  public synchronized void add(ScheduledMatch match)
+  {
+    queue.add(match);
+    notifyAll();
+  }
+
+  /**
+   * Play all the queued matches (including any added in the meantime), and
+   * wait for them to finish.
+   */
+  public void run() throws InterruptedException
+  {
+    synchronized (this)
+    {
+      if (startTime == 0)
+      {
+        startTime = System.currentTimeMillis();
+      }
+
+      while (!queue.isEmpty() || running > 0)
+      {
+        ScheduledMatch next = takeNext();
+        if (next == null)
+        {
+          wait();
+        }
+        else
+        {
+          startMatch(next);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stop all the player processes.
+   */
+  public synchronized void shutdown()
+  {
+    for (LocalPlayer player : allPlayers)
+    {
+      player.stop();
+    }
+    allPlayers.clear();
+    idlePlayers.clear();
+  }
+
+  /**
+   * @return the matches finished with so far (whether or not they were played
+   * successfully), in order of completion.
+   */
+  public synchronized List<ScheduledMatch> getCompletedMatches()
+  {
+    return new ArrayList<>(completed);
+  }
+
+  /**
+   * @return the number of matches played to completion per hour since the
+   * scheduler started running.  (Matches that were aborted, or couldn't be
+   * started, don't count.)
+   */
+  public synchronized double getMatchesPerHour()
+  {
+    long elapsed = System.currentTimeMillis() - startTime;
+    if (startTime == 0 || elapsed == 0)
+    {
+      return 0;
+    }
+    return playedToCompletion * 3600000.0 / elapsed;
+  }
+
+  /**
+   * Remove and return the next match to start, reserving its cores, or return
+   * null if none can start yet.  The caller must hold the lock.
+   */
+  ScheduledMatch takeNext()
+  {
+    if (queue.isEmpty())
+    {
+      return null;
+    }
+
+    ScheduledMatch head = queue.getFirst();
+    if (fits(head))
+    {
+      headOvertakes = 0;
+      return reserve(queue.removeFirst());
+    }
+
+    if (headOvertakes < maxOvertakes)
+    {
+      for (ScheduledMatch match : queue)
+      {
+        if (match != head && fits(match))
+        {
+          headOvertakes++;
+          queue.remove(match);
+          return reserve(match);
+        }
+      }
+    }
+    return null;
+  }
+
+  private boolean fits(ScheduledMatch match)
+  {
+    // An oversized match is run when nothing else is running.
+    return Math.min(match.getCPUs(), cores) <= freeCores;
+  }
+
+  private ScheduledMatch reserve(ScheduledMatch match)
+  {
+    freeCores -= Math.min(match.getCPUs(), cores);
+    running++;
+    return match;
+  }
+
+  /**
+   * Release the cores reserved for a match that has finished.  The caller must
+   * hold the lock.
+   */
+  void release(ScheduledMatch match)
+  {
+    freeCores += Math.min(match.getCPUs(), cores);
+    running--;
+  }
+
+  private void startMatch(final ScheduledMatch match)
+  {
+    final List<LocalPlayer> players = new ArrayList<>();
+    for (PlayerType type : match.getPlayers())
+    {
+      players.add(acquirePlayer(type));
+    }
+
+    Thread thread = new Thread("Match " + match.getMatchID())
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          playMatch(match, players);
+        }
+        catch (Exception e)
+        {
+          LOGGER.error("Failed to play " + match, e);
+        }
+        finally
+        {
+          finishMatch(match, players);
+        }
+      }
+    };
+    thread.start();
+  }
+
+  private void playMatch(ScheduledMatch scheduled, List<LocalPlayer> players)
+      throws IOException, InterruptedException
+  {
+    List<String> hosts = new ArrayList<>();
+    List<Integer> ports = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    for (LocalPlayer player : players)
+    {
+      player.ensureRunning();
+      hosts.add(LocalPlayer.HOST);
+      ports.add(player.getPort());
+      names.add(player.getName());
+    }
+
+    Match match = new Match(scheduled.getMatchID(),
+                            -1,
+                            scheduled.getStartClock(),
+                            scheduled.getPlayClock(),
+                            scheduled.getMoveLimit(),
+                            scheduled.getGame());
+    match.setPlayerNamesFromHost(names);
+    scheduled.setMatch(match);
+
+    LOGGER.info("Starting " + scheduled);
+    long start = System.currentTimeMillis();
+    GameServer server = new GameServer(match, hosts, ports);
+    if (outputDir != null)
+    {
+      server.startSavingToFilename(new File(outputDir, match.getMatchId() + ".json").getAbsolutePath());
+    }
+    server.run();
+    scheduled.setDurationMillis(System.currentTimeMillis() - start);
+  }
+
+  private synchronized void finishMatch(ScheduledMatch match, List<LocalPlayer> players)
+  {
+    for (LocalPlayer player : players)
+    {
+      idlePlayers.get(player.getType()).add(player);
+    }
+    release(match);
+    completed.add(match);
+
+    Match record = match.getMatch();
+    if (record != null && record.isCompleted())
+    {
+      playedToCompletion++;
+    }
+    LOGGER.info("Finished " + match + ": " +
+                ((record == null) ? "failed" :
+                 record.isCompleted() ? "goals " + record.getGoalValues() : "aborted") +
+                " - " + completed.size() + " done, " + running + " running, " + queue.size() +
+                " queued, " + String.format("%.1f", getMatchesPerHour()) + " matches/hour");
+    notifyAll();
+  }
+
+  /**
+   * @return an idle player of the given type, creating one (on a free port) if
+   * there are none.  The player's process isn't started here.
+   */
+  private LocalPlayer acquirePlayer(PlayerType type)
+  {
+    List<LocalPlayer> idle = idlePlayers.get(type);
+    if (idle == null)
+    {
+      idle = new ArrayList<>();
+      idlePlayers.put(type, idle);
+    }
+    if (!idle.isEmpty())
+    {
+      return idle.remove(idle.size() - 1);
+    }
+
+    int port = allocatePort();
+    LocalPlayer player = new LocalPlayer(type,
+                                         port,
+                                         (outputDir == null) ? null :
+                                           new File(outputDir, type.getName() + "-" + port + ".log"));
+    allPlayers.add(player);
+    return player;
+  }
+
+  private int allocatePort()
+  {
+    while (true)
+    {
+      int port = nextPort++;
+      try (ServerSocket socket = new ServerSocket(port))
+      {
+        return socket.getLocalPort();
+      }
+      catch (IOException e)
+      {
+        // In use - try the next one.
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package org.ggp.base.apps.server.scheduling;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.match.Match;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MatchSchedulerTest extends Assert
+{
+  private static final int FIRST_PORT = 19200;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void testPacksMatchesInOrder()
+  {
+    MatchScheduler lScheduler = new MatchScheduler(4, FIRST_PORT, null);
+    ScheduledMatch lFirst = createMatch("first", 2);
+    ScheduledMatch lSecond = createMatch("second", 2);
+    ScheduledMatch lThird = createMatch("third", 2);
+    lScheduler.add(lFirst);
+    lScheduler.add(lSecond);
+    lScheduler.add(lThird);
+
+    assertSame(lFirst, lScheduler.takeNext());
+    assertSame(lSecond, lScheduler.takeNext());
+    assertNull(lScheduler.takeNext());
+
+    lScheduler.release(lFirst);
+    assertSame(lThird, lScheduler.takeNext());
+    assertNull(lScheduler.takeNext());
+  }
+
+  @Test
+  public void testOvertakingIsLimited()
+  {
+    MatchScheduler lScheduler = new MatchScheduler(4, FIRST_PORT, null);
+    ScheduledMatch lFiller = createMatch("filler", 3);
+    lScheduler.add(lFiller);
+    assertSame(lFiller, lScheduler.takeNext());
+
+    // The head of the queue needs 2 cores, but only 1 is free, so 1-core matches overtake it...
+    ScheduledMatch lBig = createMatch("big", 2);
+    lScheduler.add(lBig);
+    List<ScheduledMatch> lSmall = new ArrayList<>();
+    for (int lii = 0; lii < 6; lii++)
+    {
+      lSmall.add(createMatch("small" + lii, 1));
+      lScheduler.add(lSmall.get(lii));
+    }
+
+    for (int lii = 0; lii < 4; lii++)
+    {
+      assertSame(lSmall.get(lii), lScheduler.takeNext());
+      assertNull(lScheduler.takeNext());
+      lScheduler.release(lSmall.get(lii));
+    }
+
+    // ...but only as many times as there are cores.  After that, nothing starts until it can.
+    assertNull(lScheduler.takeNext());
+    lScheduler.release(lFiller);
+    assertSame(lBig, lScheduler.takeNext());
+    assertSame(lSmall.get(4), lScheduler.takeNext());
+    assertSame(lSmall.get(5), lScheduler.takeNext());
+    assertNull(lScheduler.takeNext());
+  }
+
+  @Test
+  public void testOversizedMatchRunsAlone()
+  {
+    MatchScheduler lScheduler = new MatchScheduler(4, FIRST_PORT, null);
+    ScheduledMatch lSmall = createMatch("small", 1);
+    ScheduledMatch lHuge = createMatch("huge", 6);
+    ScheduledMatch lOther = createMatch("other", 1);
+    lScheduler.add(lSmall);
+    lScheduler.add(lHuge);
+    lScheduler.add(lOther);
+
+    // The huge match waits for the machine to be empty (letting the other small one overtake it meanwhile).
+    assertSame(lSmall, lScheduler.takeNext());
+    assertSame(lOther, lScheduler.takeNext());
+    assertNull(lScheduler.takeNext());
+    lScheduler.release(lSmall);
+    assertNull(lScheduler.takeNext());
+    lScheduler.release(lOther);
+    assertSame(lHuge, lScheduler.takeNext());
+
+    // Nothing else runs alongside it.
+    ScheduledMatch lLate = createMatch("late", 1);
+    lScheduler.add(lLate);
+    assertNull(lScheduler.takeNext());
+    lScheduler.release(lHuge);
+    assertSame(lLate, lScheduler.takeNext());
+  }
+
+  @Test
+  public void testPlayerTypes()
+  {
+    PlayerType lType = PlayerType.parse("fast=SanchoGamer:3:arg1,arg2");
+    assertEquals("fast", lType.getName());
+    assertEquals(3, lType.getCPUs());
+
+    List<String> lCommand = lType.getCommand(9999);
+    assertTrue(lCommand.contains("-Dsancho.CPU_INTENSIVE_THREADS=3"));
+    assertEquals(Arrays.asList("9999", "SanchoGamer", "arg1", "arg2"),
+                 lCommand.subList(lCommand.size() - 4, lCommand.size()));
+
+    lCommand = PlayerType.parse("plain=RandomGamer:1").getCommand(9999);
+    assertEquals(Arrays.asList("9999", "RandomGamer"), lCommand.subList(lCommand.size() - 2, lCommand.size()));
+
+    for (String lBad : new String[] {"RandomGamer:1", "=RandomGamer:1", "name=RandomGamer", "name=RandomGamer:0",
+                                     "name=RandomGamer:x"})
+    {
+      try
+      {
+        PlayerType.parse(lBad);
+        fail("Accepted " + lBad);
+      }
+      catch (IllegalArgumentException lEx)
+      {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void testPlaysMatches() throws Exception
+  {
+    // Two players of 1 core each on a 2-core machine, so the matches are played one at a time, by the same players.
+    File lOutputDir = mFolder.getRoot();
+    MatchScheduler lScheduler = new MatchScheduler(2, FIRST_PORT, lOutputDir);
+    PlayerType lFirst = new PlayerType("first", RandomGamer.class.getName(), 1, Collections.<String>emptyList());
+    PlayerType lSecond = new PlayerType("second", RandomGamer.class.getName(), 1, Collections.<String>emptyList());
+    for (int lii = 0; lii < 3; lii++)
+    {
+      lScheduler.add(new ScheduledMatch("test." + lii,
+                                        new TestGameRepository().getGame("ticTacToe"),
+                                        (lii % 2 == 0) ? Arrays.asList(lFirst, lSecond) : Arrays.asList(lSecond, lFirst),
+                                        10,
+                                        2,
+                                        20));
+    }
+
+    try
+    {
+      lScheduler.run();
+    }
+    finally
+    {
+      lScheduler.shutdown();
+    }
+
+    List<ScheduledMatch> lCompleted = lScheduler.getCompletedMatches();
+    assertEquals(3, lCompleted.size());
+    for (ScheduledMatch lScheduled : lCompleted)
+    {
+      Match lMatch = lScheduled.getMatch();
+      assertNotNull(lMatch);
+      assertTrue(lMatch.isCompleted());
+      assertEquals(100, lMatch.getGoalValues().get(0) + lMatch.getGoalValues().get(1));
+      assertTrue(new File(lOutputDir, lMatch.getMatchId() + ".json").isFile());
+    }
+    assertTrue(lScheduler.getMatchesPerHour() > 0);
+
+    // Each type of player was only launched once.
+    assertEquals(2, lOutputDir.list(new FilenameFilter()
+    {
+      @Override
+      public boolean accept(File xiDir, String xiName)
+      {
+        return xiName.endsWith(".log");
+      }
+    }).length);
+  }
+
+  private static ScheduledMatch createMatch(String xiID, int xiCPUs)
+  {
+    PlayerType lPlayer = new PlayerType(xiID, "Gamer", xiCPUs, Collections.<String>emptyList());
+    return new ScheduledMatch(xiID, null, Collections.singletonList(lPlayer), 10, 10, 100);
+  }
+}
@@ -0,0 +1,95 @@
+package org.ggp.base.apps.server.scheduling;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.apps.player.PlayerRunner;
+
+/**
+ * A kind of player that the {@link MatchScheduler} can launch locally: a gamer
+ * class, run by PlayerRunner in a process of its own, together with the number
+ * of cores that each instance needs.
+ *
+ * For a Sancho-based gamer, the number of cores is its CPU_INTENSIVE_THREADS,
+ * and it's passed to the process so that the player and the scheduler agree.
+ * Several players share the machine, so each is also limited to a single local
+ * search thread and doesn't pin its threads to cores - they'd otherwise all
+ * pin to the same cores.
+ */
+public final class PlayerType
+{
+  private final String       name;
+  private final String       gamerClass;
+  private final int          cpus;
+  private final List<String> gamerArgs;
+
+  public PlayerType(String name, String gamerClass, int cpus, List<String> gamerArgs)
+  {
+    if (cpus < 1)
+    {
+      throw new IllegalArgumentException("A player needs at least 1 CPU: " + name);
+    }
+    this.name = name;
+    this.gamerClass = gamerClass;
+    this.cpus = cpus;
+    this.gamerArgs = Collections.unmodifiableList(new ArrayList<>(gamerArgs));
+  }
+
+  /**
+   * Parse a player type from a specification of the form
+   * "name=GamerClass:cpus[:arg1,arg2,...]".
+   */
+  public static PlayerType parse(String spec)
+  {
+    int equals = spec.indexOf('=');
+    String[] parts = spec.substring(equals + 1).split(":", 3);
+    if (equals < 1 || parts.length < 2)
+    {
+      throw new IllegalArgumentException("Invalid player specification: " + spec);
+    }
+    List<String> args = (parts.length == 3) ? Arrays.asList(parts[2].split(",")) :
+                                              Collections.<String>emptyList();
+    return new PlayerType(spec.substring(0, equals),
+                          parts[0],
+                          Integer.parseInt(parts[1]),
+                          args);
+  }
+
+  public String getName()
+  {
+    return name;
+  }
+
+  public int getCPUs()
+  {
+    return cpus;
+  }
+
+  /**
+   * @return the command with which to launch an instance on the given port.
+   */
+  List<String> getCommand(int port)
+  {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("-Dsancho.CPU_INTENSIVE_THREADS=" + cpus);
+    command.add("-Dsancho.LOCAL_SEARCH_THREADS=1");
+    command.add("-Dsancho.USE_AFFINITY=false");
+    command.add(PlayerRunner.class.getName());
+    command.add(Integer.toString(port));
+    command.add(gamerClass);
+    command.addAll(gamerArgs);
+    return command;
+  }
+
+  @Override
+  public String toString()
+  {
+    return name + " (" + gamerClass + ", " + cpus + " CPU" + ((cpus == 1) ? "" : "s") + ")";
+  }
+}
@@ -0,0 +1,125 @@
+package org.ggp.base.apps.server.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.match.Match;
+
+/**
+ * A match queued with a {@link MatchScheduler}: a game, the type of player to
+ * fill each role and the clocks.  Once the match has been played, the Match
+ * record is available from it.
+ */
+public final class ScheduledMatch
+{
+  private final String           matchID;
+  private final Game             game;
+  private final List<PlayerType> players;
+  private final int              startClock;
+  private final int              playClock;
+  private final int              moveLimit;
+
+  private volatile Match         match;
+  private volatile long          durationMillis;
+
+  public ScheduledMatch(String matchID,
+                        Game game,
+                        List<PlayerType> players,
+                        int startClock,
+                        int playClock,
+                        int moveLimit)
+  {
+    this.matchID = matchID;
+    this.game = game;
+    this.players = Collections.unmodifiableList(new ArrayList<>(players));
+    this.startClock = startClock;
+    this.playClock = playClock;
+    this.moveLimit = moveLimit;
+  }
+
+  public String getMatchID()
+  {
+    return matchID;
+  }
+
+  public Game getGame()
+  {
+    return game;
+  }
+
+  /**
+   * @return the type of player for each role, in role order.
+   */
+  public List<PlayerType> getPlayers()
+  {
+    return players;
+  }
+
+  public int getStartClock()
+  {
+    return startClock;
+  }
+
+  public int getPlayClock()
+  {
+    return playClock;
+  }
+
+  public int getMoveLimit()
+  {
+    return moveLimit;
+  }
+
+  /**
+   * @return the number of cores the match needs - the sum of those of its
+   * players.
+   */
+  public int getCPUs()
+  {
+    int cpus = 0;
+    for (PlayerType player : players)
+    {
+      cpus += player.getCPUs();
+    }
+    return cpus;
+  }
+
+  /**
+   * @return the match record, once the match has started, or null.
+   */
+  public Match getMatch()
+  {
+    return match;
+  }
+
+  void setMatch(Match match)
+  {
+    this.match = match;
+  }
+
+  /**
+   * @return how long the match took to play, once it has finished.
+   */
+  public long getDurationMillis()
+  {
+    return durationMillis;
+  }
+
+  void setDurationMillis(long durationMillis)
+  {
+    this.durationMillis = durationMillis;
+  }
+
+  @Override
+  public String toString()
+  {
+    List<String> names = new ArrayList<>();
+    for (PlayerType player : players)
+    {
+      names.add(player.getName());
+    }
+    return matchID + " " + names;
+  }
+}
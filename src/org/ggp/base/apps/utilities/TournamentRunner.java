@@ -0,0 +1,214 @@
+package org.ggp.base.apps.utilities;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.apps.server.scheduling.MatchScheduler;
+import org.ggp.base.apps.server.scheduling.PlayerType;
+import org.ggp.base.apps.server.scheduling.ScheduledMatch;
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.LocalGameRepository;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * TournamentRunner is a utility program that plays a round-robin of matches
+ * between locally launched players, packing as many matches onto the machine
+ * as its cores allow (see {@link MatchScheduler}).  It's intended for
+ * unattended regression tournaments.
+ *
+ * See {@link main} for the command-line arguments.
+ */
+public final class TournamentRunner
+{
+  private static final String sHelp =
+    "Args: <Tournament name> <Cores> <Rounds> <Start> <Play> <Limit> <Games>\n" +
+    "      <Player1> <Player2> [<Player3>...]\n" +
+    "  Games:  comma-separated keys from the local repository, or .kif files\n" +
+    "  Player: name=GamerClass:cpus[:arg1,arg2,...]\n" +
+    "          (GamerClass may be a simple or fully-qualified class name)\n";
+
+  private static final int NUM_FIXED_ARGS = 7;
+
+  private static final int FIRST_PLAYER_PORT = 9200;
+
+  /**
+   * Run a tournament from the command line.  It takes the following
+   * arguments:
+   *
+   * @param args
+   * - args[0] = tournament name - the directory for results and logs
+   * - args[1] = number of cores to use (0 for all of them)
+   * - args[2] = number of rounds
+   * - args[3] = start clock, in seconds
+   * - args[4] = play clock, in seconds
+   * - args[5] = move limit
+   * - args[6] = games to play
+   * - args[7...] = players
+   *
+   * In each round, every game is played once with each rotation of the
+   * players around its roles.  The players of an N-role game are taken N at a
+   * time, cyclically, from the list given.
+   *
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    if (args.length < NUM_FIXED_ARGS + 1)
+    {
+      System.err.println(sHelp);
+      System.exit(1);
+    }
+
+    String tourneyName = args[0];
+    int cores = Integer.parseInt(args[1]);
+    if (cores <= 0)
+    {
+      cores = Runtime.getRuntime().availableProcessors();
+    }
+    int rounds = Integer.parseInt(args[2]);
+    int startClock = Integer.parseInt(args[3]);
+    int playClock = Integer.parseInt(args[4]);
+    int moveLimit = Integer.parseInt(args[5]);
+
+    List<PlayerType> players = new ArrayList<>();
+    for (int i = NUM_FIXED_ARGS; i < args.length; i++)
+    {
+      players.add(PlayerType.parse(args[i]));
+    }
+
+    File tourneyDir = new File(tourneyName);
+    tourneyDir.mkdirs();
+    MatchScheduler scheduler = new MatchScheduler(cores, FIRST_PLAYER_PORT, tourneyDir);
+
+    LocalGameRepository repository = null;
+    int matchNumber = 0;
+    for (String gameName : args[6].split(","))
+    {
+      Game game;
+      String gameKey;
+      if (gameName.endsWith(".kif"))
+      {
+        File gameFile = new File(gameName);
+        game = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(gameFile)));
+        gameKey = gameFile.getName().replace(".kif", "");
+      }
+      else
+      {
+        if (repository == null)
+        {
+          repository = new LocalGameRepository();
+        }
+        game = repository.getGame(gameName);
+        gameKey = gameName;
+      }
+      if (game == null)
+      {
+        throw new IllegalArgumentException("Unknown game: " + gameName);
+      }
+
+      int numRoles = Role.computeRoles(game.getRules()).length;
+      for (int round = 0; round < rounds; round++)
+      {
+        for (List<PlayerType> matchPlayers : getRoundPlayers(players, numRoles))
+        {
+          scheduler.add(new ScheduledMatch(tourneyDir.getName() + "." + gameKey + "." + (matchNumber++) +
+                                             "." + System.currentTimeMillis(),
+                                           game,
+                                           matchPlayers,
+                                           startClock,
+                                           playClock,
+                                           moveLimit));
+        }
+      }
+    }
+    if (repository != null)
+    {
+      repository.cleanUp();
+    }
+
+    try
+    {
+      scheduler.run();
+    }
+    finally
+    {
+      scheduler.shutdown();
+    }
+
+    // Record the goals of each match, and the totals for each type of player.
+    Map<String, Integer> totals = new HashMap<>();
+    Map<String, Integer> counts = new HashMap<>();
+    try (BufferedWriter bw = new BufferedWriter(new FileWriter(new File(tourneyDir, "scores"), true)))
+    {
+      for (ScheduledMatch scheduled : scheduler.getCompletedMatches())
+      {
+        Match match = scheduled.getMatch();
+        List<String> names = new ArrayList<>();
+        for (PlayerType player : scheduled.getPlayers())
+        {
+          names.add(player.getName());
+        }
+
+        String goalStr = "aborted";
+        if (match != null && match.isCompleted())
+        {
+          List<Integer> goals = match.getGoalValues();
+          goalStr = "";
+          for (int i = 0; i < goals.size(); i++)
+          {
+            goalStr += ((i == 0) ? "" : ",") + goals.get(i);
+            Integer total = totals.get(names.get(i));
+            totals.put(names.get(i), ((total == null) ? 0 : total) + goals.get(i));
+            Integer count = counts.get(names.get(i));
+            counts.put(names.get(i), ((count == null) ? 0 : count) + 1);
+          }
+        }
+        bw.write(scheduled.getMatchID() + " " + names + "=" + goalStr + "\n");
+      }
+    }
+
+    for (PlayerType player : players)
+    {
+      Integer count = counts.get(player.getName());
+      System.out.println(player + ": " +
+                         ((count == null) ? "no completed matches" :
+                          String.format("average goal %.1f over %d matches",
+                                        (double)totals.get(player.getName()) / count,
+                                        count)));
+    }
+    System.out.println(String.format("Throughput: %.1f matches/hour",
+                                     scheduler.getMatchesPerHour()));
+  }
+
+  /**
+   * @return the players for each match in a round of a game - one match for
+   * each rotation of the players around the roles, taking them numRoles at a
+   * time, cyclically.
+   *
+   * @param players  - the players in the tournament.
+   * @param numRoles - the number of roles in the game.
+   */
+  static List<List<PlayerType>> getRoundPlayers(List<PlayerType> players, int numRoles)
+  {
+    List<List<PlayerType>> roundPlayers = new ArrayList<>();
+    for (int rotation = 0; rotation < players.size(); rotation++)
+    {
+      List<PlayerType> matchPlayers = new ArrayList<>();
+      for (int role = 0; role < numRoles; role++)
+      {
+        matchPlayers.add(players.get((rotation + role) % players.size()));
+      }
+      roundPlayers.add(matchPlayers);
+    }
+    return roundPlayers;
+  }
+}
@@ -0,0 +1,33 @@
+package org.ggp.base.apps.utilities;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.apps.server.scheduling.PlayerType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TournamentRunnerTest extends Assert
+{
+  private static final PlayerType A = new PlayerType("a", "Gamer", 1, Collections.<String>emptyList());
+  private static final PlayerType B = new PlayerType("b", "Gamer", 1, Collections.<String>emptyList());
+  private static final PlayerType C = new PlayerType("c", "Gamer", 1, Collections.<String>emptyList());
+
+  @Test
+  public void testRoundPlayers()
+  {
+    // Each player takes each role once per round.
+    assertEquals(Arrays.asList(Arrays.asList(A, B), Arrays.asList(B, C), Arrays.asList(C, A)),
+                 TournamentRunner.getRoundPlayers(Arrays.asList(A, B, C), 2));
+    assertEquals(Arrays.asList(Arrays.asList(A, B), Arrays.asList(B, A)),
+                 TournamentRunner.getRoundPlayers(Arrays.asList(A, B), 2));
+
+    // With more roles than players, players are re-used within a match.
+    assertEquals(Arrays.asList(Arrays.asList(A, B, A), Arrays.asList(B, A, B)),
+                 TournamentRunner.getRoundPlayers(Arrays.asList(A, B), 3));
+
+    List<List<PlayerType>> lSolo = TournamentRunner.getRoundPlayers(Arrays.asList(A, B, C), 1);
+    assertEquals(Arrays.asList(Arrays.asList(A), Arrays.asList(B), Arrays.asList(C)), lSolo);
+  }
+}
@@ -82,6 +82,16 @@ public class StateMachinePerformanceAnalyser
    */
   static int numSeconds = 30;
 
+  /**
+   * Propagation profiling sample interval for the direct state machine tests (or 0 not to profile)
+   */
+  static int profileSampleInterval = 0;
+
+  /**
+   * Number of rows to show in each section of propagation profile reports
+   */
+  private static final int PROFILE_REPORT_ROWS = 25;
+
   private class PerformanceInfo
   {
     public PerformanceInfo()
@@ -99,7 +109,12 @@ public class StateMachinePerformanceAnalyser
    *  [-statemachine] - includes direct state machine rollout tests
    *  [-gamesearcher] - includes tests of the higher-level game searcher
    *  [-time<num seconds>] - specify how long to run each test for
+   *  [-profile[<sample interval>]] - profile propnet propagation during the direct state machine tests, sampling
+   *                                  one in every <sample interval> input changes (default 100)
    *  <remaining params, of arbitrary number, each of which is a game name to test>
+   *
+   * The game searcher tests use CPU_INTENSIVE_THREADS - 1 rollout threads.  To compare rollout rates across thread
+   * counts, run once for each count with -Dsancho.CPU_INTENSIVE_THREADS=<num threads>.
    */
   public static void main(String[] args)
   {
@@ -128,9 +143,13 @@ public class StateMachinePerformanceAnalyser
             {
               numSeconds = Integer.parseInt(arg.substring(5));
             }
+            else if ( arg.toLowerCase().startsWith("-profile"))
+            {
+              profileSampleInterval = (arg.length() > 8 ? Integer.parseInt(arg.substring(8)) : 100);
+            }
             else
             {
-              System.out.println("Parameter usage: [-statemachine] [-gamesearcher] [-time<numSeconds>] <gameName> [<gameName>...]");
+              System.out.println("Parameter usage: [-statemachine] [-gamesearcher] [-time<numSeconds>] [-profile[<sampleInterval>]] <gameName> [<gameName>...]");
               System.exit(1);
             }
         }
@@ -168,6 +187,7 @@ public class StateMachinePerformanceAnalyser
           }
           if ( testSanchoGameSearcher )
           {
+            System.out.println("  GameSearcher rollout threads: " + ThreadControl.ROLLOUT_THREADS);
             System.out.println("  GameSearcher rollouts per second: " + e.getValue().rolloutsPerSecond);
             System.out.println("  GameSearcher node expansions per second: " + e.getValue().expansionsPerSecond);
             System.out.println("  GameSearcher highest pipeline latency(micro seconds): " + e.getValue().highestLatency/1000);
@@ -362,6 +382,11 @@ public class StateMachinePerformanceAnalyser
 
         theMachine.optimizeStateTransitionMechanism(System.currentTimeMillis()+5000);
 
+        if ( profileSampleInterval > 0 )
+        {
+          theMachine.enablePropagationProfiling(profileSampleInterval);
+        }
+
         ForwardDeadReckonInternalMachineState initialState = theMachine.createInternalState(theMachine.getInitialState());
 
         try
@@ -386,6 +411,12 @@ public class StateMachinePerformanceAnalyser
 
           perfInfo.stateMachineDirectRolloutsPerSecond = numDepthCharges/numSeconds;
           gamesList.put(gameKey,perfInfo);
+
+          if ( profileSampleInterval > 0 )
+          {
+            System.out.println("Propagation profile for game " + gameKey + ":");
+            System.out.println(theMachine.getPropagationProfileReport(PROFILE_REPORT_ROWS));
+          }
         }
         catch (Exception e)
         {
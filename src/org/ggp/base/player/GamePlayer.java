@@ -1,8 +1,6 @@
 package org.ggp.base.player;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,9 +16,9 @@ import org.ggp.base.player.request.grammar.Request;
 import org.ggp.base.player.request.grammar.StopRequest;
 import org.ggp.base.server.event.ServerAbortedMatchEvent;
 import org.ggp.base.server.event.ServerCompletedMatchEvent;
-import org.ggp.base.util.http.HttpReader;
+import org.ggp.base.util.http.HttpEventLoop.Exchange;
+import org.ggp.base.util.http.HttpListener;
 import org.ggp.base.util.http.HttpReader.GGPRequest;
-import org.ggp.base.util.http.HttpWriter;
 import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
@@ -32,7 +30,7 @@ public final class GamePlayer extends Thread implements Subject
 
   private final int            port;
   private final Gamer          gamer;
-  private ServerSocket         listener;
+  private HttpListener         listener;
   private final List<Observer> observers;
 
   public GamePlayer(int port, Gamer gamer)
@@ -44,7 +42,7 @@ public final class GamePlayer extends Thread implements Subject
     {
       try
       {
-        listener = new ServerSocket(port);
+        listener = new HttpListener(port);
       }
       catch (IOException ex)
       {
@@ -92,10 +90,19 @@ public final class GamePlayer extends Thread implements Subject
   {
     while (!isInterrupted())
     {
+      Exchange connection;
       try
       {
-        Socket connection = listener.accept();
-        GGPRequest lHTTPRequest = HttpReader.readAsServer(connection);
+        connection = listener.accept();
+      }
+      catch (InterruptedException e)
+      {
+        break;
+      }
+
+      try
+      {
+        GGPRequest lHTTPRequest = connection.getRequest();
         if (lHTTPRequest.mRequest.length() == 0)
         {
           throw new IOException("Empty message received.");
@@ -110,8 +117,7 @@ public final class GamePlayer extends Thread implements Subject
         Request request = new RequestFactory().create(gamer, lHTTPRequest);
         String out = request.process(System.currentTimeMillis());
 
-        HttpWriter.writeAsServer(connection, out);
-        connection.close();
+        connection.respond(out);
         notifyObservers(new PlayerSentMessageEvent(out));
 
         if (request instanceof AbortRequest)
@@ -129,8 +135,11 @@ public final class GamePlayer extends Thread implements Subject
       }
       catch (Exception e)
       {
+        connection.close();
         notifyObservers(new PlayerDroppedPacketEvent());
       }
     }
+
+    listener.close();
   }
-}
\ No newline at end of file
+}
@@ -26,6 +26,7 @@ import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
 import org.ggp.base.util.observer.Subject;
 import org.ggp.base.util.symbol.grammar.Symbol;
+import org.ggp.base.util.symbol.grammar.SymbolArena;
 
 
 /**
@@ -41,6 +42,7 @@ public abstract class Gamer implements Subject
   private   GdlConstant                roleName;
   private   int                        port;
   private   GDLTranslator              mGDLTranslator;
+  private final SymbolArena            mSymbolArena = new SymbolArena();
   protected RuntimeGameCharacteristics mGameCharacteristics;
 
   public Gamer()
@@ -146,6 +148,21 @@ public abstract class Gamer implements Subject
   public final void setMatch(Match match)
   {
     this.match = match;
+
+    if (match == null)
+    {
+      // The symbols from the finished match are unlikely to recur.
+      mSymbolArena.release();
+    }
+  }
+
+  /**
+   * @return the arena in which to intern the symbols of requests for the
+   * current match.  It's released when the match ends.
+   */
+  public final SymbolArena getSymbolArena()
+  {
+    return mSymbolArena;
   }
 
   public final GdlConstant getRoleName()
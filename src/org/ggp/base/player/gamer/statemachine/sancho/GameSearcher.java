@@ -1,5 +1,6 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -75,9 +76,13 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
   private GamePlan                        mPlan               = null;
   private final Pool<TreeNode>            mNodePool;
   private final Pool<TreeEdge>            mEdgePool;
+  private final Pool<HyperEdge>           mHyperEdgePool;
   private final UncappedPool<TreePath>    mPathPool;
   private final Pool<RAVEStats>           mRAVEStatsPool;
   private final ScoreVectorPool           mScoreVectorPool;
+  private final NodeColumnStore           mNodeColumns;
+  private final int                       mNodeTableSize;
+  private NodeStateStore                  mNodeStates;
   private RolloutProcessorPool            rolloutPool         = null;
   private double                          minExplorationBias  = 0.5;
   private double                          maxExplorationBias  = 1.2;
@@ -112,6 +117,19 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
    */
   private Move                            mChosenMove;
 
+  /**
+   * Whether we've chosen our move this turn (even if it's a pseudo-noop), after which any further search is pondering
+   * on the other players' time.  (Cleared when the tree is re-rooted.)
+   */
+  private boolean                         mMoveChosen;
+
+  /**
+   * The number of iterations performed when we started pondering this turn, or -1 if we haven't.
+   */
+  private long                            mPonderStartIterations = -1;
+
+  private boolean                         mAllowPondering = true;
+
   /**
    * Average observed branching factor from ode expansions
    */
@@ -182,9 +200,12 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     // mNodePool = new UnsafePool<>(TreeNode.class, nodeTableSize);
     mNodePool = new CappedPool<>(nodeTableSize);
     mEdgePool = new UncappedPool<>(nodeTableSize * 2);
+    mHyperEdgePool = new UncappedPool<>(nodeTableSize / 4);
     mPathPool = new UncappedPool<>(PIPELINE_SIZE * 2);
     mRAVEStatsPool = new UncappedPool<>(nodeTableSize);
     mScoreVectorPool = new ScoreVectorPool(nodeTableSize, numRoles);
+    mNodeColumns = new NodeColumnStore(nodeTableSize);
+    mNodeTableSize = nodeTableSize;
     mLogName = xiLogName;
   }
 
@@ -246,6 +267,7 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     mStateInfoBuffer = new StateInfo(underlyingStateMachine.getRoles().length);
 
     mMaxIterationsPerTurn = MachineSpecificConfiguration.getCfgInt(CfgItem.MAX_ITERATIONS_PER_TURN);
+    mAllowPondering = MachineSpecificConfiguration.getCfgBool(CfgItem.ALLOW_PONDERING);
 
     if (ThreadControl.ROLLOUT_THREADS > 0)
     {
@@ -261,6 +283,9 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
       rolloutPool.disableGreedyRollouts();
     }
 
+    // Node states are stored in a form specific to the state machine, so the store can't be created until now.
+    mNodeStates = new NodeStateStore(mNodeTableSize, underlyingStateMachine);
+
     mNodePool.clear(new TreeNodeAllocator(null), false);
 
     Set<Factor> factors = underlyingStateMachine.getFactors();
@@ -270,7 +295,10 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
                                                  null,
                                                  mNodePool,
                                                  mScoreVectorPool,
+                                                 mNodeColumns,
+                                                 mNodeStates,
                                                  mEdgePool,
+                                                 mHyperEdgePool,
                                                  mPathPool,
                                                  mRAVEStatsPool,
                                                  roleOrdering,
@@ -290,7 +318,10 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
                                           factor,
                                           mNodePool,
                                           mScoreVectorPool,
+                                          mNodeColumns,
+                                          mNodeStates,
                                           mEdgePool,
+                                          mHyperEdgePool,
                                           mPathPool,
                                           mRAVEStatsPool,
                                           roleOrdering,
@@ -315,7 +346,16 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
           gameCharacteristics.getAverageLength() < (2*(double)gameCharacteristics.getMaxLength())/3)
       {
         localSearchRoot = underlyingStateMachine.createEmptyInternalState();
-        moveConsequenceSearcher = new MoveConsequenceSearcher(underlyingStateMachine.createInstance(), roleOrdering, mLogName, this);
+        List<ForwardDeadReckonPropnetStateMachine> localSearchHelperInstances = new ArrayList<>();
+        for (int i = 1; i < ThreadControl.LOCAL_SEARCH_THREADS; i++)
+        {
+          localSearchHelperInstances.add(underlyingStateMachine.createInstance());
+        }
+        moveConsequenceSearcher = new MoveConsequenceSearcher(underlyingStateMachine.createInstance(),
+                                                              localSearchHelperInstances,
+                                                              roleOrdering,
+                                                              mLogName,
+                                                              this);
       }
       else
       {
@@ -833,6 +873,20 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
       return true;
     }
 
+    if (mMoveChosen)
+    {
+      if (!mAllowPondering)
+      {
+        // Nothing more to do until the next turn.
+        return true;
+      }
+
+      if (mPonderStartIterations == -1)
+      {
+        startPondering();
+      }
+    }
+
     while (mNodePool.isFull())
     {
       boolean somethingDisposed = false;
@@ -903,7 +957,7 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
 
         if (primaryLine != null)
         {
-          moveConsequenceSearcher.newSearch(localSearchRoot, factorTrees[0].mRoot.mState, primaryLine, choosingRole, getRootDepth() != rootDepthAtLastLocalSearchStart, false);
+          moveConsequenceSearcher.newSearch(localSearchRoot, factorTrees[0].mRoot.getState(), primaryLine, choosingRole, getRootDepth() != rootDepthAtLastLocalSearchStart, false);
           rootDepthAtLastLocalSearchStart = getRootDepth();
 
           //  Recheck periodically that we're still thinking the same move is most interesting.
@@ -942,6 +996,31 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
     return lAllTreesCompletelyExplored;
   }
 
+  /**
+   * Start pondering - i.e. searching whilst the other players choose their moves.  Our move is fixed, so selection
+   * through the root always follows it and the search is spent on the others' likely replies.  The branches for the
+   * moves we didn't choose are freed now, rather than when the tree is re-rooted at the start of the next turn.
+   */
+  private void startPondering()
+  {
+    mPonderStartIterations = mNumIterations;
+
+    if (mChosenMove == null)
+    {
+      LOGGER.info("Pondering");
+      return;
+    }
+
+    for (MCTSTree tree : factorTrees)
+    {
+      if (!tree.mRoot.mComplete)
+      {
+        int percentageFreed = tree.mRoot.freeAllButMove(mChosenMove);
+        LOGGER.info("Pondering - freed " + percentageFreed + "% of allocated nodes in branches not played");
+      }
+    }
+  }
+
   /**
    * @return the number of iterations performed.
    */
@@ -1032,6 +1111,10 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
 
     // Print out some statistics from last turn.
     LOGGER.info("MCTS iterations last turn = " + (mNumIterations - mLastNumIterations));
+    if (mPonderStartIterations != -1)
+    {
+      LOGGER.info("  of which while pondering = " + (mNumIterations - mPonderStartIterations));
+    }
     mLastNumIterations = mNumIterations;
 
     LOGGER.debug("Start move search...");
@@ -1043,6 +1126,9 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
       //  was previously expected and so had not been subject to local search
       localSearchRefreshTime = System.currentTimeMillis() + LOCAL_SEARCH_REVIEW_PLAYED_MOVE_TIME;
 
+      mMoveChosen = false;
+      mPonderStartIterations = -1;
+
       for (MCTSTree tree : factorTrees)
       {
         tree.setRootState(startState, rootDepth, lastMove);
@@ -1075,6 +1161,7 @@ public class GameSearcher implements Runnable, ActivityController, LocalSearchRe
   public void chooseMove(Move xiMove)
   {
     mChosenMove = xiMove;
+    mMoveChosen = true;
   }
 
   @Override
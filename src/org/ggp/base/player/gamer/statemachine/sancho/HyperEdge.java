@@ -0,0 +1,69 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import org.ggp.base.player.gamer.statemachine.sancho.pool.Pool.ObjectAllocator;
+
+/**
+ * A hyper-edge in an MCTS tree - an edge which leads directly to a descendant of the parent that's more than one move
+ * away, by way of a chain of other edges.
+ *
+ * Only hyper-edges carry the linkage to the rest of the chain, so they're a separate class (allocated from their own
+ * pool) to keep it out of ordinary edges, which are far more numerous.
+ */
+public class HyperEdge extends TreeEdge
+{
+  /**
+   * Utility class for allocating hyper-edges from a pool.
+   */
+  public static class HyperEdgeAllocator implements ObjectAllocator<HyperEdge>
+  {
+    @Override
+    public HyperEdge newObject(int xiPoolIndex)
+    {
+      return new HyperEdge();
+    }
+
+    @Override
+    public void resetObject(HyperEdge xiEdge, boolean xiFree)
+    {
+      xiEdge.reset();
+    }
+
+    @Override
+    public boolean shouldReset(HyperEdge xiEdge)
+    {
+      assert(false) : "Shouldn't call shouldReset(HyperEdge)";
+      return false;
+    }
+  }
+
+  /**
+   * The next edge on the hyper-path, or null if this edge links directly to the expanded child.
+   */
+  TreeEdge                      hyperSuccessor       = null;
+
+  /**
+   * The node that the next edge on the hyper-path leads from.  Because edges are pooled, the successor may have been
+   * freed and re-used - in which case its parent won't match this.
+   */
+  long                          nextHyperChild       = TreeNode.NULL_REF;
+
+  @Override
+  TreeEdge getHyperSuccessor()
+  {
+    return hyperSuccessor;
+  }
+
+  @Override
+  long getNextHyperChild()
+  {
+    return nextHyperChild;
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    hyperSuccessor = null;
+    nextHyperChild = TreeNode.NULL_REF;
+  }
+}
@@ -2,6 +2,9 @@ package org.ggp.base.player.gamer.statemachine.sancho;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -50,6 +53,9 @@ public class LocalRegionSearcher
 
   private static final int FOCUS_DISTANCE = 4;
 
+  //  Value returned for a choice which need not be searched
+  private static final int CHOICE_SKIPPED = -1;
+
   private final ForwardDeadReckonPropnetStateMachine underlyingStateMachine;
   private ForwardDeadReckonInternalMachineState startingState = null;
   private ForwardDeadReckonInternalMachineState choiceFromState = null;
@@ -90,11 +96,88 @@ public class LocalRegionSearcher
 
   private final ForwardDeadReckonLegalMoveSet[][] relevantMoves;
 
+  //  Parallel search state.  The owning searcher has a helper for each additional thread, and all share
+  //  the root split through which depth 1 choices are handed out.
+  private final LocalRegionSearcher[] helpers;
+  private final RootSplit rootSplit;
+  private final ForwardDeadReckonInternalMachineState rootStateBuffer;
+  private Thread[] helperThreads = null;
+  private boolean inSplit = false;
+  private int splitChoice;
+
+  /**
+   * The depth 1 choices of a parallel search, and their combined result.  Helpers wait on this for work,
+   * which is announced by incrementing the generation.
+   */
+  private static final class RootSplit
+  {
+    //  Guarded by this
+    int generation = 0;
+    int busyHelpers = 0;
+    boolean stopHelpers = false;
+    ForwardDeadReckonLegalMoveInfo[][] decisivePath = null;
+
+    //  Set by the owner before each generation starts
+    ForwardDeadReckonInternalMachineState state;
+    ForwardDeadReckonLegalMoveInfo[] choices;
+    boolean[] choiceIsResponse;
+    int numChoices;
+    int maxDepth;
+    int optionalRole;
+    int choosingRole;
+    ForwardDeadReckonLegalMoveInfo nonChooserMove;
+    boolean pathIncludesTenuki;
+
+    final AtomicInteger nextChoice = new AtomicInteger();
+    volatile int decisiveChoice;
+    volatile boolean incomplete;
+  }
+
+  public LocalRegionSearcher(
+                    ForwardDeadReckonPropnetStateMachine xiUnderlyingStateMachine,
+                    RoleOrdering xiRoleOrdering,
+                    LocalSearchController xiController,
+                    LocalSearchResultConsumer xiResultsConsumer)
+  {
+    this(xiUnderlyingStateMachine,
+         Collections.<ForwardDeadReckonPropnetStateMachine>emptyList(),
+         xiRoleOrdering,
+         xiController,
+         xiResultsConsumer);
+  }
+
+  /**
+   * Create a searcher which searches in parallel, with a helper thread for each additional state machine
+   * instance.  The moves at depth 1 of each search are shared out between this searcher's thread and the
+   * helpers, which share its killer move statistics and known results.
+   * @param xiUnderlyingStateMachine - state machine instance for this searcher's own use
+   * @param xiHelperStateMachines - state machine instances for the exclusive use of the helpers
+   * @param xiRoleOrdering
+   * @param xiController
+   * @param xiResultsConsumer
+   */
   public LocalRegionSearcher(
                     ForwardDeadReckonPropnetStateMachine xiUnderlyingStateMachine,
+                    List<ForwardDeadReckonPropnetStateMachine> xiHelperStateMachines,
                     RoleOrdering xiRoleOrdering,
                     LocalSearchController xiController,
                     LocalSearchResultConsumer xiResultsConsumer)
+  {
+    this(xiUnderlyingStateMachine, xiRoleOrdering, xiController, xiResultsConsumer, null, xiHelperStateMachines.size());
+
+    for(int i = 0; i < helpers.length; i++)
+    {
+      helpers[i] = new LocalRegionSearcher(xiHelperStateMachines.get(i), xiRoleOrdering, xiController, null, this, 0);
+    }
+  }
+
+  private LocalRegionSearcher(
+                    ForwardDeadReckonPropnetStateMachine xiUnderlyingStateMachine,
+                    RoleOrdering xiRoleOrdering,
+                    LocalSearchController xiController,
+                    LocalSearchResultConsumer xiResultsConsumer,
+                    LocalRegionSearcher xiOwner,
+                    int xiNumHelpers)
   {
     underlyingStateMachine = xiUnderlyingStateMachine;
     roleOrdering = xiRoleOrdering;
@@ -105,12 +188,6 @@ public class LocalRegionSearcher
     jointMove = new ForwardDeadReckonLegalMoveInfo[MAX_DEPTH+1][];
     chooserMoveChoiceStack = new ForwardDeadReckonLegalMoveInfo[MAX_DEPTH+1][];
     childStateBuffer = new ForwardDeadReckonInternalMachineState[MAX_DEPTH+1];
-    tenukiLossDepth = new int[xiUnderlyingStateMachine.getRoles().length];
-    tenukiLossSeeds = new ForwardDeadReckonLegalMoveInfo[xiUnderlyingStateMachine.getRoles().length];
-    tenukiLossNumLosingMoves = new int[xiUnderlyingStateMachine.getRoles().length];
-    tenukiLossLosingMoves = new ForwardDeadReckonLegalMoveInfo[xiUnderlyingStateMachine.getRoles().length][];
-    knownWinPathMoves = new ForwardDeadReckonLegalMoveInfo[xiUnderlyingStateMachine.getRoles().length][];
-    winPathCached = new boolean[xiUnderlyingStateMachine.getRoles().length];
     moveIsResponse = new boolean[MAX_DEPTH+1];
     moveIsEnabledBySequence = new boolean[MAX_DEPTH+1];
     moveIsForcedBySequence = new boolean[MAX_DEPTH+1];
@@ -120,9 +197,6 @@ public class LocalRegionSearcher
     pseudoNoop = new ForwardDeadReckonLegalMoveInfo();
     pseudoNoop.mIsPseudoNoOp = true;
 
-    optionalMoveKillerWeight = new int[underlyingStateMachine.getFullPropNet().getMasterMoveList().length];
-    NonOptionalMoveKillerWeight = new int[underlyingStateMachine.getFullPropNet().getMasterMoveList().length];
-
     searchResult.searchProvider = this;
     searchResult.relevantMovesForWin = new ForwardDeadReckonLegalMoveSet[MAX_DEPTH+1];
 
@@ -140,13 +214,49 @@ public class LocalRegionSearcher
       searchResult.relevantMovesForWin[i] = new ForwardDeadReckonLegalMoveSet(underlyingStateMachine.getFullPropNet().getActiveLegalProps(0));
     }
 
-    for(int i = 0; i < tenukiLossLosingMoves.length; i++)
+    if ( xiOwner == null )
+    {
+      tenukiLossDepth = new int[numRoles];
+      tenukiLossSeeds = new ForwardDeadReckonLegalMoveInfo[numRoles];
+      tenukiLossNumLosingMoves = new int[numRoles];
+      tenukiLossLosingMoves = new ForwardDeadReckonLegalMoveInfo[numRoles][];
+      knownWinPathMoves = new ForwardDeadReckonLegalMoveInfo[numRoles][];
+      winPathCached = new boolean[numRoles];
+
+      optionalMoveKillerWeight = new int[underlyingStateMachine.getFullPropNet().getMasterMoveList().length];
+      NonOptionalMoveKillerWeight = new int[underlyingStateMachine.getFullPropNet().getMasterMoveList().length];
+
+      for(int i = 0; i < tenukiLossLosingMoves.length; i++)
+      {
+        tenukiLossLosingMoves[i] = new ForwardDeadReckonLegalMoveInfo[MCTSTree.MAX_SUPPORTED_BRANCHING_FACTOR];
+        knownWinPathMoves[i] = new ForwardDeadReckonLegalMoveInfo[MAX_DEPTH+1];
+      }
+
+      rootSplit = new RootSplit();
+    }
+    else
     {
-      tenukiLossLosingMoves[i] = new ForwardDeadReckonLegalMoveInfo[MCTSTree.MAX_SUPPORTED_BRANCHING_FACTOR];
-      knownWinPathMoves[i] = new ForwardDeadReckonLegalMoveInfo[MAX_DEPTH+1];
+      //  Helpers work from the owner's known results, which only the owner's thread updates (at depth 1 and
+      //  between iterations, neither of which helpers search).  The killer move statistics are updated by all
+      //  threads without synchronization - a lost update only affects move ordering.
+      tenukiLossDepth = xiOwner.tenukiLossDepth;
+      tenukiLossSeeds = xiOwner.tenukiLossSeeds;
+      tenukiLossNumLosingMoves = xiOwner.tenukiLossNumLosingMoves;
+      tenukiLossLosingMoves = xiOwner.tenukiLossLosingMoves;
+      knownWinPathMoves = xiOwner.knownWinPathMoves;
+      winPathCached = xiOwner.winPathCached;
+
+      optionalMoveKillerWeight = xiOwner.optionalMoveKillerWeight;
+      NonOptionalMoveKillerWeight = xiOwner.NonOptionalMoveKillerWeight;
+
+      rootSplit = xiOwner.rootSplit;
     }
+
+    rootStateBuffer = underlyingStateMachine.createEmptyInternalState();
+    helpers = new LocalRegionSearcher[xiNumHelpers];
   }
 
+
   /**
    * Determine whether we can (usefully) perform local search on the current game
    * @return true if we can
@@ -484,7 +594,7 @@ public class LocalRegionSearcher
       return result;
     }
 
-    if ( depth > maxDepth || (controller != null && controller.terminateSearch()) )
+    if ( depth > maxDepth || searchTerminated() )
     {
       return 50;
     }
@@ -656,26 +766,84 @@ public class LocalRegionSearcher
       moveIsForcedBySequence[depth] = true;
     }
 
-    for(int i = 0; i < numChoices; i++)
+    if ( depth == 1 && helpers.length > 0 && forcedMoveChoice == null && numChoices > 1 )
     {
-      ForwardDeadReckonLegalMoveInfo choice = chooserMoveChoiceStack[depth][i];
-      if ( forcedMoveChoice != null && choice != forcedMoveChoice )
+      //  Share the depth 1 choices out between this thread and the helpers
+      int result = searchChoicesInParallel(state, maxDepth, optionalRole, choosingRole, nonChooserMove, numChoices, pathIncludesTenuki);
+      if ( result != -1 )
       {
-        continue;
+        return result;
+      }
+      incomplete = rootSplit.incomplete;
+    }
+    else
+    {
+      for(int i = 0; i < numChoices; i++)
+      {
+        ForwardDeadReckonLegalMoveInfo choice = chooserMoveChoiceStack[depth][i];
+        if ( forcedMoveChoice != null && choice != forcedMoveChoice )
+        {
+          continue;
+        }
+
+        int childValue = searchChoice(state, depth, maxDepth, optionalRole, choosingRole, nonChooserMove, choice, chooserMoveChoiceIsResponse[depth][i], pathIncludesTenuki);
+        if ( childValue == CHOICE_SKIPPED )
+        {
+          continue;
+        }
+        if ( isDecisiveChoice(childValue, choosingRole, optionalRole) )
+        {
+          return (choosingRole == 0 ? 100 : 0);//childValue;
+        }
+
+        incomplete |= (childValue != (choosingRole == 0 ? 0 : 100));
       }
+    }
+
+    if ( numChoices == 0 && choosingRole != optionalRole )
+    {
+      //  No moves available for non-optional role implies this branch completely
+      //  searched with no win found
+      return 50;
+    }
+
+    if ( !incomplete )
+    {
+      //assert(depth!=1);
+      //LOGGER.info("@" + depth + " choosing role " + " - complete result due to all child completion");
+      return (choosingRole == 0 ? 0 : 100);
+    }
 
-      //  No need to consider known losses if tenuki-loss was determined at a shallower search level
-      if ( depth == 1 && tenukiLossDepth[choosingRole] < currentDepth )
+    return 50;
+  }
+
+  /**
+   * Search one choice of move by the choosing role, updating the killer move statistics and the relevant moves for
+   * this depth with the result
+   * @return the value of the resulting child state, or CHOICE_SKIPPED if the choice need not be searched
+   */
+  private int searchChoice(ForwardDeadReckonInternalMachineState state,
+                           int depth,
+                           int maxDepth,
+                           int optionalRole,
+                           int choosingRole,
+                           ForwardDeadReckonLegalMoveInfo nonChooserMove,
+                           ForwardDeadReckonLegalMoveInfo choice,
+                           boolean isResponse,
+                           boolean pathIncludesTenuki)
+  {
+    //  No need to consider known losses if tenuki-loss was determined at a shallower search level
+    if ( depth == 1 && tenukiLossDepth[choosingRole] < currentDepth )
+    {
+      boolean skipFound = false;
+      for(int j = 0; j < tenukiLossNumLosingMoves[choosingRole]; j++)
       {
-        boolean skipFound = false;
-        for(int j = 0; j < tenukiLossNumLosingMoves[choosingRole]; j++)
+        if ( choice == tenukiLossLosingMoves[choosingRole][j])
         {
-          if ( choice == tenukiLossLosingMoves[choosingRole][j])
-          {
-            skipFound = true;
-            break;
-          }
+          skipFound = true;
+          break;
         }
+      }
 
 //        if ( skipFound )
 //        {
@@ -684,59 +852,57 @@ public class LocalRegionSearcher
 //        }
 //
 //        LOGGER.info("Considering move " + choice);
-      }
+    }
 
-      boolean isReponse = chooserMoveChoiceIsResponse[depth][i];
-
-      //  You cannot win with a response, since this was only enabled by opponent moves
-      //  which we have been forced to respond to and is otherwise out of scope at this
-      //  depth of the search.  Allowing responses to also be wins gives false positives
-      //  because the opponent might have been denied a refuting move in the search due
-      //  to it being out of scope of the supposed efficient sequence.
-      //  In fact the non-optional role's last TWO moves must be non-responses because
-      //  if the winning move was possible without the last response move then it could
-      //  have been played in place of that last response move
-      if ( isReponse && choosingRole != optionalRole && depth > maxDepth-4 )
-      {
+    //  You cannot win with a response, since this was only enabled by opponent moves
+    //  which we have been forced to respond to and is otherwise out of scope at this
+    //  depth of the search.  Allowing responses to also be wins gives false positives
+    //  because the opponent might have been denied a refuting move in the search due
+    //  to it being out of scope of the supposed efficient sequence.
+    //  In fact the non-optional role's last TWO moves must be non-responses because
+    //  if the winning move was possible without the last response move then it could
+    //  have been played in place of that last response move
+    if ( isResponse && choosingRole != optionalRole && depth > maxDepth-4 )
+    {
 //        if ( trace && depth < 7 )
 //        {
 //          String depthTab = "                     ".substring(0, depth);
 //          LOGGER.info(depthTab + depth + ": " + chooserMoveChoiceStack[depth][i].move + " is a response that cannot support a win");
 //        }
-        continue;
-      }
+      return CHOICE_SKIPPED;
+    }
 
-      jointMove[depth][1-choosingRole] = nonChooserMove;
-      jointMove[depth][choosingRole] = choice;
-      moveIsResponse[depth] = isReponse;
+    jointMove[depth][1-choosingRole] = nonChooserMove;
+    jointMove[depth][choosingRole] = choice;
+    moveIsResponse[depth] = isResponse;
 
-      moveIsEnabledBySequence[depth] = false;
-      if ( choosingRole == optionalRole && depth > 1 )
+    moveIsEnabledBySequence[depth] = false;
+    if ( choosingRole == optionalRole && depth > 1 )
+    {
+      //  TEMP - this loop should go to j > 0 really
+      for(int j = depth-1; j >= depth-1; j -= 2)
       {
-        //  TEMP - this loop should go to j > 0 really
-        for(int j = depth-1; j >= depth-1; j -= 2)
+        if ( getMoveEnablementDistance(jointMove[j][1-choosingRole], jointMove[depth][choosingRole]) == 1 /*||
+             getMoveCoInfluenceDistance(jointMove[j][1-choosingRole], jointMove[depth][choosingRole]) == 1*/ )
         {
-          if ( getMoveEnablementDistance(jointMove[j][1-choosingRole], jointMove[depth][choosingRole]) == 1 /*||
-               getMoveCoInfluenceDistance(jointMove[j][1-choosingRole], jointMove[depth][choosingRole]) == 1*/ )
-          {
-            moveIsEnabledBySequence[depth] = true;
-            break;
-          }
+          moveIsEnabledBySequence[depth] = true;
+          break;
         }
       }
+    }
 
-      underlyingStateMachine.getNextState(state, null, jointMove[depth], childStateBuffer[depth]);
+    underlyingStateMachine.getNextState(state, null, jointMove[depth], childStateBuffer[depth]);
 
-      int childValue = searchToDepth(childStateBuffer[depth], depth+1, maxDepth, optionalRole, null, pathIncludesTenuki);
+    int childValue = searchToDepth(childStateBuffer[depth], depth+1, maxDepth, optionalRole, null, pathIncludesTenuki);
 
 //      if ( trace && depth < 7 )
 //      {
 //        String depthTab = "                     ".substring(0, depth);
-//        LOGGER.info(depthTab + depth + ": " + jointMove[depth][choosingRole].move + " scores " + childValue + (isReponse ? "(response)" : "") + (moveIsEnabledBySequence[depth] ? "(enabled)" : "") + (moveIsForcedBySequence[depth] ? "(forced)" : ""));
+//        LOGGER.info(depthTab + depth + ": " + jointMove[depth][choosingRole].move + " scores " + childValue + (isResponse ? "(response)" : "") + (moveIsEnabledBySequence[depth] ? "(enabled)" : "") + (moveIsForcedBySequence[depth] ? "(forced)" : ""));
 //      }
 
-      if ( childValue == (choosingRole == 0 ? 100 : 0) || (childValue == 50 && choosingRole == optionalRole) )
-      {
+    if ( isDecisiveChoice(childValue, choosingRole, optionalRole) )
+    {
 //        if ( depth == 1 && choosingRole == optionalRole && maxDepth==10 )
 //        {
 //          LOGGER.info("    depth 1 move " + jointMove[1][choosingRole] + " is not a loss");
@@ -747,60 +913,294 @@ public class LocalRegionSearcher
 //          }
 //        }
 
-        //  Complete result.
-        //  Note this includes draws for the optional role since we're only interested in forced wins
-        //  for the non-optional role
+      //  Complete result.
+      //  Note this includes draws for the optional role since we're only interested in forced wins
+      //  for the non-optional role
 //        LOGGER.info("Complete result: " + childValue + " (" + moveDesc + ")");
-        int killerValue = 1<<(currentDepth-depth);
-        if ( choosingRole == optionalRole)
+      int killerValue = 1<<(currentDepth-depth);
+      if ( choosingRole == optionalRole)
+      {
+        optionalMoveKillerWeight[jointMove[depth][choosingRole].mMasterIndex] += killerValue;
+      }
+      else
+      {
+        NonOptionalMoveKillerWeight[jointMove[depth][choosingRole].mMasterIndex] += killerValue;
+
+        //  This is the path we would take from here so it is relevant to the solution
+        relevantMoves[depth][depth].add(jointMove[depth][choosingRole]);
+
+        if ( depth < maxDepth )
         {
-          optionalMoveKillerWeight[jointMove[depth][choosingRole].mMasterIndex] += killerValue;
+          //  As are all the descendant relevant moves found in solving this node
+          for(int j = depth+1; j <= maxDepth; j++)
+          {
+            relevantMoves[depth][j].merge(relevantMoves[depth+1][j]);
+          }
         }
-        else
+      }
+      return childValue;
+    }
+    else if ( choosingRole == optionalRole && depth < maxDepth )
+    {
+      //  This path is one we have to be able to handle from here so it is relevant
+      for(int j = depth+1; j <= maxDepth; j++)
+      {
+        relevantMoves[depth][j].merge(relevantMoves[depth+1][j]);
+      }
+    }
+
+    return childValue;
+  }
+
+  /**
+   * Search the depth 1 choices on this thread and the helpers' threads together
+   * @return the result for the root if a decisive choice was found, else -1
+   */
+  private int searchChoicesInParallel(ForwardDeadReckonInternalMachineState state,
+                                      int maxDepth,
+                                      int optionalRole,
+                                      int choosingRole,
+                                      ForwardDeadReckonLegalMoveInfo nonChooserMove,
+                                      int numChoices,
+                                      boolean pathIncludesTenuki)
+  {
+    ensureHelpersStarted();
+
+    synchronized(rootSplit)
+    {
+      rootSplit.state = state;
+      rootSplit.choices = chooserMoveChoiceStack[1];
+      rootSplit.choiceIsResponse = chooserMoveChoiceIsResponse[1];
+      rootSplit.numChoices = numChoices;
+      rootSplit.maxDepth = maxDepth;
+      rootSplit.optionalRole = optionalRole;
+      rootSplit.choosingRole = choosingRole;
+      rootSplit.nonChooserMove = nonChooserMove;
+      rootSplit.pathIncludesTenuki = pathIncludesTenuki;
+      rootSplit.nextChoice.set(0);
+      rootSplit.decisiveChoice = Integer.MAX_VALUE;
+      rootSplit.incomplete = false;
+      rootSplit.decisivePath = null;
+
+      for(LocalRegionSearcher helper : helpers)
+      {
+        helper.prepareForSplit(this);
+      }
+
+      rootSplit.busyHelpers = helpers.length;
+      rootSplit.generation++;
+      rootSplit.notifyAll();
+    }
+
+    searchSplitChoices();
+
+    boolean interrupted = false;
+    synchronized(rootSplit)
+    {
+      //  The helpers are using our shared state, so we have to wait for them whatever happens
+      while(rootSplit.busyHelpers > 0)
+      {
+        try
+        {
+          rootSplit.wait();
+        }
+        catch (InterruptedException e)
         {
-          NonOptionalMoveKillerWeight[jointMove[depth][choosingRole].mMasterIndex] += killerValue;
+          interrupted = true;
+        }
+      }
+    }
+    if ( interrupted )
+    {
+      Thread.currentThread().interrupt();
+    }
+
+    for(LocalRegionSearcher helper : helpers)
+    {
+      numNodesSearched += helper.numNodesSearched;
+      for(int j = 1; j <= maxDepth; j++)
+      {
+        relevantMoves[1][j].merge(helper.relevantMoves[1][j]);
+      }
+    }
+
+    if ( rootSplit.decisivePath != null )
+    {
+      //  Make the line that was found look like the last one this thread examined (as it would have been if
+      //  searched serially, since it's the first decisive choice in order)
+      for(int i = 1; i <= MAX_DEPTH; i++)
+      {
+        System.arraycopy(rootSplit.decisivePath[i], 0, jointMove[i], 0, numRoles);
+      }
+      return (choosingRole == 0 ? 100 : 0);
+    }
+
+    return -1;
+  }
+
+  /**
+   * Copy the search context from the owner into this helper, ready for a new split
+   */
+  private void prepareForSplit(LocalRegionSearcher owner)
+  {
+    moveDistances = owner.moveDistances;
+    currentDepth = owner.currentDepth;
+    firstSearchedRole = owner.firstSearchedRole;
+    regionCentre = owner.regionCentre;
+    unconstrainedSearch = owner.unconstrainedSearch;
+    optionalRoleHasOddDepthParity = owner.optionalRoleHasOddDepthParity;
+    System.arraycopy(owner.jointMove[0], 0, jointMove[0], 0, numRoles);
+    moveIsForcedBySequence[1] = owner.moveIsForcedBySequence[1];
+    numNodesSearched = 0;
+
+    for(int j = 1; j <= MAX_DEPTH; j++)
+    {
+      relevantMoves[1][j].clear();
+    }
+  }
+
+  /**
+   * Search depth 1 choices from the current split until there are none left or an earlier one has been found to be
+   * decisive.  Choices are taken in order, and the split records the first decisive one (as a serial search would),
+   * so choices after it are abandoned but those before it are completed.
+   */
+  private void searchSplitChoices()
+  {
+    RootSplit split = rootSplit;
+    rootStateBuffer.copy(split.state);
 
-          //  This is the path we would take from here so it is relevant to the solution
-          relevantMoves[depth][depth].add(jointMove[depth][choosingRole]);
+    inSplit = true;
+    try
+    {
+      searchSplitChoices(split);
+    }
+    finally
+    {
+      inSplit = false;
+    }
+  }
 
-          if ( depth < maxDepth )
+  private void searchSplitChoices(RootSplit split)
+  {
+    int i;
+    while(!searchTerminated() && (i = split.nextChoice.getAndIncrement()) < Math.min(split.numChoices, split.decisiveChoice))
+    {
+      splitChoice = i;
+      int childValue = searchChoice(rootStateBuffer, 1, split.maxDepth, split.optionalRole, split.choosingRole, split.nonChooserMove, split.choices[i], split.choiceIsResponse[i], split.pathIncludesTenuki);
+      if ( childValue == CHOICE_SKIPPED )
+      {
+        continue;
+      }
+      if ( isDecisiveChoice(childValue, split.choosingRole, split.optionalRole) )
+      {
+        synchronized(split)
+        {
+          if ( i < split.decisiveChoice )
           {
-            //  As are all the descendant relevant moves found in solving this node
-            for(int j = depth+1; j <= maxDepth; j++)
+            split.decisivePath = new ForwardDeadReckonLegalMoveInfo[MAX_DEPTH+1][];
+            for(int j = 1; j <= MAX_DEPTH; j++)
             {
-              relevantMoves[depth][j].merge(relevantMoves[depth+1][j]);
+              split.decisivePath[j] = jointMove[j].clone();
             }
+            split.decisiveChoice = i;
           }
         }
-        return (choosingRole == 0 ? 100 : 0);//childValue;
+        return;
       }
-      else if ( choosingRole == optionalRole && depth < maxDepth )
+
+      if ( childValue != (split.choosingRole == 0 ? 0 : 100) )
       {
-        //  This path is one we have to be able to handle from here so it is relevant
-        for(int j = depth+1; j <= maxDepth; j++)
-        {
-          relevantMoves[depth][j].merge(relevantMoves[depth+1][j]);
-        }
+        split.incomplete = true;
       }
+    }
+  }
+
+  private boolean searchTerminated()
+  {
+    //  Once a decisive depth 1 choice is found, later choices needn't be searched
+    return (controller != null && controller.terminateSearch()) || (inSplit && rootSplit.decisiveChoice < splitChoice);
+  }
 
-      incomplete |= (childValue != (choosingRole == 0 ? 0 : 100));
+  private void ensureHelpersStarted()
+  {
+    if ( helperThreads != null )
+    {
+      return;
     }
 
-    if ( numChoices == 0 && choosingRole != optionalRole )
+    helperThreads = new Thread[helpers.length];
+    for(int i = 0; i < helpers.length; i++)
     {
-      //  No moves available for non-optional role implies this branch completely
-      //  searched with no win found
-      return 50;
+      final LocalRegionSearcher helper = helpers[i];
+      helperThreads[i] = new Thread("Local Search Helper " + i)
+      {
+        @Override
+        public void run()
+        {
+          helper.runHelper();
+        }
+      };
+      helperThreads[i].setDaemon(true);
+      helperThreads[i].start();
     }
+  }
 
-    if ( !incomplete )
+  private void runHelper()
+  {
+    int lastGeneration = 0;
+
+    while(true)
     {
-      //assert(depth!=1);
-      //LOGGER.info("@" + depth + " choosing role " + " - complete result due to all child completion");
-      return (choosingRole == 0 ? 0 : 100);
+      synchronized(rootSplit)
+      {
+        while(rootSplit.generation == lastGeneration && !rootSplit.stopHelpers)
+        {
+          try
+          {
+            rootSplit.wait();
+          }
+          catch (InterruptedException e)
+          {
+            return;
+          }
+        }
+        if ( rootSplit.stopHelpers )
+        {
+          return;
+        }
+        lastGeneration = rootSplit.generation;
+      }
+
+      try
+      {
+        searchSplitChoices();
+      }
+      finally
+      {
+        synchronized(rootSplit)
+        {
+          rootSplit.busyHelpers--;
+          rootSplit.notifyAll();
+        }
+      }
     }
+  }
 
-    return 50;
+  /**
+   * Stop any helper threads
+   */
+  public void stop()
+  {
+    synchronized(rootSplit)
+    {
+      rootSplit.stopHelpers = true;
+      rootSplit.notifyAll();
+    }
+  }
+
+  private static boolean isDecisiveChoice(int childValue, int choosingRole, int optionalRole)
+  {
+    return ( childValue == (choosingRole == 0 ? 100 : 0) || (childValue == 50 && choosingRole == optionalRole) );
   }
 
   public int getMoveCoInfluenceDistance(ForwardDeadReckonLegalMoveInfo from, ForwardDeadReckonLegalMoveInfo to)
@@ -1,6 +1,5 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
-import gnu.trove.map.hash.TObjectLongHashMap;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -8,6 +7,7 @@ import java.util.Random;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.ggp.base.player.gamer.statemachine.sancho.HyperEdge.HyperEdgeAllocator;
 import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
 import org.ggp.base.player.gamer.statemachine.sancho.MoveScoreInfo.MoveScoreInfoAllocator;
 import org.ggp.base.player.gamer.statemachine.sancho.RAVEStats.RAVEStatsAllocator;
@@ -104,11 +104,14 @@ public class MCTSTree
   private final int                                    mExpandAfterVisitThreshold;
   final Pool<TreeNode>                                 mNodePool;
   final ScoreVectorPool                                mScoreVectorPool;
+  final NodeColumnStore                                mNodeColumns;
+  final NodeStateStore                                 mNodeStates;
   final Pool<TreeEdge>                                 mEdgePool;
+  final Pool<HyperEdge>                                mHyperEdgePool;
   final Pool<TreePath>                                 mPathPool;
   final Pool<RAVEStats>                                mRAVEStatsPool;
   final CappedPool<MoveScoreInfo>                      mCachedMoveScorePool;
-  private final TObjectLongHashMap<ForwardDeadReckonInternalMachineState> mPositions;
+  private final TranspositionTable                     mPositions;
   int                                                  mSweepInstance                               = 0;
   NodeRefQueue                                         mCompletedNodeRefQueue                       = new NodeRefQueue(512);
   Map<Move, MoveScoreInfo>                             mCousinMoveCache                             = new HashMap<>();
@@ -142,6 +145,7 @@ public class MCTSTree
   boolean                                              mEvaluateTerminalOnNodeCreation;
   private final TreeNodeAllocator                      mTreeNodeAllocator;
   final TreeEdgeAllocator                              mTreeEdgeAllocator;
+  final HyperEdgeAllocator                             mHyperEdgeAllocator;
   final MoveScoreInfoAllocator                         mMoveScoreInfoAllocator;
   private final TreePathAllocator                      mTreePathAllocator;
   final RAVEStatsAllocator                             mRAVEStatsAllocator;
@@ -177,6 +181,8 @@ public class MCTSTree
   final ForwardDeadReckonInternalMachineState[]       mChildStatesBuffer;
   final ForwardDeadReckonPropositionInfo[]            mRoleControlProps;
   final ForwardDeadReckonInternalMachineState         mNextStateBuffer;
+  final ForwardDeadReckonInternalMachineState         mOtherNodeStateBuffer;
+  final ForwardDeadReckonInternalMachineState         mResultingStateBuffer;
   final ForwardDeadReckonLegalMoveInfo[]              mJointMoveBuffer;
   final ForwardDeadReckonLegalMoveInfo[]              mFastForwardPartialMoveBuffer;
   final double[]                                      mCorrectedAverageScoresBuffer;
@@ -186,7 +192,10 @@ public class MCTSTree
                   Factor xiFactor,
                   Pool<TreeNode> xiNodePool,
                   ScoreVectorPool xiScorePool,
+                  NodeColumnStore xiNodeColumns,
+                  NodeStateStore xiNodeStates,
                   Pool<TreeEdge> xiEdgePool,
+                  Pool<HyperEdge> xiHyperEdgePool,
                   Pool<TreePath> xiPathPool,
                   Pool<RAVEStats> xiRAVEStatsPool,
                   RoleOrdering xiRoleOrdering,
@@ -202,7 +211,10 @@ public class MCTSTree
     mRoleControlProps = roleControlProps;
     mNodePool = xiNodePool;
     mScoreVectorPool = xiScorePool;
+    mNodeColumns = xiNodeColumns;
+    mNodeStates = xiNodeStates;
     mEdgePool = xiEdgePool;
+    mHyperEdgePool = xiHyperEdgePool;
     mPathPool = xiPathPool;
     mRAVEStatsPool = xiRAVEStatsPool;
     mFactor = xiFactor;
@@ -369,7 +381,7 @@ public class MCTSTree
     mHeuristic = xiHeuristic;
     mGameCharacteristics = xiGameCharacteristics;
     mRolloutPool = xiRolloutPool;
-    mPositions = new TObjectLongHashMap<>((int)(mNodePool.getCapacity() / 0.75f), 0.75f, TreeNode.NULL_REF);
+    mPositions = new TranspositionTable(mNodePool, mNodePool.getCapacity());
 
     //  For now we only automatically enable use of estimated values for unplayed nodes (in select)
     //  in games with negative goal latches, which amounts to ELB.  Further testing is needed, so for
@@ -397,6 +409,7 @@ public class MCTSTree
     mCompleteSelectionFromIncompleteParentWarned = false;
     mTreeNodeAllocator = new TreeNodeAllocator(this);
     mTreeEdgeAllocator = new TreeEdgeAllocator();
+    mHyperEdgeAllocator = new HyperEdgeAllocator();
     mTreePathAllocator = new TreePathAllocator(this);
     mRAVEStatsAllocator = new RAVEStatsAllocator(mGameCharacteristics);
     mGameSearcher = xiGameSearcher;
@@ -432,6 +445,8 @@ public class MCTSTree
     mFastForwardPartialMoveBuffer = new ForwardDeadReckonLegalMoveInfo[mNumRoles];
     mBlendedCompletionScoreBuffer = new double[mNumRoles];
     mNextStateBuffer              = mUnderlyingStateMachine.createEmptyInternalState();
+    mOtherNodeStateBuffer         = mUnderlyingStateMachine.createEmptyInternalState();
+    mResultingStateBuffer         = mUnderlyingStateMachine.createEmptyInternalState();
     mChildStatesBuffer            = new ForwardDeadReckonInternalMachineState[MAX_SUPPORTED_BRANCHING_FACTOR];
     for (int lii = 0; lii < MAX_SUPPORTED_BRANCHING_FACTOR; lii++)
     {
@@ -476,7 +491,7 @@ public class MCTSTree
       //}
       if (state != null)
       {
-        result.setState(state);
+        result.setState(state, parent);
         if (!disallowTransposition)
         {
           addToTranspositionIndexes(result);
@@ -535,8 +550,8 @@ public class MCTSTree
   {
     if (SUPPORT_TRANSITIONS)
     {
-      assert(!mPositions.containsKey(xiTreeNode.mState));
-      mPositions.put(xiTreeNode.mState, xiTreeNode.getRef());
+      assert(mPositions.get(xiTreeNode.getState()) == null);
+      mPositions.put(xiTreeNode);
     }
   }
 
@@ -544,20 +559,7 @@ public class MCTSTree
   {
     if (SUPPORT_TRANSITIONS)
     {
-      long lRef = mPositions.get(xiTreeNode.mState);
-
-      if (lRef == TreeNode.NULL_REF)
-      {
-        return;
-      }
-      else if (lRef == xiTreeNode.getRef())
-      {
-        mPositions.remove(xiTreeNode.mState);
-      }
-      else
-      {
-        //assert(false) : "Attempt to remove incorrect node from position indexes";
-      }
+      mPositions.remove(xiTreeNode);
     }
   }
 
@@ -565,16 +567,13 @@ public class MCTSTree
   {
     if (SUPPORT_TRANSITIONS)
     {
-      long lRef = mPositions.get(xiState);
+      TreeNode lNode = mPositions.get(xiState);
 
-      if (lRef == TreeNode.NULL_REF)
+      if (lNode == null)
       {
         return null;
       }
 
-      TreeNode lNode = TreeNode.get(mNodePool, lRef);
-      assert(lNode != null);
-      assert(xiState.equals(lNode.mState));
       assert(!mRemoveNonDecisionNodes || lNode == mRoot || lNode.mComplete || lNode.mNumChildren != 1);
 
       return lNode;
@@ -647,7 +646,7 @@ public class MCTSTree
         }
       }
 
-      if (mRoot.mState.equals(factorState))
+      if (mRoot.hasState(factorState))
       {
         assert (rootDepth == 0 || mFactor != null);
         if (rootDepth == 0)
@@ -658,7 +657,7 @@ public class MCTSTree
           //  If the root score variance is 0 and this is a factored game, we mark this factor as
           //  uninteresting, and will henceforth spend no time searching it
           if (mFactor != null &&
-              mRoot.mNumVisits > 500 &&
+              mRoot.getNumVisits() > 500 &&
               mLowestRolloutScoreSeen == mHighestRolloutScoreSeen)
           {
             mIsIrrelevantFactor = true;
@@ -704,7 +703,7 @@ public class MCTSTree
 
           assert(existingRootStateNode.linkageValid());
           mRoot = existingRootStateNode;
-          assert(mRoot.mParents.size()>0);
+          assert(mRoot.getNumParents()>0);
         }
         else
         {
@@ -777,14 +776,14 @@ public class MCTSTree
 
             //  Set the root's count stats to those of the extant choice node it is effectively
             //  proxying
-            selected.setNumVisits(existingRootStateNode.mNumVisits);
+            selected.setNumVisits(existingRootStateNode.getNumVisits());
             for(int i = 0; i < mNumRoles; i++)
             {
               mRoot.setAverageScore(i, existingRootStateNode.getAverageScore(i));
               mRoot.setAverageSquaredScore(i, existingRootStateNode.getAverageSquaredScore(i));
             }
-            mRoot.mNumVisits = existingRootStateNode.mNumVisits;
-            mRoot.mNumUpdates = existingRootStateNode.mNumUpdates;
+            mRoot.setNumVisits(existingRootStateNode.getNumVisits());
+            mRoot.setNumUpdates(existingRootStateNode.getNumUpdates());
 
             if (existingRootStateNode.mComplete)
             {
@@ -834,13 +833,13 @@ public class MCTSTree
             }
           }
         }
-        assert(existingRootStateNode == null || existingRootStateNode == mRoot || existingRootStateNode.mParents.size()==1);
-        assert(mRoot.mParents.size() == 0);
+        assert(existingRootStateNode == null || existingRootStateNode == mRoot || existingRootStateNode.getNumParents()==1);
+        assert(mRoot.getNumParents() == 0);
       }
     }
 
     assert(!mRoot.mFreed) : "Root node has been freed";
-    assert(mRoot.mParents.size() == 0);
+    assert(mRoot.getNumParents() == 0);
     //validateAll();
 
     //  Special case - because we can mark nodes complete before they are terminal if greedy rollouts are
@@ -896,7 +895,7 @@ public class MCTSTree
     mLowestRolloutScoreSeen = 1000;
     mHighestRolloutScoreSeen = -100;
 
-    mHeuristic.newTurn(mRoot.mState, mRoot);
+    mHeuristic.newTurn(mRoot.getState(), mRoot);
   }
 
   /**
@@ -941,6 +940,7 @@ public class MCTSTree
     {
       bestMoveInfo.logBest();
       LOGGER.info("Num nodes in use: " + mNodePool.getNumItemsInUse());
+      LOGGER.info(mNodeStates.getSummary());
       LOGGER.info("Num true rollouts added: " + mNumNonTerminalRollouts);
       LOGGER.info("Num terminal nodes revisited: " + mNumTerminalRollouts);
       LOGGER.info("Num incomplete nodes: " + mNumIncompleteNodes);
@@ -1070,7 +1070,7 @@ public class MCTSTree
                 if ( childChoice instanceof TreeEdge && ((TreeEdge)childChoice).getChildRef() != TreeNode.NULL_REF)
                 {
                   TreeNode grandChild = rootNode.get(((TreeEdge)childChoice).getChildRef());
-                  if ( grandChild != null && (grandChild.mNumVisits > 10 || grandChild.mComplete) )
+                  if ( grandChild != null && (grandChild.getNumVisits() > 10 || grandChild.mComplete) )
                   {
                     double score = grandChild.getAverageScore(grandChild.mDecidingRoleIndex);
 
@@ -1154,17 +1154,23 @@ public class MCTSTree
     if (mRoot != null)
       mRoot.validate(true);
 
-    for (ForwardDeadReckonInternalMachineState e : mPositions.keySet())
+    for (int lSlot = 0; lSlot < mPositions.getCapacity(); lSlot++)
     {
-      TreeNode node = findTransposition(e);
+      int lInstanceID = mPositions.getInstanceID(lSlot);
+      TreeNode node = (lInstanceID == -1 ? null : mNodePool.get(lInstanceID));
 
       if (node != null)
       {
+        if (node.mFreed)
+        {
+          LOGGER.warn("Position references freed node");
+          continue;
+        }
         if (node.mDecidingRoleIndex != mNumRoles - 1)
         {
           LOGGER.warn("Position references bad type");
         }
-        if (!node.mState.equals(e))
+        if (findTransposition(node.getState()) != node)
         {
           LOGGER.warn("Position state mismatch");
         }
@@ -1179,11 +1185,11 @@ public class MCTSTree
       {
         if (lNode.mDecidingRoleIndex == mNumRoles - 1)
         {
-          if (lNode != findTransposition(lNode.mState))
+          if (lNode != findTransposition(lNode.getState()))
           {
             LOGGER.warn("Missing reference in positions table");
-            LOGGER.warn("node state is: " + lNode.mState + " with hash " + lNode.mState.hashCode());
-            LOGGER.warn(findTransposition(lNode.mState));
+            LOGGER.warn("node state is: " + lNode.getState() + " with hash " + lNode.getState().hashCode());
+            LOGGER.warn(findTransposition(lNode.getState()));
           }
         }
       }
@@ -1262,7 +1268,7 @@ public class MCTSTree
       //  Hyper expand first choice layer for each role.
       if ( mAllowHyperExpansion && cur.getDepth() < mRoot.getDepth()+2*mNumRoles && cur.mNumChildren > 1)
       {
-        setForcedMoveProps(cur.mState, mJointMoveBuffer);
+        setForcedMoveProps(cur.getState(mOtherNodeStateBuffer), mJointMoveBuffer);
         cur.hyperExpand(visited, mJointMoveBuffer, MAX_HYPER_RECURSION_DEPTH);
       }
 
@@ -1274,10 +1280,10 @@ public class MCTSTree
 
     long lExpandStartTime = System.nanoTime();
     TreeNode newNode;
-    if (!cur.mComplete && (cur.mNumVisits >= mExpandAfterVisitThreshold || cur.getDepth() >= mShallowestCompletionDepth - mNumRoles))
+    if (!cur.mComplete && (cur.getNumVisits() >= mExpandAfterVisitThreshold || cur.getDepth() >= mShallowestCompletionDepth - mNumRoles))
     {
       assert(selected == null || cur == selected.getChildNode());
-      assert(selected == null || cur.mParents.contains(selected.getParentNode()));
+      assert(selected == null || cur.hasParent(selected.getParentNode()));
 
       //  Expand for each role so we're back to our-move as we always rollout after joint moves
       cur = cur.expand(visited, mJointMoveBuffer, parentDepth);
@@ -78,6 +78,12 @@ public class MachineSpecificConfiguration
      */
     DISABLE_NODE_TRIMMING(false),
 
+    /**
+     * Whether to carry on searching (below the move we've played) whilst the other players choose their moves.  If
+     * disabled, search stops as soon as we've chosen a move and only resumes at the start of the next turn.
+     */
+    ALLOW_PONDERING(true),
+
     /**
      * Whether to disable greedy rollouts.
      */
@@ -114,6 +120,12 @@ public class MachineSpecificConfiguration
      */
     USE_LOCAL_SEARCH(true),
 
+    /**
+     * The number of threads to use for local search.  By default, local search is single-threaded.  -1 means use the
+     * vCPUs left over by the CPU-intensive threads (and at least 1).
+     */
+    LOCAL_SEARCH_THREADS(1),
+
     /**
      * Whether RAVE may be used.
      */
@@ -124,6 +136,18 @@ public class MachineSpecificConfiguration
      */
     ALLOW_HYPEREXPANSION(true),
 
+    /**
+     * Whether to perform rollouts in bit-parallel batches (up to 64 at a time) when the rollout queue is deep.  Only
+     * applies to games whose rollouts are plain random playouts (no greedy rollouts, factors or playout policy).
+     */
+    USE_BATCHED_ROLLOUTS(true),
+
+    /**
+     * Whether a failsafe state machine falls back to the forward-chaining state machine before the prover (which is
+     * much slower).  If disabled, the prover is tried first.
+     */
+    FAILSAFE_CHAINING_FIRST(true),
+
     /**
      * Time, in milliseconds, after which we assume that we aren't going to here from the server again - in which case
      * we abort the match.
@@ -206,14 +230,17 @@ public class MachineSpecificConfiguration
   }
 
   /**
-   * @return the specified String configuration value, or the default if not configured.
+   * @return the specified String configuration value, or the default if not configured.  A system property
+   * "sancho.<item>" overrides the machine-specific configuration, so that several differently-configured players can
+   * run on one machine.
    *
    * @param xiKey
    * @param xiDefault
    */
   public static String getCfgStr(CfgItem xiKey)
   {
-    return (MACHINE_PROPERTIES.getProperty(xiKey.toString(), xiKey.mDefault));
+    return System.getProperty("sancho." + xiKey,
+                              MACHINE_PROPERTIES.getProperty(xiKey.toString(), xiKey.mDefault));
   }
 
   /**
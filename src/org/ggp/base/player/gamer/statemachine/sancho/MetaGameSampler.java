@@ -0,0 +1,535 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.ggp.base.player.gamer.statemachine.sancho.heuristic.Heuristic;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.Factor;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+
+/**
+ * Plays random sample games during meta-gaming, on its own thread and state machine instance, to characterise the game
+ * and to provide samples for heuristic tuning.
+ *
+ * Several samplers run at once.  Each keeps its own game statistics, which are combined at the end with
+ * {@link #accumulateInto(MetaGameSampler)}.  Heuristics can't be tuned on several threads (they're tied to the master
+ * state machine and their statistics depend on the order of the samples), so each sampler records its games and the
+ * meta-gaming thread replays them into the heuristic with {@link #replayNextSampleGame(Heuristic)}.
+ */
+class MetaGameSampler implements Runnable
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * Maximum number of recorded sample games to hold before the sampler waits for them to be replayed.  This bounds the
+   * memory used by the recordings.
+   */
+  private static final int MAX_QUEUED_SAMPLE_GAMES = 16;
+
+  /**
+   * A recorded sample game.
+   */
+  private static class SampleGame
+  {
+    public final List<ForwardDeadReckonInternalMachineState> mStates = new ArrayList<>();
+    public final List<Integer>                               mChoosingRoles = new ArrayList<>();
+    public int[]                                             mRoleScores;
+  }
+
+  private final ForwardDeadReckonPropnetStateMachine mStateMachine;
+  private final RoleOrdering                         mRoleOrdering;
+  private final Role                                 mOurRole;
+  private final int                                  mNumRoles;
+  private final ForwardDeadReckonInternalMachineState mInitialState;
+  private final Collection<Factor>                   mFactors;
+  private final long                                 mStopTime;
+  private final int                                  mMinSamples;
+  private final AtomicInteger                        mTotalNumSamples;
+  private final AtomicBoolean                        mAnySimultaneousMove;
+  private final BlockingQueue<SampleGame>            mSampleGames = new ArrayBlockingQueue<>(MAX_QUEUED_SAMPLE_GAMES);
+  private final String                               mLogName;
+  private final Thread                               mThread;
+  private volatile boolean                           mStop = false;
+  private volatile boolean                           mFinished = false;
+
+  // Statistics gathered from the sample games.  Combined by accumulateInto().
+  final ForwardDeadReckonInternalMachineState[] mRoleControlMasks;
+  final List<Set<Move>>                         mRoleMoves = new ArrayList<>();
+  final int[]                                   mPlayerMoveParity;
+  boolean                                       mIsIteratedGame = true;
+  boolean                                       mIsStrictlyAlternatingPlay = true;
+  boolean                                       mIsSimultaneousMove = false;
+  boolean                                       mIsPseudoSimultaneousMove = false;
+  boolean                                       mMoveChoicesFromMultipleFactors = false;
+  boolean                                       mGoalsMonotonic = true;
+  double                                        mTotalBranchingFactor = 0;
+  int                                           mNumSamples = 0;
+  int                                           mMaxNumTurns = 0;
+  int                                           mMinNumTurns = Integer.MAX_VALUE;
+  int                                           mTotalTurnSamples = 0;
+  int                                           mTotalGoalChangeCount = 0;
+  int                                           mTotalHyperSequenceLength = 0;
+  int                                           mTotalSquaredHyperSequenceLength = 0;
+  int                                           mTotalHyperSequenceCount = 0;
+
+  /**
+   * Create an empty set of statistics, into which samplers can accumulate theirs.
+   *
+   * @param xiStateMachine - the state machine (only used for creating states).
+   */
+  MetaGameSampler(ForwardDeadReckonPropnetStateMachine xiStateMachine)
+  {
+    this(xiStateMachine, null, null, null, null, 0, 0, null, null, null);
+  }
+
+  /**
+   * Create (and start) a sampler.
+   *
+   * @param xiStateMachine      - a state machine instance for the sampler's exclusive use.
+   * @param xiRoleOrdering      - the role ordering.
+   * @param xiOurRole           - our role.
+   * @param xiInitialState      - the state from which to play sample games.
+   * @param xiFactors           - the game's factors (or null if not factored).
+   * @param xiStopTime          - the time at which to stop sampling.
+   * @param xiMinSamples        - the number of samples (across all samplers) to play before stopping early in a
+   *                              simultaneous move game.
+   * @param xiTotalNumSamples   - the number of samples played by all samplers.
+   * @param xiAnySimultaneous   - whether any sampler has found that the game has simultaneous moves.
+   * @param xiLogName           - the name of the log.
+   */
+  MetaGameSampler(ForwardDeadReckonPropnetStateMachine xiStateMachine,
+                  RoleOrdering xiRoleOrdering,
+                  Role xiOurRole,
+                  ForwardDeadReckonInternalMachineState xiInitialState,
+                  Collection<Factor> xiFactors,
+                  long xiStopTime,
+                  int xiMinSamples,
+                  AtomicInteger xiTotalNumSamples,
+                  AtomicBoolean xiAnySimultaneous,
+                  String xiLogName)
+  {
+    mStateMachine = xiStateMachine;
+    mRoleOrdering = xiRoleOrdering;
+    mOurRole = xiOurRole;
+    mNumRoles = xiStateMachine.getRoles().length;
+    mInitialState = xiInitialState;
+    mFactors = xiFactors;
+    mStopTime = xiStopTime;
+    mMinSamples = xiMinSamples;
+    mTotalNumSamples = xiTotalNumSamples;
+    mAnySimultaneousMove = xiAnySimultaneous;
+    mLogName = xiLogName;
+
+    //  Create masks of possible control props, which we'll whittle down during simulation
+    mRoleControlMasks = new ForwardDeadReckonInternalMachineState[mNumRoles];
+    mPlayerMoveParity = new int[mNumRoles];
+    for (int i = 0; i < mNumRoles; i++)
+    {
+      mRoleControlMasks[i] = xiStateMachine.createEmptyInternalState();
+      mRoleControlMasks[i].clear();
+      mRoleControlMasks[i].invert();
+      mRoleMoves.add(null);
+      mPlayerMoveParity[i] = -1;
+    }
+
+    if (xiInitialState != null)
+    {
+      mThread = new Thread(this, "Meta-game Sampler " + xiStateMachine.getInstanceId());
+      mThread.setDaemon(true);
+      mThread.start();
+    }
+    else
+    {
+      mThread = null;
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    ThreadContext.put("matchID", mLogName);
+
+    try
+    {
+      Random r = new Random();
+
+      //  Buffer for new states
+      ForwardDeadReckonInternalMachineState newState = new ForwardDeadReckonInternalMachineState(mInitialState);
+
+      //  Slight hack, but for now we don't bother continuing to simulate for a long time after discovering we're in
+      //  a simultaneous turn game, because (for now anyway) we disable heuristics in such games anyway
+      while ((!mStop) &&
+             (System.currentTimeMillis() < mStopTime) &&
+             ((mTotalNumSamples.get() < mMinSamples) || (!mAnySimultaneousMove.get())))
+      {
+        SampleGame lSampleGame = playSampleGame(r, newState);
+        while (!mSampleGames.offer(lSampleGame, 10, TimeUnit.MILLISECONDS))
+        {
+          if (mStop)
+          {
+            return;
+          }
+        }
+
+        mNumSamples++;
+        mTotalNumSamples.incrementAndGet();
+        if (mIsSimultaneousMove)
+        {
+          mAnySimultaneousMove.set(true);
+        }
+      }
+    }
+    catch (InterruptedException lEx)
+    {
+      // Stop sampling.
+    }
+    catch (Exception lEx)
+    {
+      LOGGER.error("Exception in meta-game sampler", lEx);
+    }
+    finally
+    {
+      mFinished = true;
+    }
+  }
+
+  /**
+   * Play a single random game from the initial state, recording it and updating the game statistics.
+   *
+   * @param r        - random number generator for choosing moves.
+   * @param newState - buffer for new states.
+   *
+   * @return the recorded game.
+   */
+  private SampleGame playSampleGame(Random r, ForwardDeadReckonInternalMachineState newState)
+  {
+    SampleGame lSampleGame = new SampleGame();
+    ForwardDeadReckonInternalMachineState sampleState = new ForwardDeadReckonInternalMachineState(mInitialState);
+
+    int numRoleMovesSimulated = 0;
+    int numBranchesTaken = 0;
+    int turnNum = 0;
+    int lastOurGoal = mStateMachine.getGoal(sampleState, mOurRole);
+    int hyperExpansionLength = -1;
+    int previousChoosingRoleIndex;
+    int choosingRoleIndex = -2;
+
+    while (!mStateMachine.isTerminal(sampleState))
+    {
+      boolean roleWithChoiceSeen = false;
+      ForwardDeadReckonLegalMoveInfo[] jointMove = new ForwardDeadReckonLegalMoveInfo[mNumRoles];
+      Set<Move> allMovesInState = new HashSet<>();
+
+      previousChoosingRoleIndex = choosingRoleIndex;
+      choosingRoleIndex = -2;
+
+      turnNum++;
+      hyperExpansionLength++;
+
+      for (int i = 0; i < mNumRoles; i++)
+      {
+        List<ForwardDeadReckonLegalMoveInfo> legalMoves =
+                new ArrayList<>(mStateMachine.getLegalMoves(sampleState, mRoleOrdering.roleIndexToRole(i)));
+
+        if (legalMoves.size() > 1)
+        {
+          if (mRoleControlMasks[i].size() > 0)
+          {
+            if (mRoleControlMasks[i].intersectionSize(sampleState) == 0)
+            {
+              LOGGER.debug("Eliminating role control props");
+            }
+            //  This player has control (may not be only this player)
+            mRoleControlMasks[i].intersect(sampleState);
+          }
+
+          Set<Move> previousChoices = mRoleMoves.get(i);
+
+          if (previousChoices != null)
+          {
+            if (mIsIteratedGame)
+            {
+              Set<Move> moves = new HashSet<>();
+
+              for(ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
+              {
+                moves.add(moveInfo.mMove);
+              }
+
+              if (!previousChoices.equals(moves))
+              {
+                mIsIteratedGame = false;
+              }
+            }
+          }
+          else
+          {
+            Set<Move> moves = new HashSet<>();
+
+            for(ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
+            {
+              moves.add(moveInfo.mMove);
+            }
+
+            mRoleMoves.set(i, moves);
+          }
+
+          choosingRoleIndex = i;
+          Factor turnFactor = null;
+
+          if (mIsStrictlyAlternatingPlay)
+          {
+            int moveParity = (turnNum%mNumRoles);
+            if (mPlayerMoveParity[choosingRoleIndex] == -1)
+            {
+              mPlayerMoveParity[choosingRoleIndex] = moveParity;
+            }
+            else if (moveParity != mPlayerMoveParity[choosingRoleIndex])
+            {
+              mIsStrictlyAlternatingPlay = false;
+            }
+          }
+
+          for (ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
+          {
+            if (mFactors != null)
+            {
+              for(Factor factor : mFactors)
+              {
+                if (factor.getMoves().contains(moveInfo.mMove))
+                {
+                  if (turnFactor != null && turnFactor != factor)
+                  {
+                    mMoveChoicesFromMultipleFactors = true;
+                    break;
+                  }
+                  turnFactor = factor;
+                }
+              }
+            }
+            if (allMovesInState.contains(moveInfo.mMove))
+            {
+              mIsSimultaneousMove = true;
+              choosingRoleIndex = -1;
+              break;
+            }
+            allMovesInState.add(moveInfo.mMove);
+          }
+
+          if (roleWithChoiceSeen)
+          {
+            mIsPseudoSimultaneousMove = true;
+            choosingRoleIndex = -1;
+          }
+
+          roleWithChoiceSeen = true;
+
+          numBranchesTaken += legalMoves.size();
+          numRoleMovesSimulated++;
+        }
+
+        jointMove[i] = legalMoves.get(r.nextInt(legalMoves.size()));
+      }
+
+      if (choosingRoleIndex < 0 ||
+          (choosingRoleIndex != previousChoosingRoleIndex && previousChoosingRoleIndex >= 0))
+      {
+        mTotalHyperSequenceLength += hyperExpansionLength;
+        mTotalSquaredHyperSequenceLength += hyperExpansionLength*hyperExpansionLength;
+        hyperExpansionLength = 0;
+        mTotalHyperSequenceCount++;
+      }
+
+      lSampleGame.mStates.add(new ForwardDeadReckonInternalMachineState(sampleState));
+      lSampleGame.mChoosingRoles.add(choosingRoleIndex);
+
+      mStateMachine.getNextState(sampleState, null, jointMove, newState);
+
+      sampleState.copy(newState);
+
+      int currentOurGoal = mStateMachine.getGoal(sampleState, mOurRole);
+
+      mTotalTurnSamples++;
+      if (currentOurGoal != lastOurGoal)
+      {
+        mTotalGoalChangeCount++;
+        if (lastOurGoal > currentOurGoal)
+        {
+          mGoalsMonotonic = false;
+        }
+        lastOurGoal = currentOurGoal;
+      }
+    }
+
+    if (hyperExpansionLength > 0)
+    {
+      mTotalHyperSequenceLength += hyperExpansionLength;
+      mTotalSquaredHyperSequenceLength += hyperExpansionLength*hyperExpansionLength;
+      mTotalHyperSequenceCount++;
+    }
+
+    if (turnNum > mMaxNumTurns)
+    {
+      mMaxNumTurns = turnNum;
+    }
+    if (turnNum < mMinNumTurns)
+    {
+      assert(turnNum>0);
+      mMinNumTurns = turnNum;
+    }
+
+    lSampleGame.mStates.add(sampleState);
+    lSampleGame.mRoleScores = new int[mNumRoles];
+    for (int i = 0; i < mNumRoles; i++)
+    {
+      lSampleGame.mRoleScores[i] = mStateMachine.getGoal(sampleState, mRoleOrdering.roleIndexToRole(i));
+    }
+
+    if (numRoleMovesSimulated > 0)
+    {
+      mTotalBranchingFactor += (numBranchesTaken / numRoleMovesSimulated);
+    }
+
+    return lSampleGame;
+  }
+
+  /**
+   * Replay the next sample game recorded by this sampler into a heuristic, for tuning purposes.
+   *
+   * This method will not return until a sample game is available or the sampler has finished.
+   *
+   * @param xiHeuristic - the heuristic to tune.
+   *
+   * @return whether a game was replayed.  If not, the sampler has finished and all its games have been replayed.
+   *
+   * @throws InterruptedException if the calling thread was interrupted.
+   */
+  boolean replayNextSampleGame(Heuristic xiHeuristic) throws InterruptedException
+  {
+    SampleGame lSampleGame = mSampleGames.poll();
+    while (lSampleGame == null)
+    {
+      // Check whether the sampler has finished before polling again, so that we don't miss its last game.
+      boolean lFinished = mFinished;
+      lSampleGame = mSampleGames.poll(10, TimeUnit.MILLISECONDS);
+      if ((lSampleGame == null) && lFinished)
+      {
+        return false;
+      }
+    }
+
+    xiHeuristic.tuningStartSampleGame();
+
+    int lNumTurns = lSampleGame.mChoosingRoles.size();
+    for (int lii = 0; lii < lNumTurns; lii++)
+    {
+      xiHeuristic.tuningInterimStateSample(lSampleGame.mStates.get(lii), lSampleGame.mChoosingRoles.get(lii));
+    }
+
+    // Tell the heuristic about the terminal state, for tuning purposes.
+    xiHeuristic.tuningTerminalStateSample(lSampleGame.mStates.get(lNumTurns), lSampleGame.mRoleScores);
+
+    return true;
+  }
+
+  /**
+   * Stop sampling and wait for the sampler thread to exit.
+   */
+  void stop()
+  {
+    mStop = true;
+    try
+    {
+      mThread.join();
+    }
+    catch (InterruptedException lEx)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return whether the sampler's thread (if it has one) has exited.  Stopping the sampler doesn't guarantee this,
+   * because stop() gives up waiting if it's interrupted.
+   */
+  boolean isStopped()
+  {
+    return (mThread == null) || !mThread.isAlive();
+  }
+
+  /**
+   * @return the sampler's state machine instance.  Once the sampler is stopped (see {@link #isStopped()}), it's free
+   * for other uses.
+   */
+  ForwardDeadReckonPropnetStateMachine getStateMachine()
+  {
+    return mStateMachine;
+  }
+
+  /**
+   * Combine the statistics from this sampler with those from others.  The result only depends on the order in which
+   * samplers are accumulated, not on the order in which they played their games.
+   *
+   * @param xoTotal - the combined statistics, to be updated.
+   */
+  void accumulateInto(MetaGameSampler xoTotal)
+  {
+    for (int i = 0; i < mNumRoles; i++)
+    {
+      xoTotal.mRoleControlMasks[i].intersect(mRoleControlMasks[i]);
+
+      // Games are only iterated if every role always has the same choice of moves.
+      if (xoTotal.mRoleMoves.get(i) == null)
+      {
+        xoTotal.mRoleMoves.set(i, mRoleMoves.get(i));
+      }
+      else if ((mRoleMoves.get(i) != null) && !mRoleMoves.get(i).equals(xoTotal.mRoleMoves.get(i)))
+      {
+        xoTotal.mIsIteratedGame = false;
+      }
+
+      // Play is only strictly alternating if every role always moves with the same parity.
+      if (xoTotal.mPlayerMoveParity[i] == -1)
+      {
+        xoTotal.mPlayerMoveParity[i] = mPlayerMoveParity[i];
+      }
+      else if ((mPlayerMoveParity[i] != -1) && (mPlayerMoveParity[i] != xoTotal.mPlayerMoveParity[i]))
+      {
+        xoTotal.mIsStrictlyAlternatingPlay = false;
+      }
+    }
+
+    xoTotal.mIsIteratedGame                 &= mIsIteratedGame;
+    xoTotal.mIsStrictlyAlternatingPlay      &= mIsStrictlyAlternatingPlay;
+    xoTotal.mIsSimultaneousMove             |= mIsSimultaneousMove;
+    xoTotal.mIsPseudoSimultaneousMove       |= mIsPseudoSimultaneousMove;
+    xoTotal.mMoveChoicesFromMultipleFactors |= mMoveChoicesFromMultipleFactors;
+    xoTotal.mGoalsMonotonic                 &= mGoalsMonotonic;
+
+    xoTotal.mTotalBranchingFactor            += mTotalBranchingFactor;
+    xoTotal.mNumSamples                      += mNumSamples;
+    xoTotal.mMaxNumTurns                      = Math.max(xoTotal.mMaxNumTurns, mMaxNumTurns);
+    xoTotal.mMinNumTurns                      = Math.min(xoTotal.mMinNumTurns, mMinNumTurns);
+    xoTotal.mTotalTurnSamples                += mTotalTurnSamples;
+    xoTotal.mTotalGoalChangeCount            += mTotalGoalChangeCount;
+    xoTotal.mTotalHyperSequenceLength        += mTotalHyperSequenceLength;
+    xoTotal.mTotalSquaredHyperSequenceLength += mTotalSquaredHyperSequenceLength;
+    xoTotal.mTotalHyperSequenceCount         += mTotalHyperSequenceCount;
+  }
+}
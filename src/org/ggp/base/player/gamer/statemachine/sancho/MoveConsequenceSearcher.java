@@ -1,5 +1,7 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
+import java.util.List;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
@@ -36,17 +38,20 @@ public class MoveConsequenceSearcher implements Runnable, LocalSearchController
   /**
    * @param xiUnderlyingStateMachine - state machine instance the move consequence searcher can use -
    *                                   this must not be shared with other uses on other threads
+   * @param xiHelperStateMachines    - further instances (likewise unshared) with which to search in parallel,
+   *                                   one helper thread per instance
    * @param xiRoleOrdering           - canonical role order mappings
    * @param logName                  - the name of the log
    * @param resultConsumer           - interface by which results of the search are communicated
    */
   public MoveConsequenceSearcher(
                     ForwardDeadReckonPropnetStateMachine xiUnderlyingStateMachine,
+                    List<ForwardDeadReckonPropnetStateMachine> xiHelperStateMachines,
                     RoleOrdering xiRoleOrdering,
                     String logName,
                     LocalSearchResultConsumer resultConsumer)
   {
-    regionSearcher = new LocalRegionSearcher(xiUnderlyingStateMachine, xiRoleOrdering, this, resultConsumer);
+    regionSearcher = new LocalRegionSearcher(xiUnderlyingStateMachine, xiHelperStateMachines, xiRoleOrdering, this, resultConsumer);
     mLogName = logName;
 
     if ( regionSearcher.canPerformLocalSearch() )
@@ -98,6 +103,8 @@ public class MoveConsequenceSearcher implements Runnable, LocalSearchController
         LOGGER.warn("Unexpectedly interrupted whilst stopping local search processor");
       }
     }
+
+    regionSearcher.stop();
   }
 
   /**
@@ -0,0 +1,300 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+/**
+ * Structure-of-arrays storage for the per-node members of TreeNode that would otherwise need a separate object (or
+ * several fields) in every node.
+ *
+ * Each column is a single large primitive array indexed by node instance ID (the pool index held in the low 32 bits of
+ * a node reference), in the same way as the ScoreVectorPool.  This keeps the hottest statistics (visit and update
+ * counts) densely packed and replaces the per-node parent ArrayList with a pair of primitive columns plus a rarely
+ * used overflow column for nodes with multiple parents (i.e. transpositions).
+ *
+ * The store also keeps freed child arrays for re-use, so that nodes only carry a child array whilst they are expanded.
+ *
+ * Only the visit and update counts and the parent links are held here.  The remaining per-node scalars
+ * (flags, depths, heuristic values and normalization counters), the child arrays and the RAVE stats are still members
+ * of TreeNode, and node states are held in the {@link NodeStateStore}.  Those members are sized to keep a TreeNode to
+ * 88 bytes, an ordinary TreeEdge to 48 (hyper-path linkage is only carried by a HyperEdge) and a transposition table
+ * entry to 8.  Together these give roughly 1.6x as many nodes per GB as when every node was a full set of objects.
+ * Going further needs TreeNode and TreeEdge themselves replaced by column indices.
+ */
+public class NodeColumnStore
+{
+  /**
+   * Value stored in the parent columns when there is no parent.
+   */
+  private static final int NO_PARENT = -1;
+
+  private final int[]      mNumVisits;
+  private final double[]   mNumUpdates;
+
+  // Parent linkage.  The first parent is stored inline.  Any further parents are stored, in order, in an overflow
+  // array which is only allocated for nodes that have ever had more than one parent.
+  private final short[]    mNumParents;
+  private final int[]      mFirstParent;
+  private final int[][]    mOtherParents;
+
+  // Child arrays available for re-use.
+  private final Object[][] mFreeChildArrays;
+  private int              mNumFreeChildArrays;
+
+  /**
+   * Construct a column store.
+   *
+   * @param xiNumInstances - the number of separate uses (maps directly to nodes currently).
+   */
+  public NodeColumnStore(int xiNumInstances)
+  {
+    mNumVisits = new int[xiNumInstances];
+    mNumUpdates = new double[xiNumInstances];
+    mNumParents = new short[xiNumInstances];
+    mFirstParent = new int[xiNumInstances];
+    mOtherParents = new int[xiNumInstances][];
+    mFreeChildArrays = new Object[xiNumInstances][];
+  }
+
+  /**
+   * Reset all the columns for an instance.
+   *
+   * @param xiInstanceID - the instance to reset.
+   */
+  public void reset(int xiInstanceID)
+  {
+    mNumVisits[xiInstanceID] = 0;
+    mNumUpdates[xiInstanceID] = 0;
+    clearParents(xiInstanceID);
+  }
+
+  /**
+   * @return the number of visits to the specified instance.
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public int getNumVisits(int xiInstanceID)
+  {
+    return mNumVisits[xiInstanceID];
+  }
+
+  /**
+   * Set the number of visits to the specified instance.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiNumVisits  - the number of visits.
+   */
+  public void setNumVisits(int xiInstanceID, int xiNumVisits)
+  {
+    mNumVisits[xiInstanceID] = xiNumVisits;
+  }
+
+  /**
+   * @return the number of updates to the specified instance.
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public double getNumUpdates(int xiInstanceID)
+  {
+    return mNumUpdates[xiInstanceID];
+  }
+
+  /**
+   * Set the number of updates to the specified instance.
+   *
+   * @param xiInstanceID  - the instance.
+   * @param xiNumUpdates  - the number of updates.
+   */
+  public void setNumUpdates(int xiInstanceID, double xiNumUpdates)
+  {
+    mNumUpdates[xiInstanceID] = xiNumUpdates;
+  }
+
+  /**
+   * @return the number of parents of the specified instance.
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public int getNumParents(int xiInstanceID)
+  {
+    return mNumParents[xiInstanceID];
+  }
+
+  /**
+   * @return the instance ID of the specified parent of an instance.
+   *
+   * @param xiInstanceID  - the instance.
+   * @param xiParentIndex - the index of the parent (in order of addition).
+   */
+  public int getParent(int xiInstanceID, int xiParentIndex)
+  {
+    assert(xiParentIndex < mNumParents[xiInstanceID]);
+
+    if (xiParentIndex == 0)
+    {
+      return mFirstParent[xiInstanceID];
+    }
+    return mOtherParents[xiInstanceID][xiParentIndex - 1];
+  }
+
+  /**
+   * @return the index of a parent in the parent list of the specified instance, or -1 if it isn't a parent.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiParentID   - the instance ID of the parent.
+   */
+  public int indexOfParent(int xiInstanceID, int xiParentID)
+  {
+    int lNumParents = mNumParents[xiInstanceID];
+
+    if (lNumParents == 0)
+    {
+      return -1;
+    }
+
+    if (mFirstParent[xiInstanceID] == xiParentID)
+    {
+      return 0;
+    }
+
+    int[] lOtherParents = mOtherParents[xiInstanceID];
+    for (int lii = 0; lii < lNumParents - 1; lii++)
+    {
+      if (lOtherParents[lii] == xiParentID)
+      {
+        return lii + 1;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Add a parent to the end of the parent list of the specified instance.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiParentID   - the instance ID of the parent.
+   */
+  public void addParent(int xiInstanceID, int xiParentID)
+  {
+    int lNumParents = mNumParents[xiInstanceID];
+    assert(lNumParents < Short.MAX_VALUE) : "Too many parents";
+
+    if (lNumParents == 0)
+    {
+      mFirstParent[xiInstanceID] = xiParentID;
+    }
+    else
+    {
+      int[] lOtherParents = mOtherParents[xiInstanceID];
+      if (lOtherParents == null)
+      {
+        lOtherParents = new int[2];
+        mOtherParents[xiInstanceID] = lOtherParents;
+      }
+      else if (lOtherParents.length < lNumParents)
+      {
+        int[] lNewOtherParents = new int[lOtherParents.length * 2];
+        System.arraycopy(lOtherParents, 0, lNewOtherParents, 0, lOtherParents.length);
+        lOtherParents = lNewOtherParents;
+        mOtherParents[xiInstanceID] = lOtherParents;
+      }
+      lOtherParents[lNumParents - 1] = xiParentID;
+    }
+
+    mNumParents[xiInstanceID] = (short)(lNumParents + 1);
+  }
+
+  /**
+   * Remove a parent from the parent list of the specified instance, preserving the order of the remaining parents.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiParentID   - the instance ID of the parent.
+   *
+   * @return whether the parent was present.
+   */
+  public boolean removeParent(int xiInstanceID, int xiParentID)
+  {
+    int lIndex = indexOfParent(xiInstanceID, xiParentID);
+    if (lIndex == -1)
+    {
+      return false;
+    }
+
+    int lNumParents = mNumParents[xiInstanceID];
+    int[] lOtherParents = mOtherParents[xiInstanceID];
+
+    if (lIndex == 0 && lNumParents > 1)
+    {
+      mFirstParent[xiInstanceID] = lOtherParents[0];
+      lIndex = 1;
+    }
+
+    if (lIndex > 0)
+    {
+      System.arraycopy(lOtherParents, lIndex, lOtherParents, lIndex - 1, lNumParents - 1 - lIndex);
+    }
+
+    mNumParents[xiInstanceID] = (short)(lNumParents - 1);
+    if (lNumParents == 1)
+    {
+      mFirstParent[xiInstanceID] = NO_PARENT;
+    }
+
+    return true;
+  }
+
+  /**
+   * Remove all parents of the specified instance.
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public void clearParents(int xiInstanceID)
+  {
+    mNumParents[xiInstanceID] = 0;
+    mFirstParent[xiInstanceID] = NO_PARENT;
+
+    // Multiple parents are rare, so don't hang on to a large overflow array once the node no longer needs it.
+    int[] lOtherParents = mOtherParents[xiInstanceID];
+    if (lOtherParents != null && lOtherParents.length > 2)
+    {
+      mOtherParents[xiInstanceID] = null;
+    }
+  }
+
+  /**
+   * Get a child array of at least the specified size, re-using a previously freed one if possible.
+   *
+   * @param xiMinSize - the minimum size of the array.
+   *
+   * @return a child array, all of whose elements are null.
+   */
+  public Object[] allocateChildArray(int xiMinSize)
+  {
+    if (mNumFreeChildArrays > 0)
+    {
+      Object[] lChildren = mFreeChildArrays[--mNumFreeChildArrays];
+      mFreeChildArrays[mNumFreeChildArrays] = null;
+
+      if (lChildren.length >= xiMinSize)
+      {
+        return lChildren;
+      }
+
+      // The pooled array wasn't big enough.  It won't be big enough for anybody else either (the high-water mark only
+      // ever increases), so just discard it.
+    }
+
+    return new Object[xiMinSize];
+  }
+
+  /**
+   * Return a child array for later re-use.  The caller must already have nulled out any elements that it used.
+   *
+   * @param xiChildren - the array.
+   */
+  public void freeChildArray(Object[] xiChildren)
+  {
+    if (mNumFreeChildArrays < mFreeChildArrays.length)
+    {
+      mFreeChildArrays[mNumFreeChildArrays++] = xiChildren;
+    }
+  }
+}
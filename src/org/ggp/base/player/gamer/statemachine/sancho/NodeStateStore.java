@@ -0,0 +1,552 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+
+/**
+ * Compressed storage for the game states of tree nodes, indexed by node instance ID (in the same way as the
+ * NodeColumnStore).
+ *
+ * A full state is a bitset over all the base propositions, which is far more than most nodes need - a node's state
+ * usually differs from its parent's in just a few propositions.  So each instance is stored either as a delta (the
+ * indexes of the base propositions that differ from those of its base instance, which is the parent that it was
+ * created under) or as a packed keyframe (the words of the bitset, without any object overhead).  Deltas are only used
+ * whilst they're smaller than a keyframe, and chains of deltas are kept short, so that materialising a full state on
+ * demand is cheap.  The Zobrist hash of each state is held separately, so transposition table operations don't need the
+ * state at all.
+ *
+ * A delta is only meaningful whilst its base is unchanged, so an instance is re-based (converted to a keyframe) when
+ * the link to its base is removed.  Because nodes are freed children first, the base of an instance being freed never
+ * has any dependents left in practice - but the store checks, and re-bases any it finds.  Each base keeps a list of
+ * its dependents (threaded through a column), so that this costs time in proportion to the number of dependents
+ * rather than the number of instances.
+ *
+ * States are always materialised into a buffer supplied by the caller (or a new state), never into one belonging to
+ * the store, so that states retrieved for different instances can't alias one another.
+ *
+ * The store is shared by all the trees using the same node pool, which are only accessed with tree ownership, so it
+ * isn't thread-safe.
+ */
+public class NodeStateStore
+{
+  /**
+   * Value stored in the base column for an instance that's a keyframe (or has no state).
+   */
+  private static final int   NO_BASE = -1;
+
+  /**
+   * Maximum length of a chain of deltas from a keyframe.
+   */
+  private static final int   MAX_CHAIN_LENGTH = 8;
+
+  /**
+   * Maximum number of freed keyframes to keep for re-use.
+   */
+  private static final int   MAX_FREE_KEYFRAMES = 4096;
+
+  private static final char[] EMPTY_DELTA = new char[0];
+
+  private final int          mFirstBasePropIndex;
+  private final int          mNumWords;
+  private final int          mMaxDeltaLength;
+
+  // Per-instance columns.  The data column holds a keyframe (long[]) or a delta (char[]), or null if the instance has
+  // no state.  The dependent columns hold the head of the list of instances stored relative to each instance, and the
+  // link from each instance to the next one in the list for its base.
+  private final Object[]     mData;
+  private final int[]        mBase;
+  private final byte[]       mChainLength;
+  private final int[]        mFirstDependent;
+  private final int[]        mNextDependent;
+  private final long[]       mZobristHash;
+  private final boolean[]    mIsXState;
+
+  // Keyframes available for re-use.
+  private final long[][]     mFreeKeyframes = new long[MAX_FREE_KEYFRAMES][];
+  private int                mNumFreeKeyframes;
+
+  private final ForwardDeadReckonPropnetStateMachine mStateMachine;
+
+  // Buffer holding the state of the base that a delta was last calculated from.  (Children are typically set up one
+  // after another from the same parent.)
+  private final ForwardDeadReckonInternalMachineState mBaseBuffer;
+  private int                mBaseBufferInstance = NO_BASE;
+
+  // Buffers for comparing the states of instances.
+  private final ForwardDeadReckonInternalMachineState mCompareBuffer;
+  private final ForwardDeadReckonInternalMachineState mOtherCompareBuffer;
+
+  /**
+   * Construct a state store.
+   *
+   * @param xiNumInstances - the number of separate uses (maps directly to nodes currently).
+   * @param xiStateMachine - the state machine whose states are to be stored.
+   */
+  public NodeStateStore(int xiNumInstances, ForwardDeadReckonPropnetStateMachine xiStateMachine)
+  {
+    mStateMachine = xiStateMachine;
+    mBaseBuffer = xiStateMachine.createEmptyInternalState();
+    mCompareBuffer = xiStateMachine.createEmptyInternalState();
+    mOtherCompareBuffer = xiStateMachine.createEmptyInternalState();
+
+    mFirstBasePropIndex = mBaseBuffer.firstBasePropIndex;
+    mNumWords = mBaseBuffer.getNumBasePropWords();
+
+    // A delta entry takes 2 bytes and a keyframe word 8, so deltas are only smaller up to 4 entries per word.  Deltas
+    // can't be used at all if the base proposition indexes don't fit in a char.
+    boolean lDeltasFit = (mNumWords * 64 <= Character.MAX_VALUE + 1);
+    mMaxDeltaLength = (lDeltasFit ? mNumWords * 4 - 1 : -1);
+
+    mData = new Object[xiNumInstances];
+    mBase = new int[xiNumInstances];
+    mChainLength = new byte[xiNumInstances];
+    mFirstDependent = new int[xiNumInstances];
+    mNextDependent = new int[xiNumInstances];
+    mZobristHash = new long[xiNumInstances];
+    mIsXState = new boolean[xiNumInstances];
+
+    for (int lii = 0; lii < xiNumInstances; lii++)
+    {
+      mBase[lii] = NO_BASE;
+      mFirstDependent[lii] = NO_BASE;
+      mNextDependent[lii] = NO_BASE;
+    }
+  }
+
+  /**
+   * Set the state of an instance.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiState      - the state.
+   * @param xiBaseID     - the instance to store the state relative to (normally the parent of the instance, whose
+   *                       link to the instance must then be reported with {@link #unlinkBase} when it's removed), or
+   *                       -1 for none.  May be the instance's existing base, if its state is being changed.
+   */
+  public void setState(int xiInstanceID, ForwardDeadReckonInternalMachineState xiState, int xiBaseID)
+  {
+    assert(xiBaseID != xiInstanceID);
+
+    // If anything is stored relative to the old state, it needs to be made independent of it first.
+    rebaseDependents(xiInstanceID);
+
+    Object lOldData = mData[xiInstanceID];
+    unlinkFromBase(xiInstanceID);
+    invalidateBuffers(xiInstanceID);
+
+    mZobristHash[xiInstanceID] = xiState.getZobristHash();
+    mIsXState[xiInstanceID] = xiState.isXState;
+
+    if (xiBaseID != NO_BASE &&
+        mChainLength[xiBaseID] < MAX_CHAIN_LENGTH &&
+        storeDelta(xiInstanceID, xiState, xiBaseID, lOldData))
+    {
+      freeData(lOldData);
+      return;
+    }
+
+    mData[xiInstanceID] = createKeyframe(xiState, lOldData);
+  }
+
+  /**
+   * Change the state of an instance, keeping it relative to the same base.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiState      - the new state.
+   */
+  public void replaceState(int xiInstanceID, ForwardDeadReckonInternalMachineState xiState)
+  {
+    setState(xiInstanceID, xiState, mBase[xiInstanceID]);
+  }
+
+  /**
+   * Report that the link from an instance to its base has been removed.  The base's state is still intact, but might
+   * not remain so.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiParentID   - the instance that it's been unlinked from.
+   */
+  public void unlinkBase(int xiInstanceID, int xiParentID)
+  {
+    if (mBase[xiInstanceID] == xiParentID)
+    {
+      convertToKeyframe(xiInstanceID);
+    }
+  }
+
+  /**
+   * Report that the links from an instance to all its parents have been removed.
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public void unlinkAllBases(int xiInstanceID)
+  {
+    if (mBase[xiInstanceID] != NO_BASE)
+    {
+      convertToKeyframe(xiInstanceID);
+    }
+  }
+
+  /**
+   * Release the state of an instance that's being freed.  Anything stored relative to it is re-based first.
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public void release(int xiInstanceID)
+  {
+    rebaseDependents(xiInstanceID);
+    discard(xiInstanceID);
+  }
+
+  /**
+   * Discard the state of an instance without regard to anything stored relative to it.  This is only valid when
+   * everything that might be is being discarded too (i.e. when the whole tree is being cleared).
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public void discard(int xiInstanceID)
+  {
+    // In a bulk clear, bases may be discarded before their dependents.  Don't adjust the dependent lists of bases that
+    // have already gone.
+    int lBaseID = mBase[xiInstanceID];
+    if (lBaseID != NO_BASE && mData[lBaseID] == null)
+    {
+      mBase[xiInstanceID] = NO_BASE;
+      mNextDependent[xiInstanceID] = NO_BASE;
+    }
+    unlinkFromBase(xiInstanceID);
+
+    freeData(mData[xiInstanceID]);
+    mData[xiInstanceID] = null;
+    mFirstDependent[xiInstanceID] = NO_BASE;
+    mZobristHash[xiInstanceID] = 0;
+    mIsXState[xiInstanceID] = false;
+    invalidateBuffers(xiInstanceID);
+  }
+
+  /**
+   * @return a new copy of the state of an instance, which belongs to the caller.
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public ForwardDeadReckonInternalMachineState get(int xiInstanceID)
+  {
+    return get(xiInstanceID, mStateMachine.createEmptyInternalState());
+  }
+
+  /**
+   * Get the state of an instance into a buffer provided by the caller.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xoState      - the buffer.
+   *
+   * @return the buffer.
+   */
+  public ForwardDeadReckonInternalMachineState get(int xiInstanceID, ForwardDeadReckonInternalMachineState xoState)
+  {
+    materialise(xiInstanceID, xoState);
+    return xoState;
+  }
+
+  /**
+   * @return the Zobrist hash of the state of an instance.
+   *
+   * @param xiInstanceID - the instance.
+   */
+  public long getZobristHash(int xiInstanceID)
+  {
+    return mZobristHash[xiInstanceID];
+  }
+
+  /**
+   * @return whether the state of an instance includes the specified base proposition.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiPropIndex  - the index of the proposition.
+   */
+  public boolean contains(int xiInstanceID, int xiPropIndex)
+  {
+    if (xiPropIndex < mFirstBasePropIndex)
+    {
+      return false;
+    }
+
+    // Each delta on the way to the keyframe that mentions the proposition flips it.
+    char lDeltaIndex = (char)(xiPropIndex - mFirstBasePropIndex);
+    boolean lFlipped = false;
+    int lInstanceID = xiInstanceID;
+
+    while (mBase[lInstanceID] != NO_BASE)
+    {
+      for (char lEntry : (char[])mData[lInstanceID])
+      {
+        if (lEntry == lDeltaIndex)
+        {
+          lFlipped = !lFlipped;
+        }
+      }
+      lInstanceID = mBase[lInstanceID];
+    }
+
+    long[] lKeyframe = (long[])mData[lInstanceID];
+    if (lKeyframe == null)
+    {
+      return lFlipped;
+    }
+
+    int lWord = (xiPropIndex >> 6) - (mFirstBasePropIndex >> 6);
+    return lFlipped ^ ((lKeyframe[lWord] & (1L << (xiPropIndex & 0x3F))) != 0);
+  }
+
+  /**
+   * @return whether an instance has the specified state.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiState      - the state.
+   */
+  public boolean matches(int xiInstanceID, ForwardDeadReckonInternalMachineState xiState)
+  {
+    if (mZobristHash[xiInstanceID] != xiState.getZobristHash())
+    {
+      return false;
+    }
+
+    return xiState.equals(get(xiInstanceID, mCompareBuffer));
+  }
+
+  /**
+   * @return whether two instances have the same state.
+   *
+   * @param xiInstanceID      - the first instance.
+   * @param xiOtherInstanceID - the second instance.
+   */
+  public boolean matches(int xiInstanceID, int xiOtherInstanceID)
+  {
+    if (mZobristHash[xiInstanceID] != mZobristHash[xiOtherInstanceID])
+    {
+      return false;
+    }
+
+    return get(xiInstanceID, mCompareBuffer).equals(get(xiOtherInstanceID, mOtherCompareBuffer));
+  }
+
+  /**
+   * @return the distance (see ForwardDeadReckonInternalMachineState.distance()) between the state of an instance and
+   * the specified state.
+   *
+   * @param xiInstanceID - the instance.
+   * @param xiState      - the state.
+   */
+  public double distance(int xiInstanceID, ForwardDeadReckonInternalMachineState xiState)
+  {
+    return xiState.distance(get(xiInstanceID, mCompareBuffer));
+  }
+
+  /**
+   * @return a summary of the instances with states, for logging.
+   */
+  public String getSummary()
+  {
+    long lNumKeyframes = 0;
+    long lNumDeltas = 0;
+    long lTotalDeltaLength = 0;
+
+    for (Object lData : mData)
+    {
+      if (lData instanceof long[])
+      {
+        lNumKeyframes++;
+      }
+      else if (lData != null)
+      {
+        lNumDeltas++;
+        lTotalDeltaLength += ((char[])lData).length;
+      }
+    }
+
+    return "Node states: " + lNumKeyframes + " keyframes of " + mNumWords + " words, " + lNumDeltas +
+           " deltas of average length " + String.format("%.1f", (lNumDeltas == 0 ? 0 : (double)lTotalDeltaLength / lNumDeltas));
+  }
+
+  private void materialise(int xiInstanceID, ForwardDeadReckonInternalMachineState xoState)
+  {
+    int lKeyframeID = xiInstanceID;
+    while (mBase[lKeyframeID] != NO_BASE)
+    {
+      lKeyframeID = mBase[lKeyframeID];
+    }
+
+    long[] lKeyframe = (long[])mData[lKeyframeID];
+    if (lKeyframe == null)
+    {
+      assert(lKeyframeID == xiInstanceID) : "Delta from an instance without a state";
+      xoState.clear();
+      return;
+    }
+
+    xoState.restoreBaseProps(lKeyframe, mZobristHash[lKeyframeID], mIsXState[xiInstanceID]);
+
+    for (int lInstanceID = xiInstanceID; lInstanceID != lKeyframeID; lInstanceID = mBase[lInstanceID])
+    {
+      for (char lEntry : (char[])mData[lInstanceID])
+      {
+        xoState.flipBaseProp(mFirstBasePropIndex + lEntry);
+      }
+    }
+
+    assert(xoState.getZobristHash() == mZobristHash[xiInstanceID]) : "Materialised state has the wrong hash";
+  }
+
+  private boolean storeDelta(int xiInstanceID,
+                             ForwardDeadReckonInternalMachineState xiState,
+                             int xiBaseID,
+                             Object xiOldData)
+  {
+    if (mMaxDeltaLength < 0 || mData[xiBaseID] == null)
+    {
+      return false;
+    }
+
+    if (mBaseBufferInstance != xiBaseID)
+    {
+      materialise(xiBaseID, mBaseBuffer);
+      mBaseBufferInstance = xiBaseID;
+    }
+
+    int lFirstWord = (mFirstBasePropIndex >> 6);
+    long[] lBits = xiState.getContents().getBits();
+    long[] lBaseBits = mBaseBuffer.getContents().getBits();
+    long lFirstWordMask = ~((1L << (mFirstBasePropIndex & 0x3F)) - 1);
+
+    int lDeltaLength = 0;
+    for (int lii = 0; lii < mNumWords; lii++)
+    {
+      long lDiff = lBits[lFirstWord + lii] ^ lBaseBits[lFirstWord + lii];
+      if (lii == 0)
+      {
+        lDiff &= lFirstWordMask;
+      }
+      lDeltaLength += Long.bitCount(lDiff);
+      if (lDeltaLength > mMaxDeltaLength)
+      {
+        return false;
+      }
+    }
+
+    char[] lDelta;
+    if (lDeltaLength == 0)
+    {
+      lDelta = EMPTY_DELTA;
+    }
+    else if ((xiOldData instanceof char[]) && ((char[])xiOldData).length == lDeltaLength)
+    {
+      lDelta = (char[])xiOldData;
+    }
+    else
+    {
+      lDelta = new char[lDeltaLength];
+    }
+
+    int lEntry = 0;
+    for (int lii = 0; lii < mNumWords; lii++)
+    {
+      long lDiff = lBits[lFirstWord + lii] ^ lBaseBits[lFirstWord + lii];
+      if (lii == 0)
+      {
+        lDiff &= lFirstWordMask;
+      }
+      while (lDiff != 0)
+      {
+        int lPropIndex = ((lFirstWord + lii) << 6) + Long.numberOfTrailingZeros(lDiff);
+        lDelta[lEntry++] = (char)(lPropIndex - mFirstBasePropIndex);
+        lDiff &= (lDiff - 1);
+      }
+    }
+
+    mData[xiInstanceID] = lDelta;
+    mBase[xiInstanceID] = xiBaseID;
+    mChainLength[xiInstanceID] = (byte)(mChainLength[xiBaseID] + 1);
+    mNextDependent[xiInstanceID] = mFirstDependent[xiBaseID];
+    mFirstDependent[xiBaseID] = xiInstanceID;
+
+    return true;
+  }
+
+  private long[] createKeyframe(ForwardDeadReckonInternalMachineState xiState, Object xiOldData)
+  {
+    long[] lKeyframe;
+    if (xiOldData instanceof long[])
+    {
+      lKeyframe = (long[])xiOldData;
+    }
+    else
+    {
+      freeData(xiOldData);
+      lKeyframe = (mNumFreeKeyframes > 0 ? mFreeKeyframes[--mNumFreeKeyframes] : new long[mNumWords]);
+      mFreeKeyframes[mNumFreeKeyframes] = null;
+    }
+
+    xiState.saveBaseProps(lKeyframe);
+    return lKeyframe;
+  }
+
+  private void convertToKeyframe(int xiInstanceID)
+  {
+    // The state doesn't change, so there's no need to invalidate the buffers.
+    materialise(xiInstanceID, mCompareBuffer);
+    Object lOldData = mData[xiInstanceID];
+    unlinkFromBase(xiInstanceID);
+    mData[xiInstanceID] = createKeyframe(mCompareBuffer, lOldData);
+  }
+
+  private void rebaseDependents(int xiBaseID)
+  {
+    // Converting a dependent to a keyframe removes it from the head of the list.
+    while (mFirstDependent[xiBaseID] != NO_BASE)
+    {
+      convertToKeyframe(mFirstDependent[xiBaseID]);
+    }
+  }
+
+  private void unlinkFromBase(int xiInstanceID)
+  {
+    int lBaseID = mBase[xiInstanceID];
+    if (lBaseID != NO_BASE)
+    {
+      // Remove the instance from its base's list of dependents.  The list is no longer than the number of children
+      // that the base has, and the instance is usually found at the head.
+      if (mFirstDependent[lBaseID] == xiInstanceID)
+      {
+        mFirstDependent[lBaseID] = mNextDependent[xiInstanceID];
+      }
+      else
+      {
+        int lPrevID = mFirstDependent[lBaseID];
+        while (mNextDependent[lPrevID] != xiInstanceID)
+        {
+          lPrevID = mNextDependent[lPrevID];
+          assert(lPrevID != NO_BASE) : "Instance missing from its base's dependents";
+        }
+        mNextDependent[lPrevID] = mNextDependent[xiInstanceID];
+      }
+      mNextDependent[xiInstanceID] = NO_BASE;
+      mBase[xiInstanceID] = NO_BASE;
+    }
+    mChainLength[xiInstanceID] = 0;
+  }
+
+  private void freeData(Object xiData)
+  {
+    if ((xiData instanceof long[]) && mNumFreeKeyframes < MAX_FREE_KEYFRAMES)
+    {
+      mFreeKeyframes[mNumFreeKeyframes++] = (long[])xiData;
+    }
+  }
+
+  private void invalidateBuffers(int xiInstanceID)
+  {
+    if (mBaseBufferInstance == xiInstanceID)
+    {
+      mBaseBufferInstance = NO_BASE;
+    }
+  }
+}
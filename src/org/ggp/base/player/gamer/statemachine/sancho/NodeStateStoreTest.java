@@ -0,0 +1,157 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NodeStateStoreTest extends Assert
+{
+  private static final int NUM_INSTANCES = 200;
+
+  private ForwardDeadReckonPropnetStateMachine mMachine;
+  private Random mRandom;
+
+  @Before
+  public void setUp()
+  {
+    mMachine = new ForwardDeadReckonPropnetStateMachine(1, 0, new Role(GdlPool.getConstant("red")), null);
+    mMachine.initialize(new TestGameRepository().getGame("connectFour").getRules());
+    mRandom = new Random(1);
+  }
+
+  @Test
+  public void testStatesDontAlias() throws Exception
+  {
+    NodeStateStore lStore = new NodeStateStore(NUM_INSTANCES, mMachine);
+    MachineState lRoot = mMachine.getInitialState();
+    MachineState lChild = mMachine.getRandomNextState(lRoot);
+    lStore.setState(0, mMachine.createInternalState(lRoot), -1);
+    lStore.setState(1, mMachine.createInternalState(lChild), 0);
+
+    // States retrieved for different instances are independent of each other (and of the store).
+    ForwardDeadReckonInternalMachineState lRootState = lStore.get(0);
+    ForwardDeadReckonInternalMachineState lChildState = lStore.get(1);
+    assertNotSame(lRootState, lChildState);
+    assertEquals(mMachine.createInternalState(lRoot), lRootState);
+    assertEquals(mMachine.createInternalState(lChild), lChildState);
+
+    lRootState.clear();
+    assertEquals(mMachine.createInternalState(lRoot), lStore.get(0));
+    assertEquals(mMachine.createInternalState(lChild), lStore.get(1));
+  }
+
+  @Test
+  public void testReleasingBaseRebasesDependents() throws Exception
+  {
+    NodeStateStore lStore = new NodeStateStore(NUM_INSTANCES, mMachine);
+
+    // A chain of states from the root, each stored relative to the one before it.
+    List<MachineState> lStates = new ArrayList<>();
+    MachineState lState = mMachine.getInitialState();
+    for (int lii = 0; lii < 20 && !mMachine.isTerminal(lState); lii++)
+    {
+      lStore.setState(lii, mMachine.createInternalState(lState), lii - 1);
+      lStates.add(lState);
+      lState = mMachine.getRandomNextState(lState);
+    }
+
+    // Freeing the middle of the chain, then the root, leaves the rest intact.
+    lStore.release(lStates.size() / 2);
+    lStore.release(0);
+    for (int lii = 1; lii < lStates.size(); lii++)
+    {
+      if (lii != lStates.size() / 2)
+      {
+        assertEquals(mMachine.createInternalState(lStates.get(lii)), lStore.get(lii));
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesReference() throws Exception
+  {
+    NodeStateStore lStore = new NodeStateStore(NUM_INSTANCES, mMachine);
+    MachineState[] lExpected = new MachineState[NUM_INSTANCES];
+    List<Integer> lLive = new ArrayList<>();
+    ForwardDeadReckonInternalMachineState lBuffer = mMachine.createEmptyInternalState();
+
+    lExpected[0] = mMachine.getInitialState();
+    lStore.setState(0, mMachine.createInternalState(lExpected[0]), -1);
+    lLive.add(0);
+
+    for (int lOp = 0; lOp < 5000; lOp++)
+    {
+      int lInstance = lLive.get(mRandom.nextInt(lLive.size()));
+      int lChoice = mRandom.nextInt(10);
+
+      if (lChoice < 6 && lLive.size() < NUM_INSTANCES)
+      {
+        // Add a child of a random live instance (restarting the game if it's over).
+        MachineState lParent = lExpected[lInstance];
+        MachineState lState = (mMachine.isTerminal(lParent) ? mMachine.getInitialState() :
+                                                              mMachine.getRandomNextState(lParent));
+        int lChild = findFree(lExpected);
+        lExpected[lChild] = lState;
+        lStore.setState(lChild, mMachine.createInternalState(lState), lInstance);
+        lLive.add(lChild);
+      }
+      else if (lChoice < 8 && lLive.size() > 1)
+      {
+        // Free a random instance, which needn't be a leaf.
+        lStore.release(lInstance);
+        lExpected[lInstance] = null;
+        lLive.remove(Integer.valueOf(lInstance));
+      }
+      else if (lChoice < 9)
+      {
+        // Unlink a random instance from its base.
+        lStore.unlinkAllBases(lInstance);
+      }
+      else if (!mMachine.isTerminal(lExpected[lInstance]))
+      {
+        // Change the state of an instance (in the way that a node is re-purposed for a forced move).
+        lExpected[lInstance] = mMachine.getRandomNextState(lExpected[lInstance]);
+        lStore.replaceState(lInstance, mMachine.createInternalState(lExpected[lInstance]));
+      }
+
+      for (int lLiveInstance : lLive)
+      {
+        ForwardDeadReckonInternalMachineState lState = mMachine.createInternalState(lExpected[lLiveInstance]);
+        assertEquals("Wrong state after op " + lOp, lState, lStore.get(lLiveInstance, lBuffer));
+        assertEquals(lState.getZobristHash(), lStore.getZobristHash(lLiveInstance));
+        assertTrue(lStore.matches(lLiveInstance, lState));
+      }
+    }
+
+    // Clear everything, in no particular order.
+    for (int lInstance : lLive)
+    {
+      lStore.discard(lInstance);
+    }
+    MachineState lInitial = mMachine.getInitialState();
+    lStore.setState(0, mMachine.createInternalState(lInitial), -1);
+    assertEquals(mMachine.createInternalState(lInitial), lStore.get(0));
+  }
+
+  private static int findFree(MachineState[] xiExpected)
+  {
+    for (int lii = 0; lii < xiExpected.length; lii++)
+    {
+      if (xiExpected[lii] == null)
+      {
+        return lii;
+      }
+    }
+    throw new IllegalStateException("No free instances");
+  }
+}
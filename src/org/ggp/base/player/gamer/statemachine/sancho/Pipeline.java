@@ -8,6 +8,14 @@ import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.F
 
 /**
  * Highly efficient, lock-free rollout request pipeline.
+ *
+ * Each rollout thread has its own pipeline.  The tree thread gives new work to the thread with the shortest queue, and a
+ * rollout thread whose own queue is empty steals work from the longest of the others, so that no rollout thread sits
+ * idle whilst there is work queued for another.
+ *
+ * Capacity is judged across all the per-thread pipelines.  The tree thread can expand whenever the pipeline as a whole
+ * is below its maximum size and some per-thread pipeline has a free slot, and it can back-propagate whenever any
+ * rollout has completed, whichever thread did it and whatever is still in progress ahead of it.
  */
 public class Pipeline
 {
@@ -63,7 +71,7 @@ public class Pipeline
 
     for (int lii = 0; lii < ThreadControl.ROLLOUT_THREADS; lii++)
     {
-      mThreadPipelines[lii] = new SimplePipeline(lPerThreadSize, xiNumRoles, underlyingStateMachine);
+      mThreadPipelines[lii] = new SimplePipeline(lii, lPerThreadSize, xiNumRoles, underlyingStateMachine);
     }
   }
 
@@ -72,7 +80,22 @@ public class Pipeline
    */
   public boolean canExpand()
   {
-    return mCurrentQueuedItems < mMaxQueuedItems;
+    if (mCurrentQueuedItems >= mMaxQueuedItems)
+    {
+      return false;
+    }
+
+    // A slot in a per-thread pipeline is only freed when its own request has been back-propagated, so a slow request
+    // can pin a slot even though there's room overall.
+    for (int lii = 0; lii < ThreadControl.ROLLOUT_THREADS; lii++)
+    {
+      if (mThreadPipelines[lii].canExpand())
+      {
+        return true;
+      }
+    }
+
+    return false;
   }
 
   /**
@@ -90,14 +113,26 @@ public class Pipeline
     assert(mCurrentQueuedItems < mMaxQueuedItems) : "Pipeline unexpectedly full - num items: " + mCurrentQueuedItems;
     mCurrentQueuedItems++;
 
-    // Find the next thread with a slot.  The calling restrictions ensure that there is one (and therefore this won't
-    // loop forever).
-    for (mNextExpandThread = (mNextExpandThread + 1) % ThreadControl.ROLLOUT_THREADS;
-        !mThreadPipelines[mNextExpandThread].canExpand();
-        mNextExpandThread = (mNextExpandThread + 1) % ThreadControl.ROLLOUT_THREADS)
+    // Find the thread with a slot and the fewest requests waiting to be rolled out, starting after the thread that was
+    // chosen last time so that ties are shared out round-robin.  The calling restrictions ensure that some thread has a
+    // slot.
+    int lBestThread = -1;
+    int lBestBacklog = Integer.MAX_VALUE;
+    for (int lii = 1; lii <= ThreadControl.ROLLOUT_THREADS && lBestBacklog > 0; lii++)
     {
-      // Do nothing.
+      int lThread = (mNextExpandThread + lii) % ThreadControl.ROLLOUT_THREADS;
+      if (mThreadPipelines[lThread].canExpand())
+      {
+        int lBacklog = mThreadPipelines[lThread].getNumAvailableRolloutRequests();
+        if (lBacklog < lBestBacklog)
+        {
+          lBestThread = lThread;
+          lBestBacklog = lBacklog;
+        }
+      }
     }
+    assert(lBestThread != -1) : "No per-thread pipeline has a free slot";
+    mNextExpandThread = lBestThread;
 
     // Return the rollout request to be filled in.
     return mThreadPipelines[mNextExpandThread].getNextExpandSlot();
@@ -112,31 +147,129 @@ public class Pipeline
   }
 
   /**
-   * Get the next rollout request for the specified thread.
+   * Get the next rollout request for the specified thread.  If there are no requests queued for the thread, it steals
+   * one from the thread with the most requests queued.
    *
-   * This method will not return until a rollout request is available.
+   * This method will not return until a rollout request is available (or the calling thread is interrupted).
    *
    * @param xiThreadIndex - the thread making the request.
    *
-   * @return the next rollout request.
+   * @return the next rollout request, which the calling thread has claimed, or null if the thread was interrupted.
    */
   public RolloutRequest getNextRolloutRequest(int xiThreadIndex)
   {
-    return mThreadPipelines[xiThreadIndex].getNextRolloutRequest();
+    final Thread lThread = Thread.currentThread();
+    final SimplePipeline lOwnPipeline = mThreadPipelines[xiThreadIndex];
+
+    while (!lThread.isInterrupted())
+    {
+      RolloutRequest lRequest = lOwnPipeline.tryClaimRolloutRequest();
+      if (lRequest != null)
+      {
+        return lRequest;
+      }
+
+      // Nothing for this thread.  Try to steal from the busiest of the others.
+      int lVictim = -1;
+      int lVictimBacklog = 0;
+      for (int lii = 0; lii < ThreadControl.ROLLOUT_THREADS; lii++)
+      {
+        int lBacklog = mThreadPipelines[lii].getNumAvailableRolloutRequests();
+        if ((lii != xiThreadIndex) && (lBacklog > lVictimBacklog))
+        {
+          lVictim = lii;
+          lVictimBacklog = lBacklog;
+        }
+      }
+
+      if (lVictim != -1)
+      {
+        lRequest = mThreadPipelines[lVictim].tryClaimRolloutRequest();
+        if (lRequest != null)
+        {
+          return lRequest;
+        }
+      }
+      else
+      {
+        Thread.yield();
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Claim further rollout requests, from the same per-thread pipeline as a request that has already been claimed, to be
+   * processed in a batch with it.
+   *
+   * @param xiFirstRequest   - the request already claimed.  Further requests are only claimed if at least
+   *                           xiMinQueueDepth requests (including this one) are queued.
+   * @param xiMinQueueDepth  - the minimum queue depth for batching.
+   * @param xiMaxSamples     - the maximum number of samples in the batch.
+   * @param xoBatch          - array in which to return the batch, starting with xiFirstRequest.
+   *
+   * @return the number of requests in the batch.  All requests other than xiFirstRequest can be processed in a batch
+   *         and have the same cutoff depth as it.
+   */
+  public int claimRolloutBatch(RolloutRequest xiFirstRequest,
+                               int xiMinQueueDepth,
+                               int xiMaxSamples,
+                               RolloutRequest[] xoBatch)
+  {
+    final SimplePipeline lPipeline = mThreadPipelines[xiFirstRequest.mPipelineIndex];
+    xoBatch[0] = xiFirstRequest;
+
+    // Find the run of compatible requests behind the first one.  (The number available can only have dropped since
+    // we read the last claimed request, so the requests that we peek at have definitely been published.)
+    final long lLastClaimed = lPipeline.getLastClaimed();
+    final int lNumAvailable = lPipeline.getNumAvailableRolloutRequests();
+    if (lNumAvailable + 1 < xiMinQueueDepth)
+    {
+      return 1;
+    }
+
+    int lNumRequests = 0;
+    int lNumSamples = xiFirstRequest.mSampleSize;
+    for (int lii = 0; (lii < lNumAvailable) && (lNumRequests + 1 < xoBatch.length); lii++)
+    {
+      RolloutRequest lRequest = lPipeline.peekRolloutRequest(lLastClaimed, lii);
+      if ((!lRequest.canProcessInBatch()) ||
+          (lRequest.mTree.mWeightDecayCutoffDepth != xiFirstRequest.mTree.mWeightDecayCutoffDepth) ||
+          (lNumSamples + lRequest.mSampleSize > xiMaxSamples))
+      {
+        break;
+      }
+
+      lNumRequests++;
+      lNumSamples += lRequest.mSampleSize;
+    }
+
+    // Claim them all in one go.  If some other thread got in first then just process the first request on its own.
+    if ((lNumRequests == 0) || !lPipeline.claimRolloutRequests(lLastClaimed, lNumRequests))
+    {
+      return 1;
+    }
+
+    for (int lii = 0; lii < lNumRequests; lii++)
+    {
+      xoBatch[lii + 1] = lPipeline.peekRolloutRequest(lLastClaimed, lii);
+    }
+    return lNumRequests + 1;
   }
 
   /**
    * Mark a rollout as complete.
    *
-   * @param xiThreadIndex - the thread making the request.
+   * @param xiRequest - the request, which must have been claimed by the calling thread.
    */
-  public void completedRollout(int xiThreadIndex)
+  public void completedRollout(RolloutRequest xiRequest)
   {
-    mThreadPipelines[xiThreadIndex].rolloutComplete();
+    mThreadPipelines[xiRequest.mPipelineIndex].rolloutComplete(xiRequest);
   }
 
   /**
-   * @return whether there are any completed rollout requests ready for back-propagation.
+   * @return whether there are any completed rollout requests ready for back-propagation, in any per-thread pipeline.
    */
   public boolean canBackPropagate()
   {
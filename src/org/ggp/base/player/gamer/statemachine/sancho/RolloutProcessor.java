@@ -3,6 +3,7 @@ package org.ggp.base.player.gamer.statemachine.sancho;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropnetBatchAnimator;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
 
@@ -13,6 +14,22 @@ class RolloutProcessor implements Runnable
 {
   private static final Logger LOGGER = LogManager.getLogger();
 
+  /**
+   * Bounds on, and initial value of, the number of requests that must be queued before they are rolled out in batches.
+   * The threshold is adjusted according to how busy this thread is.
+   */
+  private static final int BATCH_MIN_QUEUE_DEPTH_LOWER_BOUND = 2;
+  private static final int BATCH_MIN_QUEUE_DEPTH_INITIAL = 8;
+  private static final int BATCH_MIN_QUEUE_DEPTH_UPPER_BOUND = ForwardDeadReckonPropnetBatchAnimator.LANES;
+
+  /**
+   * Fractions of time spent doing useful work above which this thread is considered saturated (and so batches more
+   * eagerly) and below which it is considered under-used (and so batches less eagerly, since a batch delays the results
+   * of all its requests until the last is complete).
+   */
+  private static final double BATCH_SATURATED_FRACTION = 0.9;
+  private static final double BATCH_UNDERUSED_FRACTION = 0.6;
+
   private final int                                  mThreadIndex;
   private final Pipeline                             mPipeline;
   private final ForwardDeadReckonPropnetStateMachine mStateMachine;
@@ -22,6 +39,11 @@ class RolloutProcessor implements Runnable
   private final Role                                 mOurRole;
   private final RoleOrdering                         mRoleOrdering;
 
+  private final RolloutRequest[]                     mBatch;
+  private final RolloutRequest.BatchBuffers          mBatchBuffers;
+  private int                                        mBatchMinQueueDepth = BATCH_MIN_QUEUE_DEPTH_INITIAL;
+  private RolloutPerfStats                           mLastPerfStats = new RolloutPerfStats(0, 0);
+
   /**
    * Create (and start) a rollout processor.
    *
@@ -48,6 +70,9 @@ class RolloutProcessor implements Runnable
     mRoleOrdering = xiRoleOrdering;
     mOurRole = mRoleOrdering.roleIndexToRole(0);
 
+    mBatch = new RolloutRequest[ForwardDeadReckonPropnetBatchAnimator.LANES];
+    mBatchBuffers = new RolloutRequest.BatchBuffers(mStateMachine.getRoles().length);
+
     mLogName = xiLogName;
 
     mThread = new Thread(this, "Rollout Processor " + mThreadIndex);
@@ -118,18 +143,21 @@ class RolloutProcessor implements Runnable
         long lStart = lNow;
         lBlockedFor += lNow;
 
-        // Do the rollouts
-        lRequest.process(mStateMachine, mOurRole, mRoleOrdering);
-        lRequest.mEnqueue2Time = System.nanoTime();
-        mPipeline.completedRollout(mThreadIndex);
+        // Do the rollouts - in a batch with the requests queued behind this one if possible.
+        if (!processBatch(lRequest))
+        {
+          lRequest.process(mStateMachine, mOurRole, mRoleOrdering);
+          lRequest.mEnqueue2Time = System.nanoTime();
+          mPipeline.completedRollout(lRequest);
+        }
         lCompleteOutstanding = false;
 
         // Get timing information
         lNow = System.nanoTime();
         lUsefulWork += (lNow - lStart);
 
-        // Occasionally, update the sample size
-        if ((GameSearcher.USE_DYNAMIC_SAMPLE_SIZING) && (lNow > lNextPerfStatsReportTime))
+        // Occasionally, update the sample size and the batching threshold
+        if (lNow > lNextPerfStatsReportTime)
         {
           publishPerfStats(lUsefulWork, lBlockedFor);
           lNextPerfStatsReportTime += lPerfStatsUpdateInterval;
@@ -149,7 +177,8 @@ class RolloutProcessor implements Runnable
           LOGGER.error("Exception in RolloutProcessor", lEx);
           if (lCompleteOutstanding)
           {
-            mPipeline.completedRollout(mThreadIndex);
+            mPipeline.completedRollout(lRequest);
+            completeOutstandingBatch();
           }
         }
       }
@@ -162,7 +191,74 @@ class RolloutProcessor implements Runnable
   }
 
   /**
-   * Publish performance statistics.
+   * Process the next request, along with as many of the requests queued behind it as will fit, as a single batch.
+   * Batches are only used when the queue is deep (i.e. the rollout threads are the bottleneck) and the game supports
+   * them.
+   *
+   * @param xiFirstRequest - the next request, already claimed by this thread.
+   *
+   * @return whether the requests were processed (and marked as complete).  If not, no requests have been processed or
+   *         claimed other than xiFirstRequest.
+   */
+  private boolean processBatch(RolloutRequest xiFirstRequest)
+  {
+    if (!xiFirstRequest.canProcessInBatch() || !mStateMachine.canPerformBatchedDepthCharges())
+    {
+      return false;
+    }
+
+    int lNumRequests = mPipeline.claimRolloutBatch(xiFirstRequest,
+                                                   mBatchMinQueueDepth,
+                                                   ForwardDeadReckonPropnetBatchAnimator.LANES,
+                                                   mBatch);
+
+    boolean lProcessed = (lNumRequests > 1) &&
+                         RolloutRequest.processBatch(mBatch, lNumRequests, mStateMachine, mRoleOrdering, mBatchBuffers);
+
+    // If the batch couldn't be processed as a whole, the caller will process the first request.  Any others that we
+    // claimed must be processed here.
+    long lNow = System.nanoTime();
+    for (int lii = 0; lii < lNumRequests; lii++)
+    {
+      if (lProcessed)
+      {
+        mBatch[lii].mEnqueue2Time = lNow;
+        mPipeline.completedRollout(mBatch[lii]);
+      }
+      else if (lii > 0)
+      {
+        mBatch[lii].process(mStateMachine, mOurRole, mRoleOrdering);
+        mBatch[lii].mEnqueue2Time = System.nanoTime();
+        mPipeline.completedRollout(mBatch[lii]);
+      }
+      mBatch[lii] = null;
+    }
+
+    return lProcessed;
+  }
+
+  /**
+   * Mark as complete any requests that were claimed for a batch, other than the first, but not processed because of an
+   * exception.
+   */
+  private void completeOutstandingBatch()
+  {
+    for (int lii = 1; lii < mBatch.length; lii++)
+    {
+      if (mBatch[lii] != null)
+      {
+        mPipeline.completedRollout(mBatch[lii]);
+        mBatch[lii] = null;
+      }
+    }
+    mBatch[0] = null;
+  }
+
+  /**
+   * Publish performance statistics and adjust the batching threshold to match.
+   *
+   * When this thread spends nearly all its time doing useful work, requests are queueing up and batching them improves
+   * throughput.  When it spends much of its time waiting, batching would only add latency.
    *
    * @param xiUsefulWork - the number of nanoseconds of useful work carried out by this thread.
    * @param xiBlockedFor - the number of nanoseconds this thread has been blocked on the pipeline.
@@ -170,6 +266,21 @@ class RolloutProcessor implements Runnable
   private void publishPerfStats(long xiUsefulWork, long xiBlockedFor)
   {
     RolloutPerfStats lStats = new RolloutPerfStats(xiUsefulWork, xiBlockedFor);
-    mPipeline.publishRolloutPerfStats(mThreadIndex, lStats);
+    if (GameSearcher.USE_DYNAMIC_SAMPLE_SIZING)
+    {
+      mPipeline.publishRolloutPerfStats(mThreadIndex, lStats);
+    }
+
+    RolloutPerfStats lStatsDiff = lStats.getDifference(mLastPerfStats);
+    mLastPerfStats = lStats;
+
+    if (lStatsDiff.mUsefulWorkFraction > BATCH_SATURATED_FRACTION)
+    {
+      mBatchMinQueueDepth = Math.max(BATCH_MIN_QUEUE_DEPTH_LOWER_BOUND, mBatchMinQueueDepth / 2);
+    }
+    else if (lStatsDiff.mUsefulWorkFraction < BATCH_UNDERUSED_FRACTION)
+    {
+      mBatchMinQueueDepth = Math.min(BATCH_MIN_QUEUE_DEPTH_UPPER_BOUND, mBatchMinQueueDepth * 2);
+    }
   }
-}
\ No newline at end of file
+}
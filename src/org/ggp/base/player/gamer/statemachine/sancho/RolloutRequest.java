@@ -1,6 +1,7 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropnetBatchAnimator;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.Factor;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
@@ -28,7 +29,10 @@ class RolloutRequest
   public int                                   mMinScore;
   public int                                   mMaxScore;
   public int                                   mThreadId;
+  public int                                   mPipelineIndex;     //  Per-thread pipeline holding this request
+  public long                                  mPipelineSequence;  //  ID within that pipeline, set when claimed
   private final int[]                          latchedScoreRangeBuffer = new int[2];
+  private final int[]                          mSampleScores;
 
   public long                                  mSelectElapsedTime;
   public long                                  mExpandElapsedTime;
@@ -53,6 +57,7 @@ class RolloutRequest
   {
     mAverageScores = new double[xiNumRoles];
     mAverageSquaredScores = new double[xiNumRoles];
+    mSampleScores = new int[xiNumRoles];
     mState = underlyingStateMachine.createEmptyInternalState();
     mPlayoutInfo = underlyingStateMachine.new PlayoutInfo(MCTSTree.MAX_SUPPORTED_TREE_DEPTH);
   }
@@ -75,9 +80,115 @@ class RolloutRequest
   {
     int lNumRoles = stateMachine.getRoles().length;
 
+    startRollouts(lNumRoles);
+
+    mPlayoutInfo.factor = mFactor;
+    mPlayoutInfo.cutoffDepth = mTree.mWeightDecayCutoffDepth;
+    mPlayoutInfo.recordTrace = mRecordPlayoutTrace;
+    // Perform the requested number of samples.
+    for (int i = 0; i < mSampleSize && !mComplete && !mIsWin; i++)
+    {
+      stateMachine.getDepthChargeResult(mState, mPlayoutInfo);
+
+      for (int roleIndex = 0; roleIndex < lNumRoles; roleIndex++)
+      {
+        mSampleScores[roleIndex] = mPlayoutInfo.goalsLatched ?
+                                     mPlayoutInfo.latchedGoals[roleIndex] :
+                                     stateMachine.getGoal(xiRoleOrdering.roleIndexToRole(roleIndex));
+      }
+
+      recordSample(stateMachine, xiRoleOrdering, mSampleScores);
+    }
+
+    finishRollouts(lNumRoles);
+  }
+
+  /**
+   * @return whether this request can be processed as part of a batch.
+   */
+  public boolean canProcessInBatch()
+  {
+    return !mRecordPlayoutTrace && mFactor == null && mSampleSize <= ForwardDeadReckonPropnetBatchAnimator.LANES;
+  }
+
+  /**
+   * Process a batch of rollout requests together, performing all their samples in a single set of batched depth charges.
+   *
+   * @param xiRequests     - the requests, all of which must satisfy {@link #canProcessInBatch()}, with the same cutoff
+   *                         depth and with a total sample size of at most ForwardDeadReckonPropnetBatchAnimator.LANES.
+   * @param xiNumRequests  - the number of requests.
+   * @param xiStateMachine - a state machine to handle perform the rollouts.
+   * @param xiRoleOrdering - the role ordering.
+   * @param xiBuffers      - buffers for the batch.
+   *
+   * @return whether the batch was processed.  If not, the requests must be processed individually.
+   */
+  public static boolean processBatch(RolloutRequest[] xiRequests,
+                                     int xiNumRequests,
+                                     ForwardDeadReckonPropnetStateMachine xiStateMachine,
+                                     RoleOrdering xiRoleOrdering,
+                                     BatchBuffers xiBuffers)
+  {
+    int lNumRoles = xiStateMachine.getRoles().length;
+    int lNumPlayouts = 0;
+
+    for (int lii = 0; lii < xiNumRequests; lii++)
+    {
+      RolloutRequest lRequest = xiRequests[lii];
+      assert(lRequest.canProcessInBatch());
+      assert(lRequest.mTree.mWeightDecayCutoffDepth == xiRequests[0].mTree.mWeightDecayCutoffDepth);
+
+      lRequest.startRollouts(lNumRoles);
+      for (int lSample = 0; lSample < lRequest.mSampleSize; lSample++)
+      {
+        xiBuffers.mStates[lNumPlayouts++] = lRequest.mState;
+      }
+    }
+    assert(lNumPlayouts <= ForwardDeadReckonPropnetBatchAnimator.LANES);
+
+    if (!xiStateMachine.getDepthChargeResults(xiBuffers.mStates,
+                                              lNumPlayouts,
+                                              xiRequests[0].mTree.mWeightDecayCutoffDepth,
+                                              xiBuffers.mPlayoutLengths,
+                                              xiBuffers.mGoals))
+    {
+      return false;
+    }
+
+    // Record the results, in the same way as if the samples had been performed one at a time.
+    int lPlayout = 0;
+    for (int lii = 0; lii < xiNumRequests; lii++)
+    {
+      RolloutRequest lRequest = xiRequests[lii];
+
+      for (int lSample = 0; lSample < lRequest.mSampleSize; lSample++, lPlayout++)
+      {
+        if (lRequest.mComplete)
+        {
+          continue;
+        }
+
+        int[] lGoals = xiBuffers.mGoals[lPlayout];
+        for (int roleIndex = 0; roleIndex < lNumRoles; roleIndex++)
+        {
+          lRequest.mSampleScores[roleIndex] = lGoals[xiRoleOrdering.roleIndexToRawRoleIndex(roleIndex)];
+        }
+
+        lRequest.mPlayoutInfo.playoutLength = xiBuffers.mPlayoutLengths[lPlayout];
+        lRequest.recordSample(xiStateMachine, xiRoleOrdering, lRequest.mSampleScores);
+      }
+
+      lRequest.finishRollouts(lNumRoles);
+    }
+
+    return true;
+  }
+
+  private void startRollouts(int xiNumRoles)
+  {
     mRolloutStartTime = System.nanoTime();
     mQueueLatency = mRolloutStartTime - mEnqueueTime;
-    for (int roleIndex = 0; roleIndex < lNumRoles; roleIndex++)
+    for (int roleIndex = 0; roleIndex < xiNumRoles; roleIndex++)
     {
       mAverageScores[roleIndex] = 0;
       mAverageSquaredScores[roleIndex] = 0;
@@ -87,82 +198,88 @@ class RolloutRequest
     mWeight = 0;
     mComplete = false;
     mIsWin = false;
+  }
 
-    mPlayoutInfo.factor = mFactor;
-    mPlayoutInfo.cutoffDepth = mTree.mWeightDecayCutoffDepth;
-    mPlayoutInfo.recordTrace = mRecordPlayoutTrace;
-    // Perform the requested number of samples.
-    for (int i = 0; i < mSampleSize && !mComplete; i++)
-    {
-      stateMachine.getDepthChargeResult(mState, mPlayoutInfo);
+  /**
+   * Record the result of a single sample, whose length is in mPlayoutInfo.
+   *
+   * @param stateMachine - the state machine used to perform the sample.
+   * @param xiRoleOrdering - the role ordering.
+   * @param xiScores - the score for each role (in role ordering order) at the end of the sample.
+   */
+  private void recordSample(ForwardDeadReckonPropnetStateMachine stateMachine,
+                            RoleOrdering xiRoleOrdering,
+                            int[] xiScores)
+  {
+    int lNumRoles = xiScores.length;
 
-      double weight = (mTree.mWeightDecayKneeDepth == -1 ? 1 : 1 - sigma((mPlayoutInfo.playoutLength-mTree.mWeightDecayKneeDepth)/mTree.mWeightDecayScaleFactor));
-      assert(!Double.isNaN(weight));
-      assert(weight > TreeNode.EPSILON);
+    double weight = (mTree.mWeightDecayKneeDepth == -1 ? 1 : 1 - sigma((mPlayoutInfo.playoutLength-mTree.mWeightDecayKneeDepth)/mTree.mWeightDecayScaleFactor));
+    assert(!Double.isNaN(weight));
+    assert(weight > TreeNode.EPSILON);
 
-      mWeight += weight;
+    mWeight += weight;
 
-      // Record the results.
-      for (int roleIndex = 0; roleIndex < lNumRoles; roleIndex++)
+    // Record the results.
+    for (int roleIndex = 0; roleIndex < lNumRoles; roleIndex++)
+    {
+      int lScore = xiScores[roleIndex];
+      mAverageScores[roleIndex] += lScore*weight;
+      mAverageSquaredScores[roleIndex] += lScore * lScore * weight;
+
+      // Check for new min/max.
+      if (roleIndex == 0)
       {
-        int lScore = stateMachine.getGoal(xiRoleOrdering.roleIndexToRole(roleIndex));
-        mAverageScores[roleIndex] += lScore*weight;
-        mAverageSquaredScores[roleIndex] += lScore * lScore * weight;
+        if (lScore > mMaxScore)
+        {
+          mMaxScore = lScore;
+        }
+        if (lScore < mMinScore)
+        {
+          mMinScore = lScore;
+        }
 
-        // Check for new min/max.
-        if (roleIndex == 0)
+        if (stateMachine.getIsPseudoPuzzle())
         {
-          if (lScore > mMaxScore)
-          {
-            mMaxScore = lScore;
-          }
-          if (lScore < mMinScore)
-          {
-            mMinScore = lScore;
-          }
+          stateMachine.getLatchedScoreRange(mState, xiRoleOrdering.roleIndexToRole(0), latchedScoreRangeBuffer);
 
-          if (stateMachine.getIsPseudoPuzzle())
+          if ( lScore == latchedScoreRangeBuffer[1] && latchedScoreRangeBuffer[1] > latchedScoreRangeBuffer[0] )
           {
-            stateMachine.getLatchedScoreRange(mState, xiRoleOrdering.roleIndexToRole(0), latchedScoreRangeBuffer);
-
-            if ( lScore == latchedScoreRangeBuffer[1] && latchedScoreRangeBuffer[1] > latchedScoreRangeBuffer[0] )
-            {
-              // Found a win.  Record the fact, and preserve the winning moves.
-              mIsWin = true;
-            }
+            // Found a win.  Record the fact, and preserve the winning moves.
+            mIsWin = true;
           }
         }
       }
+    }
 
-      //  For fixed sum games, if greedy rollouts are being employed, the last 2 moves on the played path
-      //  are guaranteed to be optimal, so a depth lower than this implies a complete node immediately
-      //  For any game, a rollout of length 0 implies we started from an already-terminal state, so this node
-      //  must be complete (note that this CAN happen in games where we do not expand on first visit)
-      if ( mPlayoutInfo.playoutLength == 0 || (mPlayoutInfo.playoutLength <= 2 && stateMachine.getIsGreedyRollouts() && mTree.mGameCharacteristics.getIsFixedSum()) )
-      {
-        mComplete = true;
-      }
+    //  For fixed sum games, if greedy rollouts are being employed, the last 2 moves on the played path
+    //  are guaranteed to be optimal, so a depth lower than this implies a complete node immediately
+    //  For any game, a rollout of length 0 implies we started from an already-terminal state, so this node
+    //  must be complete (note that this CAN happen in games where we do not expand on first visit)
+    if ( mPlayoutInfo.playoutLength == 0 || (mPlayoutInfo.playoutLength <= 2 && stateMachine.getIsGreedyRollouts() && mTree.mGameCharacteristics.getIsFixedSum()) )
+    {
+      mComplete = true;
+    }
 
-      if ( mIsWin )
+    if ( mIsWin )
+    {
+      //  Need the returned score to reflect JUST this (winning) playout
+      for (int roleIndex = 0; roleIndex < lNumRoles; roleIndex++)
       {
-        //  Need the returned score to reflect JUST this (winning) playout
-        for (int roleIndex = 0; roleIndex < lNumRoles; roleIndex++)
-        {
-          int lScore = stateMachine.getGoal(xiRoleOrdering.roleIndexToRole(roleIndex));
-          mAverageScores[roleIndex] = lScore;
-          mAverageSquaredScores[roleIndex] = lScore * lScore;
-        }
-
-        break;
+        int lScore = xiScores[roleIndex];
+        mAverageScores[roleIndex] = lScore;
+        mAverageSquaredScores[roleIndex] = lScore * lScore;
       }
     }
+  }
 
+  private void finishRollouts(int xiNumRoles)
+  {
     assert(!Double.isNaN(mAverageScores[0]));
 
     if ( !mIsWin && mWeight != 1 )
     {
       // Normalize the results for the number of samples and their weights.
-      for (int roleIndex = 0; roleIndex < lNumRoles; roleIndex++)
+      for (int roleIndex = 0; roleIndex < xiNumRoles; roleIndex++)
       {
         mAverageScores[roleIndex] /= mWeight;
         mAverageSquaredScores[roleIndex] /= mWeight;
@@ -170,4 +287,25 @@ class RolloutRequest
       assert(!Double.isNaN(mAverageScores[0]));
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Working storage for processing batches of rollout requests.  Each rollout thread needs its own.
+   */
+  public static class BatchBuffers
+  {
+    final ForwardDeadReckonInternalMachineState[] mStates =
+                                  new ForwardDeadReckonInternalMachineState[ForwardDeadReckonPropnetBatchAnimator.LANES];
+    final int[]                                   mPlayoutLengths = new int[ForwardDeadReckonPropnetBatchAnimator.LANES];
+    final int[][]                                 mGoals;
+
+    /**
+     * Create buffers for batch processing.
+     *
+     * @param xiNumRoles - the number of roles in the game.
+     */
+    public BatchBuffers(int xiNumRoles)
+    {
+      mGoals = new int[ForwardDeadReckonPropnetBatchAnimator.LANES][xiNumRoles];
+    }
+  }
+}
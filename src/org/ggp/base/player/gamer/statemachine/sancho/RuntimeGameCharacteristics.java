@@ -66,6 +66,7 @@ public class RuntimeGameCharacteristics extends GameCharacteristics
   private double              mVarianceHyperSequenceLength = 0;
   private long                mMaxFactorFailureTime   = 0;
   private String              mControlMask            = null;
+  private final File          mGameDirectory;
 
   /**
    * Create game characteristics, loading any state from previous games.
@@ -76,6 +77,7 @@ public class RuntimeGameCharacteristics extends GameCharacteristics
   {
     super();
     setRolloutSampleSize(1);
+    mGameDirectory = xiGameDirectory;
 
     if ( xiGameDirectory != null )
     {
@@ -87,6 +89,14 @@ public class RuntimeGameCharacteristics extends GameCharacteristics
     }
   }
 
+  /**
+   * @return the directory in which state for this game is saved, or null if there isn't one.
+   */
+  public File getGameDirectory()
+  {
+    return mGameDirectory;
+  }
+
   /**
    * Load previously saved per-game configuration from disk.
    *
@@ -12,8 +12,9 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -197,7 +198,10 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     ThreadControl.sCPUIdParity = (getPort()%2 == 0);
     ThreadControl.reset();
 
-    mUnderlyingStateMachine = new ForwardDeadReckonPropnetStateMachine(ThreadControl.CPU_INTENSIVE_THREADS + 1,
+    // Instances are needed for the master, the rollout threads and the local search threads, plus one for each of the
+    // meta-game samplers.
+    mUnderlyingStateMachine = new ForwardDeadReckonPropnetStateMachine(2 * ThreadControl.CPU_INTENSIVE_THREADS +
+                                                                         ThreadControl.LOCAL_SEARCH_THREADS,
                                                                       getMetaGamingTimeout(),
                                                                       getRole(),
                                                                       mGameCharacteristics);
@@ -290,8 +294,6 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
       lSearchProcessorThread.start();
     }
 
-    Random r = new Random();
-
     if ( MachineSpecificConfiguration.getCfgStr(CfgItem.TLKIO_CHANNEL) != MachineSpecificConfiguration.NO_TLK_CHANNEL )
     {
       mBroadcaster = new Tlkio(getName(), MachineSpecificConfiguration.getCfgStr(CfgItem.TLKIO_CHANNEL));
@@ -400,28 +402,8 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     mGameCharacteristics.isPseudoPuzzle = mUnderlyingStateMachine.getIsPseudoPuzzle();
     mGameCharacteristics.isStrictlyAlternatingPlay = true;
 
-    //  Create masks of possible control props, which we'll whittle down during simulation
-    //  If we wind up with a unique prop for each role e'll note it for future use
-    ForwardDeadReckonInternalMachineState[] roleControlMasks = new ForwardDeadReckonInternalMachineState[mNumRoles];
     mRoleControlProps = new ForwardDeadReckonPropositionInfo[mNumRoles];
 
-    for(int i = 0; i < mNumRoles; i++)
-    {
-      roleControlMasks[i] = mUnderlyingStateMachine.createEmptyInternalState();
-      roleControlMasks[i].clear();
-      roleControlMasks[i].invert();
-    }
-
-    //	Also monitor whether any given player always has the SAME choice of move (or just a single choice)
-    //	every turn - such games are (highly probably) iterated games
-    List<Set<Move>> roleMoves = new ArrayList<>();
-    mGameCharacteristics.isIteratedGame = true;
-
-    for (int i = 0; i < mNumRoles; i++)
-    {
-      roleMoves.add(null);
-    }
-
     double branchingFactorApproximation = 0;
     double averageHyperSequenceLength = 0;
     double varianceHyperSequenceLength = 0;
@@ -434,9 +416,6 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     //	a single decision
     long lMetaGameStartTime = System.currentTimeMillis();
     long lMetaGameStopTime = timeout - 5000;
-    int numSamples = 0;
-    int maxNumTurns = 0;
-    int minNumTurns = Integer.MAX_VALUE;
 
     // Spend half the time determining heuristic weights if there are any heuristics, else spend
     //  a short time just establishing the type of game
@@ -451,221 +430,78 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
       lHeuristicStopTime = lMetaGameStartTime + 4000;
     }
 
-    //  Buffer for new states
-    ForwardDeadReckonInternalMachineState newState = new ForwardDeadReckonInternalMachineState(initialState);
-    int[] playerMoveParity = new int[mNumRoles];
-    for(int i = 0; i < mNumRoles; i++)
-    {
-      playerMoveParity[i] = -1;
-    }
-
     //  Start with greedy rollouts disabled for finding basic characteristics.  This is likely to result in more
     //  simulations, and prevents games with forced greedy paths (like Centipede wherein one choice always leads
     //  to immediate non-win termination and hence is never chosen by greedy processing) giving misleading results
     mUnderlyingStateMachine.enableGreedyRollouts(false, false);
 
-    int totalTurnSamples = 0;
-    int totalGoalChangeCount = 0;
-    int totalHyperSequenceLength = 0;
-    int totalSquaredHyperSequenceLength = 0;
-    int totalHyperSequenceCount = 0;
-    boolean goalsMonotonic = true;
+    //  Play the sample games in parallel, one sampler per CPU-intensive thread, each with its own state machine
+    //  instance.  Meanwhile, this thread replays the recorded games into the heuristic (which can only be tuned here,
+    //  because it uses the master state machine).  Games are replayed taking one from each sampler in turn, so the
+    //  heuristic sees the same sequence of samples however the samplers' threads are scheduled.
+    AtomicInteger lTotalNumSamples = new AtomicInteger();
+    AtomicBoolean lAnySimultaneousMove = new AtomicBoolean();
+    MetaGameSampler[] lSamplers = new MetaGameSampler[ThreadControl.CPU_INTENSIVE_THREADS];
+    for (int i = 0; i < lSamplers.length; i++)
+    {
+      lSamplers[i] = new MetaGameSampler(mUnderlyingStateMachine.createInstance(),
+                                         mRoleOrdering,
+                                         mOurRole,
+                                         initialState,
+                                         factors,
+                                         lHeuristicStopTime,
+                                         MIN_PRIMARY_SIMULATION_SAMPLES,
+                                         lTotalNumSamples,
+                                         lAnySimultaneousMove,
+                                         mLogName);
+    }
 
-    //  Slight hack, but for now we don't bother continuing to simulate for a long time after discovering we're in
-    //  a simultaneous turn game, because (for now anyway) we disable heuristics in such games anyway
-    while ((System.currentTimeMillis() < lHeuristicStopTime) &&
-           ((numSamples < MIN_PRIMARY_SIMULATION_SAMPLES) || (!mGameCharacteristics.isSimultaneousMove)))
+    try
     {
-      ForwardDeadReckonInternalMachineState sampleState = new ForwardDeadReckonInternalMachineState(initialState);
-
-      int numRoleMovesSimulated = 0;
-      int numBranchesTaken = 0;
-      int turnNum = 0;
-      int lastOurGoal = mUnderlyingStateMachine.getGoal(sampleState, mOurRole);
-      int hyperExpansionLength = -1;
-      int previousChoosingRoleIndex;
-      int choosingRoleIndex = -2;
-
-      heuristic.tuningStartSampleGame();
-
-      while (!mUnderlyingStateMachine.isTerminal(sampleState))
+      boolean[] lSamplerExhausted = new boolean[lSamplers.length];
+      int lNumSamplersExhausted = 0;
+      while (lNumSamplersExhausted < lSamplers.length)
       {
-        boolean roleWithChoiceSeen = false;
-        ForwardDeadReckonLegalMoveInfo[] jointMove = new ForwardDeadReckonLegalMoveInfo[mNumRoles];
-        Set<Move> allMovesInState = new HashSet<>();
-
-        previousChoosingRoleIndex = choosingRoleIndex;
-        choosingRoleIndex = -2;
-
-        turnNum++;
-        hyperExpansionLength++;
-
-        for (int i = 0; i < mNumRoles; i++)
-        {
-          List<ForwardDeadReckonLegalMoveInfo> legalMoves =
-                  new ArrayList<>(mUnderlyingStateMachine.getLegalMoves(sampleState, mRoleOrdering.roleIndexToRole(i)));
-
-          if (legalMoves.size() > 1)
-          {
-            if (roleControlMasks[i].size() > 0)
-            {
-              if (roleControlMasks[i].intersectionSize(sampleState) == 0)
-              {
-                LOGGER.debug("Eliminating role control props");
-              }
-              //  This player has control (may not be only this player)
-              roleControlMasks[i].intersect(sampleState);
-            }
-
-            Set<Move> previousChoices = roleMoves.get(i);
-
-            if (previousChoices != null)
-            {
-              if (mGameCharacteristics.isIteratedGame)
-              {
-                Set<Move> moves = new HashSet<>();
-
-                for(ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
-                {
-                  moves.add(moveInfo.mMove);
-                }
-
-                if (!previousChoices.equals(moves))
-                {
-                  mGameCharacteristics.isIteratedGame = false;
-                }
-              }
-            }
-            else
-            {
-              Set<Move> moves = new HashSet<>();
-
-              for(ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
-              {
-                moves.add(moveInfo.mMove);
-              }
-
-              roleMoves.set(i, moves);
-            }
-
-            choosingRoleIndex = i;
-            Factor turnFactor = null;
-
-            if (mGameCharacteristics.isStrictlyAlternatingPlay)
-            {
-              int moveParity = (turnNum%mNumRoles);
-              if (playerMoveParity[choosingRoleIndex] == -1)
-              {
-                playerMoveParity[choosingRoleIndex] = moveParity;
-              }
-              else if (moveParity != playerMoveParity[choosingRoleIndex])
-              {
-                mGameCharacteristics.isStrictlyAlternatingPlay = false;
-              }
-            }
-
-            for (ForwardDeadReckonLegalMoveInfo moveInfo : legalMoves)
-            {
-              if (factors != null)
-              {
-                for(Factor factor : factors)
-                {
-                  if (factor.getMoves().contains(moveInfo.mMove))
-                  {
-                    if (turnFactor != null && turnFactor != factor)
-                    {
-                      mGameCharacteristics.moveChoicesFromMultipleFactors = true;
-                      break;
-                    }
-                    turnFactor = factor;
-                  }
-                }
-              }
-              if (allMovesInState.contains(moveInfo.mMove))
-              {
-                mGameCharacteristics.isSimultaneousMove = true;
-                choosingRoleIndex = -1;
-                break;
-              }
-              allMovesInState.add(moveInfo.mMove);
-            }
-
-            if (roleWithChoiceSeen)
-            {
-              mGameCharacteristics.isPseudoSimultaneousMove = true;
-              choosingRoleIndex = -1;
-            }
-
-            roleWithChoiceSeen = true;
-
-            numBranchesTaken += legalMoves.size();
-            numRoleMovesSimulated++;
-          }
-
-          jointMove[i] = legalMoves.get(r.nextInt(legalMoves.size()));
-        }
-
-        if (choosingRoleIndex < 0 ||
-            (choosingRoleIndex != previousChoosingRoleIndex && previousChoosingRoleIndex >= 0))
+        for (int i = 0; i < lSamplers.length; i++)
         {
-          totalHyperSequenceLength += hyperExpansionLength;
-          totalSquaredHyperSequenceLength += hyperExpansionLength*hyperExpansionLength;
-          hyperExpansionLength = 0;
-          totalHyperSequenceCount++;
-        }
-
-        heuristic.tuningInterimStateSample(sampleState, choosingRoleIndex);
-
-        mUnderlyingStateMachine.getNextState(sampleState, null, jointMove, newState);
-
-        sampleState.copy(newState);
-
-        int currentOurGoal = mUnderlyingStateMachine.getGoal(sampleState, mOurRole);
-
-        totalTurnSamples++;
-        if (currentOurGoal != lastOurGoal)
-        {
-          totalGoalChangeCount++;
-          if (lastOurGoal > currentOurGoal)
+          if (!lSamplerExhausted[i] && !lSamplers[i].replayNextSampleGame(heuristic))
           {
-            goalsMonotonic = false;
+            lSamplerExhausted[i] = true;
+            lNumSamplersExhausted++;
           }
-          lastOurGoal = currentOurGoal;
         }
       }
+    }
+    catch (InterruptedException lEx)
+    {
+      LOGGER.warn("Interrupted whilst tuning heuristics");
+      Thread.currentThread().interrupt();
+    }
 
-      if (hyperExpansionLength > 0)
-      {
-        totalHyperSequenceLength += hyperExpansionLength;
-        totalSquaredHyperSequenceLength += hyperExpansionLength*hyperExpansionLength;
-        totalHyperSequenceCount++;
-      }
-
-      if (turnNum > maxNumTurns)
-      {
-        maxNumTurns = turnNum;
-      }
-      if (turnNum < minNumTurns)
-      {
-        assert(turnNum>0);
-        minNumTurns = turnNum;
-      }
-
-      for (int i = 0; i < mNumRoles; i++)
-      {
-        roleScores[i] = mUnderlyingStateMachine.getGoal(sampleState, mRoleOrdering.roleIndexToRole(i));
-      }
+    MetaGameSampler lSampleTotals = new MetaGameSampler(mUnderlyingStateMachine);
+    for (MetaGameSampler lSampler : lSamplers)
+    {
+      lSampler.stop();
+      lSampler.accumulateInto(lSampleTotals);
+    }
 
-      // Tell the heuristic about the terminal state, for tuning purposes.
-      assert(mUnderlyingStateMachine.isTerminal(sampleState));
-      heuristic.tuningTerminalStateSample(sampleState, roleScores);
+    ForwardDeadReckonInternalMachineState[] roleControlMasks = lSampleTotals.mRoleControlMasks;
+    mGameCharacteristics.isIteratedGame = lSampleTotals.mIsIteratedGame;
+    mGameCharacteristics.isStrictlyAlternatingPlay = lSampleTotals.mIsStrictlyAlternatingPlay;
+    mGameCharacteristics.isSimultaneousMove = lSampleTotals.mIsSimultaneousMove;
+    mGameCharacteristics.isPseudoSimultaneousMove = lSampleTotals.mIsPseudoSimultaneousMove;
+    mGameCharacteristics.moveChoicesFromMultipleFactors |= lSampleTotals.mMoveChoicesFromMultipleFactors;
 
-      if (numRoleMovesSimulated > 0)
-      {
-        branchingFactorApproximation += (numBranchesTaken / numRoleMovesSimulated);
-      }
-      numSamples++;
-    }
+    int numSamples = lSampleTotals.mNumSamples;
+    int maxNumTurns = lSampleTotals.mMaxNumTurns;
+    int minNumTurns = lSampleTotals.mMinNumTurns;
+    int totalTurnSamples = lSampleTotals.mTotalTurnSamples;
+    int totalGoalChangeCount = lSampleTotals.mTotalGoalChangeCount;
+    int totalHyperSequenceLength = lSampleTotals.mTotalHyperSequenceLength;
+    int totalSquaredHyperSequenceLength = lSampleTotals.mTotalSquaredHyperSequenceLength;
+    int totalHyperSequenceCount = lSampleTotals.mTotalHyperSequenceCount;
+    boolean goalsMonotonic = lSampleTotals.mGoalsMonotonic;
+    branchingFactorApproximation = lSampleTotals.mTotalBranchingFactor;
 
     // Complete heuristic tuning.
     heuristic.tuningComplete();
@@ -1066,7 +902,21 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
         (observedMaxNetScore < 100) &&
         (factors == null))
     {
-      tryAStar(initialState, timeout);
+      // The samplers have been stopped, so the state machine instances of those whose threads have exited are free
+      // to search with.
+      List<ForwardDeadReckonPropnetStateMachine> lSearchInstances = new ArrayList<>();
+      for (MetaGameSampler lSampler : lSamplers)
+      {
+        if (lSampler.isStopped())
+        {
+          lSearchInstances.add(lSampler.getStateMachine());
+        }
+        else
+        {
+          LOGGER.warn("Meta-game sampler still running - not using its state machine for A*");
+        }
+      }
+      tryAStar(initialState, lSearchInstances, timeout);
 
       if (mPlan != null && !mPlan.isEmpty())
       {
@@ -1244,7 +1094,9 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
     }
   }
 
-  private void tryAStar(ForwardDeadReckonInternalMachineState xiInitialState, long xiTimeout)
+  private void tryAStar(ForwardDeadReckonInternalMachineState xiInitialState,
+                        List<ForwardDeadReckonPropnetStateMachine> xiSearchInstances,
+                        long xiTimeout)
   {
     // 8-puzzle type stuff.
     LOGGER.info("Puzzle with no observed solution");
@@ -1298,8 +1150,10 @@ public class Sancho extends SampleGamer implements WatchdogExpiryHandler
       else
       {
         Collection<Move> lSolution = new TargetedSolutionStatePlayer(mUnderlyingStateMachine,
+                                                                     xiSearchInstances,
                                                                      lTerminalState,
-                                                                     this).attemptAStarSolve(99,
+                                                                     this).attemptParallelIDAStarSolve(
+                                                                                             99,
                                                                                              xiTimeout - SAFETY_MARGIN);
         if (lSolution != null)
         {
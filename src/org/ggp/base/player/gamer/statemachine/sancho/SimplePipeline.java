@@ -5,7 +5,12 @@ import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.F
 import com.lmax.disruptor.Sequence;
 
 /**
- * Highly efficient, lock-free rollout request pipeline with a single consumer.
+ * Highly efficient, lock-free rollout request pipeline with a single producer (the tree thread).
+ *
+ * Requests are normally consumed by a single rollout thread, but other rollout threads may steal them.  Rollouts can
+ * therefore complete out of order, and they are back-propagated in the order that they complete, so that a slow
+ * request doesn't hold up the results queued behind it.  A slot is only reused once the request in it has been
+ * back-propagated.
  */
 public class SimplePipeline
 {
@@ -30,30 +35,66 @@ public class SimplePipeline
   private long mLastExpandedCache = -1;
 
   /**
-   * The last request which has been rolled out.
+   * The last request which has been claimed for rollout.  Requests are normally claimed by the rollout thread that
+   * owns this pipeline, but an idle rollout thread may steal them, so claims are made by compare-and-set.
    *
-   * Written by: Rollout thread.
+   * Written by: Rollout threads.
+   * Read by:    Tree thread, Rollout threads.
+   */
+  private final Sequence mLastClaimed = new Sequence();
+
+  /**
+   * For each slot in the store, the ID of the last request in that slot which has been rolled out.  Requests claimed
+   * by different threads can complete in any order, so completion is tracked per slot rather than with a single
+   * sequence.
+   *
+   * Written by: Rollout threads.
+   * Read by:    Tree thread.
+   */
+  private final Sequence[] mRolledOut;
+
+  /**
+   * The number of requests which have been rolled out.  Incremented after the request's entry in mRolledOut is set, so
+   * that the tree thread never sees the count before the request.
+   *
+   * Written by: Rollout threads.
+   * Read by:    Tree thread.
+   */
+  private final Sequence mNumRolledOut = new Sequence(0);
+
+  /**
+   * For each slot in the store, the ID of the last request in that slot which has been back-propagated.  Initially,
+   * each slot is given the ID that a request in it would have had one time round the ring earlier, which marks the
+   * slot as free.
+   *
+   * Written by: Tree thread.
    * Read by:    Tree thread.
    */
-  private final Sequence mLastRolledOut = new Sequence();
-  private long mLastRolledOutCache = -1;
+  private final long[] mBackPropagated;
 
   /**
-   * The last request which has been completed by the back-propagation processing.
+   * The oldest request which hasn't been back-propagated, the request currently being back-propagated and the number
+   * of requests which have been back-propagated.
    *
    * Written by: Tree thread.
    * Read by:    Tree thread.
    */
-  private long mLastBackPropagated = -1L;
+  private long mOldestNotBackPropagated = 0;
+  private long mBackPropagating = -1L;
+  private long mNumBackPropagated = 0;
 
   /**
    * Create a pipeline with the specified maximum size.
    *
+   * @param xiIndex - the index of this pipeline (i.e. of the rollout thread that owns it).
    * @param xiSize - the maximum number of objects that can be in the pipeline.
    * @param xiNumRoles number of roles in the game
    * @param underlyingStateMachine state machine of the game
    */
-  public SimplePipeline(int xiSize, int xiNumRoles, ForwardDeadReckonPropnetStateMachine underlyingStateMachine)
+  public SimplePipeline(int xiIndex,
+                        int xiSize,
+                        int xiNumRoles,
+                        ForwardDeadReckonPropnetStateMachine underlyingStateMachine)
   {
     assert(Integer.bitCount(xiSize) == 1) : "Store size must be a power of 2 and > 0";
 
@@ -62,9 +103,14 @@ public class SimplePipeline
 
     // Create the backing store.
     mStore = new RolloutRequest[mSize];
+    mRolledOut = new Sequence[mSize];
+    mBackPropagated = new long[mSize];
     for (int lii = 0; lii < mSize; lii++)
     {
       mStore[lii] = new RolloutRequest(xiNumRoles, underlyingStateMachine);
+      mStore[lii].mPipelineIndex = xiIndex;
+      mRolledOut[lii] = new Sequence();
+      mBackPropagated[lii] = lii - mSize;
     }
   }
 
@@ -75,7 +121,9 @@ public class SimplePipeline
    */
   public boolean canExpand()
   {
-    return (mLastExpandedCache < mLastBackPropagated + mSize);
+    // The next slot is free once the request that was in it has been back-propagated.
+    final long lNextRequestID = mLastExpandedCache + 1;
+    return (mBackPropagated[(int)lNextRequestID & mIndexMask] == lNextRequestID - mSize);
   }
 
   /**
@@ -105,46 +153,105 @@ public class SimplePipeline
   }
 
   /**
-   * Get the next rollout request.
+   * @return the number of rollout requests which are available to be claimed now (without waiting).
    *
-   * This method will not return until a rollout request is available.
+   * Called by any thread.
+   */
+  public int getNumAvailableRolloutRequests()
+  {
+    return (int)Math.max(0, mLastExpanded.get() - mLastClaimed.get());
+  }
+
+  /**
+   * @return the ID of the last request to have been claimed.  This is the base for calls to
+   * {@link #peekRolloutRequest(long, int)} and {@link #claimRolloutRequests(long, int)}.
    *
-   * @return the next rollout request.
+   * Called by any rollout thread.
+   */
+  public long getLastClaimed()
+  {
+    return mLastClaimed.get();
+  }
+
+  /**
+   * Look at an unclaimed rollout request without claiming it.
+   *
+   * The caller must ensure that the request has been published, using {@link #getNumAvailableRolloutRequests()}.  The
+   * request may be claimed by another thread at any point, so the caller may only inspect the fields that are set
+   * during expansion.
+   *
+   * @param xiLastClaimed - the last claimed request, as returned by {@link #getLastClaimed()}.
+   * @param xiOffset      - offset of the request from the first unclaimed request.
    *
-   * Called by the rollout thread only.
+   * @return the request.
+   *
+   * Called by any rollout thread.
    */
-  public RolloutRequest getNextRolloutRequest()
+  public RolloutRequest peekRolloutRequest(long xiLastClaimed, int xiOffset)
   {
-    final long lNextRequestID = mLastRolledOutCache + 1;
+    return mStore[(int)(xiLastClaimed + 1 + xiOffset) & mIndexMask];
+  }
 
-    // Try a non-volatile read first, for speed.
-    if (mLastExpandedCache >= lNextRequestID)
+  /**
+   * Claim a run of rollout requests for processing by the calling thread.
+   *
+   * The caller must ensure that the requests have been published, using {@link #getNumAvailableRolloutRequests()}.
+   * Each claimed request must later be passed to {@link #rolloutComplete(RolloutRequest)}.
+   *
+   * @param xiLastClaimed - the last claimed request, as returned by {@link #getLastClaimed()}.
+   * @param xiNumRequests - the number of requests to claim.
+   *
+   * @return whether the requests were claimed.  If not, another thread has claimed some of them first.
+   *
+   * Called by any rollout thread.
+   */
+  public boolean claimRolloutRequests(long xiLastClaimed, int xiNumRequests)
+  {
+    if (!mLastClaimed.compareAndSet(xiLastClaimed, xiLastClaimed + xiNumRequests))
     {
-      return mStore[(int)lNextRequestID & mIndexMask];
+      return false;
     }
 
-    final Thread lThread = Thread.currentThread();
+    for (long lID = xiLastClaimed + 1; lID <= xiLastClaimed + xiNumRequests; lID++)
+    {
+      mStore[(int)lID & mIndexMask].mPipelineSequence = lID;
+    }
+    return true;
+  }
 
-    // Perform volatile reads until the next request is available.  (The cached value will be automatically updated
-    // because get() is a volatile read, which fetches everything that happened before, including updating the cache
-    // value.  Furthermore, this thread isn't allowed to write to the cached value.)
-    while ((!lThread.isInterrupted()) && (mLastExpanded.get() < lNextRequestID))
+  /**
+   * Try to claim the next rollout request.
+   *
+   * @return the request, or null if there are no requests available.
+   *
+   * Called by any rollout thread.
+   */
+  public RolloutRequest tryClaimRolloutRequest()
+  {
+    long lLastClaimed = mLastClaimed.get();
+    while (mLastExpanded.get() > lLastClaimed)
     {
-      Thread.yield();
+      if (claimRolloutRequests(lLastClaimed, 1))
+      {
+        return mStore[(int)(lLastClaimed + 1) & mIndexMask];
+      }
+      lLastClaimed = mLastClaimed.get();
     }
 
-    return mStore[(int)lNextRequestID & mIndexMask];
+    return null;
   }
 
   /**
    * Mark a rollout as complete.
    *
-   * Called by the rollout thread only.
+   * @param xiRequest - the request, which must have been claimed by the calling thread.
+   *
+   * Called by any rollout thread.
    */
-  public void rolloutComplete()
+  public void rolloutComplete(RolloutRequest xiRequest)
   {
-    mLastRolledOutCache++;
-    mLastRolledOut.setVolatile(mLastRolledOutCache);
+    mRolledOut[(int)xiRequest.mPipelineSequence & mIndexMask].setVolatile(xiRequest.mPipelineSequence);
+    mNumRolledOut.incrementAndGet();
   }
 
   /**
@@ -154,20 +261,7 @@ public class SimplePipeline
    */
   public boolean canBackPropagate()
   {
-    // See if we already know that back-propagation will be successful.
-    if (mLastRolledOutCache > mLastBackPropagated)
-    {
-      return true;
-    }
-
-    if (isEmpty())
-    {
-      return false;
-    }
-
-    // Perform a volatile read.  This will also update the cached value (because of volatile semantics).  We're not
-    // allowed to write to the cached value anyway.
-    return (mLastRolledOut.get() > mLastBackPropagated);
+    return (mNumRolledOut.get() > mNumBackPropagated);
   }
 
   /**
@@ -179,22 +273,25 @@ public class SimplePipeline
    */
   public RolloutRequest getNextRequestForBackPropagation()
   {
-    final long lNextRequestID = mLastBackPropagated + 1;
-
-    // See if we already know that a request is available.
-    if (mLastRolledOutCache >= lNextRequestID)
+    // Perform volatile reads until some request is available.
+    while (!canBackPropagate())
     {
-      return mStore[(int)lNextRequestID & mIndexMask];
+      Thread.yield();
     }
 
-    // Perform volatile reads until the next request is available.  This will also update the cached value (because of
-    // volatile semantics).  We're not allowed to write to the cached value anyway.
-    while (mLastRolledOut.get() < lNextRequestID)
+    // Find the oldest request that has been rolled out but not back-propagated.  There must be one, because the count
+    // of completed rollouts is only updated after the request is marked as complete.
+    for (long lID = mOldestNotBackPropagated; lID <= mLastExpandedCache; lID++)
     {
-      Thread.yield();
+      final int lIndex = (int)lID & mIndexMask;
+      if ((mBackPropagated[lIndex] != lID) && (mRolledOut[lIndex].get() == lID))
+      {
+        mBackPropagating = lID;
+        return mStore[lIndex];
+      }
     }
 
-    return mStore[(int)lNextRequestID & mIndexMask];
+    throw new IllegalStateException("Rollout count is " + mNumRolledOut.get() + " but no completed request is queued");
   }
 
   /**
@@ -204,7 +301,17 @@ public class SimplePipeline
    */
   public void backPropagationComplete()
   {
-    mLastBackPropagated++;
+    assert(mBackPropagating >= mOldestNotBackPropagated) : "No request is being back-propagated";
+    mBackPropagated[(int)mBackPropagating & mIndexMask] = mBackPropagating;
+    mBackPropagating = -1L;
+    mNumBackPropagated++;
+
+    // Move past any requests that are now finished with.
+    while ((mOldestNotBackPropagated <= mLastExpandedCache) &&
+           (mBackPropagated[(int)mOldestNotBackPropagated & mIndexMask] == mOldestNotBackPropagated))
+    {
+      mOldestNotBackPropagated++;
+    }
   }
 
   /**
@@ -214,6 +321,6 @@ public class SimplePipeline
    */
   public boolean isEmpty()
   {
-    return mLastExpandedCache == mLastBackPropagated;
+    return mOldestNotBackPropagated > mLastExpandedCache;
   }
 }
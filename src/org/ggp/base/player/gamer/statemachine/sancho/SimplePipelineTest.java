@@ -0,0 +1,90 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SimplePipelineTest extends Assert
+{
+  private SimplePipeline mPipeline;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    ForwardDeadReckonPropnetStateMachine lMachine = new ForwardDeadReckonPropnetStateMachine();
+    lMachine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+    mPipeline = new SimplePipeline(0, 4, 2, lMachine);
+  }
+
+  private RolloutRequest[] fillAndClaim()
+  {
+    for (int lii = 0; lii < 4; lii++)
+    {
+      assertTrue(mPipeline.canExpand());
+      mPipeline.getNextExpandSlot();
+      mPipeline.expandComplete();
+    }
+    assertFalse(mPipeline.canExpand());
+
+    RolloutRequest[] lRequests = new RolloutRequest[4];
+    for (int lii = 0; lii < 4; lii++)
+    {
+      lRequests[lii] = mPipeline.tryClaimRolloutRequest();
+      assertNotNull(lRequests[lii]);
+    }
+    assertNull(mPipeline.tryClaimRolloutRequest());
+    return lRequests;
+  }
+
+  @Test
+  public void testOutOfOrderBackPropagation()
+  {
+    RolloutRequest[] lRequests = fillAndClaim();
+    assertFalse(mPipeline.canBackPropagate());
+
+    // A later rollout finishes first.  It can be back-propagated straight away, but the earliest slot is still busy.
+    mPipeline.rolloutComplete(lRequests[2]);
+    assertTrue(mPipeline.canBackPropagate());
+    assertSame(lRequests[2], mPipeline.getNextRequestForBackPropagation());
+    mPipeline.backPropagationComplete();
+    assertFalse(mPipeline.canBackPropagate());
+    assertFalse(mPipeline.canExpand());
+    assertFalse(mPipeline.isEmpty());
+
+    // Completing the first request frees its slot.
+    mPipeline.rolloutComplete(lRequests[0]);
+    assertSame(lRequests[0], mPipeline.getNextRequestForBackPropagation());
+    mPipeline.backPropagationComplete();
+    assertTrue(mPipeline.canExpand());
+
+    // With several complete, the oldest goes first.
+    mPipeline.rolloutComplete(lRequests[3]);
+    mPipeline.rolloutComplete(lRequests[1]);
+    assertSame(lRequests[1], mPipeline.getNextRequestForBackPropagation());
+    mPipeline.backPropagationComplete();
+    assertSame(lRequests[3], mPipeline.getNextRequestForBackPropagation());
+    mPipeline.backPropagationComplete();
+    assertFalse(mPipeline.canBackPropagate());
+    assertTrue(mPipeline.isEmpty());
+  }
+
+  @Test
+  public void testSlotsReusedAfterWrap()
+  {
+    // Go round the ring several times, always completing the requests in reverse order.
+    for (int lRound = 0; lRound < 3; lRound++)
+    {
+      RolloutRequest[] lRequests = fillAndClaim();
+      for (int lii = 3; lii >= 0; lii--)
+      {
+        mPipeline.rolloutComplete(lRequests[lii]);
+        assertSame(lRequests[lii], mPipeline.getNextRequestForBackPropagation());
+        mPipeline.backPropagationComplete();
+        assertEquals(lii == 0, mPipeline.canExpand());
+      }
+      assertTrue(mPipeline.isEmpty());
+    }
+  }
+}
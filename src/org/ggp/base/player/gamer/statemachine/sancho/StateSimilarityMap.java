@@ -38,7 +38,7 @@ public class StateSimilarityMap
         TreeNode lNodeToAdd = getNode(xiNodeRef);
         assert(lNodeToAdd != null);
 
-        double highestEvictionMeasure = -Math.log(lNodeToAdd.mNumVisits + 1);
+        double highestEvictionMeasure = -Math.log(lNodeToAdd.getNumVisits() + 1);
 
         for (int i = 0; i < capacity; i++)
         {
@@ -50,7 +50,7 @@ public class StateSimilarityMap
             break;
           }
 
-          double evictionMeasure = -Math.log(lNode.mNumVisits + 1);
+          double evictionMeasure = -Math.log(lNode.getNumVisits() + 1);
 
           if ( evictionMeasure > highestEvictionMeasure )
           {
@@ -88,7 +88,7 @@ public class StateSimilarityMap
 
   public void add(TreeNode xiNode)
   {
-    int hash = hashGenerator.getHash(xiNode.mState);
+    int hash = hashGenerator.getHash(xiNode.getState());
 
     if (buckets[hash] == null)
     {
@@ -115,10 +115,10 @@ public class StateSimilarityMap
       {
         TreeNode lNode = getNode(bucket.refs[i]);
 
-        if (lNode != null && lNode.mNumVisits > 0 && state != lNode.mState)
+        if (lNode != null && lNode.getNumVisits() > 0 && lNode.getStateHash() != state.getZobristHash())
         {
-          double distanceWeight = (1 - state.distance(lNode.mState));
-          double weight = distanceWeight*distanceWeight*Math.log(lNode.mNumVisits+1);
+          double distanceWeight = (1 - lNode.getStateDistance(state));
+          double weight = distanceWeight*distanceWeight*Math.log(lNode.getNumVisits()+1);
 
           for(int j = 0; j < result.length; j++)
           {
@@ -234,10 +234,10 @@ public class StateSimilarityMap
         {
           TreeNode lNode = getNode(bucket.refs[i]);
 
-          if (lNode != null && lNode.mNumVisits > 0 && state != lNode.mState)
+          if (lNode != null && lNode.getNumVisits() > 0 && lNode.getStateHash() != state.getZobristHash())
           {
-            double distanceWeight = (1 - state.distance(lNode.mState));
-            double weight = distanceWeight*distanceWeight*Math.log10(lNode.mNumVisits + 1);
+            double distanceWeight = (1 - lNode.getStateDistance(state));
+            double weight = distanceWeight*distanceWeight*Math.log10(lNode.getNumVisits() + 1);
 
             TreeNode node = getJointMoveParent(lNode, partialJointMove);
             if (node != null && node.mNumChildren != 0)
@@ -249,7 +249,7 @@ public class StateSimilarityMap
                 if ( childEdge != null &&
                      childEdge.getChildRef() != TreeNode.NULL_REF &&
                      getNode(childEdge.getChildRef()) != null &&
-                     getNode(childEdge.getChildRef()).mNumVisits > 0)
+                     getNode(childEdge.getChildRef()).getNumVisits() > 0)
                 {
                   TreeNode lChild = getNode(childEdge.getChildRef());
                   ForwardDeadReckonLegalMoveInfo move = childEdge.mPartialMove;
@@ -1,11 +1,16 @@
 package org.ggp.base.player.gamer.statemachine.sancho;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -80,11 +85,242 @@ public class TargetedSolutionStatePlayer
     }
   }
 
+  /**
+   * Transposition table for the IDA* search.  A fixed-size array of packed entries, shared by all the search threads
+   * without locking, so its memory use is bounded however many states are visited.
+   *
+   * Each entry holds the top bits of the (stepless) state's hash, the iteration in which it was last reached and the
+   * shortest path length by which it was reached in that iteration.  Entries from earlier iterations are ignored
+   * rather than cleared, and collisions simply overwrite - so a lost entry only costs some repeated search.
+   */
+  private static final class TranspositionTable
+  {
+    private static final int  CHECK_SHIFT    = 24;
+    private static final int  ITERATION_BITS = 8;
+    private static final int  ITERATION_MASK = (1 << ITERATION_BITS) - 1;
+    private static final int  PATH_BITS      = 16;
+    private static final long PATH_MASK      = (1L << PATH_BITS) - 1;
+
+    private final AtomicLongArray mEntries;
+    private final int             mIndexMask;
+
+    TranspositionTable(int xiSize)
+    {
+      mEntries = new AtomicLongArray(xiSize);
+      mIndexMask = xiSize - 1;
+    }
+
+    int size()
+    {
+      return mEntries.length();
+    }
+
+    /**
+     * Record that a state has been reached, unless it has already been reached at least as cheaply in this iteration.
+     *
+     * @param xiHash       - hash of the stepless state.
+     * @param xiPathLength - length of the path by which it has been reached.
+     * @param xiIteration  - the current iteration.
+     *
+     * @return whether the state has already been reached at least as cheaply (in which case it needn't be searched).
+     */
+    boolean checkAndRecord(long xiHash, int xiPathLength, int xiIteration)
+    {
+      int lIndex = (int)xiHash & mIndexMask;
+      long lCheck = xiHash >>> CHECK_SHIFT;
+      long lEntry = mEntries.get(lIndex);
+
+      if (lEntry != 0 &&
+          (lEntry >>> CHECK_SHIFT) == lCheck &&
+          ((lEntry >>> PATH_BITS) & ITERATION_MASK) == (xiIteration & ITERATION_MASK) &&
+          (lEntry & PATH_MASK) <= xiPathLength)
+      {
+        return true;
+      }
+
+      mEntries.set(lIndex,
+                   (lCheck << CHECK_SHIFT) |
+                   ((long)(xiIteration & ITERATION_MASK) << PATH_BITS) |
+                   Math.min(xiPathLength, PATH_MASK));
+      return false;
+    }
+  }
+
+  /**
+   * A subtree to be searched in each IDA* iteration, rooted at a node of the initial breadth-first frontier.
+   */
+  private static final class SearchRoot
+  {
+    final ForwardDeadReckonInternalMachineState mState;
+    final Move[]                                mPath;
+
+    SearchRoot(ForwardDeadReckonInternalMachineState xiState, Move[] xiPath)
+    {
+      mState = xiState;
+      mPath = xiPath;
+    }
+  }
+
+  /**
+   * One thread's share of an IDA* iteration.  Takes subtrees from the shared frontier until there are none left, and
+   * searches each depth-first on its own state machine instance, with state buffers allocated once per depth.
+   */
+  private final class IDAStarWorker implements Runnable
+  {
+    private final ForwardDeadReckonPropnetStateMachine          mStateMachine;
+    private final ForwardDeadReckonInternalMachineState         mSteplessMask;
+    private final ForwardDeadReckonInternalMachineState         mSteplessBuffer;
+    private final ForwardDeadReckonLegalMoveInfo[]              mJointMove = new ForwardDeadReckonLegalMoveInfo[1];
+    private final List<ForwardDeadReckonInternalMachineState>   mStates = new ArrayList<>();
+    private final List<ForwardDeadReckonLegalMoveInfo[]>        mMoves = new ArrayList<>();
+    private Move[]                                              mPath = new Move[64];
+    private SearchRoot                                          mRoot;
+    private int                                                 mBound;
+    private int                                                 mIteration;
+    long                                                        mNumStatesProcessed;
+
+    IDAStarWorker(ForwardDeadReckonPropnetStateMachine xiStateMachine)
+    {
+      mStateMachine = xiStateMachine;
+      mSteplessMask = xiStateMachine.getNonControlMask();
+      mSteplessBuffer = new ForwardDeadReckonInternalMachineState(mSteplessMask);
+    }
+
+    void startIteration(int xiBound, int xiIteration)
+    {
+      mBound = xiBound;
+      mIteration = xiIteration;
+    }
+
+    @Override
+    public void run()
+    {
+      int lRootIndex;
+      while (!mSearchComplete && (lRootIndex = mNextSearchRoot.getAndIncrement()) < mSearchRoots.size())
+      {
+        mRoot = mSearchRoots.get(lRootIndex);
+        getStateBuffer(0).copy(mRoot.mState);
+        search(0);
+      }
+    }
+
+    private ForwardDeadReckonInternalMachineState getStateBuffer(int xiDepth)
+    {
+      while (mStates.size() <= xiDepth)
+      {
+        mStates.add(new ForwardDeadReckonInternalMachineState(mSteplessMask));
+      }
+      return mStates.get(xiDepth);
+    }
+
+    private ForwardDeadReckonLegalMoveInfo[] copyLegalMoves(ForwardDeadReckonInternalMachineState xiState, int xiDepth)
+    {
+      // The state machine's legal move collection is a view onto its own buffers, so take a copy (into storage kept
+      // for this depth) before recursing.
+      Collection<ForwardDeadReckonLegalMoveInfo> lLegalMoves = mStateMachine.getLegalMoves(xiState, mGamer.getRole());
+      while (mMoves.size() <= xiDepth)
+      {
+        mMoves.add(null);
+      }
+      ForwardDeadReckonLegalMoveInfo[] lMoves = mMoves.get(xiDepth);
+      if (lMoves == null || lMoves.length < lLegalMoves.size() + 1)
+      {
+        lMoves = new ForwardDeadReckonLegalMoveInfo[lLegalMoves.size() + 1];
+        mMoves.set(xiDepth, lMoves);
+      }
+
+      int lIndex = 0;
+      for (ForwardDeadReckonLegalMoveInfo lMove : lLegalMoves)
+      {
+        lMoves[lIndex++] = lMove;
+      }
+      lMoves[lIndex] = null;
+      return lMoves;
+    }
+
+    private void search(int xiDepth)
+    {
+      if ((++mNumStatesProcessed & TIMEOUT_CHECK_MASK) == 0 && System.currentTimeMillis() > mTimeout)
+      {
+        mSearchComplete = true;
+      }
+      if (mSearchComplete)
+      {
+        return;
+      }
+
+      ForwardDeadReckonInternalMachineState lState = mStates.get(xiDepth);
+      int lPathLength = mRoot.mPath.length + xiDepth;
+
+      if (mStateMachine.isTerminal(lState))
+      {
+        recordSolution(mStateMachine.getGoal(lState, mGamer.getRole()), mRoot.mPath, mPath, xiDepth);
+        return;
+      }
+
+      int lEstimatedCost = lPathLength + estimateRemainingCost(lState);
+      if (lEstimatedCost > mBound)
+      {
+        noteNextBound(lEstimatedCost);
+        return;
+      }
+
+      mSteplessBuffer.copy(lState);
+      mSteplessBuffer.intersect(mSteplessMask);
+      if (mTranspositionTable.checkAndRecord(mSteplessBuffer.getZobristHash(), lPathLength, mIteration))
+      {
+        return;
+      }
+
+      if (xiDepth >= mPath.length)
+      {
+        mPath = Arrays.copyOf(mPath, mPath.length * 2);
+      }
+
+      ForwardDeadReckonLegalMoveInfo[] lMoves = copyLegalMoves(lState, xiDepth);
+      ForwardDeadReckonInternalMachineState lChildState = getStateBuffer(xiDepth + 1);
+      for (int lii = 0; lMoves[lii] != null && !mSearchComplete; lii++)
+      {
+        mJointMove[0] = lMoves[lii];
+        mStateMachine.getNextState(lState, null, mJointMove, lChildState);
+        mPath[xiDepth] = lMoves[lii].mMove;
+        search(xiDepth + 1);
+      }
+    }
+  }
+
+  /**
+   * How often (in states processed, minus 1) each IDA* thread checks for timeout.
+   */
+  private static final int TIMEOUT_CHECK_MASK = 0x3FF;
+
+  /**
+   * Number of subtrees per thread to split the IDA* search into, so that threads finishing early can take more work.
+   */
+  private static final int SEARCH_ROOTS_PER_THREAD = 8;
+
+  /**
+   * Maximum depth of the breadth-first expansion which splits up the IDA* search.
+   */
+  private static final int MAX_SPLIT_DEPTH = 6;
+
+  /**
+   * Limits on the transposition table - in entries (of 8 bytes) and as a fraction of the memory available.
+   */
+  private static final int MIN_TABLE_SIZE         = 1 << 16;
+  private static final int MAX_TABLE_SIZE         = 1 << 24;
+  private static final int TABLE_MEMORY_FRACTION  = 4;
+
   /**
    * The underlying state machine.
    */
   private final ForwardDeadReckonPropnetStateMachine mUnderlyingStateMachine;
 
+  /**
+   * Further state machine instances, for the exclusive use of this solver, on which to search in parallel.
+   */
+  private final List<ForwardDeadReckonPropnetStateMachine> mHelperStateMachines;
+
   /**
    * Target state we must reach to achieve solution.
    */
@@ -95,6 +331,16 @@ public class TargetedSolutionStatePlayer
    */
   private final StateMachineGamer                    mGamer;
 
+  // State of the IDA* search in progress, shared between its threads.
+  private List<SearchRoot>                           mSearchRoots;
+  private final AtomicInteger                        mNextSearchRoot = new AtomicInteger();
+  private final AtomicInteger                        mNextBound = new AtomicInteger();
+  private TranspositionTable                         mTranspositionTable;
+  private long                                       mTimeout;
+  private volatile boolean                           mSearchComplete;
+  private int                                        mBestGoalFound;
+  private List<Move>                                 mBestSolutionPath;
+
   /**
    * Construct a targeted-state puzzle solution solver for use when the solution state is known.
    *
@@ -105,8 +351,26 @@ public class TargetedSolutionStatePlayer
   public TargetedSolutionStatePlayer(ForwardDeadReckonPropnetStateMachine xiStateMachine,
                                      MachineState xiState,
                                      StateMachineGamer xiGamer)
+  {
+    this(xiStateMachine, Collections.<ForwardDeadReckonPropnetStateMachine>emptyList(), xiState, xiGamer);
+  }
+
+  /**
+   * Construct a targeted-state puzzle solution solver which can search in parallel.
+   *
+   * @param xiStateMachine - underlying state machine
+   * @param xiHelperStateMachines - further instances of the state machine, not otherwise in use while solving.  The
+   *                                parallel search uses one thread for each, as well as the calling thread.
+   * @param xiState - the target (solution) state.
+   * @param xiGamer - StateMachineGamer from which current state can be queried
+   */
+  public TargetedSolutionStatePlayer(ForwardDeadReckonPropnetStateMachine xiStateMachine,
+                                     List<ForwardDeadReckonPropnetStateMachine> xiHelperStateMachines,
+                                     MachineState xiState,
+                                     StateMachineGamer xiGamer)
   {
     mUnderlyingStateMachine = xiStateMachine;
+    mHelperStateMachines    = xiHelperStateMachines;
     mGamer                  = xiGamer;
 
     mTargetState = mUnderlyingStateMachine.createInternalState(xiState);
@@ -198,4 +462,224 @@ public class TargetedSolutionStatePlayer
     LOGGER.info("A* processed " + numStatesProcessed + " states");
     return (bestGoalFound >= solutionScoreThreshold ? AStarSolutionPath : null);
   }
+
+  /**
+   * Attempt to solve the puzzle using IDA*, searching in parallel across the state machine instances (if any) this
+   * solver was constructed with.
+   *
+   * Unlike A*, the memory used doesn't grow with the number of states visited.  Each thread keeps only the path it's
+   * currently searching, and duplicate states are detected through a fixed-size transposition table of packed hashes
+   * (sized as a fraction of the available heap).
+   *
+   * @param xiSolutionScoreThreshold - score required to be considered as an acceptable solution.
+   * @param xiTimeout - time to search until (max).
+   *
+   * @return solution plan if found, else null.
+   */
+  public Collection<Move> attemptParallelIDAStarSolve(int xiSolutionScoreThreshold, long xiTimeout)
+  {
+    mTimeout = xiTimeout;
+    mSearchComplete = false;
+    mBestGoalFound = -1;
+    mBestSolutionPath = null;
+    mTranspositionTable = new TranspositionTable(chooseTableSize());
+
+    List<IDAStarWorker> lWorkers = new ArrayList<>();
+    lWorkers.add(new IDAStarWorker(mUnderlyingStateMachine));
+    for (ForwardDeadReckonPropnetStateMachine lStateMachine : mHelperStateMachines)
+    {
+      lWorkers.add(new IDAStarWorker(lStateMachine));
+    }
+
+    mSearchRoots = splitSearch(mUnderlyingStateMachine.createInternalState(mGamer.getCurrentState()),
+                               lWorkers.size() * SEARCH_ROOTS_PER_THREAD);
+
+    // The first bound is the lowest estimated cost of any subtree.
+    int lBound = Integer.MAX_VALUE;
+    for (SearchRoot lRoot : mSearchRoots)
+    {
+      lBound = Math.min(lBound, lRoot.mPath.length + estimateRemainingCost(lRoot.mState));
+    }
+
+    int lIteration = 0;
+    while (!mSearchComplete && lBound != Integer.MAX_VALUE)
+    {
+      lIteration++;
+      mNextSearchRoot.set(0);
+      mNextBound.set(Integer.MAX_VALUE);
+      for (IDAStarWorker lWorker : lWorkers)
+      {
+        lWorker.startIteration(lBound, lIteration);
+      }
+
+      runWorkers(lWorkers);
+
+      LOGGER.debug("IDA* iteration " + lIteration + " with bound " + lBound + " complete");
+      lBound = mNextBound.get();
+    }
+
+    long lNumStatesProcessed = 0;
+    for (IDAStarWorker lWorker : lWorkers)
+    {
+      lNumStatesProcessed += lWorker.mNumStatesProcessed;
+    }
+    LOGGER.info("IDA* processed " + lNumStatesProcessed + " states in " + lIteration + " iterations on " +
+                lWorkers.size() + " threads, with a transposition table of " + mTranspositionTable.size() +
+                " entries");
+
+    // Let the table be collected before the game starts.
+    mTranspositionTable = null;
+    mSearchRoots = null;
+
+    return (mBestGoalFound >= xiSolutionScoreThreshold ? mBestSolutionPath : null);
+  }
+
+  /**
+   * Run an iteration's workers - one on the calling thread and the rest on threads of their own - and wait for them.
+   */
+  private void runWorkers(List<IDAStarWorker> xiWorkers)
+  {
+    List<Thread> lThreads = new ArrayList<>();
+    for (int lii = 1; lii < xiWorkers.size(); lii++)
+    {
+      Thread lThread = new Thread(xiWorkers.get(lii), "IDA* search " + lii);
+      lThread.setDaemon(true);
+      lThread.start();
+      lThreads.add(lThread);
+    }
+
+    xiWorkers.get(0).run();
+
+    for (Thread lThread : lThreads)
+    {
+      try
+      {
+        lThread.join();
+      }
+      catch (InterruptedException lEx)
+      {
+        // Stop the other threads and wait for them to notice.
+        mSearchComplete = true;
+        Thread.currentThread().interrupt();
+        try
+        {
+          lThread.join();
+        }
+        catch (InterruptedException lEx2)
+        {
+          // Already stopping.
+        }
+      }
+    }
+  }
+
+  /**
+   * Expand the search breadth-first from the initial state until there are enough subtrees to share between the
+   * threads.  Terminal states found on the way are considered as solutions (and not included).
+   */
+  private List<SearchRoot> splitSearch(ForwardDeadReckonInternalMachineState xiInitialState, int xiTargetNumRoots)
+  {
+    ForwardDeadReckonLegalMoveInfo[] lJointMove = new ForwardDeadReckonLegalMoveInfo[1];
+    List<SearchRoot> lFrontier = new ArrayList<>();
+    lFrontier.add(new SearchRoot(xiInitialState, new Move[0]));
+
+    for (int lDepth = 0; lDepth < MAX_SPLIT_DEPTH && lFrontier.size() < xiTargetNumRoots; lDepth++)
+    {
+      List<SearchRoot> lNextFrontier = new ArrayList<>();
+      Set<ForwardDeadReckonInternalMachineState> lSeen = new HashSet<>();
+      boolean lAnyExpanded = false;
+
+      for (SearchRoot lRoot : lFrontier)
+      {
+        if (mUnderlyingStateMachine.isTerminal(lRoot.mState))
+        {
+          recordSolution(mUnderlyingStateMachine.getGoal(lRoot.mState, mGamer.getRole()),
+                         lRoot.mPath,
+                         null,
+                         0);
+          continue;
+        }
+
+        List<ForwardDeadReckonLegalMoveInfo> lLegalMoves =
+                   new ArrayList<>(mUnderlyingStateMachine.getLegalMoves(lRoot.mState, mGamer.getRole()));
+        for (ForwardDeadReckonLegalMoveInfo lMove : lLegalMoves)
+        {
+          lJointMove[0] = lMove;
+          ForwardDeadReckonInternalMachineState lChild = mUnderlyingStateMachine.createEmptyInternalState();
+          mUnderlyingStateMachine.getNextState(lRoot.mState, null, lJointMove, lChild);
+
+          ForwardDeadReckonInternalMachineState lStepless = new ForwardDeadReckonInternalMachineState(lChild);
+          lStepless.intersect(mUnderlyingStateMachine.getNonControlMask());
+          if (lSeen.add(lStepless))
+          {
+            Move[] lPath = Arrays.copyOf(lRoot.mPath, lRoot.mPath.length + 1);
+            lPath[lRoot.mPath.length] = lMove.mMove;
+            lNextFrontier.add(new SearchRoot(lChild, lPath));
+            lAnyExpanded = true;
+          }
+        }
+      }
+
+      lFrontier = lNextFrontier;
+      if (!lAnyExpanded || mBestGoalFound == 100)
+      {
+        break;
+      }
+    }
+
+    if (mBestGoalFound == 100)
+    {
+      mSearchComplete = true;
+    }
+    return lFrontier;
+  }
+
+  /**
+   * @return the number of target props missing from a state - the same heuristic as used by A*.
+   */
+  private int estimateRemainingCost(ForwardDeadReckonInternalMachineState xiState)
+  {
+    return (int)mTargetState.size() - xiState.intersectionSize(mTargetState);
+  }
+
+  private int chooseTableSize()
+  {
+    Runtime lRuntime = Runtime.getRuntime();
+    long lAvailableMemory = lRuntime.maxMemory() - (lRuntime.totalMemory() - lRuntime.freeMemory());
+    long lEntries = Math.max(MIN_TABLE_SIZE, Math.min(MAX_TABLE_SIZE, lAvailableMemory / TABLE_MEMORY_FRACTION / 8));
+    return Integer.highestOneBit((int)lEntries);
+  }
+
+  private void noteNextBound(int xiEstimatedCost)
+  {
+    int lCurrent;
+    while (xiEstimatedCost < (lCurrent = mNextBound.get()))
+    {
+      if (mNextBound.compareAndSet(lCurrent, xiEstimatedCost))
+      {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Record a terminal state, reached by the concatenation of two paths, if it scores better than any found so far.
+   */
+  private synchronized void recordSolution(int xiGoalValue, Move[] xiPrefix, Move[] xiPath, int xiPathLength)
+  {
+    if (xiGoalValue > mBestGoalFound)
+    {
+      mBestGoalFound = xiGoalValue;
+      mBestSolutionPath = new ArrayList<>(Arrays.asList(xiPrefix));
+      for (int lii = 0; lii < xiPathLength; lii++)
+      {
+        mBestSolutionPath.add(xiPath[lii]);
+      }
+
+      if (xiGoalValue == 100)
+      {
+        mSearchComplete = true;
+      }
+    }
+  }
 }
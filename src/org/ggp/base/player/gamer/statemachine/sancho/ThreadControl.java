@@ -71,6 +71,30 @@ public class ThreadControl
    */
   public static final int ROLLOUT_THREADS = CPU_INTENSIVE_THREADS - 1;
 
+  /**
+   * The number of threads for local search (the move consequence processor and its helpers).
+   *
+   * This is 1 unless configured otherwise.  A configured value of -1 means use the vCPUs not taken by the
+   * CPU-intensive threads.
+   */
+  public static final int LOCAL_SEARCH_THREADS;
+  static
+  {
+    int lConfiguredValue = MachineSpecificConfiguration.getCfgInt(CfgItem.LOCAL_SEARCH_THREADS);
+    if (RUN_SYNCHRONOUSLY)
+    {
+      LOCAL_SEARCH_THREADS = 1;
+    }
+    else if (lConfiguredValue == -1)
+    {
+      LOCAL_SEARCH_THREADS = Math.max(1, NUM_CPUS - CPU_INTENSIVE_THREADS);
+    }
+    else
+    {
+      LOCAL_SEARCH_THREADS = Math.max(1, lConfiguredValue);
+    }
+  }
+
   /**
    * Whether to pin the CPU intensive threads to fixed cores to prevent core thrashing.
    */
@@ -0,0 +1,285 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.player.gamer.statemachine.sancho.pool.Pool;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+
+/**
+ * A garbage-free index from states to the tree nodes that represent them.
+ *
+ * The table is open-addressed with linear probing, keyed on the states' Zobrist hashes.  Each slot is a single long
+ * holding the hash (folded to 32 bits) and the node's instance ID, so a lookup typically touches just one cache line
+ * and never allocates.  Since distinct states can share a folded hash, a hit is only reported once the node's state has
+ * been verified to match.
+ *
+ * Nodes must be removed from the table before they are freed.  (Only the instance ID is held, so a stale entry couldn't
+ * be told apart from a later use of the same node.)
+ *
+ * Probing is bounded.  In the (very unlikely) event that a node can't be placed within MAX_PROBES slots of its home
+ * slot it simply isn't indexed, which costs a missed transposition rather than correctness.
+ */
+public class TranspositionTable
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  private static final int    MAX_PROBES = 64;
+  private static final float  MAX_LOAD   = 0.75f;
+
+  private final Pool<TreeNode> mNodePool;
+
+  // Each slot holds the folded hash in the high 32 bits and the node's instance ID in the low 32 bits.  Instance IDs
+  // are never negative, so no occupied slot can hold EMPTY.
+  private static final long    EMPTY = -1L;
+  private final long[]         mEntries;
+  private final int            mMask;
+
+  private int                  mSize;
+  private int                  mNumOverflows;
+
+  /**
+   * Create a transposition table.
+   *
+   * @param xiNodePool   - the pool from which the indexed nodes are allocated.
+   * @param xiMaxEntries - the maximum number of nodes that will be indexed at once.
+   */
+  public TranspositionTable(Pool<TreeNode> xiNodePool, int xiMaxEntries)
+  {
+    mNodePool = xiNodePool;
+
+    int lCapacity = Integer.highestOneBit(Math.max(16, (int)(xiMaxEntries / MAX_LOAD)));
+    if (lCapacity < xiMaxEntries / MAX_LOAD)
+    {
+      lCapacity <<= 1;
+    }
+
+    mMask = lCapacity - 1;
+    mEntries = new long[lCapacity];
+    clear();
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear()
+  {
+    Arrays.fill(mEntries, EMPTY);
+    mSize = 0;
+  }
+
+  /**
+   * @return the number of nodes indexed.
+   */
+  public int size()
+  {
+    return mSize;
+  }
+
+  /**
+   * @return the number of slots.
+   */
+  public int getCapacity()
+  {
+    return mMask + 1;
+  }
+
+  /**
+   * @return the instance ID of the node held in a slot, or -1 if the slot is empty.
+   *
+   * @param xiSlot - the slot.
+   */
+  public int getInstanceID(int xiSlot)
+  {
+    long lEntry = mEntries[xiSlot];
+    return (lEntry == EMPTY) ? -1 : instanceID(lEntry);
+  }
+
+  /**
+   * Find the node representing a state.
+   *
+   * @param xiState - the state.
+   *
+   * @return the node, or null if there isn't one in the table.
+   */
+  public TreeNode get(ForwardDeadReckonInternalMachineState xiState)
+  {
+    int lFoldedHash = fold(xiState.getZobristHash());
+    int lSlot = lFoldedHash & mMask;
+
+    for (int lii = 0; lii < MAX_PROBES; lii++)
+    {
+      long lEntry = mEntries[lSlot];
+      if (lEntry == EMPTY)
+      {
+        return null;
+      }
+
+      if (foldedHash(lEntry) == lFoldedHash)
+      {
+        TreeNode lNode = mNodePool.get(instanceID(lEntry));
+        if (lNode.hasState(xiState))
+        {
+          return lNode;
+        }
+      }
+
+      lSlot = (lSlot + 1) & mMask;
+    }
+
+    return null;
+  }
+
+  /**
+   * Add a node to the table, indexed by its current state.  The caller must ensure that no node with an equal state is
+   * already present.
+   *
+   * @param xiNode - the node.
+   */
+  public void put(TreeNode xiNode)
+  {
+    put(xiNode.getStateHash(), xiNode.getInstanceID());
+  }
+
+  /**
+   * Add a node to the table under the specified hash.
+   *
+   * @param xiHash       - the hash.
+   * @param xiInstanceID - the node's instance ID.
+   */
+  void put(long xiHash, int xiInstanceID)
+  {
+    int lFoldedHash = fold(xiHash);
+    int lSlot = lFoldedHash & mMask;
+
+    for (int lii = 0; lii < MAX_PROBES; lii++)
+    {
+      if (mEntries[lSlot] == EMPTY)
+      {
+        mEntries[lSlot] = ((long)lFoldedHash << 32) | xiInstanceID;
+        mSize++;
+        return;
+      }
+
+      lSlot = (lSlot + 1) & mMask;
+    }
+
+    if (mNumOverflows++ == 0)
+    {
+      LOGGER.warn("Transposition table probe limit reached with " + mSize + " entries - transpositions may be missed");
+    }
+  }
+
+  /**
+   * Remove a node from the table, if present.  The node's state must not have changed since it was added.
+   *
+   * @param xiNode - the node.
+   */
+  public void remove(TreeNode xiNode)
+  {
+    remove(xiNode.getStateHash(), xiNode.getInstanceID());
+  }
+
+  /**
+   * Remove a node from the table, if present.
+   *
+   * @param xiHash       - the hash that the node was added under.
+   * @param xiInstanceID - the node's instance ID.
+   *
+   * @return whether the node was present.
+   */
+  boolean remove(long xiHash, int xiInstanceID)
+  {
+    int lSlot = findSlot(xiHash, xiInstanceID);
+    if (lSlot == -1)
+    {
+      return false;
+    }
+
+    deleteSlot(lSlot);
+    mSize--;
+    return true;
+  }
+
+  /**
+   * @return whether a node is present in the table under the specified hash.
+   *
+   * @param xiHash       - the hash.
+   * @param xiInstanceID - the node's instance ID.
+   */
+  boolean contains(long xiHash, int xiInstanceID)
+  {
+    return findSlot(xiHash, xiInstanceID) != -1;
+  }
+
+  /**
+   * @return the slot holding a node, or -1 if it isn't reachable from the hash's home slot.
+   */
+  private int findSlot(long xiHash, int xiInstanceID)
+  {
+    int lSlot = fold(xiHash) & mMask;
+
+    for (int lii = 0; lii < MAX_PROBES; lii++)
+    {
+      long lEntry = mEntries[lSlot];
+      if (lEntry == EMPTY)
+      {
+        return -1;
+      }
+
+      if (instanceID(lEntry) == xiInstanceID)
+      {
+        return lSlot;
+      }
+
+      lSlot = (lSlot + 1) & mMask;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Empty a slot, shifting back any later members of its cluster that would otherwise become unreachable.  (This keeps
+   * the table free of tombstones and only ever moves entries closer to their home slots.)
+   */
+  private void deleteSlot(int xiSlot)
+  {
+    int lHole = xiSlot;
+    int lNext = xiSlot;
+
+    while (true)
+    {
+      lNext = (lNext + 1) & mMask;
+      if (mEntries[lNext] == EMPTY)
+      {
+        break;
+      }
+
+      // The entry can fill the hole if its home slot is not cyclically in (hole, next].
+      int lHome = foldedHash(mEntries[lNext]) & mMask;
+      if (((lNext - lHome) & mMask) >= ((lNext - lHole) & mMask))
+      {
+        mEntries[lHole] = mEntries[lNext];
+        lHole = lNext;
+      }
+    }
+
+    mEntries[lHole] = EMPTY;
+  }
+
+  private static int fold(long xiHash)
+  {
+    return (int)(xiHash ^ (xiHash >>> 32));
+  }
+
+  private static int foldedHash(long xiEntry)
+  {
+    return (int)(xiEntry >>> 32);
+  }
+
+  private static int instanceID(long xiEntry)
+  {
+    return (int)xiEntry;
+  }
+}
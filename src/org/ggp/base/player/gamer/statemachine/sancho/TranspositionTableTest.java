@@ -0,0 +1,117 @@
+package org.ggp.base.player.gamer.statemachine.sancho;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TranspositionTableTest extends Assert
+{
+  private static final int MAX_ENTRIES = 60;
+
+  // Home slots for the test hashes.  Entries pile up in a few clusters, one of which wraps round the end of the table.
+  private static final int[] HOMES = {0, 1, 2, 100, 101, 253, 254, 255};
+
+  @Test
+  public void testMatchesHashMap()
+  {
+    TranspositionTable lTable = new TranspositionTable(null, 100);
+    assertEquals(256, lTable.getCapacity());
+
+    Map<Integer, Long> lExpected = new HashMap<>();
+    List<Integer> lInstanceIDs = new ArrayList<>();
+    Map<Integer, Long> lRemoved = new HashMap<>();
+    Random lRandom = new Random(1);
+    int lNextInstanceID = 0;
+
+    for (int lOp = 0; lOp < 20000; lOp++)
+    {
+      if (lExpected.isEmpty() || (lExpected.size() < MAX_ENTRIES && lRandom.nextBoolean()))
+      {
+        long lHash = makeHash(lRandom);
+        lTable.put(lHash, lNextInstanceID);
+        lExpected.put(lNextInstanceID, lHash);
+        lInstanceIDs.add(lNextInstanceID);
+        lNextInstanceID++;
+      }
+      else
+      {
+        int lInstanceID = lInstanceIDs.remove(lRandom.nextInt(lInstanceIDs.size()));
+        long lHash = lExpected.remove(lInstanceID);
+        assertTrue(lTable.remove(lHash, lInstanceID));
+        assertFalse(lTable.remove(lHash, lInstanceID));
+        lRemoved.put(lInstanceID, lHash);
+      }
+
+      // Everything present must still be reachable, and nothing removed may be.
+      assertEquals(lExpected.size(), lTable.size());
+      for (Map.Entry<Integer, Long> lEntry : lExpected.entrySet())
+      {
+        assertTrue("Lost node " + lEntry.getKey() + " after op " + lOp,
+                   lTable.contains(lEntry.getValue(), lEntry.getKey()));
+      }
+      if (lOp % 100 == 0)
+      {
+        for (Map.Entry<Integer, Long> lEntry : lRemoved.entrySet())
+        {
+          assertFalse(lTable.contains(lEntry.getValue(), lEntry.getKey()));
+        }
+        assertEquals(lExpected.size(), countOccupiedSlots(lTable));
+      }
+    }
+
+    lTable.clear();
+    assertEquals(0, lTable.size());
+    assertEquals(0, countOccupiedSlots(lTable));
+  }
+
+  @Test
+  public void testRemoveFromCluster()
+  {
+    TranspositionTable lTable = new TranspositionTable(null, 100);
+
+    // Three entries for slot 254 and two for slot 255 fill slots 254, 255, 0, 1 and 2 (in order of insertion).
+    long[] lHashes = {254, 254, 255, 254, 255};
+    for (int lii = 0; lii < lHashes.length; lii++)
+    {
+      lTable.put(lHashes[lii], lii);
+    }
+
+    // Removing the first must shift the later entries back, across the end of the table, without losing any.
+    assertTrue(lTable.remove(254, 0));
+    for (int lii = 1; lii < lHashes.length; lii++)
+    {
+      assertTrue(lTable.contains(lHashes[lii], lii));
+    }
+    assertEquals(4, countOccupiedSlots(lTable));
+    assertEquals(-1, lTable.getInstanceID(2));
+
+    // A hash with the same home slot but a different node isn't a match.
+    assertFalse(lTable.contains(254, 99));
+    assertFalse(lTable.remove(254, 99));
+    assertEquals(4, lTable.size());
+  }
+
+  private static long makeHash(Random xiRandom)
+  {
+    // The home slot is taken from the low bits of hash ^ (hash >>> 32), so random bits from bit 40 up leave it alone.
+    return HOMES[xiRandom.nextInt(HOMES.length)] | ((long)xiRandom.nextInt(1 << 20) << 40);
+  }
+
+  private static int countOccupiedSlots(TranspositionTable xiTable)
+  {
+    int lCount = 0;
+    for (int lii = 0; lii < xiTable.getCapacity(); lii++)
+    {
+      if (xiTable.getInstanceID(lii) != -1)
+      {
+        lCount++;
+      }
+    }
+    return lCount;
+  }
+}
@@ -61,7 +61,7 @@ public class TreeEdge
   private static final int NUM_VISITS_MASK = ~HAS_BEEN_TRIMMED_MASK;
   private int                   numChildVisits       = 0;
 
-  double                        explorationAmplifier = 0;
+  float                         explorationAmplifier = 0;
   /**
    * Edge flags hold some binary properties for the edge, which are accessed through
    * public get/setters
@@ -70,8 +70,6 @@ public class TreeEdge
   private static final short  EDGE_FLAG_IS_UNSELECTABLE         = 2;
   private static final short  EDGE_FLAG_IS_HYPEREDGE            = 4;
   private short                 mFlags               = 0;
-  TreeEdge                      hyperSuccessor       = null;
-  long                          nextHyperChild       = TreeNode.NULL_REF;
 
   /**
    * Create a tree edge.
@@ -185,15 +183,33 @@ public class TreeEdge
     }
   }
 
+  /**
+   * @return the next edge on this edge's hyper-path, or null if there isn't one (which is always the case for an
+   * ordinary edge - see HyperEdge)
+   */
+  TreeEdge getHyperSuccessor()
+  {
+    return null;
+  }
+
+  /**
+   * @return the ref of the node that the next edge on this edge's hyper-path leads from, or NULL_REF for an ordinary
+   * edge
+   */
+  long getNextHyperChild()
+  {
+    return TreeNode.NULL_REF;
+  }
+
   /**
    * @return True if the hyper-path passes through a stale node
    */
   public boolean hyperLinkageStale()
   {
     boolean linkageStale = false;
-    long    expectedStepParentRef = nextHyperChild;
+    long    expectedStepParentRef = getNextHyperChild();
 
-    for(TreeEdge nextEdge = hyperSuccessor; nextEdge != null; nextEdge = nextEdge.hyperSuccessor)
+    for(TreeEdge nextEdge = getHyperSuccessor(); nextEdge != null; nextEdge = nextEdge.getHyperSuccessor())
     {
       //  Stale linkage will manifest as a different childRef
       //  somewhere along the chain, which can only arise via re-expansion
@@ -205,7 +221,7 @@ public class TreeEdge
         break;
       }
 
-      expectedStepParentRef = nextEdge.nextHyperChild;
+      expectedStepParentRef = nextEdge.getNextHyperChild();
 
       if ( getChildRef() != nextEdge.getChildRef() )
       {
@@ -337,7 +353,5 @@ public class TreeEdge
     mPartialMove = null;
     explorationAmplifier = 0;
     mFlags = 0;
-    hyperSuccessor = null;
-    nextHyperChild = TreeNode.NULL_REF;
   }
 }
\ No newline at end of file
@@ -3,7 +3,6 @@ package org.ggp.base.player.gamer.statemachine.sancho;
 import java.io.File;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -21,6 +20,7 @@ import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropositionInfo;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
@@ -180,22 +180,23 @@ public class TreeNode
   // A node reference.  This is a combination of the node's index in the allocating pool & a sequence number.  The
   // sequence number is incremented each time the node is re-used (thereby invalidating old references).
   //
-  // The index is in the low 32 bits.  The sequence number is in the high 32 bits.
-  //
-  // For performance we also keep the instance ID in its own field.  Having been set on allocation, this never changes.
+  // The index (the node's instance ID, which never changes) is in the low 32 bits.  The sequence number is in the high
+  // 32 bits.
   private long                          mRef                  = 0;
-  private final int                     mInstanceID;
 
-  public int                            mNumVisits            = 0;
-  double                                mNumUpdates           = 0;
-  final ForwardDeadReckonInternalMachineState mState;
+  // Per-node columns (visit and update counts and parent linkage) which are held in structure-of-arrays form rather
+  // than as members.  Shared by all trees using the same node pool.
+  private final NodeColumnStore         mColumns;
+
+  // The game state represented by this node, which is held (compressed) in a store shared by all trees using the same
+  // node pool.
+  private final NodeStateStore          mStates;
   int                                   mDecidingRoleIndex;
   boolean                               mTerminal             = false;
   boolean                               mComplete             = false;
   private boolean                       mAllChildrenComplete  = false;
   LocalSearchStatus                     mLocalSearchStatus    = LocalSearchStatus.LOCAL_SEARCH_UNSEARCHED;
   short                                 mNumChildren          = 0;
-  final ArrayList<TreeNode>             mParents              = new ArrayList<>(1);
   private int                           mSweepSeq;
   boolean                               mFreed                = false;
   private short                         mUpdatesToNormalization = NORMALIZATION_WARMUP_PERIOD;
@@ -210,17 +211,18 @@ public class TreeNode
   //  to an existing node can be distinguished from a fresh allocation
   private short                         mDepth                = -1;
   short                                 mCompletionDepth;
-  private double                        mHeuristicValue;
-  private double                        mHeuristicWeight;
+  private float                         mHeuristicValue;
+  private float                         mHeuristicWeight;
 
   //  To what depth is the hyper-linkage tree expanded from this node
   private short                         mHyperExpansionDepth  = 0;
 
   /**
-   * WARNING: The following arrays are created for every node and are sized per max. branching factor.  Every byte here
-   *          costs ~100MB (depending on the game).  It is absolutely vital that this is kept below 20 bytes.
+   * WARNING: The following arrays are sized per max. branching factor.  Every byte here costs ~100MB (depending on the
+   *          game).  It is absolutely vital that this is kept below 20 bytes.
    */
-  // Children.  Before expansion, a ForwardDeadReckonLegalMoveInfo.  After expansion, a TreeEdge.
+  // Children.  Before expansion, a ForwardDeadReckonLegalMoveInfo.  After expansion, a TreeEdge.  The array is only
+  // attached when the node is expanded (and is returned to the column store when the children are freed).
   Object[]                              mChildren   = null;
 
   short[]                               mPrimaryChoiceMapping = null;
@@ -243,24 +245,93 @@ public class TreeNode
   {
     mTree = xiTree;
     mRef = xiPoolIndex;
-    mInstanceID = xiPoolIndex;
-    mState = mTree.mUnderlyingStateMachine.createEmptyInternalState();
-
-    int lMaxDirectChildren = mTree.mGameCharacteristics.getChoicesHighWaterMark(0);
-    mChildren = new Object[lMaxDirectChildren];
+    mColumns = mTree.mNodeColumns;
+    mColumns.reset(xiPoolIndex);
+    mStates = mTree.mNodeStates;
   }
 
   /**
    * Set the game state represented by this node.
    *
-   * @param xiState - the state.
+   * @param xiState  - the state.
+   * @param xiParent - the parent that the node is being created under, relative to whose state it is stored, or null.
    */
-  public void setState(ForwardDeadReckonInternalMachineState xiState)
+  public void setState(ForwardDeadReckonInternalMachineState xiState, TreeNode xiParent)
   {
-    mState.copy(xiState);
+    mStates.setState(getInstanceID(), xiState, (xiParent == null ? -1 : xiParent.getInstanceID()));
     //assert(mNumChildren <= 1 || state.toString().contains("control o") == (decidingRoleIndex == 1));
   }
 
+  /**
+   * @return a new copy of the game state represented by this node.  Where the state is only needed briefly, get it
+   * into a buffer instead, to avoid the allocation.
+   */
+  public ForwardDeadReckonInternalMachineState getState()
+  {
+    return mStates.get(getInstanceID());
+  }
+
+  /**
+   * Get the game state represented by this node into the specified buffer.
+   *
+   * @param xoState - the buffer.
+   *
+   * @return the buffer.
+   */
+  public ForwardDeadReckonInternalMachineState getState(ForwardDeadReckonInternalMachineState xoState)
+  {
+    return mStates.get(getInstanceID(), xoState);
+  }
+
+  /**
+   * @return whether this node represents the specified state.
+   *
+   * @param xiState - the state.
+   */
+  public boolean hasState(ForwardDeadReckonInternalMachineState xiState)
+  {
+    return mStates.matches(getInstanceID(), xiState);
+  }
+
+  /**
+   * @return whether this node represents the same state as another.
+   *
+   * @param xiOther - the other node.
+   */
+  public boolean hasSameState(TreeNode xiOther)
+  {
+    return mStates.matches(getInstanceID(), xiOther.getInstanceID());
+  }
+
+  /**
+   * @return whether the game state represented by this node includes the specified base proposition.
+   *
+   * @param xiProp - the proposition.
+   */
+  public boolean stateContains(ForwardDeadReckonPropositionInfo xiProp)
+  {
+    return mStates.contains(getInstanceID(), xiProp.index);
+  }
+
+  /**
+   * @return the Zobrist hash of the game state represented by this node.
+   */
+  public long getStateHash()
+  {
+    return mStates.getZobristHash(getInstanceID());
+  }
+
+  /**
+   * @return the distance (see ForwardDeadReckonInternalMachineState.distance()) from the specified state to the game
+   * state represented by this node.
+   *
+   * @param xiState - the state.
+   */
+  public double getStateDistance(ForwardDeadReckonInternalMachineState xiState)
+  {
+    return mStates.distance(getInstanceID(), xiState);
+  }
+
   /**
    * Retrieve the depth of this node from the initial state
    * @return node's depth
@@ -301,13 +372,89 @@ public class TreeNode
   public void addParent(TreeNode xiParent)
   {
     assert(this != mTree.mRoot);
-    mParents.add(xiParent);
+    mColumns.addParent(getInstanceID(), xiParent.getInstanceID());
+  }
 
-    // Trim off any excess array slots from the last time this node was used.
-    if (mParents.size() == 1)
-    {
-      mParents.trimToSize();
-    }
+  /**
+   * @return the number of parents of this node.
+   */
+  public int getNumParents()
+  {
+    return mColumns.getNumParents(getInstanceID());
+  }
+
+  /**
+   * @return the specified parent of this node.
+   *
+   * @param xiIndex - the index of the parent, in the order in which the parents were added.
+   */
+  public TreeNode getParent(int xiIndex)
+  {
+    return mTree.mNodePool.get(mColumns.getParent(getInstanceID(), xiIndex));
+  }
+
+  /**
+   * @return whether the specified node is a parent of this node.
+   *
+   * @param xiParent - the putative parent.
+   */
+  public boolean hasParent(TreeNode xiParent)
+  {
+    return mColumns.indexOfParent(getInstanceID(), xiParent.getInstanceID()) != -1;
+  }
+
+  private void removeParent(TreeNode xiParent)
+  {
+    mStates.unlinkBase(getInstanceID(), xiParent.getInstanceID());
+    mColumns.removeParent(getInstanceID(), xiParent.getInstanceID());
+  }
+
+  private void clearParents()
+  {
+    mStates.unlinkAllBases(getInstanceID());
+    mColumns.clearParents(getInstanceID());
+  }
+
+  /**
+   * @return the number of visits to this node.
+   */
+  public int getNumVisits()
+  {
+    return mColumns.getNumVisits(getInstanceID());
+  }
+
+  /**
+   * Set the number of visits to this node.
+   *
+   * @param xiNumVisits - the number of visits.
+   */
+  public void setNumVisits(int xiNumVisits)
+  {
+    mColumns.setNumVisits(getInstanceID(), xiNumVisits);
+  }
+
+  /**
+   * Adjust the number of visits to this node.
+   *
+   * @param xiDelta - the amount by which to adjust the visit count.
+   *
+   * @return the number of visits BEFORE the adjustment (as for a post-increment).
+   */
+  int adjustNumVisits(int xiDelta)
+  {
+    int lNumVisits = mColumns.getNumVisits(getInstanceID());
+    mColumns.setNumVisits(getInstanceID(), lNumVisits + xiDelta);
+    return lNumVisits;
+  }
+
+  double getNumUpdates()
+  {
+    return mColumns.getNumUpdates(getInstanceID());
+  }
+
+  void setNumUpdates(double xiNumUpdates)
+  {
+    mColumns.setNumUpdates(getInstanceID(), xiNumUpdates);
   }
 
   private boolean checkFixedSum(double[] values)
@@ -350,9 +497,10 @@ public class TreeNode
       TreeNode primaryPathParent = null;
       int mostSelectedRouteCount = 0;
 
-      for (TreeNode parent : mParents)
+      for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
       {
-        if (parent.mNumUpdates > 0)
+        TreeNode parent = getParent(lParentIndex);
+        if (parent.getNumUpdates() > 0)
         {
           for (short index = 0; index < parent.mNumChildren; index++)
           {
@@ -399,11 +547,11 @@ public class TreeNode
             {
               TreeNode lChild = get(edge.getChildRef());
 
-              if (lChild.mNumUpdates > 0 || lChild.mComplete)
+              if (lChild.getNumUpdates() > 0 || lChild.mComplete)
               {
                 double exploitationUct = primaryPathParent.exploitationUCT(edge, lChild.mDecidingRoleIndex);
 
-                double weight = (exploitationUct + 1 / Math.log(primaryPathParent.mNumVisits + 1)) * lChild.mNumVisits +
+                double weight = (exploitationUct + 1 / Math.log(primaryPathParent.getNumVisits() + 1)) * lChild.getNumVisits() +
                                                                                                                   EPSILON;
                 totalWeight += weight;
                 for (int lii = 0; lii < mTree.mNumRoles; lii++)
@@ -524,7 +672,7 @@ public class TreeNode
     assert(checkFixedSum());
     assert(linkageValid());
 
-    if (mNumUpdates > 0 && mTree.mGameCharacteristics.isSimultaneousMove)
+    if (getNumUpdates() > 0 && mTree.mGameCharacteristics.isSimultaneousMove)
     {
       correctParentsForCompletion();
     }
@@ -545,7 +693,7 @@ public class TreeNode
       {
         double lAvgScore = getAverageScore(0);
         LOGGER.debug("Score at root: " + lAvgScore);
-        LOGGER.debug("State at root: " + mState);
+        LOGGER.debug("State at root: " + getState());
         if (lAvgScore < (100 - EPSILON))
         {
           String lDumpName = "logs/puzzlefail." + System.currentTimeMillis() + ".txt";
@@ -661,8 +809,9 @@ public class TreeNode
       }
     }
 
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       if (!parent.mComplete)
       {
         boolean decidingRoleWin = false;
@@ -678,7 +827,7 @@ public class TreeNode
           //  or else we may search only on a win path that is not the pessimal win-path for us of those that are all
           //  wins for the opponent concerned (if it's our win just take it and don;t worry if we could possibly
           //  make them suffer worse-  better to converge quickly)
-          mTree.mUnderlyingStateMachine.getLatchedScoreRange(parent.mState, mTree.mRoleOrdering.roleIndexToRole(roleIndex), mTree.mLatchedScoreRangeBuffer);
+          mTree.mUnderlyingStateMachine.getLatchedScoreRange(parent.getState(mTree.mOtherNodeStateBuffer), mTree.mRoleOrdering.roleIndexToRole(roleIndex), mTree.mLatchedScoreRangeBuffer);
           if (mTree.mLatchedScoreRangeBuffer[1] > mTree.mLatchedScoreRangeBuffer[0] &&
               getAverageScore(roleIndex) > mTree.mLatchedScoreRangeBuffer[1] - EPSILON &&
               (choosingRoleIndex == 0 || (mTree.mGameCharacteristics.getIsFixedSum() && mTree.mNumRoles < 3)))
@@ -724,21 +873,20 @@ public class TreeNode
    */
   public void freeChildren()
   {
-    for (int lii = 0; lii < mNumChildren; lii++)
+    if (mChildren != null)
     {
-      mChildren[lii] = null;
+      for (int lii = 0; lii < mNumChildren; lii++)
+      {
+        mChildren[lii] = null;
+      }
     }
     mNumChildren = 0;
 
     if (mTree != null)
     {
-      //  If the child array was above a certain threshold (due to having been used for a large number
-      //  of hyper-edges, which will not be a dominant case) reduce the allocation back to the high
-      //  watermark for direct children
-      int lMaxDirectChildren = mTree.mGameCharacteristics.getChoicesHighWaterMark(0);
-      if (mChildren.length > lMaxDirectChildren * 2)
+      if (mChildren != null)
       {
-        mChildren = new Object[lMaxDirectChildren];
+        detachChildren();
       }
 
       // Dispose of RAVE results.  If there are as many as the high-water mark, free them back to the pool.  Otherwise,
@@ -779,7 +927,7 @@ public class TreeNode
       return true;
     }
 
-    if (edge.hyperSuccessor == null)
+    if (edge.getHyperSuccessor() == null)
     {
       if (edge.getChildRef() != NULL_REF)
       {
@@ -794,13 +942,13 @@ public class TreeNode
     }
     else
     {
-      if (edge.getChildRef() != edge.hyperSuccessor.getChildRef())
+      if (edge.getChildRef() != edge.getHyperSuccessor().getChildRef())
       {
         //  Stale hyper-edge - can happen after trimming
         return true;
       }
 
-      TreeNode child = get(edge.nextHyperChild);
+      TreeNode child = get(edge.getNextHyperChild());
 
       if (child == null)
       {
@@ -813,7 +961,7 @@ public class TreeNode
         return false;
       }
 
-      child.validateHyperChain(edge.hyperSuccessor);
+      child.validateHyperChain(edge.getHyperSuccessor());
     }
 
     return true;
@@ -846,7 +994,7 @@ public class TreeNode
 
             if (child != null)
             {
-              if (edge.hyperSuccessor == null && child != mTree.mRoot && !child.mParents.contains(this))
+              if (edge.getHyperSuccessor() == null && child != mTree.mRoot && !child.hasParent(this))
               {
                 assert(false) : "child link not reflected in back-link";
                 return false;
@@ -874,7 +1022,7 @@ public class TreeNode
                 validateHyperChain(edge);
               }
             }
-            else if (edge.hyperSuccessor == null)
+            else if (edge.getHyperSuccessor() == null)
             {
               assert(false) : "edge points to stale child";
               return false;
@@ -884,8 +1032,9 @@ public class TreeNode
       }
     }
 
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       if (!parent.validateHasChild(this))
       {
         assert(false) : "parent missing child link";
@@ -897,18 +1046,18 @@ public class TreeNode
 
   private void freeFromAncestor(TreeNode ancestor, TreeNode xiKeep)
   {
-    assert(this == xiKeep || mParents.contains(ancestor));
+    assert(this == xiKeep || hasParent(ancestor));
 
-    boolean keep = (xiKeep == null ? (mParents.size() > 1) : (mSweepSeq == mTree.mSweepInstance));
+    boolean keep = (xiKeep == null ? (getNumParents() > 1) : (mSweepSeq == mTree.mSweepInstance));
 
     if (keep)
     {
       // We're re-rooting the tree and have already calculated that this node (which we happen to have reached through
       // a part of the tree that's being pruned) is reachable from the new root.  Therefore, we know it needs to be
       // kept.
-      assert(mParents.size() != 0 || this == xiKeep) : "Oops - no link left to new root";
+      assert(getNumParents() != 0 || this == xiKeep) : "Oops - no link left to new root";
 
-      mParents.remove(ancestor);
+      removeParent(ancestor);
       assert(linkageValid());
       return;
     }
@@ -949,8 +1098,9 @@ public class TreeNode
 
   private boolean hasSiblings()
   {
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       for (short index = 0; index < parent.mNumChildren; index++)
       {
         if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -972,15 +1122,17 @@ public class TreeNode
 
   private boolean hasSiblinglessParents()
   {
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       if (parent == mTree.mRoot)
       {
         return false;
       }
 
-      for (TreeNode grandParent : parent.mParents)
+      for (int lGrandParentIndex = 0; lGrandParentIndex < parent.getNumParents(); lGrandParentIndex++)
       {
+        TreeNode grandParent = parent.getParent(lGrandParentIndex);
         if (grandParent.mNumChildren > 1)
         {
           return false;
@@ -1011,8 +1163,9 @@ public class TreeNode
 
   private boolean allNephewsComplete()
   {
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       for (short index = 0; index < parent.mNumChildren; index++)
       {
         if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -1075,8 +1228,9 @@ public class TreeNode
    */
   private void checkSiblingCompletion()
   {
-    for (TreeNode lParent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode lParent = getParent(lParentIndex);
       for (short lIndex = 0; lIndex < lParent.mNumChildren; lIndex++)
       {
         if (lParent.mPrimaryChoiceMapping == null || lParent.mPrimaryChoiceMapping[lIndex] == lIndex)
@@ -1099,8 +1253,9 @@ public class TreeNode
 
   private boolean isBestMoveInAllUncles(Set<Move> moves, int roleIndex)
   {
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       for (short index = 0; index < parent.mNumChildren; index++)
       {
         if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -1182,8 +1337,9 @@ public class TreeNode
   {
     TreeNode result = null;
 
-    for (TreeNode parent : mParents)
+    for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
     {
+      TreeNode parent = getParent(lParentIndex);
       for (short index = 0; index < parent.mNumChildren; index++)
       {
         if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -1266,7 +1422,7 @@ public class TreeNode
     {
       mTree.mNodeAverageScores[lii] = 0;
 
-      mTree.mUnderlyingStateMachine.getLatchedScoreRange(mState, mTree.mRoleOrdering.roleIndexToRole(lii), mTree.mLatchedScoreRangeBuffer);
+      mTree.mUnderlyingStateMachine.getLatchedScoreRange(getState(mTree.mOtherNodeStateBuffer), mTree.mRoleOrdering.roleIndexToRole(lii), mTree.mLatchedScoreRangeBuffer);
       mTree.mRoleMaxScoresBuffer[lii] = mTree.mLatchedScoreRangeBuffer[1];
     }
 
@@ -1550,7 +1706,7 @@ public class TreeNode
       // result in this node's average score not being set initially, since completion will not occur until all nephews
       // are complete.  We address this case by setting the scores provisionally as an average of the children (but
       // not marking complete yet).
-      if ((!lAllImmediateChildrenComplete) && (mNumUpdates == 0))
+      if ((!lAllImmediateChildrenComplete) && (getNumUpdates() == 0))
       {
         for (int lii = 0; lii < mTree.mNumRoles; lii++)
         {
@@ -1584,7 +1740,7 @@ public class TreeNode
             TreeEdge lEdge = (lChoice instanceof TreeEdge ? (TreeEdge)lChoice : null);
             if (lEdge != null)
             {
-              if (lEdge.hyperSuccessor != null)
+              if (lEdge.getHyperSuccessor() != null)
               {
                 break;
               }
@@ -1777,8 +1933,6 @@ public class TreeNode
     freeChildren();
 
     // Reset primitives.
-    mNumVisits = 0;
-    mNumUpdates = 0;
     mTerminal = false;
     mLocalSearchStatus = LocalSearchStatus.LOCAL_SEARCH_UNSEARCHED;
     mLastSelectionMade = -1;
@@ -1796,8 +1950,8 @@ public class TreeNode
 
     // Reset objects (without allocating new ones).
     mTree = xiTree;
-    mParents.clear();
-    mState.clear();
+    mColumns.reset(getInstanceID());
+    mStates.discard(getInstanceID());
 
     // Reset score values
     if (xiTree != null)
@@ -1887,16 +2041,21 @@ public class TreeNode
     return mRef;
   }
 
+  int getInstanceID()
+  {
+    return (int)mRef;
+  }
+
   public double getAverageScore(int roleIndex)
   {
-    return mTree.mScoreVectorPool.getAverageScore(mInstanceID, roleIndex);
+    return mTree.mScoreVectorPool.getAverageScore(getInstanceID(), roleIndex);
   }
 
   public void setAverageScore(int roleIndex, double value)
   {
     assert(-EPSILON<=value);
     assert(100+EPSILON>=value);
-    mTree.mScoreVectorPool.setAverageScore(mInstanceID, roleIndex, value);
+    mTree.mScoreVectorPool.setAverageScore(getInstanceID(), roleIndex, value);
 
     if ( mTree.mMixiMaxBias > 0 && roleIndex == (mDecidingRoleIndex+1)%mTree.mNumRoles && value > mBestDecidingScore )
     {
@@ -1906,12 +2065,12 @@ public class TreeNode
 
   public double getAverageSquaredScore(int roleIndex)
   {
-    return mTree.mScoreVectorPool.getAverageSquaredScore(mInstanceID, roleIndex);
+    return mTree.mScoreVectorPool.getAverageSquaredScore(getInstanceID(), roleIndex);
   }
 
   public void setAverageSquaredScore(int roleIndex, double value)
   {
-    mTree.mScoreVectorPool.setAverageSquaredScore(mInstanceID, roleIndex, value);
+    mTree.mScoreVectorPool.setAverageSquaredScore(getInstanceID(), roleIndex, value);
   }
 
   void validate(boolean recursive)
@@ -1928,7 +2087,7 @@ public class TreeNode
           TreeNode lNode = get(edge.getChildRef());
           if (lNode != null)
           {
-            if (!lNode.mParents.contains(this))
+            if (!lNode.hasParent(this))
             {
               LOGGER.error("Missing parent link");
             }
@@ -1952,12 +2111,13 @@ public class TreeNode
       }
     }
 
-    if (mParents.size() > 0)
+    if (getNumParents() > 0)
     {
       int numInwardVisits = 0;
 
-      for (TreeNode parent : mParents)
+      for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
       {
+        TreeNode parent = getParent(lParentIndex);
         for (short index = 0; index < parent.mNumChildren; index++)
         {
           if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -1974,7 +2134,7 @@ public class TreeNode
         }
       }
 
-      if (numInwardVisits > mNumVisits)
+      if (numInwardVisits > getNumVisits())
       {
         LOGGER.error("Linkage counts do not add up");
       }
@@ -1987,7 +2147,7 @@ public class TreeNode
    */
   private void markTreeForSweep(TreeNode parent)
   {
-    assert(parent == null || mParents.contains(parent)) : "Marked node for sweep from unexpected parent";
+    assert(parent == null || hasParent(parent)) : "Marked node for sweep from unexpected parent";
     if (mSweepSeq != mTree.mSweepInstance)
     {
       //sweepParent = parent;
@@ -2028,6 +2188,7 @@ public class TreeNode
     assert (!mFreed) : "Attempt to free a node that has already been freed";
 
     mTree.nodeFreed(this);
+    mStates.release(getInstanceID());
 
     if (mComplete)
     {
@@ -2036,10 +2197,89 @@ public class TreeNode
 
     // LOGGER.debug("    Freeing (" + ourIndex + "): " + state);
     mFreed = true;
-    mTree.mNodePool.free(this, mInstanceID);
+    mTree.mNodePool.free(this, getInstanceID());
     mRef += 0x100000000L;
   }
 
+  /**
+   * Free all nodes that can only be reached from this (root) node through moves other than the one we've chosen to
+   * play.  They'd be freed anyway when the tree is re-rooted at the start of the next turn, but freeing them as soon as
+   * the move has been chosen makes the space available for searching whilst the other players choose their moves, and
+   * leaves less to do on our own clock next turn.
+   *
+   * @param xiChosenMove - the move we've chosen.
+   *
+   * @return percentage of allocated nodes freed
+   */
+  public int freeAllButMove(Move xiChosenMove)
+  {
+    assert(this == mTree.mRoot);
+
+    // Only our own choices can be pruned, and only if the chosen move has been expanded.
+    if ((mDecidingRoleIndex + 1) % mTree.mNumRoles != 0)
+    {
+      return 0;
+    }
+
+    int keepIndex = -1;
+    for (int index = 0; index < mNumChildren; index++)
+    {
+      if (mChildren[index] instanceof TreeEdge)
+      {
+        TreeEdge edge = (TreeEdge)mChildren[index];
+        if (!edge.isHyperEdge() && !edge.mPartialMove.mIsPseudoNoOp && edge.mPartialMove.mMove.equals(xiChosenMove))
+        {
+          keepIndex = index;
+          break;
+        }
+      }
+    }
+
+    if (keepIndex == -1)
+    {
+      return 0;
+    }
+
+    TreeEdge keepEdge = (TreeEdge)mChildren[keepIndex];
+    TreeNode keepChild = (keepEdge.getChildRef() == NULL_REF ? null : get(keepEdge.getChildRef()));
+    int numNodesInUseBeforeTrim = mTree.mNodePool.getNumItemsInUse();
+
+    for (int index = 0; index < mNumChildren; index++)
+    {
+      if (index != keepIndex && (mPrimaryChoiceMapping == null || mPrimaryChoiceMapping[index] == index))
+      {
+        Object lChoice = mChildren[index];
+
+        TreeEdge edge = (lChoice instanceof TreeEdge ? (TreeEdge)lChoice : null);
+        if (edge != null)
+        {
+          TreeNode lChild = (edge.getChildRef() == NULL_REF || edge.isHyperEdge()) ? null : get(edge.getChildRef());
+
+          // A transposition straight back to the chosen child is left alone - the child must stay linked to us.
+          if (lChild != null && lChild == keepChild)
+          {
+            continue;
+          }
+
+          deleteEdge(index);
+
+          // Nodes with other parents are kept (but unlinked from us).  Anything still reachable from the chosen child
+          // has such a parent.
+          if (lChild != null)
+          {
+            lChild.freeFromAncestor(this, null);
+          }
+        }
+      }
+    }
+
+    //  Must make sure the edge we retain becomes selectable if it was previously handled by a hyper-edge alternative
+    keepEdge.setIsSelectable(true);
+
+    int numNodesInUseAfterTrim = mTree.mNodePool.getNumItemsInUse();
+    return (100*(numNodesInUseBeforeTrim-numNodesInUseAfterTrim))/numNodesInUseBeforeTrim;
+  }
+
   /**
    * Free all nodes apart from those reachable from the specified descendant
    * of this node
@@ -2049,7 +2289,7 @@ public class TreeNode
   public int freeAllBut(TreeNode descendant)
   {
     LOGGER.info("Freeing redundant state");
-    LOGGER.debug("Free all but rooted in state: " + descendant.mState);
+    LOGGER.debug("Free all but rooted in state: " + descendant.getState());
 
     int numNodesInUseBeforeTrim = mTree.mNodePool.getNumItemsInUse();
 
@@ -2057,7 +2297,7 @@ public class TreeNode
     // of the tree.
     mTree.mSweepInstance++;
     descendant.markTreeForSweep(null);
-    descendant.mParents.clear(); //	Do this here to allow generic orphan checking in node freeing
+    descendant.clearParents(); //	Do this here to allow generic orphan checking in node freeing
                                 //	without tripping over this special case
     LOGGER.info("Sweep complete, beginning delete...");
 
@@ -2117,7 +2357,24 @@ public class TreeNode
     //  be referenced by a hyper-path, which will check validity via the refs
     lEdge.reset();
     // Return the edge to the pool.
-    mTree.mEdgePool.free(lEdge, 0);
+    freeEdge(lEdge);
+  }
+
+  /**
+   * Return an edge to the pool that it came from.  The edge must already have been reset.
+   *
+   * @param xiEdge - the edge.
+   */
+  private void freeEdge(TreeEdge xiEdge)
+  {
+    if (xiEdge instanceof HyperEdge)
+    {
+      mTree.mHyperEdgePool.free((HyperEdge)xiEdge, 0);
+    }
+    else
+    {
+      mTree.mEdgePool.free(xiEdge, 0);
+    }
   }
 
   private void deleteHyperEdge(int xiChildIndex)
@@ -2141,7 +2398,7 @@ public class TreeNode
 
         if (edge.mPartialMove.mMove == move)
         {
-          if (edge.hyperSuccessor == null)
+          if (edge.getHyperSuccessor() == null)
           {
             principalEdge = edge;
           }
@@ -2170,7 +2427,7 @@ public class TreeNode
    */
   public TreeNode findNode(ForwardDeadReckonInternalMachineState targetState, int maxDepth)
   {
-    if (mState.equals(targetState) && mDecidingRoleIndex == mTree.mNumRoles - 1)
+    if (hasState(targetState) && mDecidingRoleIndex == mTree.mNumRoles - 1)
     {
       return this;
     }
@@ -2327,7 +2584,7 @@ public class TreeNode
                   }
                   else
                   {
-                    uctValue = -explorationUCT(mNumVisits,
+                    uctValue = -explorationUCT(getNumVisits(),
                                                edge,
                                                roleIndex) -
                                                exploitationUCT(edge, roleIndex);
@@ -2473,14 +2730,13 @@ public class TreeNode
       }
     }
 
-    assert(mState != null);
     assert(edge.getChildRef() == NULL_REF);
 
     ForwardDeadReckonInternalMachineState newState = null;
     if (roleIndex == mTree.mNumRoles - 1 || (mTree.mRemoveNonDecisionNodes && mNumChildren > 1))
     {
       newState = mTree.mNextStateBuffer;
-      mTree.mUnderlyingStateMachine.getNextState(mState, mTree.mFactor, jointPartialMove, newState);
+      mTree.mUnderlyingStateMachine.getNextState(getState(mTree.mOtherNodeStateBuffer), mTree.mFactor, jointPartialMove, newState);
 
       //  In a factorized game we need to normalize the generated state
       //  so as to not fall foul of potential corruption of the non-factor
@@ -2517,7 +2773,7 @@ public class TreeNode
       if (roleIndex != mTree.mNumRoles - 1 && (!mTree.mRemoveNonDecisionNodes || mNumChildren == 1))
       {
         // assert(newState == null);
-        newChild.setState(mState);
+        newChild.setState(getState(mTree.mOtherNodeStateBuffer), this);
       }
 
       if (mTree.mGameSearcher.mUseGoalGreedy)
@@ -2570,8 +2826,8 @@ public class TreeNode
 
       while(current.getDepth() != mTree.mRoot.getDepth())
       {
-        assert(!current.mParents.isEmpty());
-        TreeNode parent = current.mParents.get(0);
+        assert(current.getNumParents() > 0);
+        TreeNode parent = current.getParent(0);
 
         if (current.mDecidingRoleIndex == 0)
         {
@@ -2611,7 +2867,7 @@ public class TreeNode
 
   public TreeNode expand(TreePath fullPathTo, ForwardDeadReckonLegalMoveInfo[] jointPartialMove, int parentDepth)
   {
-    assert(this == mTree.mRoot || fullPathTo == null || mParents.contains(fullPathTo.getTailElement().getParentNode()));
+    assert(this == mTree.mRoot || fullPathTo == null || hasParent(fullPathTo.getTailElement().getParentNode()));
 
     assert(linkageValid());
 
@@ -2681,7 +2937,7 @@ public class TreeNode
     {
       boolean hyperExpansionNeeded = false;
 
-      assert(mState.contains(mTree.mRoleControlProps[roleIndex]));
+      assert(stateContains(mTree.mRoleControlProps[roleIndex]));
 
       //  First create child nodes for all with the same player in control.  This node creation
       //  is anyway implied by the need to recursively expand such children.
@@ -2696,7 +2952,7 @@ public class TreeNode
             //  Create if necessary
             TreeNode child = createChildIfNeccessary(lMoveIndex, jointPartialMove, roleIndex);
 
-            if (child != null && child.mState.contains(mTree.mRoleControlProps[roleIndex]))
+            if (child != null && child.stateContains(mTree.mRoleControlProps[roleIndex]))
             {
               hyperExpansionNeeded = true;
               break;
@@ -2728,7 +2984,7 @@ public class TreeNode
 
             TreeNode child = getChild(lMoveIndex);
 
-            if (child != null && !child.mComplete && child.mState.contains(mTree.mRoleControlProps[roleIndex]))
+            if (child != null && !child.mComplete && child.stateContains(mTree.mRoleControlProps[roleIndex]))
             {
               assert(lChoice instanceof TreeEdge);
               TreeEdge edge = (TreeEdge)lChoice;
@@ -2756,11 +3012,11 @@ public class TreeNode
 
                 //  It can also lead to a state where control has changed hands, so we don't actually have
                 //  a valid hyper-path
-                if (!expandedChild.mState.contains(mTree.mRoleControlProps[roleIndex]))
+                if (!expandedChild.stateContains(mTree.mRoleControlProps[roleIndex]))
                 {
                   //  Must reset the joint moved forced props, as the expansion will have
                   //  disturbed them
-                  mTree.setForcedMoveProps(mState, jointPartialMove);
+                  mTree.setForcedMoveProps(getState(mTree.mOtherNodeStateBuffer), jointPartialMove);
                   continue;
                 }
               }
@@ -2777,7 +3033,7 @@ public class TreeNode
                 boolean expandedChildHasHyperEdges = false;
                 Object lastChoice = expandedChild.mChildren[expandedChild.mNumChildren-1];
 
-                if ((lastChoice instanceof TreeEdge) && ((TreeEdge)lastChoice).hyperSuccessor != null)
+                if ((lastChoice instanceof TreeEdge) && ((TreeEdge)lastChoice).getHyperSuccessor() != null)
                 {
                   expandedChildHasHyperEdges = true;
                 }
@@ -2814,7 +3070,7 @@ public class TreeNode
                       //  In practice this leads to too much of a combinatoric explosion in the branching factor, so instead
                       //  we link to the terminal nodes of the sequences wherein the choosing player retains control.  This provides
                       //  most of the selection power of the theoretical approach with much less of an increase in branching factor
-                      if (!descendant.mState.contains(mTree.mRoleControlProps[roleIndex]))
+                      if (!descendant.stateContains(mTree.mRoleControlProps[roleIndex]))
                       {
                         assert(!((TreeEdge)expandedChild.mChildren[index]).isHyperEdge());
                         continue;
@@ -2828,7 +3084,7 @@ public class TreeNode
                       for (short ourIndex = 0; ourIndex < mNumChildren; ourIndex++)
                       {
                         TreeNode ourChild = getChild(ourIndex);
-                        if (ourChild != null && ourChild.mState.equals(descendant.mState))
+                        if (ourChild != null && ourChild.hasSameState(descendant))
                         {
                           alreadyPresent = true;
                           break;
@@ -2848,7 +3104,7 @@ public class TreeNode
                           expandChildCapacity();
                         }
 
-                        TreeEdge hyperEdge = mTree.mEdgePool.allocate(mTree.mTreeEdgeAllocator);
+                        HyperEdge hyperEdge = mTree.mHyperEdgePool.allocate(mTree.mHyperEdgeAllocator);
                         hyperEdge.setParent(this, edge.mPartialMove);
                         hyperEdge.hyperSuccessor = descendantEdge;
                         hyperEdge.setIsHyperEdge(true);
@@ -2880,7 +3136,7 @@ public class TreeNode
                   }
 
                   //  Hyper link directly to the expanded child
-                  TreeEdge hyperEdge = mTree.mEdgePool.allocate(mTree.mTreeEdgeAllocator);
+                  HyperEdge hyperEdge = mTree.mHyperEdgePool.allocate(mTree.mHyperEdgeAllocator);
                   hyperEdge.setParent(this, edge.mPartialMove);
                   hyperEdge.hyperSuccessor = null;
                   hyperEdge.setIsHyperEdge(true);
@@ -2927,16 +3183,20 @@ public class TreeNode
 
     TreePathElement pathTo = (fullPathTo == null ? null : fullPathTo.getTailElement());
 
-    assert(this == mTree.mRoot || mParents.size() > 0);
+    assert(this == mTree.mRoot || getNumParents() > 0);
     assert((mDepth / mTree.mNumRoles == mTree.mRoot.mDepth / mTree.mNumRoles) ||
            (!mTree.mRemoveNonDecisionNodes && mDecidingRoleIndex != mTree.mNumRoles-1) ||
            (pathTo != null && pathTo.getEdgeUnsafe().mPartialMove.mIsPseudoNoOp) ||
-           (mTree.findTransposition(mState) == this));
+           (mTree.findTransposition(getState()) == this));
     //assert(state.size()==10);
     //boolean assertTerminal = !state.toString().contains("b");
     //  Find the role this node is choosing for
     int roleIndex = (mDecidingRoleIndex + 1) % mTree.mNumRoles;
 
+    //  Materialise the state once, since it's needed repeatedly (and doesn't change until the node is re-purposed
+    //  for a forced response below, after which expansion starts afresh)
+    ForwardDeadReckonInternalMachineState lState = getState();
+
     //  Don't bother evaluating terminality of children above the earliest completion depth
     boolean evaluateTerminalOnNodeCreation = (mTree.mEvaluateTerminalOnNodeCreation && (mDepth >= mTree.mShallowestCompletionDepth-mTree.mNumRoles || mTree.mHeuristic.isEnabled() || mTree.mGameSearcher.mUseGoalGreedy));
 
@@ -2955,7 +3215,7 @@ public class TreeNode
                                                          parentDepth >= mTree.mGameCharacteristics.getEarliestCompletionDepth() - mTree.mNumRoles);
         if (!parentEvaluatedTerminalOnNodeCreation && mNumChildren == 0)
         {
-          StateInfo info = calculateTerminalityAndAutoExpansion(mState);
+          StateInfo info = calculateTerminalityAndAutoExpansion(lState);
 
           mTerminal = info.isTerminal;
 
@@ -2963,7 +3223,7 @@ public class TreeNode
           {
             if (mTree.mGameCharacteristics.isPseudoPuzzle)
             {
-              mTree.mUnderlyingStateMachine.getLatchedScoreRange(mTree.mRoot.mState, mTree.mRoleOrdering.roleIndexToRole(0), mTree.mLatchedScoreRangeBuffer);
+              mTree.mUnderlyingStateMachine.getLatchedScoreRange(mTree.mRoot.getState(mTree.mOtherNodeStateBuffer), mTree.mRoleOrdering.roleIndexToRole(0), mTree.mLatchedScoreRangeBuffer);
 
               if (info.terminalScore[0] == mTree.mLatchedScoreRangeBuffer[1])
               {
@@ -2977,7 +3237,7 @@ public class TreeNode
       }
     }
 
-    assert(!mTree.mSearchFilter.isFilteredTerminal(mState, mTree.mUnderlyingStateMachine));
+    assert(!mTree.mSearchFilter.isFilteredTerminal(lState, mTree.mUnderlyingStateMachine));
     assert(linkageValid());
 
     assert (mNumChildren == 0);
@@ -2996,8 +3256,8 @@ public class TreeNode
       //validateAll();
 
       //LOGGER.debug("Expand our moves from state: " + state);
-      ForwardDeadReckonLegalMoveSet moves = mTree.mUnderlyingStateMachine.getLegalMoveSet(mState);
-      mNumChildren = (short)mTree.mSearchFilter.getFilteredMovesSize(mState, moves, choosingRole, true);
+      ForwardDeadReckonLegalMoveSet moves = mTree.mUnderlyingStateMachine.getLegalMoveSet(lState);
+      mNumChildren = (short)mTree.mSearchFilter.getFilteredMovesSize(lState, moves, choosingRole, true);
       assert(mNumChildren > 0) : "Filtered move list for node was empty";
       Iterator<ForwardDeadReckonLegalMoveInfo> itr;
 
@@ -3025,14 +3285,14 @@ public class TreeNode
         {
            stateChangedInForcedExpansion = true;
 
-          mTree.setForcedMoveProps(mState, jointPartialMove);
+          mTree.setForcedMoveProps(lState, jointPartialMove);
           newState = mTree.mChildStatesBuffer[0];
-          mTree.mUnderlyingStateMachine.getNextState(mState,
+          mTree.mUnderlyingStateMachine.getNextState(lState,
                                                    mTree.mFactor,
                                                    jointPartialMove,
                                                    newState);
 
-          assert(!newState.equals(parent.mState));
+          assert(!parent.hasState(newState));
           //  In a factorized game we need to normalize the generated state
           //  so as to not fall foul of potential corruption of the non-factor
           //  element engendered by not making a move in other factors
@@ -3047,7 +3307,7 @@ public class TreeNode
           {
             assert(existing != this);
             assert(existing != parent);
-            assert(existing.mState.equals(newState));
+            assert(existing.hasState(newState));
             assert(edge.getChildRef() != existing.getRef());
             assert(existing.linkageValid());
 
@@ -3056,7 +3316,7 @@ public class TreeNode
 
             //  Need to check that we don't already have a different edge leading from the same parent to this newly transposed-to
             //  node (multiple forced move paths can have a common destination)
-            if (existing.mParents.contains(parent))
+            if (existing.hasParent(parent))
             {
               short thisIndex = -1;
               short otherPathIndex = -1;
@@ -3098,7 +3358,7 @@ public class TreeNode
               parent.mPrimaryChoiceMapping[thisIndex] = otherPathIndex;
 
               edge.reset();
-              mTree.mEdgePool.free(edge, 0);
+              freeEdge(edge);
               edge = (TreeEdge)parent.mChildren[otherPathIndex];
 
               //  The old edge will have been selected through (else we wouldn't be expanding it)
@@ -3115,9 +3375,9 @@ public class TreeNode
               //  'out by one', and rather than lose the power of these assertions we can make for the
               //  'normal' case we transiently increment the child node count here if and only if
               //  assertions are enabled.
-              assert(existing.mNumVisits++ >= 0);
+              assert(existing.adjustNumVisits(1) >= 0);
               pathTo.set(parent, edge);
-              assert(existing.mNumVisits-- > 0);
+              assert(existing.adjustNumVisits(-1) > 0);
             }
 
             //  This situation can only occur on the first expansion of the child of the edge
@@ -3141,21 +3401,21 @@ public class TreeNode
             //  Also there is the case where the edge has a heuristic weight bu the transposed to node did not
             //  which can lead to a lower visit count on the node.  To keep things in order we just increase
             //  it as necessary
-            if (existing.mNumVisits < edge.getNumChildVisits())
+            if (existing.getNumVisits() < edge.getNumChildVisits())
             {
-              existing.mNumVisits = edge.getNumChildVisits() - 1;
+              existing.setNumVisits(edge.getNumChildVisits() - 1);
             }
 
-            assert(existing.mNumVisits++ >= 0);
+            assert(existing.adjustNumVisits(1) >= 0);
             edge.setChild(existing);
             pathTo.set(parent, edge);
-            assert(existing.mNumVisits-- > 0);
+            assert(existing.adjustNumVisits(-1) > 0);
 
             //  Strictly this new path from parent to child by a forced-move path might
             //  not be unique (it could turn out that multiple forced move sequences which
             //  have different starting moves lead to the same result)
             //  If it's NOT unique we must make it so
-            if (!existing.mParents.contains(parent))
+            if (!existing.hasParent(parent))
             {
               existing.addParent(parent);
             }
@@ -3182,8 +3442,8 @@ public class TreeNode
               assert(this != mTree.mRoot);
               assert(mNumChildren == 1) : "Expansion of non-decision node occuring on apparent decision node!";
               mNumChildren = 0; //  Must reset this so it appears unexpanded for other paths if it doesn't get freed
-              assert(mParents.size() > 0);
-              if (mParents.contains(parent))
+              assert(getNumParents() > 0);
+              if (hasParent(parent))
               {
                 freeFromAncestor(parent, null);
               }
@@ -3210,16 +3470,17 @@ public class TreeNode
 
                 if (!incomingEdge.hasHeuristicDeviation())
                 {
-                  mTree.mHeuristic.getHeuristicValue(existing.mState,
-                                                    parent.mState,
-                                                    parent.mState,
+                  ForwardDeadReckonInternalMachineState lParentState = parent.getState(mTree.mOtherNodeStateBuffer);
+                  mTree.mHeuristic.getHeuristicValue(existing.getState(),
+                                                    lParentState,
+                                                    lParentState,
                                                     mTree.mNodeHeuristicInfo);
 
                   if (mTree.mNodeHeuristicInfo.treatAsSequenceStep)
                   {
                     incomingEdge.setHasHeuristicDeviation(true);
-                    existing.mHeuristicWeight = mTree.mNodeHeuristicInfo.heuristicWeight;
-                    existing.mHeuristicValue = mTree.mNodeHeuristicInfo.heuristicValue[0];
+                    existing.mHeuristicWeight = (float)mTree.mNodeHeuristicInfo.heuristicWeight;
+                    existing.mHeuristicValue = (float)mTree.mNodeHeuristicInfo.heuristicValue[0];
                   }
                 }
               }
@@ -3247,7 +3508,7 @@ public class TreeNode
             //  redo the sequence recursion.
             assert(mTree.findTransposition(newState) == null);
             mTree.removeFromTranspositionIndexes(this);
-            mState.copy(newState);
+            mStates.replaceState(getInstanceID(), newState);
             mTree.addToTranspositionIndexes(this);
           }
         }
@@ -3273,7 +3534,11 @@ public class TreeNode
 
       // If the child array isn't large enough, expand it.
       assert(mNumChildren <= MCTSTree.MAX_SUPPORTED_BRANCHING_FACTOR);
-      if (mNumChildren > mChildren.length)
+      if (mChildren == null)
+      {
+        attachChildren();
+      }
+      else if (mNumChildren > mChildren.length)
       {
         int lMaxDirectChildren = mTree.mGameCharacteristics.getChoicesHighWaterMark(mNumChildren);
         mChildren = new Object[lMaxDirectChildren];
@@ -3285,7 +3550,7 @@ public class TreeNode
       {
         if (mNumChildren > 1)
         {
-          topMoveWeight = mTree.mStateSimilarityMap.getTopMoves(mState, jointPartialMove, mTree.mNodeTopMoveCandidates);
+          topMoveWeight = mTree.mStateSimilarityMap.getTopMoves(lState, jointPartialMove, mTree.mNodeTopMoveCandidates);
         }
       }
 
@@ -3329,7 +3594,7 @@ public class TreeNode
       }
 
       //  If this is the first choice node discovered as we descend from the root not it and how many children it has
-      mTree.setForcedMoveProps(mState, jointPartialMove);
+      mTree.setForcedMoveProps(lState, jointPartialMove);
 
       //  Must retrieve the iterator AFTER setting any forced move props, since it will also
       //  iterate over moves internally, and the legal move set iterator is a singleton
@@ -3359,7 +3624,7 @@ public class TreeNode
         if ((roleIndex == mTree.mNumRoles - 1 || (mNumChildren != 1 && mTree.mRemoveNonDecisionNodes)) && (!foundVirtualNoOp || !newChoice.mIsVirtualNoOp))
         {
           newState = mTree.mChildStatesBuffer[lMoveIndex];
-          mTree.mUnderlyingStateMachine.getNextState(mState,
+          mTree.mUnderlyingStateMachine.getNextState(lState,
                                                    mTree.mFactor,
                                                    jointPartialMove,
                                                    newState);
@@ -3374,7 +3639,7 @@ public class TreeNode
         }
         else
         {
-          newState.copy(mState);
+          getState(newState);
         }
 
         if (mPrimaryChoiceMapping != null)
@@ -3527,7 +3792,7 @@ public class TreeNode
               {
                 if (mTree.mGameCharacteristics.isPseudoPuzzle)
                 {
-                  mTree.mUnderlyingStateMachine.getLatchedScoreRange(mTree.mRoot.mState, mTree.mRoleOrdering.roleIndexToRole(0), mTree.mLatchedScoreRangeBuffer);
+                  mTree.mUnderlyingStateMachine.getLatchedScoreRange(mTree.mRoot.getState(mTree.mOtherNodeStateBuffer), mTree.mRoleOrdering.roleIndexToRole(0), mTree.mLatchedScoreRangeBuffer);
 
                   if (info.terminalScore[0] == mTree.mLatchedScoreRangeBuffer[1])
                   {
@@ -3544,9 +3809,9 @@ public class TreeNode
 
         if (mTree.mGameSearcher.mUseGoalGreedy)
         {
-          if (bestChildGoalValue <= mHeuristicValue && !mParents.isEmpty())
+          if (bestChildGoalValue <= mHeuristicValue && getNumParents() > 0)
           {
-            mHeuristicValue = mParents.get(0).mHeuristicValue;
+            mHeuristicValue = getParent(0).mHeuristicValue;
           }
         }
       }
@@ -3580,8 +3845,9 @@ public class TreeNode
                     edge.setParent(this, moveCandidate);
                     mChildren[lMoveIndex] = edge;
                   }
-                  edge.explorationAmplifier = (topMoveWeight * (mTree.mNodeTopMoveCandidates.length + 1 - lii)*2) /
-                                              (mTree.mNodeTopMoveCandidates.length + 1);
+                  edge.explorationAmplifier =
+                    (float)((topMoveWeight * (mTree.mNodeTopMoveCandidates.length + 1 - lii)*2) /
+                                                                      (mTree.mNodeTopMoveCandidates.length + 1));
                   break;
                 }
               }
@@ -3613,8 +3879,8 @@ public class TreeNode
 
               // Determine the heuristic value for this child.
               mTree.mHeuristic.getHeuristicValue(mTree.mChildStatesBuffer[lMoveIndex],
-                                                mState,
-                                                mState,
+                                                lState,
+                                                lState,
                                                 mTree.mNodeHeuristicInfo);
 
               if (mTree.mNodeHeuristicInfo.heuristicWeight > 0)
@@ -3634,7 +3900,7 @@ public class TreeNode
 
                 // Only apply the heuristic values if the current root has sufficient visits and there is some deviation
                 // between the root's scores and the heuristic scores in the new child.
-                if (heuristicSquaredDeviation > 0.01 && mTree.mRoot.mNumVisits > 50)
+                if (heuristicSquaredDeviation > 0.01 && mTree.mRoot.getNumVisits() > 50)
                 {
                   //  Create the edge if necessary
                   TreeEdge edge;
@@ -3662,29 +3928,29 @@ public class TreeNode
 
                     assert(linkageValid());
 
-                    assert(!evaluateTerminalOnNodeCreation || !calculateTerminalityAndAutoExpansion(get(edge.getChildRef()).mState).isTerminal);
+                    assert(!evaluateTerminalOnNodeCreation || !calculateTerminalityAndAutoExpansion(get(edge.getChildRef()).getState()).isTerminal);
 
                     assert(linkageValid());
                   }
 
                   TreeNode newChild = get(edge.getChildRef());
 
-                  if (!newChild.mTerminal && (newChild.mNumVisits == 0 || newChild.mHeuristicWeight == 0 || Math.abs(newChild.mHeuristicValue-50) < EPSILON))
+                  if (!newChild.mTerminal && (newChild.getNumVisits() == 0 || newChild.mHeuristicWeight == 0 || Math.abs(newChild.mHeuristicValue-50) < EPSILON))
                   {
-                    newChild.mHeuristicValue = mTree.mNodeHeuristicInfo.heuristicValue[0];
-                    newChild.mHeuristicWeight = mTree.mNodeHeuristicInfo.heuristicWeight;
+                    newChild.mHeuristicValue = (float)mTree.mNodeHeuristicInfo.heuristicValue[0];
+                    newChild.mHeuristicWeight = (float)mTree.mNodeHeuristicInfo.heuristicWeight;
 
                     //  If this turns out to be a transition into an already visited child
                     //  then do not apply the heuristic seeding to the average scores
-                    if (newChild.mNumVisits == 0)
+                    if (newChild.getNumVisits() == 0)
                     {
                       for (int lii = 0; lii < mTree.mNumRoles; lii++)
                       {
                         double adjustedRoleScore = mTree.mNodeHeuristicInfo.heuristicValue[lii];
 
-                        double newChildRoleScore = (newChild.getAverageScore(lii) * newChild.mNumUpdates +
+                        double newChildRoleScore = (newChild.getAverageScore(lii) * newChild.getNumUpdates() +
                                                     adjustedRoleScore * mTree.mNodeHeuristicInfo.heuristicWeight) /
-                                                   (newChild.mNumUpdates + mTree.mNodeHeuristicInfo.heuristicWeight);
+                                                   (newChild.getNumUpdates() + mTree.mNodeHeuristicInfo.heuristicWeight);
                         newChild.setAverageScore(lii, newChildRoleScore);
                       }
 
@@ -3722,9 +3988,10 @@ public class TreeNode
 
               if (!incomingEdge.hasHeuristicDeviation())
               {
-                mTree.mHeuristic.getHeuristicValue(mState,
-                                                  parent.mState,
-                                                  parent.mState,
+                ForwardDeadReckonInternalMachineState lParentState = parent.getState(mTree.mOtherNodeStateBuffer);
+                mTree.mHeuristic.getHeuristicValue(lState,
+                                                  lParentState,
+                                                  lParentState,
                                                   mTree.mNodeHeuristicInfo);
 
                 if (mTree.mNodeHeuristicInfo.treatAsSequenceStep)
@@ -3762,7 +4029,7 @@ public class TreeNode
                 break;
               }
 
-              if (pathElement.getParentNode().mNumUpdates > 200 && !pathElementHasHeuristicDeviation)
+              if (pathElement.getParentNode().getNumUpdates() > 200 && !pathElementHasHeuristicDeviation)
               {
                 break;
               }
@@ -3793,8 +4060,8 @@ public class TreeNode
 
               // Determine the heuristic value for this child.
               mTree.mHeuristic.getHeuristicValue(mTree.mChildStatesBuffer[lMoveIndex],
-                                                mState,
-                                                referenceNode.mState,
+                                                lState,
+                                                referenceNode.getState(mTree.mOtherNodeStateBuffer),
                                                 mTree.mNodeHeuristicInfo);
 
               assert(checkFixedSum(mTree.mNodeHeuristicInfo.heuristicValue));
@@ -3872,21 +4139,21 @@ public class TreeNode
 
                     assert(linkageValid());
 
-                    assert(!evaluateTerminalOnNodeCreation || !calculateTerminalityAndAutoExpansion(get(edge.getChildRef()).mState).isTerminal);
+                    assert(!evaluateTerminalOnNodeCreation || !calculateTerminalityAndAutoExpansion(get(edge.getChildRef()).getState()).isTerminal);
 
                     assert(linkageValid());
                   }
 
                   TreeNode newChild = get(edge.getChildRef());
 
-                  if (!newChild.mTerminal && (newChild.mNumVisits == 0 || newChild.mHeuristicWeight == 0 || Math.abs(newChild.mHeuristicValue-50) < EPSILON))
+                  if (!newChild.mTerminal && (newChild.getNumVisits() == 0 || newChild.mHeuristicWeight == 0 || Math.abs(newChild.mHeuristicValue-50) < EPSILON))
                   {
-                    newChild.mHeuristicValue = mTree.mNodeHeuristicInfo.heuristicValue[0];
-                    newChild.mHeuristicWeight = heuristicWeightToApply;
+                    newChild.mHeuristicValue = (float)mTree.mNodeHeuristicInfo.heuristicValue[0];
+                    newChild.mHeuristicWeight = (float)heuristicWeightToApply;
 
                     //  If this turns out to be a transition into an already visited child
                     //  then do not apply the heuristic seeding to the average scores
-                    if (newChild.mNumVisits == 0)
+                    if (newChild.getNumVisits() == 0)
                     {
                       for (int lii = 0; lii < mTree.mNumRoles; lii++)
                       {
@@ -3895,7 +4162,7 @@ public class TreeNode
 
                         //  Weight by a measure of confidence in the reference score
                         //  TODO - experiment - should this be proportional to sqrt(num root visits)?
-                        double referenceScoreWeight = referenceNode.mNumUpdates/50;
+                        double referenceScoreWeight = referenceNode.getNumUpdates()/50;
                         referenceRoleScore = (referenceRoleScore*referenceScoreWeight + 50)/(referenceScoreWeight + 1);
 
                         if (mTree.mNodeHeuristicInfo.heuristicValue[lii] > 50)
@@ -3913,20 +4180,20 @@ public class TreeNode
                                                 50;
                         }
 
-                        double newChildRoleScore = (newChild.getAverageScore(lii) * newChild.mNumUpdates +
+                        double newChildRoleScore = (newChild.getAverageScore(lii) * newChild.getNumUpdates() +
                                                     adjustedRoleScore * mTree.mNodeHeuristicInfo.heuristicWeight) /
-                                                   (newChild.mNumUpdates + mTree.mNodeHeuristicInfo.heuristicWeight);
+                                                   (newChild.getNumUpdates() + mTree.mNodeHeuristicInfo.heuristicWeight);
                         newChild.setAverageScore(lii, newChildRoleScore);
                       }
                     }
 
                     // Use the heuristic confidence to guide how many virtual rollouts to pretend there have been through
                     // the new child.
-                    newChild.mNumUpdates += mTree.mNodeHeuristicInfo.heuristicWeight;
+                    newChild.setNumUpdates(newChild.getNumUpdates() + mTree.mNodeHeuristicInfo.heuristicWeight);
                     assert(!Double.isNaN(newChild.getAverageScore(0)));
 
-                    newChild.mNumVisits += mTree.mNodeHeuristicInfo.heuristicWeight;
-                    edge.setNumVisits(newChild.mNumVisits);
+                    newChild.setNumVisits((int)(newChild.getNumVisits() + mTree.mNodeHeuristicInfo.heuristicWeight));
+                    edge.setNumVisits(newChild.getNumVisits());
                   }
                 }
               }
@@ -3962,7 +4229,7 @@ public class TreeNode
                 if (!completeChildFound)
                 {
                   completeChildFound = true;
-                  mTree.mUnderlyingStateMachine.getLatchedScoreRange(mState, mTree.mRoleOrdering.roleIndexToRole(roleIndex), mTree.mLatchedScoreRangeBuffer);
+                  mTree.mUnderlyingStateMachine.getLatchedScoreRange(lState, mTree.mRoleOrdering.roleIndexToRole(roleIndex), mTree.mLatchedScoreRangeBuffer);
                 }
 
                 if (mTree.mLatchedScoreRangeBuffer[0] != mTree.mLatchedScoreRangeBuffer[1] && lNode.getAverageScore(roleIndex) > mTree.mLatchedScoreRangeBuffer[1] - EPSILON)
@@ -4019,6 +4286,34 @@ public class TreeNode
     }
   }
 
+  /**
+   * Attach a child array, large enough for the current number of children, to this node.
+   */
+  private void attachChildren()
+  {
+    assert(mChildren == null) : "Child array already attached";
+
+    int lMaxDirectChildren = mTree.mGameCharacteristics.getChoicesHighWaterMark(mNumChildren);
+    mChildren = mColumns.allocateChildArray(lMaxDirectChildren);
+  }
+
+  /**
+   * Detach the child array from this node, returning it to the column store if suitable.  The array must already have
+   * been cleared.
+   */
+  private void detachChildren()
+  {
+    //  If the child array was above a certain threshold (due to having been used for a large number
+    //  of hyper-edges, which will not be a dominant case) just drop it
+    int lMaxDirectChildren = mTree.mGameCharacteristics.getChoicesHighWaterMark(0);
+    if (mChildren.length <= lMaxDirectChildren * 2)
+    {
+      mColumns.freeChildArray(mChildren);
+    }
+
+    mChildren = null;
+  }
+
   /**
    * Detach RAVE stats from this node, returning them to the pool if suitable.
    */
@@ -4112,10 +4407,10 @@ public class TreeNode
       double normalizedNumVisits;
       double normalizedNumChildVisits;
 
-      if (childNode.mNumUpdates > 0)
+      if (childNode.getNumUpdates() > 0)
       {
-        normalizedNumVisits = effectiveTotalVisits*(mNumUpdates + 1) / mNumVisits;
-        normalizedNumChildVisits = effectiveNumChildVisits*(childNode.mNumUpdates + 1)/childNode.mNumVisits;
+        normalizedNumVisits = effectiveTotalVisits*(getNumUpdates() + 1) / getNumVisits();
+        normalizedNumChildVisits = effectiveNumChildVisits*(childNode.getNumUpdates() + 1)/childNode.getNumVisits();
       }
       else
       {
@@ -4179,8 +4474,9 @@ public class TreeNode
       mTree.mCousinMoveCache.clear();
       mTree.mCachedMoveScorePool.clear(mTree.mMoveScoreInfoAllocator, false);
 
-      for (TreeNode parent : mParents)
+      for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
       {
+        TreeNode parent = getParent(lParentIndex);
         for (short index = 0; index < parent.mNumChildren; index++)
         {
           if (parent.mPrimaryChoiceMapping == null || parent.mPrimaryChoiceMapping[index] == index)
@@ -4208,7 +4504,7 @@ public class TreeNode
                 }
 
                 TreeNode nephew = get(nephewEdge.getChildRef());
-                if (nephew != null && (nephew.mNumUpdates > 0 || nephew.mComplete))
+                if (nephew != null && (nephew.getNumUpdates() > 0 || nephew.mComplete))
                 {
                   Move move = (rawChoice instanceof TreeEdge ? nephewEdge.mPartialMove : (ForwardDeadReckonLegalMoveInfo)rawChoice).mMove;
                   MoveScoreInfo accumulatedMoveInfo = mTree.mCousinMoveCache.get(move);
@@ -4238,9 +4534,9 @@ public class TreeNode
     MoveScoreInfo accumulatedMoveInfo = mTree.mCousinMoveCache.get(relativeTo.mPartialMove.mMove);
     if (accumulatedMoveInfo == null)
     {
-      if (lNode.mNumUpdates > 0)
+      if (lNode.getNumUpdates() > 0)
       {
-        mParents.get(0).dumpTree("subTree.txt");
+        getParent(0).dumpTree("subTree.txt");
         LOGGER.warn("No newphews found for search move including own child!");
         mTree.mCousinMovesCachedFor = NULL_REF;
       }
@@ -4341,7 +4637,7 @@ public class TreeNode
     if (mTree.mUseEstimatedValueForUnplayedNodes)
     {
       // Extract the common parts of the calculation to avoid making expensive calls twice.
-      double lCommon = 2 * Math.log(mNumVisits + 1);
+      double lCommon = 2 * Math.log(getNumVisits() + 1);
 
       double varianceBound = Math.sqrt(lCommon);
       double explorationTerm = mTree.mGameCharacteristics.getExplorationBias() *
@@ -4371,7 +4667,7 @@ public class TreeNode
     //  heavily visited by other routes) child.  In such cases it's not worth
     //  attempting to normalize (and may be impossible if no edges have actually
     //  been selected through yet!)
-    if ( mNumVisits < NORMALIZATION_WARMUP_PERIOD )
+    if ( getNumVisits() < NORMALIZATION_WARMUP_PERIOD )
     {
       return;
     }
@@ -4420,7 +4716,7 @@ public class TreeNode
       }
     }
 
-    double highestVisitFactor = Math.log(mNumVisits)/pivotScoreWeight;
+    double highestVisitFactor = Math.log(getNumVisits())/pivotScoreWeight;
     //  Note - the following line should remove biases from hyper-edge selection, but empirically
     //  (with or without this adjustment) normalization and hyper-edges just do not seem to mix well
     //  I do not know why, but for now normalization is just disabled in games with hyper-expansion
@@ -4455,7 +4751,7 @@ public class TreeNode
             //  such cases, especially if child convergence is non-monotonic
             double chooserScore = effectiveExploitationScore(lii, choosingRoleIndex);
             int numChildVisits = edge.getNumChildVisits();
-            double weight = (numChildVisits >= MIN_NUM_VISITS ? expBias*expBias*Math.log(mNumVisits)/((c-chooserScore)*(c-chooserScore)) : numChildVisits);
+            double weight = (numChildVisits >= MIN_NUM_VISITS ? expBias*expBias*Math.log(getNumVisits())/((c-chooserScore)*(c-chooserScore)) : numChildVisits);
             assert(lii != highestScoreIndex || Math.abs(weight-edge.getNumChildVisits()) < EPSILON);
 
             if (bTrace)
@@ -4511,8 +4807,9 @@ public class TreeNode
         if ( Math.abs(getAverageScore(role) - newValue) > 3 )
         {
           //  Flag the parents as in need of normalization
-          for(TreeNode parent : mParents)
+          for (int lParentIndex = 0; lParentIndex < getNumParents(); lParentIndex++)
           {
+            TreeNode parent = getParent(lParentIndex);
             parent.mUpdatesToNormalization = 0;
           }
         }
@@ -4531,13 +4828,13 @@ public class TreeNode
       edge.explorationAmplifier = 0;
     }
 
-    if (c.mNumVisits == 0)
+    if (c.getNumVisits() == 0)
     {
       uctValue = unexpandedChildUCTValue(roleIndex, edge);
     }
     else
     {
-      assert(edge.getNumChildVisits() <= c.mNumVisits || (edge.hyperSuccessor != null && c.mComplete));
+      assert(edge.getNumChildVisits() <= c.getNumVisits() || (edge.getHyperSuccessor() != null && c.mComplete));
 
       //  Various experiments have been done to try to find the best selection
       //  weighting, and it seems that using the number of times we've visited the
@@ -4551,10 +4848,10 @@ public class TreeNode
       //  children seems to give decent results.  Both applying it in full and not
       //  applying it (both of which can be rationalized!) seem to fare worse in at
       //  least some games
-      uctValue = (c.mComplete ? explorationUCT(mNumVisits,
+      uctValue = (c.mComplete ? explorationUCT(getNumVisits(),
                                               edge,
                                               roleIndex)/2
-                             : explorationUCT(mNumVisits,
+                             : explorationUCT(getNumVisits(),
                                               edge,
                                               roleIndex)) +
                  exploitationUCT(edge, roleIndex) +
@@ -4578,7 +4875,7 @@ public class TreeNode
     //  counts even though the parent count is 0.  In such cases the parent count is the same for all
     //  children so it just amounts to a common normalization factor that will not impact ordering,
     //  so set it to 1 so we get meaningful values
-    int effectiveTotalVisits = mNumVisits;
+    int effectiveTotalVisits = getNumVisits();
     if (effectiveTotalVisits == 0)
     {
       effectiveTotalVisits = 1;
@@ -4750,7 +5047,7 @@ public class TreeNode
 
             //  Hyper-edges may become stale due to down-stream links being freed - ignore
             //  hyper paths with stale linkage
-            if(edge.hyperSuccessor != null && edge.hyperLinkageStale())
+            if(edge.getHyperSuccessor() != null && edge.hyperLinkageStale())
             {
               deleteHyperEdge(mLastSelectionMade);
             }
@@ -4807,7 +5104,7 @@ public class TreeNode
 
                   //  Hyper-edges may become stale due to down-stream links being freed - ignore
                   //  hyper paths with stale linkage
-                  if(edge.hyperSuccessor != null && edge.hyperLinkageStale())
+                  if(edge.getHyperSuccessor() != null && edge.hyperLinkageStale())
                   {
                     deleteHyperEdge(lii);
                     hyperLinksRemoved = true;
@@ -4856,7 +5153,7 @@ public class TreeNode
                 }
                 else if (mTree.mRoot == this || !(edge == null ? (ForwardDeadReckonLegalMoveInfo)lChoice : edge.mPartialMove).mIsPseudoNoOp)
                 {
-                  if (edge != null && edge.hyperSuccessor != null)
+                  if (edge != null && edge.getHyperSuccessor() != null)
                   {
                     //  Stale hyper-link - can be ignored now its target has gone
                     continue;
@@ -4948,14 +5245,14 @@ public class TreeNode
       //  case so we always do so.  This is not expensive because the following creation of the child
       //  node anyway has top call getNextStat() and thus run the state through the state machine,
       //  which is the bulk of the cost
-      mTree.setForcedMoveProps(mState, jointPartialMove);
+      mTree.setForcedMoveProps(getState(mTree.mOtherNodeStateBuffer), jointPartialMove);
 
       createChildNodeForEdge(selected, jointPartialMove);
 
       assert(!mTree.mEvaluateTerminalOnNodeCreation ||
              (mDepth < mTree.mGameCharacteristics.getEarliestCompletionDepth() && !mTree.mHeuristic.isEnabled()) ||
              this == mTree.mRoot ||
-             !calculateTerminalityAndAutoExpansion(get(selected.getChildRef()).mState).isTerminal);
+             !calculateTerminalityAndAutoExpansion(get(selected.getChildRef()).getState()).isTerminal);
       assert(linkageValid());
     }
 
@@ -4971,16 +5268,16 @@ public class TreeNode
     TreePathElement result = null;
     //  If we selected a hyper-edge then we actually need to push all of its constituent elements
     //  so that the stats update applies to the correct intermediate states also
-    if (selected.hyperSuccessor == null)
+    if (selected.getHyperSuccessor() == null)
     {
-      assert(get(selected.getChildRef()).mParents.contains(this));
+      assert(get(selected.getChildRef()).hasParent(this));
       result = path.push(this, selected);
     }
     else
     {
       TreeNode intermediaryParent = this;
 
-      while(selected.hyperSuccessor != null)
+      while(selected.getHyperSuccessor() != null)
       {
         //  Find the principal edge for the next part of the hyper-edge's sub-path
         TreeEdge principalEdge = null;
@@ -5007,10 +5304,10 @@ public class TreeNode
         result = path.push(intermediaryParent, principalEdge);
         principalEdge.incrementNumVisits();
 
-        assert(principalEdge.getChildRef() == selected.nextHyperChild);
+        assert(principalEdge.getChildRef() == selected.getNextHyperChild());
         TreeNode nextNode = get(principalEdge.getChildRef());
 
-        assert(nextNode.mParents.contains(intermediaryParent));
+        assert(nextNode.hasParent(intermediaryParent));
         intermediaryParent = nextNode;
 
         assert(intermediaryParent != null);
@@ -5023,15 +5320,15 @@ public class TreeNode
           break;
         }
 
-        intermediaryParent.mNumVisits++;
+        intermediaryParent.adjustNumVisits(1);
         selected.incrementNumVisits();
 
-        selected = selected.hyperSuccessor;
+        selected = selected.getHyperSuccessor();
       }
 
       if (!intermediaryParent.mComplete)
       {
-        assert(get(selected.getChildRef()).mParents.contains(intermediaryParent));
+        assert(get(selected.getChildRef()).hasParent(intermediaryParent));
         result = path.push(intermediaryParent, selected);
       }
     }
@@ -5052,14 +5349,14 @@ public class TreeNode
       assert(bestCompleteNode == get(bestSelectedEdge.getChildRef()));
 
       result.setScoreOverrides(bestCompleteNode);
-      bestCompleteNode.mNumVisits++;
+      bestCompleteNode.adjustNumVisits(1);
       bestSelectedEdge.incrementNumVisits();
       mLastSelectionMade = -1;
     }
 
     //  Update the visit counts on the selection pass.  The update counts
     //  will be updated on the back-propagation pass
-    mNumVisits++;
+    adjustNumVisits(1);
     selected.incrementNumVisits();
 
     return result;
@@ -5182,7 +5479,7 @@ public class TreeNode
                 String lLog = "    Response " +
                               edge2.mPartialMove.mMove + (edge2.isHyperEdge() ? " (hyper)" : "") +
                               " scores " + lNode2.stringizeScoreVector() +
-                              ", visits " + lNode2.mNumVisits + " [edge " + edge2.getNumChildVisits() + ", updates " + lNode2.mNumUpdates + "]" +
+                              ", visits " + lNode2.getNumVisits() + " [edge " + edge2.getNumChildVisits() + ", updates " + lNode2.getNumUpdates() + "]" +
                               ", ref : " + lNode2.mRef +
                               (mRAVEStats != null ? (", RAVE[" + mRAVEStats.mCounts[index] + ", " + FORMAT_2DP.format(mRAVEStats.mScores[index]) + "]") : "") +
                               (lNode2.mComplete ? " (complete)" : "") +
@@ -5298,8 +5595,8 @@ public class TreeNode
                         " [" + childIndex + "] D" + mDepth +
                         " (choosing role " + (mDecidingRoleIndex + 1) % mTree.mNumRoles + ")" +
                         " scores " + stringizeScoreVector() + "[" + mHeuristicValue + "@" + mHeuristicWeight + "] (ref " + mRef +
-                        ") - visits: " + mNumVisits + " (" +
-                        arrivalPath.getNumChildVisits() + ", " + arrivalPath.hasHeuristicDeviation() + "), updates: " + mNumUpdates);
+                        ") - visits: " + getNumVisits() + " (" +
+                        arrivalPath.getNumChildVisits() + ", " + arrivalPath.hasHeuristicDeviation() + "), updates: " + getNumUpdates());
     }
 
     if (mSweepSeq == mTree.mSweepInstance)
@@ -5437,9 +5734,9 @@ public class TreeNode
 
           if (lNode != null)
           {
-            if (lNode.mNumVisits > maxChildVisitCount)
+            if (lNode.getNumVisits() > maxChildVisitCount)
             {
-              maxChildVisitCount = lNode.mNumVisits;
+              maxChildVisitCount = lNode.getNumVisits();
             }
             if (lNode.mComplete)
             {
@@ -5601,7 +5898,7 @@ public class TreeNode
 
           //  If the root has no visits (can happen if a node was completed in expansion by a shallow greedy rollout)
           //  then its selection value is its move value if complete
-          if (mNumVisits == 0)
+          if (getNumVisits() == 0)
           {
             selectionScore = moveScore;
           }
@@ -5616,17 +5913,17 @@ public class TreeNode
             //  the complete one.  If we don't do this rounding errors can lead to an indeterminate
             //  choice (between this and the most selected node)
             selectionScore = moveScore *
-                (1 - 20 * Math.log(mNumVisits) /
-                    (20 * Math.log(mNumVisits) + maxChildVisitCount)) + EPSILON;
+                (1 - 20 * Math.log(getNumVisits()) /
+                    (20 * Math.log(getNumVisits()) + maxChildVisitCount)) + EPSILON;
           }
         }
         else
         {
-          int numChildVisits = child.mNumVisits;
+          int numChildVisits = child.getNumVisits();
 
           //  Cope with the case where root expansion immediately found a complete node and never
           //  even explored the others (which should not be selected)
-          if (numChildVisits == 0 || mNumVisits == 0)
+          if (numChildVisits == 0 || getNumVisits() == 0)
           {
             selectionScore = -1000;
           }
@@ -5643,8 +5940,8 @@ public class TreeNode
               }
             }
             selectionScore = moveScore *
-                (1 - 20 * Math.log(mNumVisits) /
-                    (20 * Math.log(mNumVisits) + numChildVisits));
+                (1 - 20 * Math.log(getNumVisits()) /
+                    (20 * Math.log(getNumVisits()) + numChildVisits));
 
             //  Whether we're looking for a choice of node to concentrate local search on (firstDecision==true)
             //  of looking for our final choice to play (firstDecision==false) impacts how we weight
@@ -5694,8 +5991,8 @@ public class TreeNode
         {
           LOGGER.info("Move " + edge.descriptiveName() +
                       " scores " + FORMAT_2DP.format(moveScore) + " (selectionScore " +
-                      FORMAT_2DP.format(selectionScore) + ", selection count " + child.mNumVisits +
-                      " [edge " + edge.getNumChildVisits() + ", updates " + child.mNumUpdates + "]" +  ", ref " + child.mRef +
+                      FORMAT_2DP.format(selectionScore) + ", selection count " + child.getNumVisits() +
+                      " [edge " + edge.getNumChildVisits() + ", updates " + child.getNumUpdates() + "]" +  ", ref " + child.mRef +
                       (mRAVEStats != null ? (", RAVE[" + mRAVEStats.mCounts[lii] + ", " + FORMAT_2DP.format(mRAVEStats.mScores[lii]) + "]") : "") +
                       (child.mComplete ? (", complete [" + ((child.mCompletionDepth - mTree.mRoot.mDepth) / mTree.mNumRoles) + "]") : "") +
                       (child.mLocalSearchStatus.HasResult() ? (", " + child.mLocalSearchStatus + " [" + ((child.mCompletionDepth - mTree.mRoot.mDepth) / mTree.mNumRoles) + "]") : "") +
@@ -5812,7 +6109,7 @@ public class TreeNode
 
       lResult.mBestEdge = bestEdge;
       lResult.mBestMove = (moveInfo.mIsPseudoNoOp ? null : moveInfo);
-      lResult.mResultingState = get(bestEdge.getChildRef()).mState;
+      lResult.mResultingState = get(bestEdge.getChildRef()).getState(mTree.mResultingStateBuffer);
       if (!moveInfo.mIsPseudoNoOp)
       {
         lResult.mBestMoveValue = bestMoveScore;
@@ -5845,7 +6142,7 @@ public class TreeNode
   {
     //  Rolling out from this node constitutes a visit, and the leaf node that we roll out
     //  from will not have had its visit count updated by select as it has not been selected through
-    mNumVisits++;
+    adjustNumVisits(1);
 
     assert(!mFreed) : "Rollout node is a freed node";
     assert(path.isValid()) : "Rollout path isn't valid";
@@ -5885,11 +6182,12 @@ public class TreeNode
     if (ThreadControl.ROLLOUT_THREADS > 0 && !forceSynchronous)
     {
       // Get a request slot from the pipeline.
-      if (!xiPipeline.canExpand())
+      while (!xiPipeline.canExpand())
       {
         // The pipeline is full.  We can't expand it until we've done some back-propagation.  Even though none was
-        // available at the start of the expansion, we'll just have to wait.
-        lGetSlotTime = mTree.mGameSearcher.processCompletedRollouts(true);
+        // available at the start of the expansion, we'll just have to wait.  (Requests are back-propagated as they
+        // complete, which doesn't always free a slot that can be used next, so we may have to go round again.)
+        lGetSlotTime += mTree.mGameSearcher.processCompletedRollouts(true);
 
         //  Processing completions above could have resulted in a node on the rollout
         //  path from being freed (because it has been determined to be complete or an
@@ -5914,7 +6212,7 @@ public class TreeNode
     lRequest.mSelectElapsedTime  = xiSelectTime;
     lRequest.mExpandElapsedTime  = xiExpandTime;
     lRequest.mGetSlotElapsedTime = lGetSlotTime;
-    lRequest.mState.copy(mState);
+    getState(lRequest.mState);
     lRequest.mNodeRef = getRef();
     lRequest.mSampleSize = mTree.mGameCharacteristics.getRolloutSampleSize();
     lRequest.mPath = path;
@@ -6056,7 +6354,7 @@ public class TreeNode
 
       //  Choke off propagation that originated through an anti-decisive (losing) complete
       //  choice except for the first one through that parent
-      if (isAntiDecisiveCompletePropagation && lNode.mNumUpdates > 0)
+      if (isAntiDecisiveCompletePropagation && lNode.getNumUpdates() > 0)
       {
         return System.nanoTime() - lStartTime;
       }
@@ -6071,7 +6369,7 @@ public class TreeNode
           if (lChildEdge != null)
           {
             TreeNode lChild = lNode.get(lChildEdge.getChildRef());
-            int     adjustedChildVisits = lChild.mNumVisits;
+            int     adjustedChildVisits = lChild.getNumVisits();
             if (mTree.mHeuristic.applyAsSimpleHeuristic())
             {
               adjustedChildVisits += (int)lChild.mHeuristicWeight;
@@ -6097,7 +6395,7 @@ public class TreeNode
             assert (!lNode.mAllChildrenComplete || mTree.mGameCharacteristics.isSimultaneousMove || Math.abs(xiValues[lRoleIndex] - lChild.getAverageScore(lRoleIndex)) < EPSILON);
           }
 
-          double numUpdatesIncludedHeuristicBias = lNode.mNumUpdates;
+          double numUpdatesIncludedHeuristicBias = lNode.getNumUpdates();
           if (mTree.mHeuristic.applyAsSimpleHeuristic())
           {
             numUpdatesIncludedHeuristicBias += lNode.mHeuristicWeight;
@@ -6117,7 +6415,7 @@ public class TreeNode
         lNode.mLastSelectionMade = -1;
 
         //validateScoreVector(averageScores);
-        lNode.mNumUpdates += applicationWeight;
+        lNode.setNumUpdates(lNode.getNumUpdates() + applicationWeight);
 
         //  RAVE stats update
         if (mTree.mGameSearcher.mUseRAVE && lNode.mNumChildren > 1 && playedMoves != null)
@@ -6205,12 +6503,12 @@ public class TreeNode
 
     do
     {
-      if ( ancestor.mParents.isEmpty() )
+      if (ancestor.getNumParents() == 0)
       {
         return null;
       }
 
-      ancestor = ancestor.mParents.get(0);  //  Any parentage will do
+      ancestor = ancestor.getParent(0);  //  Any parentage will do
     } while(ancestor.mDecidingRoleIndex != mDecidingRoleIndex);
 
     return ancestor;
@@ -88,7 +88,7 @@ public class TreePath
       assert(mParentRef != mChildRef) : "Parent and child mustn't be the same";
       assert(mParentRef == xiEdge.mParentRef) : "Edge must come from the parent";
       assert(getNode(mChildRef) != null) : "Can't add invalid node ref to path";
-      assert(xiEdge.getNumChildVisits() <= getNode(mChildRef).mNumVisits) : "Edge has more visits than child";
+      assert(xiEdge.getNumChildVisits() <= getNode(mChildRef).getNumVisits()) : "Edge has more visits than child";
     }
 
     /**
@@ -377,9 +377,9 @@ public class TreePath
       // The edge can't have been visited more often than its child.  (The converse isn't true because children can
       // have multiple parents.)
       assert(getCurrentElement().getChildNode() != null) : "Child is null even after edge validated";
-      assert(lEdge.getNumChildVisits() <= getCurrentElement().getChildNode().mNumVisits) :
+      assert(lEdge.getNumChildVisits() <= getCurrentElement().getChildNode().getNumVisits()) :
         "Edge " + lEdge + " has been visited " + lEdge.getNumChildVisits() + " times, but the child (" +
-        getCurrentElement().getChildNode() + ") only has " + getCurrentElement().getChildNode().mNumVisits + " visits!";
+        getCurrentElement().getChildNode() + ") only has " + getCurrentElement().getChildNode().getNumVisits() + " visits!";
     }
     resetCursor();
     return true;
@@ -1094,7 +1094,7 @@ public class PieceHeuristic implements Heuristic
 
         // Normalize against the root score since this is relative to the root state material balance.  Only do this if
         // the root has had enough visits to have a credible estimate.
-        if (mRootNode != null && mRootNode.mNumVisits > 50)
+        if (mRootNode != null && mRootNode.getNumVisits() > 50)
         {
           // Set the average score for the child to the average score of the root displaced towards the extremities
           // (0/100) by a proportion of the amount that it currently deviates from the extremities, where that proportion
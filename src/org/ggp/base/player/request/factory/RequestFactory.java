@@ -40,7 +40,8 @@ public final class RequestFactory
   {
     try
     {
-      SymbolList list = (SymbolList)SymbolFactory.create(xiSource.mRequest);
+      SymbolList list = (SymbolList)SymbolFactory.create(xiSource.mRequest,
+                                                          gamer.getSymbolArena());
       SymbolAtom head = (SymbolAtom)list.get(0);
 
       String type = head.getValue().toLowerCase();
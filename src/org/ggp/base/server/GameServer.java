@@ -36,6 +36,7 @@ import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
@@ -74,7 +75,7 @@ public final class GameServer extends Thread implements Subject
     playerPlaysRandomly = new Boolean[hosts.size()];
     Arrays.fill(playerPlaysRandomly, Boolean.FALSE);
 
-    stateMachine = new ProverStateMachine();
+    stateMachine = new CachedStateMachine(new ProverStateMachine());
     stateMachine.initialize(match.getGame().getRules());
     currentState = stateMachine.getInitialState();
     previousMoves = null;
@@ -25,5 +25,8 @@ public final class RandomPlayRequestThread extends PlayRequestThread
   }
 
   @Override
-  public void run()  { /* Do nothing */ }
+  public void start()  { /* Do nothing */ }
+
+  @Override
+  public void join()  { /* Do nothing */ }
 }
\ No newline at end of file
@@ -8,7 +8,8 @@ import java.net.UnknownHostException;
 import org.ggp.base.server.GameServer;
 import org.ggp.base.server.event.ServerConnectionErrorEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
-import org.ggp.base.util.http.HttpRequest;
+import org.ggp.base.util.http.HttpEventLoop;
+import org.ggp.base.util.http.HttpEventLoop.PendingResponse;
 import org.ggp.base.util.statemachine.Role;
 
 
@@ -20,10 +21,15 @@ import org.ggp.base.util.statemachine.Role;
  * cetera. This framework does the usual setup and try-catch responding so that
  * the concrete RequestThread subclasses can focus on request-specific business
  * logic.
- * 
+ *
+ * Despite the name (and the Thread-like start/join interface), requests no
+ * longer have threads of their own: start() hands the request to the shared
+ * {@link HttpEventLoop}, and join() waits for the response and handles it on
+ * the calling thread.
+ *
  * @author schreib
  */
-public abstract class RequestThread extends Thread
+public abstract class RequestThread
 {
   private final GameServer gameServer;
   private final String     host;
@@ -32,6 +38,7 @@ public abstract class RequestThread extends Thread
   private final int        timeout;
   private final Role       role;
   private final String     request;
+  private PendingResponse  response;
 
   public RequestThread(GameServer gameServer,
                        Role role,
@@ -52,17 +59,26 @@ public abstract class RequestThread extends Thread
 
   protected abstract void handleResponse(String response);
 
-  @Override
-  public void run()
+  /**
+   * Issue the request.
+   */
+  public void start()
+  {
+    response = HttpEventLoop.getInstance().issueRequest(host,
+                                                        port,
+                                                        playerName,
+                                                        request,
+                                                        timeout);
+  }
+
+  /**
+   * Wait for the response to the request, and handle it.
+   */
+  public void join() throws InterruptedException
   {
     try
     {
-      String response = HttpRequest.issueRequest(host,
-                                                 port,
-                                                 playerName,
-                                                 request,
-                                                 timeout);
-      handleResponse(response);
+      handleResponse(response.get());
     }
     catch (SocketTimeoutException e)
     {
@@ -77,4 +93,4 @@ public abstract class RequestThread extends Thread
       gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
     }
   }
-}
\ No newline at end of file
+}
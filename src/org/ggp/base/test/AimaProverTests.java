@@ -0,0 +1,209 @@
+package org.ggp.base.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.implementation.chaining.ForwardChainingStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AimaProverTests extends Assert
+{
+  private static final int MAX_GAME_LENGTH = 200;
+
+  // Games that the forward-chaining machine handles differently.  In test_case_3a it treats (open2) and open1 alike,
+  // where the prover doesn't (see the rulesheet's comment), and in test_case_3e it doesn't find goals that have a
+  // variable for the role.
+  private static final Set<String> CHAINING_DIFFERS = new HashSet<>(Arrays.asList("test_case_3a", "test_case_3e"));
+
+  @Test
+  public void testKnowledgeBaseIndex() throws Exception
+  {
+    Set<Gdl> lDescription = new LinkedHashSet<>();
+    for (String lGdl : new String[] {"( p a 1 )",
+                                     "( p b 2 )",
+                                     "( <= ( p ?x 3 ) ( q ?x ) )",
+                                     "( p ( f a ) 4 )",
+                                     "( <= ( p ( f ?y ) 5 ) ( q ?y ) )",
+                                     "( <= ( p c 6 ) ( q c ) )",
+                                     "( <= p0 ( q a ) )",
+                                     "( q a )"})
+    {
+      lDescription.add(GdlFactory.create(lGdl));
+    }
+    KnowledgeBase lKnowledgeBase = new KnowledgeBase(lDescription);
+
+    // Rules are selected by the first argument of the query (if it has one), and stay in description order.  Rules
+    // with a variable first argument match anything.
+    assertFetch(lKnowledgeBase, "( p a ?z )", "( p a 1 )", "( p ?x 3 )");
+    assertFetch(lKnowledgeBase, "( p c ?z )", "( p ?x 3 )", "( p c 6 )");
+    assertFetch(lKnowledgeBase, "( p d ?z )", "( p ?x 3 )");
+    assertFetch(lKnowledgeBase, "( p ( f b ) ?z )", "( p ?x 3 )", "( p ( f a ) 4 )", "( p ( f ?y ) 5 )");
+    assertFetch(lKnowledgeBase,
+                "( p ?v ?z )",
+                "( p a 1 )", "( p b 2 )", "( p ?x 3 )", "( p ( f a ) 4 )", "( p ( f ?y ) 5 )", "( p c 6 )");
+    assertFetch(lKnowledgeBase, "p0", "p0");
+    assertFetch(lKnowledgeBase, "( q a )", "( q a )");
+    assertFetch(lKnowledgeBase, "( r a )");
+  }
+
+  @Test
+  public void testAgainstBaselines() throws Exception
+  {
+    // Play random games of everything in the test repository, checking the prover against the forward-chaining
+    // machine (where that can handle the game).  Then revisit all the states in a random order, so that queries are
+    // answered from the prover's per-state tables after they've been evicted and rebuilt, and check that the answers
+    // haven't changed.
+    TestGameRepository lRepository = new TestGameRepository();
+    int lNumGamesChecked = 0;
+    for (String lGameKey : new TreeSet<>(lRepository.getGameKeys()))
+    {
+      List<Gdl> lDescription = lRepository.getGame(lGameKey).getRules();
+      StateMachine lProver = new ProverStateMachine();
+      try
+      {
+        lProver.initialize(lDescription);
+        lProver.getInitialState();
+      }
+      catch (Exception lEx)
+      {
+        // Invalid games are in the repository to test the validators.
+        continue;
+      }
+      lNumGamesChecked++;
+
+      StateMachine lChaining = null;
+      if (!CHAINING_DIFFERS.contains(lGameKey))
+      {
+        lChaining = new ForwardChainingStateMachine();
+        try
+        {
+          lChaining.initialize(lDescription);
+        }
+        catch (Exception | StackOverflowError lEx)
+        {
+          lChaining = null;
+        }
+      }
+
+      Random lRandom = new Random(1);
+      List<MachineState> lStates = new ArrayList<>();
+      List<String> lAnswers = new ArrayList<>();
+      for (int lGame = 0; lGame < 3; lGame++)
+      {
+        MachineState lState = lProver.getInitialState();
+        if (lChaining != null)
+        {
+          assertEquals(lGameKey, lState, lChaining.getInitialState());
+        }
+
+        for (int lStep = 0; lStep < MAX_GAME_LENGTH; lStep++)
+        {
+          String lAnswer = describe(lProver, lState);
+          if (lChaining != null)
+          {
+            assertEquals(lGameKey, lAnswer, describe(lChaining, lState));
+          }
+          lStates.add(lState);
+          lAnswers.add(lAnswer);
+
+          if (lProver.isTerminal(lState))
+          {
+            break;
+          }
+          lState = lProver.getNextState(lState, lProver.getRandomJointMove(lState));
+        }
+      }
+
+      List<Integer> lOrder = new ArrayList<>();
+      for (int lii = 0; lii < lStates.size(); lii++)
+      {
+        lOrder.add(lii);
+      }
+      Collections.shuffle(lOrder, lRandom);
+      for (int lii : lOrder)
+      {
+        assertEquals(lGameKey, lAnswers.get(lii), describe(lProver, lStates.get(lii)));
+      }
+    }
+    assertTrue(lNumGamesChecked > 10);
+  }
+
+  /**
+   * @return a description of everything a state machine reports about a state: its terminality, each role's legal
+   * moves, the goals (of a terminal state) and the successor state for each joint move.
+   */
+  private static String describe(StateMachine xiMachine, MachineState xiState) throws Exception
+  {
+    StringBuilder lDescription = new StringBuilder();
+    boolean lTerminal = xiMachine.isTerminal(xiState);
+    lDescription.append("terminal ").append(lTerminal).append('\n');
+    if (lTerminal)
+    {
+      try
+      {
+        lDescription.append("goals ").append(xiMachine.getGoals(xiState));
+      }
+      catch (GoalDefinitionException lEx)
+      {
+        // Some of the test games deliberately leave goals undefined.
+        lDescription.append("goals undefined");
+      }
+      return lDescription.toString();
+    }
+
+    for (Role lRole : xiMachine.getRoles())
+    {
+      lDescription.append(lRole).append(' ').append(sorted(xiMachine.getLegalMoves(xiState, lRole))).append('\n');
+    }
+
+    // The joint moves are sorted, so that the machines' move orders don't matter.
+    TreeSet<String> lSuccessors = new TreeSet<>();
+    for (List<Move> lJointMove : xiMachine.getLegalJointMoves(xiState))
+    {
+      lSuccessors.add(lJointMove + " -> " + sorted(xiMachine.getNextState(xiState, lJointMove).getContents()));
+    }
+    lDescription.append(lSuccessors);
+    return lDescription.toString();
+  }
+
+  private static TreeSet<String> sorted(Iterable<?> xiItems)
+  {
+    TreeSet<String> lSorted = new TreeSet<>();
+    for (Object lItem : xiItems)
+    {
+      lSorted.add(lItem.toString());
+    }
+    return lSorted;
+  }
+
+  private static void assertFetch(KnowledgeBase xiKnowledgeBase, String xiQuery, String... xiExpectedHeads)
+      throws Exception
+  {
+    List<String> lHeads = new ArrayList<>();
+    for (GdlRule lRule : xiKnowledgeBase.fetch((GdlSentence)GdlFactory.create(xiQuery)))
+    {
+      lHeads.add(lRule.getHead().toString());
+    }
+    assertEquals(xiQuery, Arrays.asList(xiExpectedHeads), lHeads);
+  }
+}
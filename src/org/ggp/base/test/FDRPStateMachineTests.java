@@ -4,7 +4,12 @@ package org.ggp.base.test;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import org.ggp.base.util.game.TestGameRepository;
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -15,7 +20,11 @@ import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropnetBatchAnimator;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine.PlayoutInfo;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -184,6 +193,266 @@ public class FDRPStateMachineTests extends Assert
     assertEquals(Collections.singletonList(100), mStateMachine.getGoals(state));
   }
 
+  @Test
+  public void testNegativeGoalLatches() throws Exception
+  {
+    // Once a player has blundered, its score is decided by negative latches, but the game isn't over.
+    List<Gdl> desc = new TestGameRepository().getGame("test_negative_goal_latch").getRules();
+    ForwardDeadReckonPropnetStateMachine lMachine =
+                    new ForwardDeadReckonPropnetStateMachine(1, 0, new Role(GdlPool.getConstant("white")), null);
+    lMachine.initialize(desc);
+    lMachine.performSemanticAnalysis(System.currentTimeMillis() + 10000);
+    lMachine.enableGreedyRollouts(false, true);
+    Role[] lRoles = lMachine.getRoles();
+    int[] lRange = new int[2];
+    boolean lDecidedBeforeEnd = false;
+
+    for (int lWalk = 0; lWalk < 50; lWalk++)
+    {
+      // Walk to the end of the game, noting the range of possible scores for each role on the way.
+      List<int[]> lRanges = new ArrayList<>();
+      MachineState state = lMachine.getInitialState();
+      while (!lMachine.isTerminal(state))
+      {
+        ForwardDeadReckonInternalMachineState lState = lMachine.createInternalState(state);
+        boolean lAllDecided = true;
+        for (Role lRole : lRoles)
+        {
+          lMachine.getLatchedScoreRange(lState, lRole, lRange);
+          lRanges.add(lRange.clone());
+          lAllDecided &= (lRange[0] == lRange[1]);
+        }
+
+        // Negative latches alone mustn't end playouts early - the goals in this state aren't the final ones.
+        assertFalse(lMachine.scoresAreLatched(lState));
+        lDecidedBeforeEnd |= lAllDecided;
+
+        // Playouts from here must report the goal values of the state they finish in.
+        PlayoutInfo lInfo = lMachine.new PlayoutInfo(0);
+        lInfo.cutoffDepth = 1000;
+        lMachine.getDepthChargeResult(lState, lInfo);
+        assertTrue(lMachine.isTerminal());
+        if (lInfo.goalsLatched)
+        {
+          for (int lii = 0; lii < lRoles.length; lii++)
+          {
+            assertEquals(lMachine.getGoal(lMachine.getRoleOrdering().roleIndexToRole(lii)), lInfo.latchedGoals[lii]);
+          }
+        }
+
+        state = lMachine.getRandomNextState(state);
+      }
+
+      // The scores at the end must be within the latched ranges.
+      for (int lii = 0; lii < lRanges.size(); lii++)
+      {
+        int lGoal = lMachine.getGoal(state, lRoles[lii % lRoles.length]);
+        assertTrue(lRanges.get(lii)[0] <= lGoal && lGoal <= lRanges.get(lii)[1]);
+      }
+    }
+
+    assertTrue(lDecidedBeforeEnd);
+  }
+
+  @Test
+  public void testZobristHash() throws Exception
+  {
+    ForwardDeadReckonPropnetStateMachine lMachine =
+                    new ForwardDeadReckonPropnetStateMachine(1, 0, new Role(GdlPool.getConstant("red")), null);
+    lMachine.initialize(new TestGameRepository().getGame("connectFour").getRules());
+    int lNumProps = lMachine.getInfoSet().length;
+    Random lRandom = new Random(1);
+
+    // Single-proposition updates, including to the pseudo-propositions that the hash ignores.
+    ForwardDeadReckonInternalMachineState lState = lMachine.createEmptyInternalState();
+    ForwardDeadReckonInternalMachineState lOther = lMachine.createEmptyInternalState();
+    assertEquals(0, lState.getZobristHash());
+    for (int lii = 0; lii < 5000; lii++)
+    {
+      int lIndex = lRandom.nextInt(lNumProps);
+      switch (lRandom.nextInt(4))
+      {
+        case 0: lState.add(lIndex); break;
+        case 1: lState.remove(lIndex); break;
+        case 2: lState.add(lMachine.getInfoSet()[lIndex]); break;
+        default: lState.remove(lMachine.getInfoSet()[lIndex]); break;
+      }
+      lOther.add(lRandom.nextInt(lNumProps));
+      assertEquals(computeZobristHash(lMachine, lState), lState.getZobristHash());
+    }
+
+    // Bulk operations.
+    ForwardDeadReckonInternalMachineState lCopy = new ForwardDeadReckonInternalMachineState(lState);
+    assertEquals(lState.getZobristHash(), lCopy.getZobristHash());
+
+    lCopy.xor(lOther);
+    assertEquals(computeZobristHash(lMachine, lCopy), lCopy.getZobristHash());
+    lCopy.xor(lOther);
+    assertEquals(lState.getZobristHash(), lCopy.getZobristHash());
+
+    lCopy.copy(lOther);
+    assertEquals(computeZobristHash(lMachine, lOther), lCopy.getZobristHash());
+
+    long[] lWords = new long[lState.getNumBasePropWords()];
+    lState.saveBaseProps(lWords);
+    lCopy.restoreBaseProps(lWords, lState.getZobristHash(), lState.isXState);
+    assertEquals(computeZobristHash(lMachine, lCopy), lCopy.getZobristHash());
+    assertEquals(lState.getZobristHash(), lCopy.getZobristHash());
+
+    lCopy.clear();
+    assertEquals(0, lCopy.getZobristHash());
+    assertEquals(0, computeZobristHash(lMachine, lCopy));
+
+    // States produced by the propnet.
+    for (int lWalk = 0; lWalk < 20; lWalk++)
+    {
+      lState = lMachine.createInternalState(lMachine.getInitialState());
+      assertEquals(computeZobristHash(lMachine, lState), lState.getZobristHash());
+      ForwardDeadReckonInternalMachineState lNext = lMachine.createEmptyInternalState();
+      ForwardDeadReckonLegalMoveInfo[] lMoves = new ForwardDeadReckonLegalMoveInfo[lMachine.getRoles().length];
+      while (!lMachine.isTerminal(lState))
+      {
+        for (int lRoleIndex = 0; lRoleIndex < lMoves.length; lRoleIndex++)
+        {
+          List<ForwardDeadReckonLegalMoveInfo> lLegals = new ArrayList<>(
+                      lMachine.getLegalMoves(lState, lMachine.getRoleOrdering().roleIndexToRole(lRoleIndex)));
+          lMoves[lRoleIndex] = lLegals.get(lRandom.nextInt(lLegals.size()));
+        }
+        lMachine.getNextState(lState, null, lMoves, lNext);
+        assertEquals(computeZobristHash(lMachine, lNext), lNext.getZobristHash());
+        lState.copy(lNext);
+      }
+    }
+  }
+
+  /**
+   * @return the Zobrist hash of a state, calculated from scratch.
+   */
+  private static long computeZobristHash(ForwardDeadReckonPropnetStateMachine xiMachine,
+                                         ForwardDeadReckonInternalMachineState xiState)
+  {
+    // Merging invalidates the hash, so it's recalculated from the propositions present.
+    ForwardDeadReckonInternalMachineState lFresh = xiMachine.createEmptyInternalState();
+    lFresh.merge(xiState);
+    return lFresh.getZobristHash();
+  }
+
+  @Test
+  public void testBatchedPlayoutsMatchSequential() throws Exception
+  {
+    // Run to the end of the game, with a cutoff that some playouts reach and some don't, and with a cutoff that every
+    // playout reaches.
+    checkBatchedPlayoutsMatchSequential("ticTacToe", "xplayer", 1000);
+    checkBatchedPlayoutsMatchSequential("ticTacToe", "xplayer", 6);
+    checkBatchedPlayoutsMatchSequential("ticTacToe", "xplayer", 2);
+    checkBatchedPlayoutsMatchSequential("connectFour", "red", 1000);
+    checkBatchedPlayoutsMatchSequential("connectFour", "red", 15);
+  }
+
+  /**
+   * Check that batched depth charges from the initial state give the same distribution of goal values and playout
+   * lengths as single depth charges.
+   */
+  private static void checkBatchedPlayoutsMatchSequential(String xiGame, String xiRole, int xiCutoffDepth)
+    throws Exception
+  {
+    final int lNumBatches = 100;
+    final int lNumPlayouts = lNumBatches * ForwardDeadReckonPropnetBatchAnimator.LANES;
+
+    ForwardDeadReckonPropnetStateMachine lMachine =
+                    new ForwardDeadReckonPropnetStateMachine(1, 0, new Role(GdlPool.getConstant(xiRole)), null);
+    lMachine.initialize(new TestGameRepository().getGame(xiGame).getRules());
+    lMachine.enableGreedyRollouts(false, true);
+    assertTrue(lMachine.canPerformBatchedDepthCharges());
+    Role[] lRoles = lMachine.getRoles();
+    ForwardDeadReckonInternalMachineState lInitialState = lMachine.createInternalState(lMachine.getInitialState());
+
+    // Single depth charges, in the same way as a rollout thread does them.
+    Map<String, Integer> lSequential = new HashMap<>();
+    PlayoutInfo lInfo = lMachine.new PlayoutInfo(0);
+    lInfo.cutoffDepth = xiCutoffDepth;
+    int[] lGoals = new int[lRoles.length];
+    for (int lii = 0; lii < lNumPlayouts; lii++)
+    {
+      lMachine.getDepthChargeResult(lInitialState, lInfo);
+      for (int lRoleIndex = 0; lRoleIndex < lRoles.length; lRoleIndex++)
+      {
+        lGoals[lMachine.getRoleOrdering().roleIndexToRawRoleIndex(lRoleIndex)] = lInfo.goalsLatched ?
+                             lInfo.latchedGoals[lRoleIndex] :
+                             lMachine.getGoal(lMachine.getRoleOrdering().roleIndexToRole(lRoleIndex));
+      }
+      countOutcome(lSequential, lInfo.playoutLength, lGoals);
+    }
+
+    // Batched depth charges.
+    Map<String, Integer> lBatched = new HashMap<>();
+    ForwardDeadReckonInternalMachineState[] lStates =
+                                new ForwardDeadReckonInternalMachineState[ForwardDeadReckonPropnetBatchAnimator.LANES];
+    Arrays.fill(lStates, lInitialState);
+    int[] lLengths = new int[ForwardDeadReckonPropnetBatchAnimator.LANES];
+    int[][] lBatchGoals = new int[ForwardDeadReckonPropnetBatchAnimator.LANES][lRoles.length];
+    for (int lBatch = 0; lBatch < lNumBatches; lBatch++)
+    {
+      assertTrue(lMachine.getDepthChargeResults(lStates,
+                                                ForwardDeadReckonPropnetBatchAnimator.LANES,
+                                                xiCutoffDepth,
+                                                lLengths,
+                                                lBatchGoals));
+      for (int lii = 0; lii < ForwardDeadReckonPropnetBatchAnimator.LANES; lii++)
+      {
+        countOutcome(lBatched, lLengths[lii], lBatchGoals[lii]);
+      }
+    }
+
+    // Playouts that reach the cutoff stop one move past it, in both cases.
+    if (xiCutoffDepth < 1000)
+    {
+      assertTrue(xiGame + " cutoff " + xiCutoffDepth + ": no playout was cut off",
+                 countLength(lSequential, xiCutoffDepth + 1) > 0);
+    }
+
+    // Every outcome must be about as common in both.  Allow 5 standard deviations for the difference between the
+    // sample proportions.
+    Set<String> lOutcomes = new HashSet<>(lSequential.keySet());
+    lOutcomes.addAll(lBatched.keySet());
+    for (String lOutcome : lOutcomes)
+    {
+      double lSequentialP = getCount(lSequential, lOutcome) / (double)lNumPlayouts;
+      double lBatchedP = getCount(lBatched, lOutcome) / (double)lNumPlayouts;
+      double lPooledP = (lSequentialP + lBatchedP) / 2;
+      double lTolerance = 5 * Math.sqrt(lPooledP * (1 - lPooledP) * 2 / lNumPlayouts) + 1.0 / lNumPlayouts;
+      assertEquals(xiGame + " cutoff " + xiCutoffDepth + ", outcome " + lOutcome,
+                   lSequentialP,
+                   lBatchedP,
+                   lTolerance);
+    }
+  }
+
+  private static void countOutcome(Map<String, Integer> xiCounts, int xiLength, int[] xiGoals)
+  {
+    String lKey = xiLength + ":" + Arrays.toString(xiGoals);
+    xiCounts.put(lKey, getCount(xiCounts, lKey) + 1);
+  }
+
+  private static int getCount(Map<String, Integer> xiCounts, String xiKey)
+  {
+    Integer lCount = xiCounts.get(xiKey);
+    return (lCount == null) ? 0 : lCount;
+  }
+
+  private static int countLength(Map<String, Integer> xiCounts, int xiLength)
+  {
+    int lTotal = 0;
+    for (Map.Entry<String, Integer> lEntry : xiCounts.entrySet())
+    {
+      if (lEntry.getKey().startsWith(xiLength + ":"))
+      {
+        lTotal += lEntry.getValue();
+      }
+    }
+    return lTotal;
+  }
+
   private Move move(String description)
   {
     String[] parts = description.split(" ");
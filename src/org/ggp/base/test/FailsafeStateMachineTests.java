@@ -0,0 +1,89 @@
+package org.ggp.base.test;
+
+import java.util.List;
+
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.FailsafeStateMachine;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FailsafeStateMachineTests extends Assert
+{
+  private final List<Gdl> mDescription = new TestGameRepository().getGame("ticTacToe").getRules();
+
+  @After
+  public void tearDown()
+  {
+    MachineSpecificConfiguration.utOverrideCfgVal(CfgItem.FAILSAFE_CHAINING_FIRST, true);
+  }
+
+  @Test
+  public void testInitializationFallsBackToChainingFirst()
+  {
+    FailsafeStateMachine lMachine = new FailsafeStateMachine(new UninitializableMachine());
+    lMachine.initialize(mDescription);
+    assertEquals("Failsafe(ForwardChaining)", lMachine.getName());
+    assertNotNull(lMachine.getInitialState());
+  }
+
+  @Test
+  public void testInitializationFallsBackToProverIfConfigured()
+  {
+    MachineSpecificConfiguration.utOverrideCfgVal(CfgItem.FAILSAFE_CHAINING_FIRST, false);
+    FailsafeStateMachine lMachine = new FailsafeStateMachine(new UninitializableMachine());
+    lMachine.initialize(mDescription);
+    assertEquals("Failsafe(ProverStateMachine)", lMachine.getName());
+    assertNotNull(lMachine.getInitialState());
+  }
+
+  @Test
+  public void testOnlineFailureFallsBack()
+  {
+    FailsafeStateMachine lMachine = new FailsafeStateMachine(new BrokenMachine());
+    lMachine.initialize(mDescription);
+    assertEquals("Failsafe(BrokenMachine)", lMachine.getName());
+
+    // The failure is hidden from the caller, which gets its answer from the fallback machine.
+    MachineState lState = lMachine.getInitialState();
+    assertEquals("Failsafe(ForwardChaining)", lMachine.getName());
+    ProverStateMachine lProver = new ProverStateMachine();
+    lProver.initialize(mDescription);
+    assertEquals(lProver.getInitialState(), lState);
+
+    MachineSpecificConfiguration.utOverrideCfgVal(CfgItem.FAILSAFE_CHAINING_FIRST, false);
+    lMachine = new FailsafeStateMachine(new BrokenMachine());
+    lMachine.initialize(mDescription);
+    assertEquals(lProver.getInitialState(), lMachine.getInitialState());
+    assertEquals("Failsafe(ProverStateMachine)", lMachine.getName());
+  }
+
+  /**
+   * A machine which can't handle any game.
+   */
+  private static class UninitializableMachine extends ProverStateMachine
+  {
+    @Override
+    public void initialize(List<Gdl> xiDescription)
+    {
+      throw new IllegalStateException("Can't initialize");
+    }
+  }
+
+  /**
+   * A machine which initializes, but then fails when used.
+   */
+  private static class BrokenMachine extends ProverStateMachine
+  {
+    @Override
+    public MachineState getInitialState()
+    {
+      throw new IllegalStateException("Broken");
+    }
+  }
+}
@@ -1,18 +1,40 @@
 
 package org.ggp.base.test;
 
+import org.ggp.base.apps.server.scheduling.MatchSchedulerTest;
+import org.ggp.base.apps.utilities.TournamentRunnerTest;
+import org.ggp.base.player.gamer.statemachine.sancho.NodeStateStoreTest;
+import org.ggp.base.player.gamer.statemachine.sancho.SimplePipelineTest;
+import org.ggp.base.player.gamer.statemachine.sancho.TranspositionTableTest;
+import org.ggp.base.util.game.LocalGameCorpusTest;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.PropagationProfileTest;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.PropNetCacheTest;
+import org.ggp.base.util.statemachine.playoutPolicy.ResponseTableTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({FDRPStateMachineTests.class,
+@Suite.SuiteClasses({AimaProverTests.class,
+                     FailsafeStateMachineTests.class,
+                     FDRPStateMachineTests.class,
+                     ForwardChainingStateMachineTests.class,
                      GameParsingTests.class,
                      GdlCleanerTests.class,
                      KnownGameTest.class,
+                     LocalGameCorpusTest.class,
+                     MatchSchedulerTest.class,
+                     NodeStateStoreTest.class,
                      NoTabsInRulesheetsTest.class,
+                     PropagationProfileTest.class,
+                     PropNetCacheTest.class,
                      ProverStateMachineTests.class,
+                     ResponseTableTest.class,
+                     ShardedCacheTests.class,
+                     SimplePipelineTest.class,
                      SimpleSentenceFormTest.class,
-                     StaticValidationTests.class})
+                     StaticValidationTests.class,
+                     TournamentRunnerTest.class,
+                     TranspositionTableTest.class})
 public class FastTests
 {
 
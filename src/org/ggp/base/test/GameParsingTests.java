@@ -2,8 +2,19 @@
 package org.ggp.base.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.files.FileUtils;
 import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.GdlParser;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.ggp.base.util.symbol.grammar.SymbolList;
 import org.junit.Test;
 
 
@@ -26,4 +37,80 @@ public class GameParsingTests
                      .getRules().size());
   }
 
+  @Test
+  public void parseAllLocalGames() throws Exception
+  {
+    // The single-pass parser must produce exactly the same GDL as the
+    // two-stage (symbol, then GDL) parse.
+    List<File> gameFiles = new ArrayList<>();
+    findKifFiles(new File("games"), gameFiles);
+    assertEquals(false, gameFiles.isEmpty());
+
+    for (File gameFile : gameFiles)
+    {
+      String rulesheet = Game.preprocessRulesheet(FileUtils.readFileAsString(gameFile));
+      List<Gdl> expected = parseTwoStage(rulesheet);
+
+      assertEquals(gameFile.toString(), expected, GdlParser.parseRulesheet(rulesheet));
+      assertEquals(gameFile.toString(), expected, GdlParser.parseRules(FileUtils.readFileAsString(gameFile)));
+    }
+  }
+
+  @Test
+  public void parseConstructs() throws Exception
+  {
+    String rulesheet = Game.preprocessRulesheet(
+        "(role x) ; comment\n" +
+        "(init (cell 1 1 b))\n" +
+        "(<= (legal ?p (mark ?x ?y)) (true (cell ?x ?y b)) (true (control ?p)))\n" +
+        "(<= (next (cell ?x ?y ?c)) (or (true (cell ?x ?y ?c)) (does ?p (noop))) (not (true (done))) (distinct ?x ?y))\n" +
+        "(<= terminal (true (done)))\n" +
+        "(goal x 100)\n");
+
+    assertEquals(parseTwoStage(rulesheet), GdlParser.parseRulesheet(rulesheet));
+    assertEquals(GdlFactory.createTerm(SymbolFactory.create("(f ?x (g a))")), GdlParser.parseTerm("(f ?x (g a))"));
+  }
+
+  @Test
+  public void rejectMalformedGdl() throws Exception
+  {
+    for (String text : new String[] {"( (role x)", "( (role x) (init (f a) )", "( (<= ) )", "( (init ( )) )", "( ((f a) b) )"})
+    {
+      try
+      {
+        GdlParser.parseRulesheet(text);
+        fail("Parsed malformed rulesheet: " + text);
+      }
+      catch (IllegalArgumentException e)
+      {
+        // Expected
+      }
+    }
+  }
+
+  private static List<Gdl> parseTwoStage(String rulesheet) throws Exception
+  {
+    List<Gdl> rules = new ArrayList<>();
+    SymbolList list = (SymbolList)SymbolFactory.create(rulesheet);
+    for (int i = 0; i < list.size(); i++)
+    {
+      rules.add(GdlFactory.create(list.get(i)));
+    }
+    return rules;
+  }
+
+  private static void findKifFiles(File directory, List<File> result)
+  {
+    for (File file : directory.listFiles())
+    {
+      if (file.isDirectory())
+      {
+        findKifFiles(file, result);
+      }
+      else if (file.getName().endsWith(".kif"))
+      {
+        result.add(file);
+      }
+    }
+  }
 }
@@ -0,0 +1,201 @@
+package org.ggp.base.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.statemachine.cache.ShardedCache;
+import org.ggp.base.util.statemachine.cache.ShardedCache.EvictionPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShardedCacheTests extends Assert
+{
+  @Test
+  public void testPutIfAbsentKeepsFirstValue()
+  {
+    for (EvictionPolicy lPolicy : EvictionPolicy.values())
+    {
+      ShardedCache<String, Integer> lCache = new ShardedCache<>(16, 4, lPolicy);
+      assertNull(lCache.putIfAbsent("a", 1));
+      assertEquals(Integer.valueOf(1), lCache.putIfAbsent("a", 2));
+      assertEquals(Integer.valueOf(1), lCache.get("a"));
+      assertNull(lCache.get("b"));
+      assertEquals(1, lCache.getHits());
+      assertEquals(1, lCache.getMisses());
+
+      lCache.clear();
+      assertEquals(0, lCache.size());
+      assertNull(lCache.get("a"));
+      assertNull(lCache.putIfAbsent("a", 3));
+      assertEquals(Integer.valueOf(3), lCache.get("a"));
+    }
+  }
+
+  @Test
+  public void testClockEvictionOrder()
+  {
+    // A single shard of 4 entries, so that the ring order is fully determined.
+    ShardedCache<String, Integer> lCache = new ShardedCache<>(4, 1, EvictionPolicy.CLOCK);
+    lCache.putIfAbsent("a", 1);
+    lCache.putIfAbsent("b", 2);
+    lCache.putIfAbsent("c", 3);
+    lCache.putIfAbsent("d", 4);
+
+    // Give "a" and "c" a second chance.  The hand starts at "a", clears its
+    // reference bit and evicts "b", the first unreferenced entry.
+    lCache.get("a");
+    lCache.get("c");
+    lCache.putIfAbsent("e", 5);
+    assertNull(lCache.get("b"));
+    assertEquals(1, lCache.getEvictions());
+
+    // The hand has moved on to "c", which is still referenced, so "d" goes next.
+    lCache.putIfAbsent("f", 6);
+    assertNull(lCache.get("d"));
+    assertEquals(2, lCache.getEvictions());
+
+    assertEquals(Integer.valueOf(1), lCache.get("a"));
+    assertEquals(Integer.valueOf(3), lCache.get("c"));
+    assertEquals(Integer.valueOf(5), lCache.get("e"));
+    assertEquals(Integer.valueOf(6), lCache.get("f"));
+    assertEquals(4, lCache.size());
+  }
+
+  @Test
+  public void testLruEvictionOrder()
+  {
+    ShardedCache<String, Integer> lCache = new ShardedCache<>(3, 1, EvictionPolicy.LRU);
+    lCache.putIfAbsent("a", 1);
+    lCache.putIfAbsent("b", 2);
+    lCache.putIfAbsent("c", 3);
+
+    // Touching "a" leaves "b" as the least recently used entry.
+    lCache.get("a");
+    lCache.putIfAbsent("d", 4);
+    assertNull(lCache.get("b"));
+
+    // "c" is now the oldest.
+    lCache.putIfAbsent("e", 5);
+    assertNull(lCache.get("c"));
+
+    assertEquals(Integer.valueOf(1), lCache.get("a"));
+    assertEquals(Integer.valueOf(4), lCache.get("d"));
+    assertEquals(Integer.valueOf(5), lCache.get("e"));
+    assertEquals(3, lCache.size());
+    assertEquals(2, lCache.getEvictions());
+  }
+
+  @Test
+  public void testCapacityBounds()
+  {
+    for (EvictionPolicy lPolicy : EvictionPolicy.values())
+    {
+      ShardedCache<Integer, Integer> lCache = new ShardedCache<>(100, 4, lPolicy);
+      for (int lii = 0; lii < 1000; lii++)
+      {
+        lCache.putIfAbsent(lii, lii);
+        assertTrue(lPolicy + " cache over capacity", lCache.size() <= 100);
+      }
+      assertEquals(1000 - lCache.size(), lCache.getEvictions());
+
+      // The shard count is capped so that every shard holds at least one entry.
+      ShardedCache<Integer, Integer> lTiny = new ShardedCache<>(2, 64, lPolicy);
+      for (int lii = 0; lii < 10; lii++)
+      {
+        lTiny.putIfAbsent(lii, lii);
+        assertTrue(lTiny.size() <= 2);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsZeroCapacity()
+  {
+    new ShardedCache<Integer, Integer>(0, 1, EvictionPolicy.CLOCK);
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception
+  {
+    for (final EvictionPolicy lPolicy : EvictionPolicy.values())
+    {
+      // Fewer slots than keys so that eviction runs alongside lookups.
+      final ShardedCache<Integer, Integer> lCache = new ShardedCache<>(256, 8, lPolicy);
+      final ConcurrentHashMap<Integer, Boolean> lInserted = new ConcurrentHashMap<>();
+      final AtomicInteger lErrors = new AtomicInteger();
+      final AtomicInteger lGets = new AtomicInteger();
+      final int lNumThreads = 8;
+      final CountDownLatch lStart = new CountDownLatch(1);
+      List<Thread> lThreads = new ArrayList<>();
+
+      for (int lThreadIndex = 0; lThreadIndex < lNumThreads; lThreadIndex++)
+      {
+        // Every thread offers its own value for a key, so a cached value must
+        // always be a value that some thread offered for that key.
+        final int lSalt = lThreadIndex;
+        Thread lThread = new Thread()
+        {
+          @Override
+          public void run()
+          {
+            try
+            {
+              lStart.await();
+              for (int lii = 0; lii < 20000; lii++)
+              {
+                int lKey = (lii * 7 + lSalt) % 1024;
+                Integer lValue = lCache.get(lKey);
+                lGets.incrementAndGet();
+                if (lValue != null && lValue / lNumThreads != lKey)
+                {
+                  lErrors.incrementAndGet();
+                }
+
+                int lOffered = lKey * lNumThreads + lSalt;
+                Integer lExisting = lCache.putIfAbsent(lKey, lOffered);
+                if (lExisting == null)
+                {
+                  lInserted.put(lOffered, Boolean.TRUE);
+                }
+                else if (lExisting / lNumThreads != lKey)
+                {
+                  lErrors.incrementAndGet();
+                }
+              }
+            }
+            catch (Throwable lEx)
+            {
+              lErrors.incrementAndGet();
+            }
+          }
+        };
+        lThreads.add(lThread);
+        lThread.start();
+      }
+
+      lStart.countDown();
+      for (Thread lThread : lThreads)
+      {
+        lThread.join();
+      }
+
+      assertEquals(lPolicy + " returned a value for the wrong key", 0, lErrors.get());
+      assertTrue(lCache.size() <= 256);
+      assertEquals(lGets.get(), lCache.getHits() + lCache.getMisses());
+
+      // Whatever is left in the cache must have been stored by a putIfAbsent
+      // that reported success.
+      for (int lKey = 0; lKey < 1024; lKey++)
+      {
+        Integer lValue = lCache.get(lKey);
+        if (lValue != null)
+        {
+          assertTrue(lInserted.containsKey(lValue));
+        }
+      }
+    }
+  }
+}
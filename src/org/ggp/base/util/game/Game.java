@@ -4,7 +4,10 @@ package org.ggp.base.util.game;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.GdlParser;
 import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.symbol.factory.SymbolFactory;
@@ -51,6 +54,8 @@ import external.JSON.JSONObject;
 
 public final class Game
 {
+  private static final Logger LOGGER = LogManager.getLogger();
+
   private final String theKey;
   private final String theName;
   private final String theDescription;
@@ -155,6 +160,17 @@ public final class Game
    */
   public List<Gdl> getRules()
   {
+    try
+    {
+      return GdlParser.parseRulesheet(theRulesheet);
+    }
+    catch (RuntimeException e)
+    {
+      // Fall through to the two-stage parse, to report the error.  If that
+      // succeeds, the single-pass parser has a bug.
+      LOGGER.warn("Single-pass GDL parse failed - falling back to the two-stage parse", e);
+    }
+
     try
     {
       List<Gdl> rules = new ArrayList<>();
@@ -0,0 +1,357 @@
+package org.ggp.base.util.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.ggp.base.util.game.LocalGameRepository.BaseRepository;
+
+/**
+ * A local game corpus is a single, indexed file holding every response that
+ * the local game repository server would otherwise build from the games/
+ * directory on each request - game listings, completed metadata (whose role
+ * information requires the full rulesheet to be parsed), rulesheets and the
+ * transformed stylesheets and scripts.
+ *
+ * The corpus is compiled once, whenever the games/ directory has changed since
+ * it was last compiled, and is then memory-mapped.  Responses are handed out
+ * as read-only views of the mapping, so serving them involves no further
+ * parsing, disk reads or copying.
+ *
+ * File format: a header (magic, format version, timestamp of the newest source
+ * file, index size), then the index (entry count, then the URI and length of
+ * each response), then the responses themselves, back-to-back, in index order.
+ * A file whose size doesn't match its index is treated as stale.
+ */
+public final class LocalGameCorpus
+{
+  private static final int MAGIC = 0x47475043; // "GGPC"
+  private static final int FORMAT_VERSION = 2;
+  private static final int HEADER_SIZE = 20;
+
+  private final Map<String, ByteBuffer> mResponses;
+
+  private LocalGameCorpus(Map<String, ByteBuffer> xiResponses)
+  {
+    mResponses = xiResponses;
+  }
+
+  /**
+   * @return a read-only view of the response for the specified repository
+   * URI, or null if the URI isn't in the corpus.  Each call returns an
+   * independent view, so callers may consume it freely.
+   *
+   * @param xiURI - the request URI, relative to the repository root.
+   */
+  public ByteBuffer getResponse(String xiURI)
+  {
+    ByteBuffer lResponse = mResponses.get(xiURI);
+    return (lResponse == null) ? null : lResponse.duplicate();
+  }
+
+  /**
+   * @return the number of responses in the corpus.
+   */
+  public int size()
+  {
+    return mResponses.size();
+  }
+
+  /**
+   * Open the corpus for the specified games directory, (re-)compiling it
+   * first if it is missing or older than the games directory contents.
+   *
+   * @return the corpus.
+   *
+   * @param xiGamesDirectory - the directory containing the games.
+   * @param xiCorpusFile     - the compiled corpus file.
+   *
+   * @throws IOException if the corpus can't be compiled or mapped.
+   */
+  public static LocalGameCorpus open(File xiGamesDirectory, File xiCorpusFile)
+      throws IOException
+  {
+    long lSourceTimestamp = getNewestTimestamp(xiGamesDirectory);
+    LocalGameCorpus lCorpus = load(xiCorpusFile, lSourceTimestamp);
+    if (lCorpus == null)
+    {
+      compile(xiGamesDirectory, xiCorpusFile, lSourceTimestamp);
+      lCorpus = load(xiCorpusFile, lSourceTimestamp);
+      if (lCorpus == null)
+      {
+        throw new IOException("Failed to reload freshly compiled corpus " + xiCorpusFile);
+      }
+    }
+    return lCorpus;
+  }
+
+  /**
+   * Map a compiled corpus.
+   *
+   * @return the corpus, or null if it doesn't exist, wasn't compiled from
+   * the current games directory or is damaged.
+   */
+  private static LocalGameCorpus load(File xiCorpusFile, long xiSourceTimestamp)
+      throws IOException
+  {
+    if (!xiCorpusFile.isFile())
+    {
+      return null;
+    }
+
+    List<String> lURIs = new ArrayList<>();
+    List<Integer> lLengths = new ArrayList<>();
+    long lDataOffset;
+    long lDataSize = 0;
+
+    try (DataInputStream lIn = new DataInputStream(new BufferedInputStream(new FileInputStream(xiCorpusFile))))
+    {
+      if ((lIn.readInt() != MAGIC) ||
+          (lIn.readInt() != FORMAT_VERSION) ||
+          (lIn.readLong() != xiSourceTimestamp))
+      {
+        return null;
+      }
+
+      int lIndexSize = lIn.readInt();
+      if (lIndexSize < 0 || lIndexSize > xiCorpusFile.length())
+      {
+        return null;
+      }
+      lDataOffset = HEADER_SIZE + lIndexSize;
+
+      byte[] lIndexBytes = new byte[lIndexSize];
+      lIn.readFully(lIndexBytes);
+      DataInputStream lIndex = new DataInputStream(new ByteArrayInputStream(lIndexBytes));
+
+      int lNumEntries = lIndex.readInt();
+      for (int lii = 0; lii < lNumEntries; lii++)
+      {
+        lURIs.add(lIndex.readUTF());
+        int lLength = lIndex.readInt();
+        if (lLength < 0)
+        {
+          return null;
+        }
+        lLengths.add(lLength);
+        lDataSize += lLength;
+      }
+
+      if (lIndex.available() != 0)
+      {
+        return null;
+      }
+    }
+    catch (EOFException | UTFDataFormatException lEx)
+    {
+      return null;
+    }
+
+    // The responses occupy the rest of the file, exactly.
+    if (lDataOffset + lDataSize != xiCorpusFile.length() || lDataSize > Integer.MAX_VALUE)
+    {
+      return null;
+    }
+
+    Map<String, ByteBuffer> lResponses = new HashMap<>();
+    try (RandomAccessFile lFile = new RandomAccessFile(xiCorpusFile, "r");
+         FileChannel lChannel = lFile.getChannel())
+    {
+      // The mapping remains valid after the channel is closed.
+      MappedByteBuffer lData = lChannel.map(FileChannel.MapMode.READ_ONLY, lDataOffset, lDataSize);
+      int lOffset = 0;
+      for (int lii = 0; lii < lURIs.size(); lii++)
+      {
+        int lLength = lLengths.get(lii);
+        lData.limit(lOffset + lLength);
+        lData.position(lOffset);
+        lResponses.put(lURIs.get(lii), lData.slice().asReadOnlyBuffer());
+        lOffset += lLength;
+      }
+    }
+
+    return new LocalGameCorpus(lResponses);
+  }
+
+  /**
+   * Compile the corpus, replacing any existing one.
+   */
+  private static void compile(File xiGamesDirectory,
+                              File xiCorpusFile,
+                              long xiSourceTimestamp) throws IOException
+  {
+    List<String> lURIs = new ArrayList<>();
+    List<byte[]> lBodies = new ArrayList<>();
+    for (String lURI : enumerateURIs(xiGamesDirectory))
+    {
+      byte[] lBody;
+      try
+      {
+        lBody = BaseRepository.getResponseBytesForURI(lURI);
+      }
+      catch (Exception lEx)
+      {
+        // Leave it out.  The repository server will fall back to building the
+        // response from disk (and report the problem) if it's ever requested.
+        continue;
+      }
+
+      if (lBody != null)
+      {
+        lURIs.add(lURI);
+        lBodies.add(lBody);
+      }
+    }
+
+    // Write to a temporary file and rename it into place, so that no-one ever
+    // maps a partially written corpus.
+    File lTempFile = new File(xiCorpusFile.getPath() + ".tmp");
+    try (DataOutputStream lOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lTempFile))))
+    {
+      ByteArrayOutputStream lIndexBytes = new ByteArrayOutputStream();
+      DataOutputStream lIndex = new DataOutputStream(lIndexBytes);
+      lIndex.writeInt(lURIs.size());
+      for (int lii = 0; lii < lURIs.size(); lii++)
+      {
+        lIndex.writeUTF(lURIs.get(lii));
+        lIndex.writeInt(lBodies.get(lii).length);
+      }
+
+      lOut.writeInt(MAGIC);
+      lOut.writeInt(FORMAT_VERSION);
+      lOut.writeLong(xiSourceTimestamp);
+      lOut.writeInt(lIndexBytes.size());
+      lIndexBytes.writeTo(lOut);
+      for (byte[] lBody : lBodies)
+      {
+        lOut.write(lBody);
+      }
+    }
+
+    if ((xiCorpusFile.exists() && !xiCorpusFile.delete()) || !lTempFile.renameTo(xiCorpusFile))
+    {
+      lTempFile.delete();
+      throw new IOException("Failed to replace corpus " + xiCorpusFile);
+    }
+  }
+
+  /**
+   * @return all the URIs that the repository server can answer from the games
+   * directory - the game listings, each version of each game (and its files)
+   * and the shared resources.
+   */
+  static TreeSet<String> enumerateURIs(File xiGamesDirectory)
+  {
+    TreeSet<String> lURIs = new TreeSet<>();
+    lURIs.add("/games/");
+    lURIs.add("/games/metadata");
+
+    String[] lGameNames = new File(xiGamesDirectory, "games").list();
+    if (lGameNames != null)
+    {
+      for (String lGameName : lGameNames)
+      {
+        if (BaseRepository.shouldIgnoreFile(lGameName))
+          continue;
+
+        File lGameDirectory = new File(new File(xiGamesDirectory, "games"), lGameName);
+        int lMaxVersion = BaseRepository.getMaxVersionForDirectory(lGameDirectory);
+        if (lMaxVersion < 0)
+          continue;
+
+        String lGamePrefix = "/games/" + lGameName + "/";
+        lURIs.add(lGamePrefix);
+        for (int lVersion = 0; lVersion <= lMaxVersion; lVersion++)
+        {
+          File lVersionDirectory = (lVersion == 0) ? lGameDirectory :
+                                                     new File(lGameDirectory, "v" + lVersion);
+          String[] lFileNames = lVersionDirectory.list();
+          if (lFileNames == null)
+            continue;
+
+          String lVersionPrefix = lGamePrefix + "v" + lVersion + "/";
+          lURIs.add(lVersionPrefix);
+          for (String lFileName : lFileNames)
+          {
+            if (BaseRepository.shouldIgnoreFile(lFileName) ||
+                new File(lVersionDirectory, lFileName).isDirectory())
+              continue;
+
+            // Unversioned requests resolve to the latest version containing
+            // the file, which the repository logic works out for us.
+            lURIs.add(lVersionPrefix + lFileName);
+            lURIs.add(lGamePrefix + lFileName);
+          }
+        }
+      }
+    }
+
+    addResourceURIs(new File(xiGamesDirectory, "resources"), "/resources/", lURIs);
+    return lURIs;
+  }
+
+  private static void addResourceURIs(File xiDirectory, String xiPrefix, TreeSet<String> xoURIs)
+  {
+    String[] lFileNames = xiDirectory.list();
+    if (lFileNames == null)
+      return;
+
+    for (String lFileName : lFileNames)
+    {
+      if (BaseRepository.shouldIgnoreFile(lFileName))
+        continue;
+
+      File lFile = new File(xiDirectory, lFileName);
+      if (lFile.isDirectory())
+      {
+        addResourceURIs(lFile, xiPrefix + lFileName + "/", xoURIs);
+      }
+      else
+      {
+        xoURIs.add(xiPrefix + lFileName);
+      }
+    }
+  }
+
+  /**
+   * @return the modification time of the most recently changed file or
+   * directory from which the corpus is compiled.
+   */
+  private static long getNewestTimestamp(File xiGamesDirectory)
+  {
+    return Math.max(getNewestTimestampRecursive(new File(xiGamesDirectory, "games")),
+                    getNewestTimestampRecursive(new File(xiGamesDirectory, "resources")));
+  }
+
+  private static long getNewestTimestampRecursive(File xiFile)
+  {
+    long lNewest = xiFile.lastModified();
+    File[] lChildren = xiFile.listFiles();
+    if (lChildren != null)
+    {
+      for (File lChild : lChildren)
+      {
+        lNewest = Math.max(lNewest, getNewestTimestampRecursive(lChild));
+      }
+    }
+    return lNewest;
+  }
+}
@@ -0,0 +1,92 @@
+package org.ggp.base.util.game;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.ggp.base.util.game.LocalGameRepository.BaseRepository;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalGameCorpusTest extends Assert
+{
+  private static final File GAMES_DIRECTORY = new File("games");
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void testMatchesRepository() throws Exception
+  {
+    File lCorpusFile = new File(mFolder.getRoot(), "test.corpus");
+    LocalGameCorpus lCorpus = LocalGameCorpus.open(GAMES_DIRECTORY, lCorpusFile);
+    assertTrue(lCorpusFile.isFile());
+
+    // Every response that the repository would build from the games directory is in the corpus, unchanged.
+    int lNumResponses = 0;
+    for (String lURI : LocalGameCorpus.enumerateURIs(GAMES_DIRECTORY))
+    {
+      byte[] lExpected = BaseRepository.getResponseBytesForURI(lURI);
+      if (lExpected != null)
+      {
+        assertArrayEquals("Wrong response for " + lURI, lExpected, getBytes(lCorpus.getResponse(lURI)));
+        lNumResponses++;
+      }
+    }
+    assertEquals(lNumResponses, lCorpus.size());
+    assertNotNull(lCorpus.getResponse("/games/metadata"));
+    assertNull(lCorpus.getResponse("/games/noSuchGame/"));
+
+    // Each call returns an independent view.
+    ByteBuffer lFirst = lCorpus.getResponse("/games/");
+    int lLength = lFirst.remaining();
+    lFirst.get(new byte[lLength]);
+    assertEquals(lLength, lCorpus.getResponse("/games/").remaining());
+  }
+
+  @Test
+  public void testReopenAndRecompile() throws Exception
+  {
+    File lCorpusFile = new File(mFolder.getRoot(), "test.corpus");
+    LocalGameCorpus.open(GAMES_DIRECTORY, lCorpusFile);
+    byte[] lGood = Files.readAllBytes(lCorpusFile.toPath());
+
+    // An up-to-date corpus is used as it is.
+    assertTrue(lCorpusFile.setLastModified(1000));
+    LocalGameCorpus lCorpus = LocalGameCorpus.open(GAMES_DIRECTORY, lCorpusFile);
+    assertEquals(1000, lCorpusFile.lastModified());
+    assertNotNull(lCorpus.getResponse("/games/"));
+
+    // One compiled from an older games directory (or in another format) is recompiled, as is one that's been damaged.
+    byte[] lStale = lGood.clone();
+    lStale[15]--;
+    byte[] lOldFormat = lGood.clone();
+    lOldFormat[7]--;
+    byte[] lBadIndexSize = lGood.clone();
+    lBadIndexSize[19]++;
+    byte[][] lBadFiles = {lStale,
+                          lOldFormat,
+                          lBadIndexSize,
+                          new byte[0],
+                          Arrays.copyOf(lGood, 30),
+                          Arrays.copyOf(lGood, lGood.length - 1),
+                          Arrays.copyOf(lGood, lGood.length + 1)};
+    for (byte[] lBad : lBadFiles)
+    {
+      Files.write(lCorpusFile.toPath(), lBad);
+      lCorpus = LocalGameCorpus.open(GAMES_DIRECTORY, lCorpusFile);
+      assertArrayEquals(lGood, Files.readAllBytes(lCorpusFile.toPath()));
+      assertArrayEquals(BaseRepository.getResponseBytesForURI("/games/"), getBytes(lCorpus.getResponse("/games/")));
+    }
+  }
+
+  private static byte[] getBytes(ByteBuffer xiBuffer)
+  {
+    byte[] lBytes = new byte[xiBuffer.remaining()];
+    xiBuffer.get(lBytes);
+    return lBytes;
+  }
+}
@@ -10,6 +10,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Set;
 
 import org.ggp.base.util.statemachine.Role;
@@ -28,6 +31,10 @@ import external.JSON.JSONObject;
  * access to the local game resources, and then uses the standard
  * RemoteGameRepository interface to read from that server.
  *
+ * Responses are served from a compiled, memory-mapped {@link LocalGameCorpus}
+ * where possible, so that the game files aren't re-read and re-processed on
+ * every request.
+ *
  * @author Sam
  */
 public final class LocalGameRepository extends GameRepository
@@ -37,12 +44,25 @@ public final class LocalGameRepository extends GameRepository
   private static String               theLocalRepoURL    = "http://127.0.0.1:" +
                                                            REPO_SERVER_PORT;
 
+  private static final File           CORPUS_FILE        = new File("games", "local.corpus");
+  private static LocalGameCorpus      theCorpus          = null;
+
   private static RemoteGameRepository theRealRepo;
 
   public LocalGameRepository()
   {
     if (theLocalRepoServer == null)
     {
+      try
+      {
+        theCorpus = LocalGameCorpus.open(new File("games"), CORPUS_FILE);
+      }
+      catch (IOException e)
+      {
+        // Serve everything directly from the games directory instead.
+        e.printStackTrace();
+      }
+
       try
       {
         theLocalRepoServer = HttpServer.create(new InetSocketAddress(REPO_SERVER_PORT), 0);
@@ -87,6 +107,20 @@ public final class LocalGameRepository extends GameRepository
     public void handle(HttpExchange t) throws IOException
     {
       String theURI = t.getRequestURI().toString();
+      ByteBuffer compiledResponse = (theCorpus == null) ? null : theCorpus.getResponse(theURI);
+      if (compiledResponse != null)
+      {
+        t.sendResponseHeaders(200, compiledResponse.remaining());
+        OutputStream os = t.getResponseBody();
+        WritableByteChannel channel = Channels.newChannel(os);
+        while (compiledResponse.hasRemaining())
+        {
+          channel.write(compiledResponse);
+        }
+        os.close();
+        return;
+      }
+
       byte[] response = BaseRepository.getResponseBytesForURI(theURI);
       if (response == null)
       {
@@ -254,7 +288,7 @@ public final class LocalGameRepository extends GameRepository
       }
     }
 
-    private static int getMaxVersionForDirectory(File theDir)
+    static int getMaxVersionForDirectory(File theDir)
     {
       if (!theDir.exists() || !theDir.isDirectory())
       {
@@ -32,7 +32,15 @@ public final class GdlFactory
   public static Gdl create(String string)
       throws GdlFormatException, SymbolFormatException
   {
-    return create(SymbolFactory.create(string));
+    try
+    {
+      return GdlParser.parseGdl(string);
+    }
+    catch (RuntimeException e)
+    {
+      // Go the long way round, to report the error in the usual way.
+      return create(SymbolFactory.create(string));
+    }
   }
 
   public static Gdl create(Symbol symbol) throws GdlFormatException
@@ -172,7 +180,14 @@ public final class GdlFactory
 
   public static GdlTerm createTerm(String string) throws SymbolFormatException
   {
-    return createTerm(SymbolFactory.create(string));
+    try
+    {
+      return GdlParser.parseTerm(string);
+    }
+    catch (RuntimeException e)
+    {
+      return createTerm(SymbolFactory.create(string));
+    }
   }
 
   public static GdlTerm createTerm(Symbol symbol)
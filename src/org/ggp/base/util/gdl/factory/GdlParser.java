@@ -0,0 +1,497 @@
+package org.ggp.base.util.gdl.factory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+
+/**
+ * A single-pass parser from text straight to GdlPool objects.
+ *
+ * Unlike going through SymbolFactory and then GdlFactory, this doesn't
+ * tokenize the whole text up front, doesn't build (or intern) an intermediate
+ * Symbol tree and doesn't allocate a String for every occurrence of an atom.
+ * Atoms are looked up, by their characters, in a table belonging to the
+ * parser, so each distinct atom is only created (and looked up in the
+ * GdlPool) once per parser.  Argument lists are built in scratch lists that
+ * are reused for every expression at the same depth; the GdlPool only copies
+ * them when it meets a new object.
+ *
+ * The atom table is the parser's interning arena: it's released along with
+ * the parser, so nothing survives beyond the parse except what's in the
+ * GdlPool itself.  (Parsers mustn't be kept across a GdlPool drain.)
+ *
+ * The GDL produced is identical to that produced by GdlFactory.  When parsing
+ * a sequence of rules, comments (from ';' to the end of the line) are also
+ * skipped, so raw .kif files can be parsed without preprocessing.
+ */
+public final class GdlParser
+{
+  private final CharSequence text;
+  private final int          length;
+  private final boolean      skipComments;
+  private int                pos;
+
+  // The atom table: open addressing, keyed by the characters of the atom.
+  private char[][]           atomChars      = new char[256][];
+  private GdlConstant[]      atomConstants  = new GdlConstant[256];
+  private GdlVariable[]      atomVariables  = new GdlVariable[256];
+  private int                numAtoms;
+
+  // The most recently scanned atom.
+  private int                atomStart;
+  private int                atomEnd;
+  private int                atomSlot;
+
+  private final List<ArrayList<GdlTerm>>    termScratch    = new ArrayList<>();
+  private final List<ArrayList<GdlLiteral>> literalScratch = new ArrayList<>();
+  private int                               depth;
+
+  private GdlParser(CharSequence text, boolean skipComments)
+  {
+    this.text = text;
+    this.length = text.length();
+    this.skipComments = skipComments;
+  }
+
+  /**
+   * Parse a rulesheet in the form stored by Game - a single list containing
+   * all the rules and facts.
+   */
+  public static List<Gdl> parseRulesheet(CharSequence text)
+  {
+    GdlParser parser = new GdlParser(text, false);
+    parser.expect('(');
+    List<Gdl> rules = new ArrayList<>();
+    while (parser.peek() != ')')
+    {
+      rules.add(parser.parseGdl());
+    }
+    parser.pos++;
+    return rules;
+  }
+
+  /**
+   * Parse a sequence of rules and facts, as found in a .kif file.
+   */
+  public static List<Gdl> parseRules(CharSequence text)
+  {
+    GdlParser parser = new GdlParser(text, true);
+    List<Gdl> rules = new ArrayList<>();
+    while (parser.peek() != -1)
+    {
+      rules.add(parser.parseGdl());
+    }
+    return rules;
+  }
+
+  /**
+   * Parse a sequence of rules and facts from UTF-8 encoded text.  The buffer's
+   * position isn't changed.
+   */
+  public static List<Gdl> parseRules(ByteBuffer text)
+  {
+    return parseRules(StandardCharsets.UTF_8.decode(text.duplicate()));
+  }
+
+  /**
+   * Parse a single rule or fact.  Anything after it is ignored.
+   */
+  public static Gdl parseGdl(CharSequence text)
+  {
+    return new GdlParser(text, false).parseGdl();
+  }
+
+  /**
+   * Parse a single term.  Anything after it is ignored.
+   */
+  public static GdlTerm parseTerm(CharSequence text)
+  {
+    return new GdlParser(text, false).parseTerm();
+  }
+
+  //==========================================================================
+  // Grammar
+  //==========================================================================
+
+  private Gdl parseGdl()
+  {
+    if (peek() == '(')
+    {
+      pos++;
+      scanAtom();
+      if (atomIs("<="))
+      {
+        return parseRuleBody();
+      }
+      return parseRelationBody(atomConstant());
+    }
+    scanAtom();
+    return GdlPool.getProposition(atomConstant());
+  }
+
+  private Gdl parseRuleBody()
+  {
+    GdlSentence head = parseSentence();
+    List<GdlLiteral> body = pushLiterals();
+    while (peek() != ')')
+    {
+      body.add(parseLiteral());
+    }
+    pos++;
+    depth--;
+    return GdlPool.getRule(head, body);
+  }
+
+  private GdlSentence parseSentence()
+  {
+    if (peek() == '(')
+    {
+      pos++;
+      scanAtom();
+      return parseRelationBody(atomConstant());
+    }
+    scanAtom();
+    return GdlPool.getProposition(atomConstant());
+  }
+
+  private GdlLiteral parseLiteral()
+  {
+    if (peek() != '(')
+    {
+      scanAtom();
+      return GdlPool.getProposition(atomConstant());
+    }
+
+    pos++;
+    scanAtom();
+    if (atomIsIgnoreCase("distinct"))
+    {
+      GdlTerm arg1 = parseTerm();
+      GdlTerm arg2 = parseTerm();
+      skipRest();
+      return GdlPool.getDistinct(arg1, arg2);
+    }
+    else if (atomIsIgnoreCase("not"))
+    {
+      GdlLiteral body = parseLiteral();
+      skipRest();
+      return GdlPool.getNot(body);
+    }
+    else if (atomIsIgnoreCase("or"))
+    {
+      List<GdlLiteral> disjuncts = pushLiterals();
+      while (peek() != ')')
+      {
+        disjuncts.add(parseLiteral());
+      }
+      pos++;
+      depth--;
+      return GdlPool.getOr(disjuncts);
+    }
+    return parseRelationBody(atomConstant());
+  }
+
+  private GdlSentence parseRelationBody(GdlConstant name)
+  {
+    List<GdlTerm> body = pushTerms();
+    while (peek() != ')')
+    {
+      body.add(parseTerm());
+    }
+    pos++;
+    depth--;
+    return GdlPool.getRelation(name, body);
+  }
+
+  private GdlTerm parseTerm()
+  {
+    if (peek() == '(')
+    {
+      pos++;
+      scanAtom();
+      GdlConstant name = atomConstant();
+      List<GdlTerm> body = pushTerms();
+      while (peek() != ')')
+      {
+        body.add(parseTerm());
+      }
+      pos++;
+      depth--;
+      return GdlPool.getFunction(name, body);
+    }
+
+    scanAtom();
+    if (text.charAt(atomStart) == '?')
+    {
+      return atomVariable();
+    }
+    return atomConstant();
+  }
+
+  /**
+   * Skip any remaining (ignored) elements of the current list, and its close.
+   */
+  private void skipRest()
+  {
+    int nesting = 0;
+    while (true)
+    {
+      int c = peek();
+      if (c == -1)
+      {
+        throw new IllegalArgumentException("Unexpected end of text");
+      }
+      pos++;
+      if (c == '(')
+      {
+        nesting++;
+      }
+      else if (c == ')')
+      {
+        if (nesting-- == 0)
+        {
+          return;
+        }
+      }
+      else
+      {
+        pos--;
+        scanAtom();
+      }
+    }
+  }
+
+  private List<GdlTerm> pushTerms()
+  {
+    while (termScratch.size() <= depth)
+    {
+      termScratch.add(new ArrayList<GdlTerm>());
+    }
+    List<GdlTerm> list = termScratch.get(depth++);
+    list.clear();
+    return list;
+  }
+
+  private List<GdlLiteral> pushLiterals()
+  {
+    while (literalScratch.size() <= depth)
+    {
+      literalScratch.add(new ArrayList<GdlLiteral>());
+    }
+    List<GdlLiteral> list = literalScratch.get(depth++);
+    list.clear();
+    return list;
+  }
+
+  //==========================================================================
+  // Lexing
+  //==========================================================================
+
+  /**
+   * @return the next significant character, without consuming it, or -1 at
+   * the end of the text.
+   */
+  private int peek()
+  {
+    while (pos < length)
+    {
+      char c = text.charAt(pos);
+      if (c == ';' && skipComments)
+      {
+        while (pos < length && text.charAt(pos) != '\n' && text.charAt(pos) != '\r')
+        {
+          pos++;
+        }
+      }
+      else if (isWhitespace(c))
+      {
+        pos++;
+      }
+      else
+      {
+        return c;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return whether a character is whitespace, by the same definition (that of
+   * regular expressions) as SymbolFactory.
+   */
+  private static boolean isWhitespace(char c)
+  {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private void expect(char expected)
+  {
+    if (peek() != expected)
+    {
+      throw new IllegalArgumentException("Expected '" + expected + "' at offset " + pos);
+    }
+    pos++;
+  }
+
+  /**
+   * Scan an atom, and find (or make) its slot in the atom table.
+   */
+  private void scanAtom()
+  {
+    int c = peek();
+    if (c == -1 || c == '(' || c == ')')
+    {
+      throw new IllegalArgumentException("Expected an atom at offset " + pos);
+    }
+
+    atomStart = pos;
+    int hash = 0;
+    while (pos < length)
+    {
+      char ch = text.charAt(pos);
+      if (ch == '(' || ch == ')' || isWhitespace(ch) || (ch == ';' && skipComments))
+      {
+        break;
+      }
+      hash = 31 * hash + ch;
+      pos++;
+    }
+    atomEnd = pos;
+
+    int mask = atomChars.length - 1;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (atomChars[slot] != null)
+    {
+      if (atomMatches(atomChars[slot]))
+      {
+        atomSlot = slot;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    char[] chars = new char[atomEnd - atomStart];
+    for (int i = 0; i < chars.length; i++)
+    {
+      chars[i] = text.charAt(atomStart + i);
+    }
+    atomChars[slot] = chars;
+    atomSlot = slot;
+
+    if (++numAtoms * 2 > atomChars.length)
+    {
+      growAtomTable();
+    }
+  }
+
+  private boolean atomMatches(char[] chars)
+  {
+    if (chars.length != atomEnd - atomStart)
+    {
+      return false;
+    }
+    for (int i = 0; i < chars.length; i++)
+    {
+      if (chars[i] != text.charAt(atomStart + i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void growAtomTable()
+  {
+    char[][] oldChars = atomChars;
+    GdlConstant[] oldConstants = atomConstants;
+    GdlVariable[] oldVariables = atomVariables;
+    char[] current = oldChars[atomSlot];
+
+    atomChars = new char[oldChars.length * 2][];
+    atomConstants = new GdlConstant[oldChars.length * 2];
+    atomVariables = new GdlVariable[oldChars.length * 2];
+    int mask = atomChars.length - 1;
+    for (int i = 0; i < oldChars.length; i++)
+    {
+      char[] chars = oldChars[i];
+      if (chars == null)
+      {
+        continue;
+      }
+
+      int hash = 0;
+      for (char ch : chars)
+      {
+        hash = 31 * hash + ch;
+      }
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (atomChars[slot] != null)
+      {
+        slot = (slot + 1) & mask;
+      }
+      atomChars[slot] = chars;
+      atomConstants[slot] = oldConstants[i];
+      atomVariables[slot] = oldVariables[i];
+      if (chars == current)
+      {
+        atomSlot = slot;
+      }
+    }
+  }
+
+  private boolean atomIs(String value)
+  {
+    char[] chars = atomChars[atomSlot];
+    if (chars.length != value.length())
+    {
+      return false;
+    }
+    for (int i = 0; i < chars.length; i++)
+    {
+      if (chars[i] != value.charAt(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean atomIsIgnoreCase(String value)
+  {
+    char[] chars = atomChars[atomSlot];
+    return (chars.length == value.length()) &&
+           new String(chars).equalsIgnoreCase(value);
+  }
+
+  private GdlConstant atomConstant()
+  {
+    GdlConstant constant = atomConstants[atomSlot];
+    if (constant == null)
+    {
+      constant = GdlPool.getConstant(new String(atomChars[atomSlot]));
+      atomConstants[atomSlot] = constant;
+    }
+    return constant;
+  }
+
+  private GdlVariable atomVariable()
+  {
+    GdlVariable variable = atomVariables[atomSlot];
+    if (variable == null)
+    {
+      variable = GdlPool.getVariable(new String(atomChars[atomSlot]));
+      atomVariables[atomSlot] = variable;
+    }
+    return variable;
+  }
+}
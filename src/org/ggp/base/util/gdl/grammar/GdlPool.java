@@ -131,13 +131,16 @@ public final class GdlPool
     }
     if (!caseSensitive)
     {
-      if (constantCases.containsKey(value))
+      synchronized (constantCases)
       {
-        value = constantCases.get(value);
-      }
-      else
-      {
-        constantCases.put(value, value);
+        if (constantCases.containsKey(value))
+        {
+          value = constantCases.get(value);
+        }
+        else
+        {
+          constantCases.put(value, value);
+        }
       }
     }
 
@@ -151,13 +154,16 @@ public final class GdlPool
   {
     if (!caseSensitive)
     {
-      if (variableCases.containsKey(name))
-      {
-        name = variableCases.get(name);
-      }
-      else
+      synchronized (variableCases)
       {
-        variableCases.put(name, name);
+        if (variableCases.containsKey(name))
+        {
+          name = variableCases.get(name);
+        }
+        else
+        {
+          variableCases.put(name, name);
+        }
       }
     }
 
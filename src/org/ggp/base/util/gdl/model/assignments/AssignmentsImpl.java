@@ -90,51 +90,50 @@ public class AssignmentsImpl implements Assignments
                          Map<GdlVariable, Set<GdlConstant>> varDomains,
                          Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
                          Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues)
+  {
+    this(getBestIterationOrder(headAssignment,
+                               rule,
+                               varDomains,
+                               functionInfoMap,
+                               completedSentenceFormValues),
+         headAssignment,
+         rule,
+         varDomains,
+         functionInfoMap,
+         completedSentenceFormValues);
+  }
+
+  /**
+   * Creates an Assignments object using a previously chosen iteration order.
+   * Choosing the order is usually the most expensive part of creating an
+   * Assignments object, so callers that repeatedly iterate over the same rule
+   * (with different sentence values) can choose it once with
+   * {@link #getBestIterationOrder} and reuse it. The order must have been
+   * chosen for the same rule and the same set of head-assigned variables.
+   * Any functional conjuncts in the order are re-checked against the given
+   * function info, and sources with no true sentences yield no assignments.
+   *
+   * @param bestOrdering
+   *          The iteration order to use.
+   * @param headAssignment
+   *          See above.
+   * @param rule
+   *          See above.
+   * @param varDomains
+   *          See above.
+   * @param functionInfoMap
+   * @param completedSentenceFormValues
+   */
+  public AssignmentsImpl(IterationOrderCandidate bestOrdering,
+                         Map<GdlVariable, GdlConstant> headAssignment,
+                         GdlRule rule,
+                         Map<GdlVariable, Set<GdlConstant>> varDomains,
+                         Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+                         Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues)
   {
     empty = false;
     this.headAssignment = headAssignment;
 
-    //We first have to find the remaining variables in the body
-    varsToAssign = GdlUtils.getVariables(rule);
-    //Remove all the duplicates; we do, however, want to keep the ordering
-    List<GdlVariable> newVarsToAssign = new ArrayList<>();
-    for (GdlVariable v : varsToAssign)
-      if (!newVarsToAssign.contains(v))
-        newVarsToAssign.add(v);
-    varsToAssign = newVarsToAssign;
-    varsToAssign.removeAll(headAssignment.keySet());
-    //varsToAssign is set at this point
-
-    //We see if iterating over entire tuples will give us a
-    //better result, and we look for the best way of doing that.
-
-    //Let's get the domains of the variables
-    //Map<GdlVariable, Set<GdlConstant>> varDomains = model.getVarDomains(rule);
-    //Since we're looking at a particular rule, we can do this one step better
-    //by looking at the domain of the head, which may be more restrictive
-    //and taking the intersections of the two domains where applicable
-    //Map<GdlVariable, Set<GdlConstant>> headVarDomains = model.getVarDomainsInSentence(rule.getHead());
-
-    //We can run the A* search for a good set of source conjuncts
-    //at this point, then use the result to build the rest.
-    Map<SentenceForm, Integer> completedSentenceFormSizes = new HashMap<>();
-    if (completedSentenceFormValues != null)
-      for (SentenceForm form : completedSentenceFormValues.keySet())
-        completedSentenceFormSizes.put(form,
-                                       completedSentenceFormValues.get(form)
-                                           .size());
-    Map<GdlVariable, Integer> varDomainSizes = new HashMap<>();
-    for (GdlVariable var : varDomains.keySet())
-      varDomainSizes.put(var, varDomains.get(var).size());
-
-    IterationOrderCandidate bestOrdering;
-    bestOrdering = getBestIterationOrderCandidate(rule,
-                                                  varDomains,/* model, */
-                                                  functionInfoMap,
-                                                  completedSentenceFormSizes,
-                                                  headAssignment,
-                                                  false); //TODO: True here?
-
     //Want to replace next few things with order
     //Need a few extra things to handle the use of iteration over existing tuples
     varsToAssign = bestOrdering.getVariableOrdering();
@@ -225,6 +224,12 @@ public class AssignmentsImpl implements Assignments
       //tuples have compatible values
       Collection<GdlSentence> sentences = completedSentenceFormValues
           .get(form);
+      if (sentences == null)
+      {
+        //Only possible with a reused ordering: no sentences of this form are
+        //true any more.
+        sentences = Collections.emptyList();
+      }
       List<ImmutableList<GdlConstant>> tuples = Lists.newArrayList();
       byTuple: for (GdlSentence sentence : sentences)
       {
@@ -233,6 +238,11 @@ public class AssignmentsImpl implements Assignments
         {
           Map<GdlVariable, GdlConstant> tupleAssignment = GdlUtils
               .getAssignmentMakingLeftIntoRight(sourceConjunct, sentence);
+          if (tupleAssignment == null)
+          {
+            //The sentence doesn't fit the conjunct at all
+            continue byTuple;
+          }
           for (GdlVariable var : headAssignment.keySet())
           {
             if (tupleAssignment.containsKey(var) &&
@@ -312,6 +322,10 @@ public class AssignmentsImpl implements Assignments
           //3) Is it only used once in the relation?
           if (Collections.frequency(varsInSentence, rightmostVar) != 1)
             continue; //Can't use it
+          //3a) Is it still functional? (A reused ordering may have been
+          //    chosen when the conjunct's values were different.)
+          if (!functionInfo.getProducibleVars(functionalConjunct).contains(rightmostVar))
+            continue;
           //4) Which slot is it used in in the relation?
           //5) Build an AssignmentFunction if appropriate.
           //   This should be able to translate from values of
@@ -458,6 +472,39 @@ public class AssignmentsImpl implements Assignments
     }
   }
 
+  /**
+   * Chooses the order in which to iterate over the variables of a rule, as
+   * used by the constructors above.
+   *
+   * @param headAssignment
+   *          Variables whose values will be fixed. Only the keys are used.
+   * @param rule
+   * @param varDomains
+   * @param functionInfoMap
+   * @param completedSentenceFormValues
+   * @return the iteration order.
+   */
+  public static IterationOrderCandidate getBestIterationOrder(Map<GdlVariable, GdlConstant> headAssignment,
+                                                              GdlRule rule,
+                                                              Map<GdlVariable, Set<GdlConstant>> varDomains,
+                                                              Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+                                                              Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues)
+  {
+    Map<SentenceForm, Integer> completedSentenceFormSizes = new HashMap<>();
+    if (completedSentenceFormValues != null)
+      for (SentenceForm form : completedSentenceFormValues.keySet())
+        completedSentenceFormSizes.put(form,
+                                       completedSentenceFormValues.get(form)
+                                           .size());
+
+    return getBestIterationOrderCandidate(rule,
+                                          varDomains,
+                                          functionInfoMap,
+                                          completedSentenceFormSizes,
+                                          headAssignment,
+                                          false); //TODO: True here?
+  }
+
   public static Assignments getAssignmentsProducingSentence(GdlRule rule,
                                                             GdlSentence sentence, /*
                                                                                    * SentenceModel
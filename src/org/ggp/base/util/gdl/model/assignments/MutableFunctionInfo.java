@@ -44,6 +44,32 @@ public class MutableFunctionInfo implements AddibleFunctionInfo
     }
   }
 
+  private MutableFunctionInfo(MutableFunctionInfo other)
+  {
+    this.form = other.form;
+    dependentSlots.addAll(other.dependentSlots);
+    for (int i = 0; i < form.getTupleSize(); i++)
+    {
+      if (dependentSlots.get(i))
+      {
+        valueMaps.add(Maps.newHashMap(other.valueMaps.get(i)));
+      }
+      else
+      {
+        valueMaps.add(other.valueMaps.get(i));
+      }
+    }
+  }
+
+  /**
+   * Returns an independent copy of the given function info. This is much
+   * cheaper than re-adding all the sentences it was built from.
+   */
+  public static MutableFunctionInfo copyOf(MutableFunctionInfo other)
+  {
+    return new MutableFunctionInfo(other);
+  }
+
   public static MutableFunctionInfo create(SentenceForm form)
   {
     return create(form, ImmutableSet.<GdlSentence> of());
@@ -0,0 +1,649 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.util.http.HttpReader.GGPRequest;
+
+/**
+ * A single thread that drives any number of GGP HTTP exchanges over
+ * non-blocking sockets - both requests issued by a game server and requests
+ * received by a player (through an {@link HttpListener}).  Nothing blocks on
+ * the network, so a server can drive many matches at once without a thread per
+ * request, and a busy player still accepts and reads requests as they arrive.
+ *
+ * Messages are read into a per-connection buffer and decoded straight from it;
+ * responses are written with a single gathering write of their header and
+ * body buffers.  The wire formats are those of HttpReader and HttpWriter, so
+ * either end may still use the blocking classes.
+ *
+ * All socket operations happen on the loop's thread.  Other threads hand work
+ * to it through a task queue.
+ */
+public final class HttpEventLoop implements Runnable
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * Time allowed to establish a connection, as for HttpRequest.
+   */
+  private static final int CONNECT_TIMEOUT = 5000;
+
+  /**
+   * Time for which a player waits for a request to arrive on a connection
+   * before dropping it.
+   */
+  private static final int REQUEST_TIMEOUT = 60000;
+
+  private static final int INITIAL_BUFFER_SIZE = 4096;
+
+  private static HttpEventLoop sInstance;
+
+  private final Selector        mSelector;
+  private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+
+  /**
+   * @return the shared event loop, starting it if necessary.
+   */
+  public static synchronized HttpEventLoop getInstance()
+  {
+    if (sInstance == null)
+    {
+      try
+      {
+        sInstance = new HttpEventLoop();
+      }
+      catch (IOException lEx)
+      {
+        throw new RuntimeException("Failed to open selector", lEx);
+      }
+      Thread lThread = new Thread(sInstance, "HttpEventLoop");
+      lThread.setDaemon(true);
+      lThread.start();
+    }
+    return sInstance;
+  }
+
+  private HttpEventLoop() throws IOException
+  {
+    mSelector = Selector.open();
+  }
+
+  /**
+   * The eventual response to a request issued by a game server.
+   */
+  public static final class PendingResponse
+  {
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private String               mResponse;
+    private IOException          mError;
+
+    void complete(String xiResponse)
+    {
+      mResponse = xiResponse;
+      mDone.countDown();
+    }
+
+    void fail(IOException xiError)
+    {
+      mError = xiError;
+      mDone.countDown();
+    }
+
+    public boolean isDone()
+    {
+      return mDone.getCount() == 0;
+    }
+
+    /**
+     * Wait for the response.
+     *
+     * @return the response.
+     * @throws IOException as HttpRequest.issueRequest would have - in
+     * particular, SocketTimeoutException if the player didn't respond in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public String get() throws IOException, InterruptedException
+    {
+      mDone.await();
+      if (mError != null)
+      {
+        throw mError;
+      }
+      return mResponse;
+    }
+  }
+
+  /**
+   * A request received by a player, awaiting its response.
+   */
+  public final class Exchange
+  {
+    private final ServerConnection mConnection;
+    private final GGPRequest       mRequest;
+    private final IOException      mError;
+
+    Exchange(ServerConnection xiConnection, GGPRequest xiRequest, IOException xiError)
+    {
+      mConnection = xiConnection;
+      mRequest = xiRequest;
+      mError = xiError;
+    }
+
+    /**
+     * @return the request.
+     * @throws IOException if the request couldn't be read, in which case the
+     * connection has already been dealt with.
+     */
+    public GGPRequest getRequest() throws IOException
+    {
+      if (mError != null)
+      {
+        throw mError;
+      }
+      return mRequest;
+    }
+
+    /**
+     * Send the response and close the connection.
+     */
+    public void respond(final String xiResponse)
+    {
+      submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          mConnection.respond(HttpMessage.encodeResponse(xiResponse));
+        }
+      });
+    }
+
+    /**
+     * Close the connection without responding (if no response has been sent).
+     */
+    public void close()
+    {
+      submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          if (mConnection.mOut == null)
+          {
+            mConnection.close();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Issue a request to a player, as HttpRequest.issueRequest, without waiting
+   * for the response.
+   *
+   * @param xiTimeout - the time (in milliseconds) for which to wait for the
+   * response, or 0 or less to wait indefinitely.
+   */
+  public PendingResponse issueRequest(String xiHost,
+                                      int xiPort,
+                                      String xiPlayerName,
+                                      String xiContent,
+                                      int xiTimeout)
+  {
+    PendingResponse lResponse = new PendingResponse();
+    try
+    {
+      InetAddress lHost = InetAddress.getByName(xiHost);
+      final ClientConnection lConnection =
+          new ClientConnection(new InetSocketAddress(lHost.getHostAddress(), xiPort),
+                               HttpMessage.encodeRequest(lHost.getHostName(),
+                                                         xiContent,
+                                                         xiPlayerName),
+                               xiTimeout,
+                               lResponse);
+      submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          lConnection.open();
+        }
+      });
+    }
+    catch (IOException lEx)
+    {
+      lResponse.fail(lEx);
+    }
+    return lResponse;
+  }
+
+  /**
+   * Accept connections on a channel, queueing each request as it's read.
+   */
+  void listen(final ServerSocketChannel xiChannel, final BlockingQueue<Exchange> xiQueue)
+  {
+    submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          xiChannel.configureBlocking(false);
+          xiChannel.register(mSelector, SelectionKey.OP_ACCEPT, new Acceptor(xiChannel, xiQueue));
+        }
+        catch (IOException lEx)
+        {
+          LOGGER.error("Failed to listen for requests", lEx);
+        }
+      }
+    });
+  }
+
+  /**
+   * Stop accepting connections on a channel, and close it.
+   */
+  void unlisten(final ServerSocketChannel xiChannel)
+  {
+    submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        SelectionKey lKey = xiChannel.keyFor(mSelector);
+        if (lKey != null)
+        {
+          lKey.cancel();
+        }
+        try
+        {
+          xiChannel.close();
+        }
+        catch (IOException lEx)
+        {
+          // Nothing more to be done.
+        }
+      }
+    });
+  }
+
+  private void submit(Runnable xiTask)
+  {
+    mTasks.add(xiTask);
+    mSelector.wakeup();
+  }
+
+  @Override
+  public void run()
+  {
+    while (true)
+    {
+      try
+      {
+        Runnable lTask;
+        while ((lTask = mTasks.poll()) != null)
+        {
+          lTask.run();
+        }
+
+        mSelector.select(expireConnections());
+
+        Iterator<SelectionKey> lIterator = mSelector.selectedKeys().iterator();
+        while (lIterator.hasNext())
+        {
+          SelectionKey lKey = lIterator.next();
+          lIterator.remove();
+          if (lKey.isValid())
+          {
+            ((Handler)lKey.attachment()).handle(lKey);
+          }
+        }
+      }
+      catch (Exception lEx)
+      {
+        LOGGER.error("Unexpected error in HTTP event loop", lEx);
+      }
+    }
+  }
+
+  /**
+   * Time out any connections whose deadlines have passed.
+   *
+   * @return the time until the next deadline, or 0 if there isn't one.
+   */
+  private long expireConnections()
+  {
+    long lNow = System.currentTimeMillis();
+    long lNext = Long.MAX_VALUE;
+    for (SelectionKey lKey : mSelector.keys())
+    {
+      if (lKey.isValid() && lKey.attachment() instanceof Connection)
+      {
+        Connection lConnection = (Connection)lKey.attachment();
+        if (lConnection.mDeadline != 0)
+        {
+          if (lConnection.mDeadline <= lNow)
+          {
+            lConnection.timeout();
+          }
+          else
+          {
+            lNext = Math.min(lNext, lConnection.mDeadline);
+          }
+        }
+      }
+    }
+    return (lNext == Long.MAX_VALUE) ? 0 : (lNext - lNow);
+  }
+
+  private interface Handler
+  {
+    void handle(SelectionKey xiKey);
+  }
+
+  private final class Acceptor implements Handler
+  {
+    private final ServerSocketChannel     mChannel;
+    private final BlockingQueue<Exchange> mQueue;
+
+    Acceptor(ServerSocketChannel xiChannel, BlockingQueue<Exchange> xiQueue)
+    {
+      mChannel = xiChannel;
+      mQueue = xiQueue;
+    }
+
+    @Override
+    public void handle(SelectionKey xiKey)
+    {
+      try
+      {
+        SocketChannel lChannel;
+        while ((lChannel = mChannel.accept()) != null)
+        {
+          new ServerConnection(lChannel, mQueue).open();
+        }
+      }
+      catch (IOException lEx)
+      {
+        LOGGER.warn("Failed to accept connection", lEx);
+      }
+    }
+  }
+
+  /**
+   * A connection, with its buffers and the deadline (if any) for the current
+   * operation.
+   */
+  private abstract class Connection implements Handler
+  {
+    protected final SocketChannel mChannel;
+    protected SelectionKey        mKey;
+    protected ByteBuffer          mIn = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    protected ByteBuffer[]        mOut;
+    protected long                mDeadline;
+
+    Connection(SocketChannel xiChannel)
+    {
+      mChannel = xiChannel;
+    }
+
+    @Override
+    public final void handle(SelectionKey xiKey)
+    {
+      try
+      {
+        if (xiKey.isConnectable())
+        {
+          connected();
+        }
+        if (xiKey.isValid() && xiKey.isWritable())
+        {
+          mChannel.write(mOut);
+          if (!mOut[mOut.length - 1].hasRemaining())
+          {
+            written();
+          }
+        }
+        if (xiKey.isValid() && xiKey.isReadable())
+        {
+          if (mIn.remaining() == 0)
+          {
+            ByteBuffer lBigger = ByteBuffer.allocate(mIn.capacity() * 2);
+            mIn.flip();
+            lBigger.put(mIn);
+            mIn = lBigger;
+          }
+          int lRead = mChannel.read(mIn);
+          if (lRead != 0)
+          {
+            read(lRead == -1);
+          }
+        }
+      }
+      catch (Exception lEx)
+      {
+        close();
+        failed((lEx instanceof IOException) ? (IOException)lEx : new IOException(lEx));
+      }
+    }
+
+    protected void connected() throws IOException
+    {
+      // Only client connections connect.
+    }
+
+    protected abstract void written() throws IOException;
+
+    /**
+     * Called when data has been read.
+     *
+     * @param xiComplete - whether the peer has finished sending.
+     */
+    protected abstract void read(boolean xiComplete) throws IOException;
+
+    protected abstract void timeout();
+
+    protected abstract void failed(IOException xiError);
+
+    protected void close()
+    {
+      mDeadline = 0;
+      if (mKey != null)
+      {
+        mKey.cancel();
+      }
+      try
+      {
+        mChannel.close();
+      }
+      catch (IOException lEx)
+      {
+        // Nothing more to be done.
+      }
+    }
+  }
+
+  /**
+   * A game server's connection to a player: connect, write the request, then
+   * read the response.  As with a socket timeout, the response timeout is
+   * restarted whenever data arrives.
+   */
+  private final class ClientConnection extends Connection
+  {
+    private final InetSocketAddress mAddress;
+    private final int               mTimeout;
+    private final PendingResponse   mResponse;
+
+    ClientConnection(InetSocketAddress xiAddress,
+                     ByteBuffer[] xiRequest,
+                     int xiTimeout,
+                     PendingResponse xiResponse) throws IOException
+    {
+      super(SocketChannel.open());
+      mAddress = xiAddress;
+      mOut = xiRequest;
+      mTimeout = xiTimeout;
+      mResponse = xiResponse;
+    }
+
+    void open()
+    {
+      try
+      {
+        mChannel.configureBlocking(false);
+        if (mChannel.connect(mAddress))
+        {
+          mKey = mChannel.register(mSelector, SelectionKey.OP_WRITE, this);
+          restartTimeout();
+        }
+        else
+        {
+          mKey = mChannel.register(mSelector, SelectionKey.OP_CONNECT, this);
+          mDeadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        }
+      }
+      catch (IOException lEx)
+      {
+        close();
+        failed(lEx);
+      }
+    }
+
+    @Override
+    protected void connected() throws IOException
+    {
+      mChannel.finishConnect();
+      mKey.interestOps(SelectionKey.OP_WRITE);
+      restartTimeout();
+    }
+
+    @Override
+    protected void written()
+    {
+      mKey.interestOps(SelectionKey.OP_READ);
+    }
+
+    @Override
+    protected void read(boolean xiComplete) throws IOException
+    {
+      restartTimeout();
+      String lResponse = HttpMessage.decodeResponse(mIn, xiComplete);
+      if (lResponse != null)
+      {
+        close();
+        mResponse.complete(lResponse);
+      }
+    }
+
+    @Override
+    protected void timeout()
+    {
+      boolean lConnected = mChannel.isConnected();
+      close();
+      failed(new SocketTimeoutException(lConnected ? "Read timed out" : "connect timed out"));
+    }
+
+    @Override
+    protected void failed(IOException xiError)
+    {
+      mResponse.fail(xiError);
+    }
+
+    private void restartTimeout()
+    {
+      mDeadline = (mTimeout > 0) ? System.currentTimeMillis() + mTimeout : 0;
+    }
+  }
+
+  /**
+   * A player's connection from a game server (or anything else): read the
+   * request, queue it, then write the response when it's supplied.
+   */
+  private final class ServerConnection extends Connection
+  {
+    private final BlockingQueue<Exchange> mQueue;
+
+    ServerConnection(SocketChannel xiChannel, BlockingQueue<Exchange> xiQueue)
+    {
+      super(xiChannel);
+      mQueue = xiQueue;
+    }
+
+    void open() throws IOException
+    {
+      mChannel.configureBlocking(false);
+      mKey = mChannel.register(mSelector, SelectionKey.OP_READ, this);
+      mDeadline = System.currentTimeMillis() + REQUEST_TIMEOUT;
+    }
+
+    @Override
+    protected void read(boolean xiComplete) throws IOException
+    {
+      GGPRequest lRequest;
+      try
+      {
+        lRequest = HttpMessage.decodeRequest(mIn, xiComplete);
+      }
+      catch (HttpMessage.UnsupportedMethodException lEx)
+      {
+        respond(HttpMessage.encodeResponse(""));
+        mQueue.add(new Exchange(this, null, lEx));
+        return;
+      }
+
+      if (lRequest != null)
+      {
+        mKey.interestOps(0);
+        mDeadline = 0;
+        mQueue.add(new Exchange(this, lRequest, null));
+      }
+    }
+
+    void respond(ByteBuffer[] xiResponse)
+    {
+      if (!mChannel.isOpen())
+      {
+        return;
+      }
+      mOut = xiResponse;
+      mKey.interestOps(SelectionKey.OP_WRITE);
+      mDeadline = System.currentTimeMillis() + REQUEST_TIMEOUT;
+    }
+
+    @Override
+    protected void written()
+    {
+      close();
+    }
+
+    @Override
+    protected void timeout()
+    {
+      close();
+    }
+
+    @Override
+    protected void failed(IOException xiError)
+    {
+      if (mOut == null)
+      {
+        mQueue.add(new Exchange(this, null, xiError));
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.ggp.base.util.http.HttpEventLoop.Exchange;
+
+/**
+ * A non-blocking replacement for a ServerSocket plus HttpReader/HttpWriter, for
+ * use by players.  Connections are accepted, and their requests read, by the
+ * shared {@link HttpEventLoop}, whatever the player is doing; the player takes
+ * complete requests one at a time and responds to each.
+ */
+public final class HttpListener
+{
+  private final ServerSocketChannel     mChannel;
+  private final BlockingQueue<Exchange> mQueue = new LinkedBlockingQueue<>();
+  private final int                     mPort;
+
+  /**
+   * Listen on a port.
+   *
+   * @throws IOException if the port can't be bound.
+   */
+  public HttpListener(int xiPort) throws IOException
+  {
+    mChannel = ServerSocketChannel.open();
+    try
+    {
+      // As for a ServerSocket.
+      mChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      mChannel.bind(new InetSocketAddress(xiPort));
+    }
+    catch (IOException lEx)
+    {
+      mChannel.close();
+      throw lEx;
+    }
+    mPort = xiPort;
+    HttpEventLoop.getInstance().listen(mChannel, mQueue);
+  }
+
+  public int getPort()
+  {
+    return mPort;
+  }
+
+  /**
+   * @return the next request, waiting for one if necessary.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public Exchange accept() throws InterruptedException
+  {
+    return mQueue.take();
+  }
+
+  /**
+   * Stop listening.
+   */
+  public void close()
+  {
+    HttpEventLoop.getInstance().unlisten(mChannel);
+  }
+}
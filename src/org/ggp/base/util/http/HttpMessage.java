@@ -0,0 +1,291 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.ggp.base.util.http.HttpReader.GGPRequest;
+
+/**
+ * Encoding and decoding of the HTTP messages exchanged over non-blocking
+ * sockets by the {@link HttpEventLoop}.  The formats (and quirks) are those of
+ * HttpReader and HttpWriter, except that bodies are always UTF-8 and their
+ * lengths are counted in bytes.
+ *
+ * Messages are decoded straight from the buffer into which they were read,
+ * and encoded as a header buffer and a body buffer for a gathering write.
+ */
+final class HttpMessage
+{
+  /**
+   * Thrown for requests that aren't GET or POST.  They get an empty response,
+   * but aren't passed on.
+   */
+  @SuppressWarnings("serial")
+  static final class UnsupportedMethodException extends IOException
+  {
+    UnsupportedMethodException(String message)
+    {
+      super(message);
+    }
+  }
+
+  private HttpMessage()
+  {
+  }
+
+  /**
+   * Decode a request received by a server.
+   *
+   * @param xiData     - the bytes received so far (from 0 to the position).
+   * @param xiComplete - whether the peer has finished sending.
+   *
+   * @return the request, or null if more data is needed.
+   * @throws IOException if the request is malformed.
+   */
+  static GGPRequest decodeRequest(ByteBuffer xiData, boolean xiComplete) throws IOException
+  {
+    int lLineEnd = indexOf(xiData, 0, (byte)'\n');
+    if (lLineEnd == -1)
+    {
+      if (!xiComplete)
+      {
+        return null;
+      }
+      if (xiData.position() == 0)
+      {
+        throw new IOException("Connection terminated");
+      }
+      lLineEnd = xiData.position();
+    }
+
+    String lRequestLine = trimCR(latin1(xiData, 0, lLineEnd));
+    String lMethod = lRequestLine.toUpperCase();
+    if (lMethod.startsWith("GET "))
+    {
+      int lHeadersEnd = findHeadersEnd(xiData, lLineEnd + 1);
+      if (lHeadersEnd == -1 && !xiComplete)
+      {
+        return null;
+      }
+
+      GGPRequest lRequest = new GGPRequest();
+      String lMessage = lRequestLine.substring(5, lRequestLine.lastIndexOf(' '));
+      lMessage = URLDecoder.decode(lMessage, "UTF-8");
+      lRequest.mRequest = lMessage.replace((char)13, ' ');
+      parseHeaders(xiData, lLineEnd + 1, lHeadersEnd, lRequest);
+      return lRequest;
+    }
+    else if (lMethod.startsWith("POST "))
+    {
+      return decodeContent(xiData, lLineEnd + 1, xiComplete);
+    }
+    else if (lMethod.startsWith("OPTIONS "))
+    {
+      // Web browsers send OPTIONS requests to discover whether they may send
+      // XHR requests.  The (empty) response carries the headers they want.
+      throw new UnsupportedMethodException("Drop this message at the network layer.");
+    }
+    throw new UnsupportedMethodException("Unexpected request type: " + lRequestLine);
+  }
+
+  /**
+   * Decode a response received by a client.
+   *
+   * @param xiData     - the bytes received so far (from 0 to the position).
+   * @param xiComplete - whether the peer has finished sending.
+   *
+   * @return the response, or null if more data is needed.
+   * @throws IOException if the response is malformed.
+   */
+  static String decodeResponse(ByteBuffer xiData, boolean xiComplete) throws IOException
+  {
+    GGPRequest lResponse = decodeContent(xiData, 0, xiComplete);
+    return (lResponse == null) ? null : lResponse.mRequest;
+  }
+
+  /**
+   * Decode the content of a message, whose length is given by its
+   * Content-Length header.
+   */
+  private static GGPRequest decodeContent(ByteBuffer xiData,
+                                          int xiHeadersStart,
+                                          boolean xiComplete) throws IOException
+  {
+    int lHeadersEnd = findHeadersEnd(xiData, xiHeadersStart);
+    if (lHeadersEnd == -1)
+    {
+      if (xiComplete)
+      {
+        throw new IOException("Could not find content in POST request.");
+      }
+      return null;
+    }
+
+    GGPRequest lMessage = new GGPRequest();
+    int lContentLength = parseHeaders(xiData, xiHeadersStart, lHeadersEnd, lMessage);
+    if (lContentLength == -1)
+    {
+      throw new IOException("Could not find Content-Length header.");
+    }
+
+    int lContentStart = indexOf(xiData, lHeadersEnd, (byte)'\n') + 1;
+    if (xiData.position() - lContentStart < lContentLength)
+    {
+      if (xiComplete)
+      {
+        throw new IOException("Connection terminated");
+      }
+      return null;
+    }
+
+    ByteBuffer lContent = xiData.duplicate();
+    lContent.limit(lContentStart + lContentLength).position(lContentStart);
+    lMessage.mRequest = StandardCharsets.UTF_8.decode(lContent).toString().trim();
+    return lMessage;
+  }
+
+  /**
+   * Parse the header lines in [xiStart, xiEnd), storing any GGP-related ones
+   * in the message.  An end of -1 means the rest of the data.
+   *
+   * @return the content length, or -1 if there's no Content-Length header.
+   */
+  private static int parseHeaders(ByteBuffer xiData,
+                                  int xiStart,
+                                  int xiEnd,
+                                  GGPRequest xiMessage) throws IOException
+  {
+    int lEnd = (xiEnd == -1) ? xiData.position() : xiEnd;
+    int lContentLength = -1;
+    int lLineStart = xiStart;
+    while (lLineStart < lEnd)
+    {
+      int lLineEnd = indexOf(xiData, lLineStart, (byte)'\n');
+      if (lLineEnd == -1 || lLineEnd > lEnd)
+      {
+        lLineEnd = lEnd;
+      }
+
+      String lLine = trimCR(latin1(xiData, lLineStart, lLineEnd));
+      if (lLine.toLowerCase().startsWith("content-length:"))
+      {
+        try
+        {
+          lContentLength = Integer.parseInt(lLine.substring("content-length:".length()).trim());
+        }
+        catch (NumberFormatException e)
+        {
+          throw new IOException("Content-Length header can't be parsed: \"" + lLine + "\"");
+        }
+      }
+      else
+      {
+        int lColonIndex = lLine.indexOf(':');
+        if ((lColonIndex != -1) && (lColonIndex < lLine.length() - 1))
+        {
+          String lHeader = lLine.substring(0, lColonIndex).trim();
+          if (lHeader.toLowerCase().contains("ggp"))
+          {
+            xiMessage.mHeaders.put(lHeader, lLine.substring(lColonIndex + 1).trim());
+          }
+        }
+      }
+      lLineStart = lLineEnd + 1;
+    }
+    return lContentLength;
+  }
+
+  /**
+   * @return the offset of the blank line that ends the headers starting at
+   * the given offset, or -1 if it hasn't been received yet.
+   */
+  private static int findHeadersEnd(ByteBuffer xiData, int xiStart)
+  {
+    int lLineStart = xiStart;
+    while (true)
+    {
+      int lLineEnd = indexOf(xiData, lLineStart, (byte)'\n');
+      if (lLineEnd == -1)
+      {
+        return -1;
+      }
+      if (lLineEnd == lLineStart ||
+          (lLineEnd == lLineStart + 1 && xiData.get(lLineStart) == '\r'))
+      {
+        return lLineStart;
+      }
+      lLineStart = lLineEnd + 1;
+    }
+  }
+
+  /**
+   * Encode a request from a game server to a player, as HttpWriter.writeAsClient.
+   */
+  static ByteBuffer[] encodeRequest(String xiHost, String xiData, String xiPlayerName)
+  {
+    ByteBuffer lContent = utf8(xiData);
+    String lHeaders = "POST / HTTP/1.0\r\n" +
+                      "Accept: text/delim\r\n" +
+                      "Host: " + xiHost + "\r\n" +
+                      "Sender: GAMESERVER\r\n" +
+                      "Receiver: " + xiPlayerName + "\r\n" +
+                      "Content-Type: text/acl\r\n" +
+                      "Content-Length: " + lContent.remaining() + "\r\n" +
+                      "\r\n";
+    return new ByteBuffer[] {ByteBuffer.wrap(lHeaders.getBytes(StandardCharsets.ISO_8859_1)),
+                             lContent};
+  }
+
+  /**
+   * Encode a player's response, as HttpWriter.writeAsServer.
+   */
+  static ByteBuffer[] encodeResponse(String xiData)
+  {
+    ByteBuffer lContent = utf8(xiData);
+    String lHeaders = "HTTP/1.0 200 OK\r\n" +
+                      "Content-type: text/acl\r\n" +
+                      "Content-length: " + lContent.remaining() + "\r\n" +
+                      "Access-Control-Allow-Origin: *\r\n" +
+                      "Access-Control-Allow-Methods: POST, GET, OPTIONS\r\n" +
+                      "Access-Control-Allow-Headers: Content-Type\r\n" +
+                      "Access-Control-Allow-Age: 86400\r\n" +
+                      "\r\n";
+    return new ByteBuffer[] {ByteBuffer.wrap(lHeaders.getBytes(StandardCharsets.ISO_8859_1)),
+                             lContent};
+  }
+
+  private static ByteBuffer utf8(String xiData)
+  {
+    return StandardCharsets.UTF_8.encode(CharBuffer.wrap(xiData));
+  }
+
+  private static int indexOf(ByteBuffer xiData, int xiFrom, byte xiByte)
+  {
+    for (int lii = xiFrom; lii < xiData.position(); lii++)
+    {
+      if (xiData.get(lii) == xiByte)
+      {
+        return lii;
+      }
+    }
+    return -1;
+  }
+
+  private static String latin1(ByteBuffer xiData, int xiStart, int xiEnd)
+  {
+    char[] lChars = new char[xiEnd - xiStart];
+    for (int lii = 0; lii < lChars.length; lii++)
+    {
+      lChars[lii] = (char)(xiData.get(xiStart + lii) & 0xFF);
+    }
+    return new String(lChars);
+  }
+
+  private static String trimCR(String xiLine)
+  {
+    return xiLine.endsWith("\r") ? xiLine.substring(0, xiLine.length() - 1) : xiLine;
+  }
+}
@@ -7,6 +7,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
 
 import junit.framework.TestCase;
@@ -70,8 +71,149 @@ public class Test_Http extends TestCase
                              "");
   }
 
+  public void testEventLoopEchos() throws Exception
+  {
+    HttpListener listener = openListener();
+    try
+    {
+      Thread echo = startEchoServer(listener, 4);
+      doEventLoopEchoCheck(listener, "Hello World", "SamplePlayer");
+      doEventLoopEchoCheck(listener, "", "");
+      doEventLoopEchoCheck(listener,
+                           "123 456 ^&!*! // 2198725 !@#$%^&*() DATA",
+                           "SamplePlayer");
+      doEventLoopEchoCheck(listener, pad("(play match (move ?x) )", 20000), "SamplePlayer");
+      echo.join();
+    }
+    finally
+    {
+      listener.close();
+    }
+  }
+
+  public void testEventLoopAgainstBlockingPeers() throws Exception
+  {
+    // A blocking client talking to a listener.
+    HttpListener listener = openListener();
+    try
+    {
+      Thread echo = startEchoServer(listener, 2);
+      Socket client = new Socket("127.0.0.1", listener.getPort());
+      HttpWriter.writeAsClient(client, "", "Test String", "SamplePlayer");
+      assertEquals("Test String", HttpReader.readAsClient(client, 5000));
+      client.close();
+
+      client = new Socket("127.0.0.1", listener.getPort());
+      writeClientGetHTTP(client, "GGP-Test: yes", "Test String");
+      assertEquals("Test String", HttpReader.readAsClient(client, 5000));
+      client.close();
+      echo.join();
+    }
+    finally
+    {
+      listener.close();
+    }
+
+    // The event loop talking to a blocking server.
+    ServerSocket ss = new ServerSocket(0);
+    HttpEventLoop.PendingResponse response =
+        HttpEventLoop.getInstance().issueRequest("127.0.0.1", ss.getLocalPort(), "SamplePlayer", "Test String", 5000);
+    Socket server = ss.accept();
+    assertEquals("Test String", HttpReader.readRequestAsServer(server));
+    HttpWriter.writeAsServer(server, "Response");
+    assertEquals("Response", response.get());
+    server.close();
+    ss.close();
+  }
+
+  public void testEventLoopTimeout() throws Exception
+  {
+    HttpListener listener = openListener();
+    try
+    {
+      HttpEventLoop.PendingResponse response =
+          HttpEventLoop.getInstance().issueRequest("127.0.0.1", listener.getPort(), "", "Test String", 200);
+      // Take the request, but never respond.
+      HttpEventLoop.Exchange exchange = listener.accept();
+      assertEquals("Test String", exchange.getRequest().mRequest);
+      try
+      {
+        response.get();
+        fail("Expected a timeout");
+      }
+      catch (SocketTimeoutException e)
+      {
+        // Expected.
+      }
+      exchange.close();
+    }
+    finally
+    {
+      listener.close();
+    }
+  }
+
   // Helper functions for running specific checks.
 
+  private void doEventLoopEchoCheck(HttpListener listener, String data, String playerName)
+      throws Exception
+  {
+    HttpEventLoop.PendingResponse response =
+        HttpEventLoop.getInstance().issueRequest("127.0.0.1", listener.getPort(), playerName, data, 5000);
+    assertEquals(data.trim(), response.get());
+  }
+
+  private HttpListener openListener()
+  {
+    int port = 13274;
+    while (true)
+    {
+      try
+      {
+        return new HttpListener(port);
+      }
+      catch (IOException e)
+      {
+        port++;
+      }
+    }
+  }
+
+  private Thread startEchoServer(final HttpListener listener, final int requests)
+  {
+    Thread echo = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          for (int i = 0; i < requests; i++)
+          {
+            HttpEventLoop.Exchange exchange = listener.accept();
+            exchange.respond(exchange.getRequest().mRequest);
+          }
+        }
+        catch (Exception e)
+        {
+          e.printStackTrace();
+        }
+      }
+    };
+    echo.start();
+    return echo;
+  }
+
+  private static String pad(String data, int length)
+  {
+    StringBuilder sb = new StringBuilder(data);
+    while (sb.length() < length)
+    {
+      sb.append(" x");
+    }
+    return sb.toString();
+  }
+
   private void doSimpleEchoCheck(SocketPair p, String data, String playerName)
       throws IOException
   {
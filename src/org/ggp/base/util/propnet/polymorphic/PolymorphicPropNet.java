@@ -111,6 +111,60 @@ public class PolymorphicPropNet
     legalInputMap = makeLegalInputMap();
   }
 
+  /**
+   * Creates a new PropNet from a list of Components whose special propositions
+   * have already been identified.  This is used when reloading a propNet that
+   * has previously been optimized, since optimization can leave propositions
+   * which are no longer recognisable from their names and connections alone
+   * (for example a base proposition whose transition has been replaced by a
+   * constant).
+   * @param theRoles
+   *          Roles of the game this propnet implements a state machine for
+   * @param theComponents
+   *          A list of Components.
+   * @param theBasePropositions
+   *          The base propositions, indexed by name
+   * @param theInputPropositions
+   *          The input propositions, indexed by name
+   * @param theLegalPropositions
+   *          The legal propositions, indexed by role
+   * @param theGoalPropositions
+   *          The goal propositions, indexed by role
+   * @param theInitProposition
+   *          The init proposition (may be null)
+   * @param theTerminalProposition
+   *          The terminal proposition
+   * @param theLegalInputMap
+   *          Mapping between input and legal propositions (in both directions)
+   * @param theComponentFactory
+   *          Factory suitable for producing new components in this propNet
+   */
+  public PolymorphicPropNet(Role[] theRoles,
+                            Set<PolymorphicComponent> theComponents,
+                            Map<GdlSentence, PolymorphicProposition> theBasePropositions,
+                            Map<GdlSentence, PolymorphicProposition> theInputPropositions,
+                            Map<Role, Set<PolymorphicProposition>> theLegalPropositions,
+                            Map<Role, Set<PolymorphicProposition>> theGoalPropositions,
+                            PolymorphicProposition theInitProposition,
+                            PolymorphicProposition theTerminalProposition,
+                            Map<PolymorphicProposition, PolymorphicProposition> theLegalInputMap,
+                            PolymorphicComponentFactory theComponentFactory)
+  {
+    componentFactory = theComponentFactory;
+    roles = theRoles;
+    components = theComponents;
+    propositions = recordPropositions();
+    basePropositions = theBasePropositions;
+    inputPropositions = theInputPropositions;
+    legalPropositions = null;
+    legalPropositionsMutable = theLegalPropositions;
+    goalPropositions = null;
+    goalPropositionsMutable = theGoalPropositions;
+    initProposition = theInitProposition;
+    terminalProposition = theTerminalProposition;
+    legalInputMap = theLegalInputMap;
+  }
+
   private Map<PolymorphicProposition, PolymorphicProposition> makeLegalInputMap()
   {
     Map<PolymorphicProposition, PolymorphicProposition> result = new HashMap<>();
@@ -15,6 +15,10 @@ import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -108,7 +112,7 @@ public class OptimizingPolymorphicPropNetFactory
   static final private GdlProposition TEMP      = GdlPool.getProposition(GdlPool.getConstant("TEMP"));
 
   /**
-   * @return a PropNet for the game with the given description.
+   * @return a PropNet for the game with the given description, using all available processors.
    *
    * @param xiDescription      - the GDL description of the game.
    * @param xiComponentFactory - a factory for creating individual propnet components.
@@ -119,6 +123,29 @@ public class OptimizingPolymorphicPropNetFactory
   public static PolymorphicPropNet create(List<Gdl> xiDescription,
                                           PolymorphicComponentFactory xiComponentFactory)
       throws InterruptedException
+  {
+    return create(xiDescription, xiComponentFactory, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @return a PropNet for the game with the given description.
+   *
+   * Sentence forms that don't depend on each other are instantiated concurrently.  The ground rules for each are
+   * enumerated in parallel, but the resulting components are always wired up on the calling thread in topological
+   * order, so the PropNet is the same regardless of the number of threads.
+   *
+   * @param xiDescription      - the GDL description of the game.
+   * @param xiComponentFactory - a factory for creating individual propnet components.
+   * @param xiNumThreads       - the number of threads to use.  With 1, the PropNet is built entirely on the calling
+   *                             thread.
+   *
+   * @throws InterruptedException
+   *           if the thread is interrupted during PropNet creation.
+   */
+  public static PolymorphicPropNet create(List<Gdl> xiDescription,
+                                          PolymorphicComponentFactory xiComponentFactory,
+                                          int xiNumThreads)
+      throws InterruptedException
   {
     LOGGER.debug("Building propnet");
 
@@ -177,65 +204,124 @@ public class OptimizingPolymorphicPropNetFactory
     PolymorphicConstant falseComponent = xiComponentFactory.createConstant(-1, false);
     Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<>();
     Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<>();
-    for (SentenceForm form : topologicalOrdering)
+
+    // Runs of forms that don't depend on each other are collected into a batch to be instantiated together.  Constant
+    // forms never need to interrupt a batch, since they're fully determined by the constant checker.
+    ForkJoinPool pool = (xiNumThreads > 1) ? new ForkJoinPool(xiNumThreads) : null;
+    List<SentenceForm> batch = new ArrayList<>();
+    try
     {
-      ConcurrencyUtils.checkForInterruption();
+      for (SentenceForm form : topologicalOrdering)
+      {
+        ConcurrencyUtils.checkForInterruption();
 
-      LOGGER.trace("Adding sentence form: " + form);
+        LOGGER.trace("Adding sentence form: " + form);
 
-      if (constantChecker.isConstantForm(form))
-      {
-        // We only add sentence in constant form if they are important.
-        if (form.getName().equals(GdlPool.LEGAL) ||
-            form.getName().equals(GdlPool.GOAL) ||
-            form.getName().equals(GdlPool.INIT) ||
-            form.getName().equals(GdlPool.NEXT) ||
-            form.getName().equals(GdlPool.TERMINAL))
+        if (constantChecker.isConstantForm(form))
+        {
+          // We only add sentence in constant form if they are important.
+          if (form.getName().equals(GdlPool.LEGAL) ||
+              form.getName().equals(GdlPool.GOAL) ||
+              form.getName().equals(GdlPool.INIT) ||
+              form.getName().equals(GdlPool.NEXT) ||
+              form.getName().equals(GdlPool.TERMINAL))
+          {
+            for (GdlSentence trueSentence : constantChecker.getTrueSentences(form))
+            {
+              // Create the proposition and wire it up to the 'true' constant.
+              PolymorphicProposition trueProp = xiComponentFactory.createProposition(-1, trueSentence);
+              trueProp.addInput(trueComponent);
+              trueComponent.addOutput(trueProp);
+              components.put(trueSentence, trueComponent);
+            }
+          }
+
+          addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+          addFormToCompletedValues(form,
+                                   completedSentenceFormValues,
+                                   constantChecker);
+        }
+        else if (pool != null && isBatchable(form, dependencyGraph))
         {
-          for (GdlSentence trueSentence : constantChecker.getTrueSentences(form))
+          if (!Collections.disjoint(dependencyGraph.get(form), batch))
           {
-            // Create the proposition and wire it up to the 'true' constant.
-            PolymorphicProposition trueProp = xiComponentFactory.createProposition(-1, trueSentence);
-            trueProp.addInput(trueComponent);
-            trueComponent.addOutput(trueProp);
-            components.put(trueSentence, trueComponent);
+            addSentenceForms(batch,
+                             pool,
+                             model,
+                             components,
+                             negations,
+                             trueComponent,
+                             falseComponent,
+                             functionInfoMap,
+                             constantChecker,
+                             completedSentenceFormValues,
+                             xiComponentFactory);
+            batch.clear();
           }
+          batch.add(form);
+        }
+        else
+        {
+          addSentenceForms(batch,
+                           pool,
+                           model,
+                           components,
+                           negations,
+                           trueComponent,
+                           falseComponent,
+                           functionInfoMap,
+                           constantChecker,
+                           completedSentenceFormValues,
+                           xiComponentFactory);
+          batch.clear();
+
+          //TODO: Adjust "recursive forms" appropriately
+          //Add a temporary sentence form thingy? ...
+          Map<GdlSentence, PolymorphicComponent> temporaryComponents = new HashMap<>();
+          Map<GdlSentence, PolymorphicComponent> temporaryNegations = new HashMap<>();
+          addSentenceForm(form,
+                          model,
+                          components,
+                          negations,
+                          trueComponent,
+                          falseComponent,
+                          usingBase,
+                          usingInput,
+                          Collections.singleton(form),
+                          temporaryComponents,
+                          temporaryNegations,
+                          functionInfoMap,
+                          constantChecker,
+                          completedSentenceFormValues,
+                          xiComponentFactory);
+          //TODO: Pass these over groups of multiple sentence forms
+          processTemporaryComponents(temporaryComponents,
+                                     temporaryNegations,
+                                     components,
+                                     negations,
+                                     trueComponent,
+                                     falseComponent);
+          addFormToCompletedValues(form, completedSentenceFormValues, components);
         }
-
-        addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-        addFormToCompletedValues(form,
-                                 completedSentenceFormValues,
-                                 constantChecker);
       }
-      else
+
+      addSentenceForms(batch,
+                       pool,
+                       model,
+                       components,
+                       negations,
+                       trueComponent,
+                       falseComponent,
+                       functionInfoMap,
+                       constantChecker,
+                       completedSentenceFormValues,
+                       xiComponentFactory);
+    }
+    finally
+    {
+      if (pool != null)
       {
-        //TODO: Adjust "recursive forms" appropriately
-        //Add a temporary sentence form thingy? ...
-        Map<GdlSentence, PolymorphicComponent> temporaryComponents = new HashMap<>();
-        Map<GdlSentence, PolymorphicComponent> temporaryNegations = new HashMap<>();
-        addSentenceForm(form,
-                        model,
-                        components,
-                        negations,
-                        trueComponent,
-                        falseComponent,
-                        usingBase,
-                        usingInput,
-                        Collections.singleton(form),
-                        temporaryComponents,
-                        temporaryNegations,
-                        functionInfoMap,
-                        constantChecker,
-                        completedSentenceFormValues,
-                        xiComponentFactory);
-        //TODO: Pass these over groups of multiple sentence forms
-        processTemporaryComponents(temporaryComponents,
-                                   temporaryNegations,
-                                   components,
-                                   negations,
-                                   trueComponent,
-                                   falseComponent);
-        addFormToCompletedValues(form, completedSentenceFormValues, components);
+        pool.shutdownNow();
       }
     }
 
@@ -1051,6 +1137,145 @@ public class OptimizingPolymorphicPropNetFactory
     return ordering;
   }
 
+  /**
+   * Whether a (non-constant) sentence form can be instantiated in a batch with other forms that it doesn't depend on.
+   * This excludes recursive forms, whose instantiation reads and modifies their own partially built components, and
+   * true/does forms, which are trivial to build anyway.
+   */
+  private static boolean isBatchable(SentenceForm form,
+                                     Multimap<SentenceForm, SentenceForm> dependencyGraph)
+  {
+    return !form.getName().equals(GdlPool.TRUE) &&
+           !form.getName().equals(GdlPool.DOES) &&
+           !dependencyGraph.containsEntry(form, form);
+  }
+
+  /**
+   * Add a batch of sentence forms, none of which depends on another.
+   *
+   * The ground rules for every form are enumerated concurrently.  That only reads the shared maps and components,
+   * none of which are modified until all the enumerations are complete.  The components are then created and wired up
+   * one form at a time, in the original order, so the result is exactly as if the forms had been added sequentially.
+   */
+  private static void addSentenceForms(List<SentenceForm> forms,
+                                       ForkJoinPool pool,
+                                       final SentenceDomainModel model,
+                                       final Map<GdlSentence, PolymorphicComponent> components,
+                                       final Map<GdlSentence, PolymorphicComponent> negations,
+                                       PolymorphicConstant trueComponent,
+                                       final PolymorphicConstant falseComponent,
+                                       final Map<SentenceForm, FunctionInfo> functionInfoMap,
+                                       final ConstantChecker constantChecker,
+                                       final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+                                       final PolymorphicComponentFactory componentFactory)
+      throws InterruptedException
+  {
+    List<Future<SentenceFormPlan>> plans = new ArrayList<>(forms.size());
+    if (forms.size() > 1)
+    {
+      for (final SentenceForm form : forms)
+      {
+        plans.add(pool.submit(new Callable<SentenceFormPlan>()
+        {
+          @Override
+          public SentenceFormPlan call() throws InterruptedException
+          {
+            return planSentenceForm(form,
+                                    model,
+                                    components,
+                                    negations,
+                                    falseComponent,
+                                    Collections.singleton(form),
+                                    new HashMap<GdlSentence, PolymorphicComponent>(),
+                                    new HashMap<GdlSentence, PolymorphicComponent>(),
+                                    functionInfoMap,
+                                    constantChecker,
+                                    completedSentenceFormValues,
+                                    componentFactory);
+          }
+        }));
+      }
+    }
+
+    for (int i = 0; i < forms.size(); i++)
+    {
+      SentenceForm form = forms.get(i);
+      SentenceFormPlan plan;
+      if (forms.size() > 1)
+      {
+        plan = getPlan(plans.get(i));
+      }
+      else
+      {
+        plan = planSentenceForm(form,
+                                model,
+                                components,
+                                negations,
+                                falseComponent,
+                                Collections.singleton(form),
+                                new HashMap<GdlSentence, PolymorphicComponent>(),
+                                new HashMap<GdlSentence, PolymorphicComponent>(),
+                                functionInfoMap,
+                                constantChecker,
+                                completedSentenceFormValues,
+                                componentFactory);
+      }
+
+      addAlwaysTrueSentences(form, model, components, negations, trueComponent, falseComponent, componentFactory);
+      applySentenceFormPlan(form,
+                            plan,
+                            model,
+                            components,
+                            negations,
+                            trueComponent,
+                            falseComponent,
+                            componentFactory);
+      addFormToCompletedValues(form, completedSentenceFormValues, components);
+    }
+  }
+
+  private static SentenceFormPlan getPlan(Future<SentenceFormPlan> future) throws InterruptedException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof InterruptedException)
+        throw (InterruptedException)cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * The ground instances of a sentence form's rules, as enumerated by planSentenceForm().  Each instance has a head
+   * sentence and the components to be and-ed together for its body.  Negations that might not exist yet are held as
+   * PendingNegations until the plan is applied.
+   */
+  private static class SentenceFormPlan
+  {
+    final List<GdlSentence> heads  = new ArrayList<>();
+    final List<Object[]>    bodies = new ArrayList<>();
+  }
+
+  private static class PendingNegation
+  {
+    final GdlSentence          sentence;
+    final PolymorphicComponent positive;
+
+    PendingNegation(GdlSentence sentence, PolymorphicComponent positive)
+    {
+      this.sentence = sentence;
+      this.positive = positive;
+    }
+  }
+
   private static void addSentenceForm(SentenceForm form,
                                       SentenceDomainModel model,
                                       Map<GdlSentence, PolymorphicComponent> components,
@@ -1074,29 +1299,7 @@ public class OptimizingPolymorphicPropNetFactory
     //We also try to optimize as we go, which means possibly removing the
     //proposition if it isn't actually possible, or replacing it with
     //true/false if it's a constant.
-    Set<GdlSentence> alwaysTrueSentences = model
-        .getSentencesListedAsTrue(form);
-    Set<GdlRule> rules = model.getRules(form);
-
-    for (GdlSentence alwaysTrueSentence : alwaysTrueSentences)
-    {
-      //We add the sentence as a constant
-      if (alwaysTrueSentence.getName().equals(GdlPool.LEGAL) ||
-          alwaysTrueSentence.getName().equals(GdlPool.NEXT) ||
-          alwaysTrueSentence.getName().equals(GdlPool.GOAL))
-      {
-        PolymorphicProposition prop = componentFactory.createProposition(-1, alwaysTrueSentence);
-        //Attach to true
-        trueComponent.addOutput(prop);
-        prop.addInput(trueComponent);
-        //Still want the same components;
-        //we just don't want this to be anonymized
-      }
-      //Assign as true
-      components.put(alwaysTrueSentence, trueComponent);
-      negations.put(alwaysTrueSentence, falseComponent);
-      continue;
-    }
+    addAlwaysTrueSentences(form, model, components, negations, trueComponent, falseComponent, componentFactory);
 
     //For does/true, make nodes based on input/base, if available
     if (usingInput && form.getName().equals(GdlPool.DOES))
@@ -1126,7 +1329,83 @@ public class OptimizingPolymorphicPropNetFactory
       return;
     }
 
-    Map<GdlSentence, Set<PolymorphicComponent>> inputsToOr = new HashMap<>();
+    SentenceFormPlan plan = planSentenceForm(form,
+                                             model,
+                                             components,
+                                             negations,
+                                             falseComponent,
+                                             recursionForms,
+                                             temporaryComponents,
+                                             temporaryNegations,
+                                             functionInfoMap,
+                                             constantChecker,
+                                             completedSentenceFormValues,
+                                             componentFactory);
+    applySentenceFormPlan(form,
+                          plan,
+                          model,
+                          components,
+                          negations,
+                          trueComponent,
+                          falseComponent,
+                          componentFactory);
+  }
+
+  private static void addAlwaysTrueSentences(SentenceForm form,
+                                             SentenceDomainModel model,
+                                             Map<GdlSentence, PolymorphicComponent> components,
+                                             Map<GdlSentence, PolymorphicComponent> negations,
+                                             PolymorphicConstant trueComponent,
+                                             PolymorphicConstant falseComponent,
+                                             PolymorphicComponentFactory componentFactory)
+  {
+    Set<GdlSentence> alwaysTrueSentences = model
+        .getSentencesListedAsTrue(form);
+
+    for (GdlSentence alwaysTrueSentence : alwaysTrueSentences)
+    {
+      //We add the sentence as a constant
+      if (alwaysTrueSentence.getName().equals(GdlPool.LEGAL) ||
+          alwaysTrueSentence.getName().equals(GdlPool.NEXT) ||
+          alwaysTrueSentence.getName().equals(GdlPool.GOAL))
+      {
+        PolymorphicProposition prop = componentFactory.createProposition(-1, alwaysTrueSentence);
+        //Attach to true
+        trueComponent.addOutput(prop);
+        prop.addInput(trueComponent);
+        //Still want the same components;
+        //we just don't want this to be anonymized
+      }
+      //Assign as true
+      components.put(alwaysTrueSentence, trueComponent);
+      negations.put(alwaysTrueSentence, falseComponent);
+      continue;
+    }
+  }
+
+  /**
+   * Enumerate the ground instances of a sentence form's rules.
+   *
+   * Apart from temporary components for recursive forms, this doesn't create or modify any components, so it's safe
+   * to plan several non-recursive forms concurrently provided that nothing else is modifying the propnet.
+   */
+  private static SentenceFormPlan planSentenceForm(SentenceForm form,
+                                                   SentenceDomainModel model,
+                                                   Map<GdlSentence, PolymorphicComponent> components,
+                                                   Map<GdlSentence, PolymorphicComponent> negations,
+                                                   PolymorphicConstant falseComponent,
+                                                   Set<SentenceForm> recursionForms,
+                                                   Map<GdlSentence, PolymorphicComponent> temporaryComponents,
+                                                   Map<GdlSentence, PolymorphicComponent> temporaryNegations,
+                                                   Map<SentenceForm, FunctionInfo> functionInfoMap,
+                                                   ConstantChecker constantChecker,
+                                                   Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+                                                   PolymorphicComponentFactory componentFactory)
+      throws InterruptedException
+  {
+    SentenceFormPlan plan = new SentenceFormPlan();
+    Set<GdlRule> rules = model.getRules(form);
+
     for (GdlRule rule : rules)
     {
       Assignments assignments = AssignmentsFactory
@@ -1158,7 +1437,7 @@ public class OptimizingPolymorphicPropNetFactory
             .getHead(), assignment);
 
         //Now we go through the conjuncts as before, but we wait to hook them up.
-        List<PolymorphicComponent> componentsToConnect = new ArrayList<>(rule
+        List<Object> componentsToConnect = new ArrayList<>(rule
             .arity());
         for (GdlLiteral literal : rule.getBody())
         {
@@ -1292,21 +1571,10 @@ public class OptimizingPolymorphicPropNetFactory
                 continue; //to the next conjunct
               }
 
-              //Check if we're sharing a component with another sentence with a negation
-              //(i.e. look for "nots" in our outputs and use those instead)
-              PolymorphicNot existingNotOutput = getNotOutput(positive);
-              if (existingNotOutput != null)
-              {
-                componentsToConnect.add(existingNotOutput);
-                negations.put(transformed, existingNotOutput);
-                continue; //to the next conjunct
-              }
-
-              PolymorphicNot not = componentFactory.createNot(-1);
-              not.addInput(positive);
-              positive.addOutput(not);
-              negations.put(transformed, not);
-              conj = not;
+              //The "not" is found or created when the plan is applied, since
+              //another form may need the same one
+              componentsToConnect.add(new PendingNegation(transformed, positive));
+              continue; //to the next conjunct
             }
             componentsToConnect.add(conj);
           }
@@ -1321,27 +1589,81 @@ public class OptimizingPolymorphicPropNetFactory
         }
         if (!componentsToConnect.contains(null))
         {
-          //Connect all the components
-          PolymorphicProposition andComponent = componentFactory
-              .createProposition(-1, TEMP);
-
-          andify(componentsToConnect,
-                 andComponent,
-                 trueComponent,
-                 componentFactory);
-          if (!isThisConstant(andComponent, falseComponent))
+          plan.heads.add(sentence);
+          plan.bodies.add(componentsToConnect.toArray());
+
+          //We'll want to make sure at least one of the non-constant
+          //components is changing
+          if (preventDuplicatesFromConstants)
           {
-            if (!inputsToOr.containsKey(sentence))
-              inputsToOr.put(sentence, new HashSet<PolymorphicComponent>());
-            inputsToOr.get(sentence).add(andComponent);
-            //We'll want to make sure at least one of the non-constant
-            //components is changing
-            if (preventDuplicatesFromConstants)
+            asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
+          }
+        }
+      }
+    }
+
+    return plan;
+  }
+
+  private static void applySentenceFormPlan(SentenceForm form,
+                                            SentenceFormPlan plan,
+                                            SentenceDomainModel model,
+                                            Map<GdlSentence, PolymorphicComponent> components,
+                                            Map<GdlSentence, PolymorphicComponent> negations,
+                                            PolymorphicConstant trueComponent,
+                                            PolymorphicConstant falseComponent,
+                                            PolymorphicComponentFactory componentFactory)
+      throws InterruptedException
+  {
+    Map<GdlSentence, Set<PolymorphicComponent>> inputsToOr = new HashMap<>();
+    for (int i = 0; i < plan.heads.size(); i++)
+    {
+      ConcurrencyUtils.checkForInterruption();
+
+      GdlSentence sentence = plan.heads.get(i);
+      Object[] body = plan.bodies.get(i);
+      List<PolymorphicComponent> componentsToConnect = new ArrayList<>(body.length);
+      for (Object conjunct : body)
+      {
+        if (conjunct instanceof PendingNegation)
+        {
+          PendingNegation pending = (PendingNegation)conjunct;
+          PolymorphicComponent conj = negations.get(pending.sentence);
+          if (conj == null)
+          {
+            //Check if we're sharing a component with another sentence with a negation
+            //(i.e. look for "nots" in our outputs and use those instead)
+            conj = getNotOutput(pending.positive);
+            if (conj == null)
             {
-              asnItr.changeOneInNext(varsInLiveConjuncts, assignment);
+              PolymorphicNot not = componentFactory.createNot(-1);
+              not.addInput(pending.positive);
+              pending.positive.addOutput(not);
+              conj = not;
             }
+            negations.put(pending.sentence, conj);
           }
+          componentsToConnect.add(conj);
         }
+        else
+        {
+          componentsToConnect.add((PolymorphicComponent)conjunct);
+        }
+      }
+
+      //Connect all the components
+      PolymorphicProposition andComponent = componentFactory
+          .createProposition(-1, TEMP);
+
+      andify(componentsToConnect,
+             andComponent,
+             trueComponent,
+             componentFactory);
+      if (!isThisConstant(andComponent, falseComponent))
+      {
+        if (!inputsToOr.containsKey(sentence))
+          inputsToOr.put(sentence, new HashSet<PolymorphicComponent>());
+        inputsToOr.get(sentence).add(andComponent);
       }
     }
 
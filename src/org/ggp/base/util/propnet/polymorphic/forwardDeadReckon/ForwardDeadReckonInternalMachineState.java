@@ -105,6 +105,12 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   private boolean                                  hashCached = false;
   private int                                      cachedHashCode;
 
+  //  Zobrist hash of the base propositions in the state (pseudo-elements are excluded).  This is
+  //  maintained incrementally by single-proposition updates and XORs, and recalculated on demand
+  //  after any other bulk operation
+  private long                                     zobristHash = 0;
+  private boolean                                  zobristHashValid = true;
+
   /**
    * Whether the state is one handled by the X-split of the state machine (else the O split)
    */
@@ -167,7 +173,10 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
    */
   public void add(ForwardDeadReckonPropositionInfo info)
   {
-    contents.fastSet(info.index);
+    if ( !contents.getAndSet(info.index) )
+    {
+      toggleZobrist(info.index);
+    }
 
     hashCached = false;
   }
@@ -176,7 +185,10 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   public void add(int index)
   {
     assert(index < infoSet.length);
-    contents.fastSet(index);
+    if ( !contents.getAndSet(index) )
+    {
+      toggleZobrist(index);
+    }
 
     //hashCached = false;
   }
@@ -207,6 +219,8 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   {
     contents.xor(other.contents);
 
+    zobristHash ^= other.zobristHash;
+    zobristHashValid &= other.zobristHashValid;
     hashCached = false;
   }
 
@@ -217,6 +231,7 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   {
     contents.flip(0, infoSet.length);
 
+    zobristHashValid = false;
     hashCached = false;
   }
 
@@ -228,6 +243,7 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   {
     contents.or(other.contents);
 
+    zobristHashValid = false;
     hashCached = false;
   }
 
@@ -239,6 +255,7 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   {
     contents.and(other.contents);
 
+    zobristHashValid = false;
     hashCached = false;
   }
 
@@ -307,10 +324,82 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
       heuristicData.putAll(other.heuristicData);
     }
 
+    //  Only the base propositions are copied, which are exactly those the Zobrist hash covers
+    zobristHash = other.zobristHash;
+    zobristHashValid = other.zobristHashValid;
+
     hashCached = false;
     cachedHashCode = other.cachedHashCode;
   }
 
+  /**
+   * @return the number of words needed to save the base propositions of a state in packed form (see
+   * {@link #saveBaseProps}).
+   */
+  public int getNumBasePropWords()
+  {
+    return contents.getNumWords() - (firstBasePropIndex >> 6);
+  }
+
+  /**
+   * Save the base propositions of this state in packed form - the words of the bitset from the one holding the first
+   * base proposition onwards, with the pseudo-elements masked out.
+   *
+   * @param xoWords - array (of at least {@link #getNumBasePropWords()} words) to save them in.
+   */
+  public void saveBaseProps(long[] xoWords)
+  {
+    int firstIndex = (firstBasePropIndex >> 6);
+    long[] bits = contents.getBits();
+
+    System.arraycopy(bits, firstIndex, xoWords, 0, contents.getNumWords() - firstIndex);
+    xoWords[0] &= ~(((long)1 << (firstBasePropIndex & 0x3F)) - 1);
+  }
+
+  /**
+   * Replace the contents of this state with base propositions saved by {@link #saveBaseProps} - the result is the
+   * same as clearing the state and copying in the one that was saved.  Any attached heuristic data is dropped.
+   *
+   * @param xiWords       - the saved propositions.
+   * @param xiZobristHash - the Zobrist hash of the saved state.
+   * @param xiIsXState    - whether the saved state was an X-state.
+   */
+  public void restoreBaseProps(long[] xiWords, long xiZobristHash, boolean xiIsXState)
+  {
+    int firstIndex = (firstBasePropIndex >> 6);
+    long[] bits = contents.getBits();
+
+    for (int i = 0; i < firstIndex; i++)
+    {
+      bits[i] = 0;
+    }
+    System.arraycopy(xiWords, 0, bits, firstIndex, contents.getNumWords() - firstIndex);
+
+    isXState = xiIsXState;
+
+    if (heuristicData != null)
+    {
+      heuristicData.clear();
+    }
+
+    zobristHash = xiZobristHash;
+    zobristHashValid = true;
+    hashCached = false;
+  }
+
+  /**
+   * Flip a base proposition (adding it if it's not present, otherwise removing it)
+   * @param index index of the base proposition
+   */
+  public void flipBaseProp(int index)
+  {
+    assert(index >= firstBasePropIndex);
+    contents.fastFlip(index);
+    toggleZobrist(index);
+
+    hashCached = false;
+  }
+
   /**
    * Retrieve a (crude) measure of the distance between two states in state space
    * @param other State to compare with
@@ -356,6 +445,8 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
 
     isXState = false;
 
+    zobristHash = 0;
+    zobristHashValid = true;
     hashCached = false;
   }
 
@@ -365,7 +456,11 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
    */
   public void remove(ForwardDeadReckonPropositionInfo info)
   {
-    contents.fastClear(info.index);
+    if ( contents.fastGet(info.index) )
+    {
+      contents.fastClear(info.index);
+      toggleZobrist(info.index);
+    }
 
     hashCached = false;
   }
@@ -373,7 +468,56 @@ public class ForwardDeadReckonInternalMachineState implements ForwardDeadReckonC
   @Override
   public void remove(int index)
   {
-    contents.fastClear(index);
+    if ( contents.fastGet(index) )
+    {
+      contents.fastClear(index);
+      toggleZobrist(index);
+    }
+  }
+
+  private void toggleZobrist(int index)
+  {
+    if ( index >= firstBasePropIndex )
+    {
+      zobristHash ^= zobristKey(index);
+    }
+  }
+
+  /**
+   * The Zobrist key for a proposition.  Rather than holding a table of random keys we use a
+   * strong bit mixer (the SplitMix64 finalizer) on the proposition's index, which gives keys of
+   * equivalent quality and is cheap enough to compute on every update
+   */
+  private static long zobristKey(int index)
+  {
+    long z = (index + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Retrieve the 64-bit Zobrist hash of the base propositions in this state.  Equal states have
+   * equal Zobrist hashes, but states differing only in their pseudo-elements (goal and terminal
+   * triggers) also do, as (with low probability) may any other pair of states
+   * @return Zobrist hash of the state
+   */
+  public long getZobristHash()
+  {
+    if ( !zobristHashValid )
+    {
+      long hash = 0;
+
+      for (int i = contents.nextSetBit(firstBasePropIndex); i >= 0; i = contents.nextSetBit(i + 1))
+      {
+        hash ^= zobristKey(i);
+      }
+
+      zobristHash = hash;
+      zobristHashValid = true;
+    }
+
+    return zobristHash;
   }
 
   /**
@@ -2,6 +2,7 @@
 package org.ggp.base.util.propnet.polymorphic.forwardDeadReckon;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -30,27 +31,25 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
   private ForwardDeadReckonLegalMoveSetCollection[] preAllocatedCollections;
 
   /**
-   * The linkage array contains backward and forward pointers in the high and low words for
-   * each legal move.  A value other than 0xFFFF in the prev-word can be used an a O(1) test
-   * for presence of that move in the set, and the list can be enumerated to iterate over
-   * the set legals
+   * For each role the (master list indexes of the) currently legal moves, densely packed
+   * into the first numActive[role] entries.  The always-legal moves occupy the first
+   * numAlwaysActive[role] entries and are never moved, so clearing the set only has to
+   * touch the moves that have become legal since.  Because the propNet notifies us only
+   * of legal propositions that actually change state, each transition updates the set
+   * in time proportional to the number of flipped legals, and the dense packing allows
+   * allocation-free iteration and O(1) selection of the n'th (or a random) legal move
    */
-  final int[][]                                  linkage;
-  private static final int                       LINKAGE_MASK_NEXT = 0xFFFF;
-  private static final int                       LINKAGE_MASK_PREV = 0xFFFF0000;
-  private static final int                       PREV_SHIFT = 16;
+  final short[][]                                members;
   /**
-   * For each role, the index of the first active move
+   * For each role, the position of each move (by master list index) in members[role],
+   * or NOT_PRESENT if it is not currently legal.  Provides an O(1) presence test, and
+   * O(1) removal (by swapping the last active member into the removed move's slot)
    */
-  final short[]                                  firstActive;
-  private final short[]                          lastImmutableActive;
-  private final short[]                          lastActive;
+  private final short[][]                        positions;
   private final short[]                          numAlwaysActive;
   private final short[]                          numActive;
 
-  private static final short                     INVALID_INDEX = -1;
-  private static final int                       INVALID_PREV = 0xFFFF0000;
-  private static final int                       SENTINEL_PREV = 0xFFFE0000;
+  private static final short                     NOT_PRESENT = -1;
 
   private final Random                         rand = new Random();
 
@@ -72,22 +71,19 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
 
     void reset()
     {
-      index = parent.firstActive[roleIndex];
+      index = 0;
     }
 
     @Override
     public boolean hasNext()
     {
-      return ((index & LINKAGE_MASK_NEXT) != 0xFFFF);
+      return (index < parent.numActive[roleIndex]);
     }
 
     @Override
     public ForwardDeadReckonLegalMoveInfo next()
     {
-      ForwardDeadReckonLegalMoveInfo result = parent.masterListAsArray[index];
-
-      index = parent.linkage[roleIndex][index] & LINKAGE_MASK_NEXT;
-      return result;
+      return parent.masterListAsArray[parent.members[roleIndex][index++]];
     }
 
     @Override
@@ -240,43 +236,28 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
     preAllocatedCollections = new ForwardDeadReckonLegalMoveSetCollection[roles.length];
     numActive = new short[roles.length];
     numAlwaysActive = new short[roles.length];
-    linkage = new int[roles.length][];
-    firstActive = new short[roles.length];
-    lastImmutableActive = new short[roles.length];
-    lastActive = new short[roles.length];
+    members = new short[roles.length][];
+    positions = new short[roles.length][];
 
     for (int i = 0; i < roles.length; i++)
     {
       preAllocatedCollections[i] = new ForwardDeadReckonLegalMoveSetCollection(this, i);
       if ( masterListAsArray != null )
       {
-        linkage[i] = new int[masterListAsArray.length];
+        members[i] = new short[masterListAsArray.length];
+        positions[i] = new short[masterListAsArray.length];
 
-        for(int j = 0; j < masterListAsArray.length; j++)
-        {
-          linkage[i][j] = INVALID_PREV;
-        }
-      }
-      if ( master.lastImmutableActive[i] >= 0 )
-      {
-        firstActive[i] = master.firstActive[i];
-        lastActive[i] = master.lastImmutableActive[i];
+        Arrays.fill(positions[i], NOT_PRESENT);
 
-        for(int index = master.firstActive[i]; index >= 0; index = master.linkage[i][index] & LINKAGE_MASK_NEXT)
+        //  Inherit the always-legal moves from the master
+        for(int j = 0; j < master.numAlwaysActive[i]; j++)
         {
-          linkage[i][index] = master.linkage[i][index];
-          if ( index == lastImmutableActive[i] )
-          {
-            break;
-          }
+          short index = master.members[i][j];
+
+          members[i][j] = index;
+          positions[i][index] = (short)j;
         }
       }
-      else
-      {
-        firstActive[i] = INVALID_INDEX;
-        lastActive[i] = INVALID_INDEX;
-      }
-      lastImmutableActive[i] = master.lastImmutableActive[i];
       numActive[i] = master.numAlwaysActive[i];
       numAlwaysActive[i] = master.numAlwaysActive[i];
     }
@@ -297,18 +278,13 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
     preAllocatedCollections = new ForwardDeadReckonLegalMoveSetCollection[roles.length];
     numActive = new short[roles.length];
     numAlwaysActive = new short[roles.length];
-    linkage = new int[roles.length][];
-    firstActive = new short[roles.length];
-    lastImmutableActive = new short[roles.length];
-    lastActive = new short[roles.length];
+    members = new short[roles.length][];
+    positions = new short[roles.length][];
 
     int i = 0;
     for (Role role : theRoles)
     {
       preAllocatedCollections[i] = new ForwardDeadReckonLegalMoveSetCollection(this, i);
-      firstActive[i] = -1;
-      lastActive[i] = -1;
-      lastImmutableActive[i] = -1;
       this.roles[i++] = role;
     }
   }
@@ -325,12 +301,10 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
 
     for (int i = 0; i < roles.length; i++)
     {
-      linkage[i] = new int[masterListAsArray.length];
+      members[i] = new short[masterListAsArray.length];
+      positions[i] = new short[masterListAsArray.length];
 
-      for(int j = 0; j < masterListAsArray.length; j++)
-      {
-        linkage[i][j] = INVALID_PREV;
-      }
+      Arrays.fill(positions[i], NOT_PRESENT);
 
       for(ForwardDeadReckonLegalMoveInfo info : alwaysLegalMoves)
       {
@@ -340,7 +314,6 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
         }
       }
 
-      lastImmutableActive[i] = lastActive[i];
       numAlwaysActive[i] = numActive[i];
     }
 
@@ -372,8 +345,9 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
 
       sb.append("( ");
 
-      for(int index = firstActive[roleIndex]; (index & LINKAGE_MASK_NEXT) != 0xFFFF; index = linkage[roleIndex][index] & LINKAGE_MASK_NEXT)
+      for(int position = 0; position < numActive[roleIndex]; position++)
       {
+        int index = members[roleIndex][position];
         ForwardDeadReckonLegalMoveInfo info = masterListAsArray[index];
 
         assert(info.mRoleIndex == roleIndex);
@@ -406,24 +380,15 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
 
     for(int i = 0; i < roles.length; i++)
     {
-      if ( lastActive[i] >= 0 && lastActive[i] != lastImmutableActive[i] )
+      short[] membersForRole = members[i];
+      short[] positionsForRole = positions[i];
+
+      for(int position = numAlwaysActive[i]; position < numActive[i]; position++)
       {
-        int index = (lastImmutableActive[i] >= 0 ? (linkage[i][lastImmutableActive[i]] & LINKAGE_MASK_NEXT) : firstActive[i]);
-        do
-        {
-          int nextIndex = linkage[i][index] & LINKAGE_MASK_NEXT;
-          linkage[i][index] = INVALID_PREV;
-          index = nextIndex;
-        } while((index & LINKAGE_MASK_NEXT) != 0xFFFF);
+        positionsForRole[membersForRole[position]] = NOT_PRESENT;
       }
 
-      lastActive[i] = lastImmutableActive[i];
       numActive[i] = numAlwaysActive[i];
-
-      if ( lastActive[i] == INVALID_INDEX )
-      {
-        firstActive[i] = INVALID_INDEX;
-      }
     }
 
     assert(valid());
@@ -440,16 +405,20 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
     for(int i = 0; i < roles.length; i++)
     {
       assert(numAlwaysActive[i] == source.numAlwaysActive[i]);
-      assert(lastImmutableActive[i] == source.lastImmutableActive[i]);
 
-      numActive[i] = source.numActive[i];
-      firstActive[i] = source.firstActive[i];
-      lastActive[i] = source.lastActive[i];
+      short[] membersForRole = members[i];
+      short[] positionsForRole = positions[i];
+      short[] sourceMembersForRole = source.members[i];
 
-      for(int index = source.firstActive[i]; (index & LINKAGE_MASK_NEXT) != 0xFFFF; index = source.linkage[i][index] & LINKAGE_MASK_NEXT)
+      for(int position = numAlwaysActive[i]; position < source.numActive[i]; position++)
       {
-        linkage[i][index] = source.linkage[i][index];
+        short index = sourceMembersForRole[position];
+
+        membersForRole[position] = index;
+        positionsForRole[index] = (short)position;
       }
+
+      numActive[i] = source.numActive[i];
     }
 
     assert(valid());
@@ -512,31 +481,14 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
 
     int roleIndex = info.mRoleIndex;
     short index = (short)info.mMasterIndex;
-    int[] linkageForRole = linkage[roleIndex];
+    short[] positionsForRole = positions[roleIndex];
 
-    if ( linkageForRole[index] == INVALID_PREV )
+    if ( positionsForRole[index] == NOT_PRESENT )
     {
-      short lastActiveIndex = lastActive[roleIndex];
-
-      if ( lastActiveIndex >= 0 )
-      {
-        linkageForRole[index] = (lastActiveIndex << PREV_SHIFT) | 0xFFFF;
-        linkageForRole[lastActiveIndex] = (linkageForRole[lastActiveIndex] & LINKAGE_MASK_PREV) | index;
-      }
-      else
-      {
-        //  Set a negative prev distinguished from INVALID_INDEX so we can use
-        //  a non-INVALID_INDEX value for prev as a O(1) contains check
-        linkageForRole[index] = SENTINEL_PREV | 0xFFFF;
-      }
-
-      if ( firstActive[roleIndex] < 0 )
-      {
-        firstActive[roleIndex] = index;
-      }
-      lastActive[roleIndex] = index;
+      short position = numActive[roleIndex]++;
 
-      numActive[roleIndex]++;
+      members[roleIndex][position] = index;
+      positionsForRole[index] = position;
     }
 
     assert(valid());
@@ -546,28 +498,24 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
   {
     //  Commented out sections are for a really full check, butn it makes it super-expensive
     //  so not included in regular debug build assertion checking
-    //BitSet mirror = new BitSet();
     for(int i = 0; i < roles.length; i++)
     {
-      //mirror.clear();
-      int count = 0;
+      assert(numActive[i] >= numAlwaysActive[i]);
 
-      for(int index = firstActive[i]; (index & LINKAGE_MASK_NEXT) != 0xFFFF; index = linkage[i][index] & LINKAGE_MASK_NEXT)
+      for(int position = 0; position < numActive[i]; position++)
       {
-        assert((linkage[i][index] & LINKAGE_MASK_PREV) != INVALID_PREV);
-        assert(index != (linkage[i][index] & LINKAGE_MASK_NEXT));
-        count++;
-        //mirror.set(index);
+        assert(positions[i][members[i][position]] == position);
       }
 
-      assert(count == numActive[i]);
+//      int count = 0;
 //      for(int j = 0; j < masterListAsArray.length; j++)
 //      {
-//        if ( !mirror.get(j))
+//        if ( positions[i][j] != NOT_PRESENT )
 //        {
-//          assert(linkage[i][j] == INVALID_PREV);
+//          count++;
 //        }
 //      }
+//      assert(count == numActive[i]);
     }
 
     return true;
@@ -599,32 +547,19 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
   {
     assert(valid());
 
-    int[] linkageForRole = linkage[roleIndex];
-    int prevIndex = linkageForRole[index] >> PREV_SHIFT;
-    int nextIndex = linkageForRole[index] & LINKAGE_MASK_NEXT;
-
-    assert(prevIndex != 0xFFFF);
+    short[] membersForRole = members[roleIndex];
+    short[] positionsForRole = positions[roleIndex];
+    short position = positionsForRole[index];
 
-    if ( prevIndex != (SENTINEL_PREV >> PREV_SHIFT) )
-    {
-      linkageForRole[prevIndex] = (linkageForRole[prevIndex] & LINKAGE_MASK_PREV) | nextIndex;
-    }
-    else
-    {
-      firstActive[roleIndex] = (short)nextIndex;
-    }
+    assert(position != NOT_PRESENT);
+    assert(position >= numAlwaysActive[roleIndex]);
 
-    if ( nextIndex != 0xFFFF )
-    {
-      linkageForRole[nextIndex] = (linkageForRole[nextIndex] & LINKAGE_MASK_NEXT) | (prevIndex << PREV_SHIFT);
-    }
-    else
-    {
-      lastActive[roleIndex] = (short)prevIndex;
-    }
+    //  Fill the hole with the last active move
+    short lastIndex = membersForRole[--numActive[roleIndex]];
 
-    linkageForRole[index] = INVALID_PREV;
-    numActive[roleIndex]--;
+    membersForRole[position] = lastIndex;
+    positionsForRole[lastIndex] = position;
+    positionsForRole[index] = NOT_PRESENT;
 
     assert(valid());
   }
@@ -649,11 +584,10 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
     for(int i = 0; i < roles.length; i++)
     {
       assert(numAlwaysActive[i] == other.numAlwaysActive[i]);
-      assert(lastImmutableActive[i] == other.lastImmutableActive[i]);
 
-      for(int index = other.firstActive[i]; (index & LINKAGE_MASK_NEXT) != 0xFFFF; index = other.linkage[i][index] & LINKAGE_MASK_NEXT)
+      for(int position = other.numAlwaysActive[i]; position < other.numActive[i]; position++)
       {
-        add(index);
+        add(other.members[i][position]);
       }
     }
     assert(valid());
@@ -671,13 +605,11 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
     for(int i = 0; i < roles.length; i++)
     {
       assert(numAlwaysActive[i] == other.numAlwaysActive[i]);
-      assert(lastImmutableActive[i] == other.lastImmutableActive[i]);
 
-      int nextIndex;
-
-      for(int index = firstActive[i]; (index & LINKAGE_MASK_NEXT) != 0xFFFF; index = nextIndex)
+      //  Iterate backwards, since removal moves the last member into the vacated position
+      for(int position = numActive[i] - 1; position >= numAlwaysActive[i]; position--)
       {
-        nextIndex = linkage[i][index] & LINKAGE_MASK_NEXT;
+        int index = members[i][position];
 
         if ( !other.isLegalMove(i, index) )
         {
@@ -783,7 +715,7 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
    */
   boolean isLegalMove(int roleIndex, int index)
   {
-    return (linkage[roleIndex].length > index && linkage[roleIndex][index] != INVALID_PREV);
+    return (positions[roleIndex].length > index && positions[roleIndex][index] != NOT_PRESENT);
   }
 
   /**
@@ -794,14 +726,22 @@ public class ForwardDeadReckonLegalMoveSet implements ForwardDeadReckonComponent
   public ForwardDeadReckonLegalMoveInfo getRandomMove(int roleIndex)
   {
     assert(numActive[roleIndex] > 0);
-    int count = rand.nextInt(numActive[roleIndex]);
-    int index = firstActive[roleIndex];
 
-    while(count-- > 0)
-    {
-      index = linkage[roleIndex][index] & LINKAGE_MASK_NEXT;
-    }
+    return getMove(roleIndex, rand.nextInt(numActive[roleIndex]));
+  }
+
+  /**
+   * Retrieve a legal move by its position in the current legal set (which is
+   * the order in which iteration over getContents() returns them).  The position
+   * of a given move is only stable until the set is next modified
+   * @param roleIndex
+   * @param choiceIndex - position of the move, in the range [0, getNumChoices(roleIndex))
+   * @return move at the specified position
+   */
+  public ForwardDeadReckonLegalMoveInfo getMove(int roleIndex, int choiceIndex)
+  {
+    assert(choiceIndex >= 0 && choiceIndex < numActive[roleIndex]);
 
-    return masterListAsArray[index];
+    return masterListAsArray[members[roleIndex][choiceIndex]];
   }
 }
@@ -72,6 +72,44 @@ public ForwardDeadReckonPropNet(Role[] roles,
     assert(componentFactory instanceof ForwardDeadReckonComponentFactory);
   }
 
+  /**
+   * Creates a new ForwardDeadReckonPropNet from a specified set of components whose special propositions have
+   * already been identified (see the equivalent PolymorphicPropNet constructor)
+   * @param roles Set of roles to support
+   * @param components Set of components that this propNet will encompass
+   * @param basePropositions Base propositions, by name
+   * @param inputPropositions Input propositions, by name
+   * @param legalPropositions Legal propositions, by role
+   * @param goalPropositions Goal propositions, by role
+   * @param initProposition Init proposition (may be null)
+   * @param terminalProposition Terminal proposition
+   * @param legalInputMap Mapping between input and legal propositions (in both directions)
+   * @param componentFactory Component factory to use   */
+  public ForwardDeadReckonPropNet(Role[] roles,
+                                  Set<PolymorphicComponent> components,
+                                  Map<GdlSentence, PolymorphicProposition> basePropositions,
+                                  Map<GdlSentence, PolymorphicProposition> inputPropositions,
+                                  Map<Role, Set<PolymorphicProposition>> legalPropositions,
+                                  Map<Role, Set<PolymorphicProposition>> goalPropositions,
+                                  PolymorphicProposition initProposition,
+                                  PolymorphicProposition terminalProposition,
+                                  Map<PolymorphicProposition, PolymorphicProposition> legalInputMap,
+                                  PolymorphicComponentFactory componentFactory)
+  {
+    super(roles,
+          components,
+          basePropositions,
+          inputPropositions,
+          legalPropositions,
+          goalPropositions,
+          initProposition,
+          terminalProposition,
+          legalInputMap,
+          componentFactory);
+
+    assert(componentFactory instanceof ForwardDeadReckonComponentFactory);
+  }
+
   @SuppressWarnings("unchecked")
   private void setUpActivePropositionSets(ForwardDeadReckonPropositionCrossReferenceInfo[] masterInfoSet,
                                           int firstBasePropIndex,
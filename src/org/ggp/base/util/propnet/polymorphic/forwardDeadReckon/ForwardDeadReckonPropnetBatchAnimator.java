@@ -0,0 +1,596 @@
+package org.ggp.base.util.propnet.polymorphic.forwardDeadReckon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicAnd;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicComponent;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicConstant;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicNot;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicOr;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicProposition;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicTransition;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * Bit-parallel animator for the propNet, used to run many independent random playouts at once.
+ *
+ * The fast animator keeps a counter per component and propagates changes differentially, which cannot be shared
+ * between playouts.  This animator instead holds a 64-bit lane mask per component (one bit per playout) and re-evaluates
+ * the whole network in topological order at each step, so that each AND/OR/NOT is a single bitwise operation across all
+ * the playouts in the batch.
+ *
+ * The network is levelized once, on construction.  Components that do not depend on the moves chosen are evaluated
+ * before move selection; the remainder (the cone of the input propositions) are evaluated once the moves are known.
+ * The structure is immutable once built, so a single animator may be shared between state machine instances, each of
+ * which must use its own {@link InstanceInfo}.
+ */
+public class ForwardDeadReckonPropnetBatchAnimator
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  /**
+   * Maximum number of playouts in a batch
+   */
+  public static final int        LANES = 64;
+
+  private static final int       opTypeCopy = 0;
+  private static final int       opTypeAnd = 1;
+  private static final int       opTypeOr = 2;
+  private static final int       opTypeNot = 3;
+
+  private final boolean          usable;
+  private final int              numSlots;
+  private final int              firstBasePropIndex;
+
+  //  Operations, in evaluation order.  The first numPreMoveOps do not depend on the inputs
+  private int[]                  opType;
+  private int[]                  opOutputSlot;
+  private int[]                  opInputStart;
+  private int[]                  opInputSlots;
+  private int                    numPreMoveOps;
+
+  //  Slots of constant-true components, set at the start of each batch
+  private int[]                  trueConstantSlots;
+  //  State index (as held in ForwardDeadReckonInternalMachineState) to slot, or -1 if not a base prop
+  private int[]                  stateIndexToBaseSlot;
+  //  Base prop slots and the slots of the transitions that feed them (-1 if none)
+  private int[]                  baseSlots;
+  private int[]                  baseTransitionSlots;
+  private int[]                  inputSlots;
+  private int                    terminalSlot;
+  //  Per-role legal prop slots and the slots of the corresponding input props (-1 if none)
+  private int[][]                legalSlots;
+  private int[][]                legalInputSlots;
+  //  Per-role goal prop slots (in the propnet's goal order) and their values
+  private int[][]                goalSlots;
+  private int[][]                goalValues;
+
+  /**
+   * @author steve
+   * Per-instance working state.  Each state machine instance that performs batched playouts must have its own.
+   */
+  public class InstanceInfo
+  {
+    private final long[]         values = new long[numSlots];
+    private final int[]          legalCounts = new int[LANES];
+    private final int[]          choices = new int[LANES];
+    private final Random         rand = new Random();
+
+    /**
+     * Perform a batch of random playouts, each from its own starting state.  A playout ends when it reaches a terminal
+     * state, when a role has no legal moves, or once it has made more than the cutoff number of moves (which, as for
+     * single depth charges, ends at a non-terminal state).
+     * @param startStates states to play out from - element i is the start state for playout i
+     * @param numPlayouts number of playouts (at most LANES)
+     * @param cutoffDepth playouts are cut off after cutoffDepth+1 moves
+     * @param playoutLengths output array for the number of moves made by each playout
+     * @param goals output array for the goal values in the final state of each playout, by playout and then role (in
+     *              the propnet's role order)
+     */
+    public void playouts(ForwardDeadReckonInternalMachineState[] startStates,
+                         int numPlayouts,
+                         int cutoffDepth,
+                         int[] playoutLengths,
+                         int[][] goals)
+    {
+      assert(usable);
+      assert(numPlayouts > 0 && numPlayouts <= LANES);
+
+      Arrays.fill(values, 0);
+      for (int slot : trueConstantSlots)
+      {
+        values[slot] = -1L;
+      }
+
+      for (int lane = 0; lane < numPlayouts; lane++)
+      {
+        long laneBit = 1L << lane;
+        ForwardDeadReckonInternalMachineState state = startStates[lane];
+
+        for (int index = state.contents.nextSetBit(firstBasePropIndex); index >= 0; index = state.contents.nextSetBit(index + 1))
+        {
+          int slot = stateIndexToBaseSlot[index];
+          if (slot >= 0)
+          {
+            values[slot] |= laneBit;
+          }
+        }
+      }
+
+      long active = (numPlayouts == LANES ? -1L : (1L << numPlayouts) - 1);
+      int depth = 0;
+
+      while (true)
+      {
+        evaluate(0, numPreMoveOps);
+
+        long finished = values[terminalSlot] & active;
+        if (depth > cutoffDepth)
+        {
+          finished = active;
+        }
+
+        //  Select a random joint move for each continuing playout
+        for (int roleIndex = 0; roleIndex < legalSlots.length && finished != active; roleIndex++)
+        {
+          finished |= chooseMoves(roleIndex, active & ~finished);
+        }
+
+        if (finished != 0)
+        {
+          recordResults(finished, depth, playoutLengths, goals);
+          active &= ~finished;
+          if (active == 0)
+          {
+            break;
+          }
+
+          //  Withdraw any moves already chosen for playouts that have now finished
+          for (int slot : inputSlots)
+          {
+            values[slot] &= active;
+          }
+        }
+
+        evaluate(numPreMoveOps, opType.length);
+
+        for (int i = 0; i < baseSlots.length; i++)
+        {
+          int baseSlot = baseSlots[i];
+          int transitionSlot = baseTransitionSlots[i];
+          long next = (transitionSlot == -1 ? 0 : values[transitionSlot]);
+
+          values[baseSlot] = (values[baseSlot] & ~active) | (next & active);
+        }
+
+        for (int slot : inputSlots)
+        {
+          values[slot] = 0;
+        }
+
+        depth++;
+      }
+    }
+
+    private void evaluate(int firstOp, int endOp)
+    {
+      final long[] lValues = values;
+
+      for (int op = firstOp; op < endOp; op++)
+      {
+        int inputIndex = opInputStart[op];
+        int inputEnd = opInputStart[op + 1];
+        long value;
+
+        switch (opType[op])
+        {
+          case opTypeAnd:
+            value = -1L;
+            while (inputIndex < inputEnd)
+            {
+              value &= lValues[opInputSlots[inputIndex++]];
+            }
+            break;
+          case opTypeOr:
+            value = 0;
+            while (inputIndex < inputEnd)
+            {
+              value |= lValues[opInputSlots[inputIndex++]];
+            }
+            break;
+          case opTypeNot:
+            value = ~lValues[opInputSlots[inputIndex]];
+            break;
+          default:
+            value = lValues[opInputSlots[inputIndex]];
+            break;
+        }
+
+        lValues[opOutputSlot[op]] = value;
+      }
+    }
+
+    /**
+     * Choose a uniformly random legal move for one role in each of the specified playouts, setting the corresponding
+     * input lanes.
+     * @return lanes (among those specified) in which the role has no legal move
+     */
+    private long chooseMoves(int roleIndex, long lanes)
+    {
+      int[] roleLegalSlots = legalSlots[roleIndex];
+      int[] roleInputSlots = legalInputSlots[roleIndex];
+
+      Arrays.fill(legalCounts, 0);
+      long anyLegal = 0;
+
+      for (int slot : roleLegalSlots)
+      {
+        long legalLanes = values[slot] & lanes;
+
+        anyLegal |= legalLanes;
+        while (legalLanes != 0)
+        {
+          legalCounts[Long.numberOfTrailingZeros(legalLanes)]++;
+          legalLanes &= (legalLanes - 1);
+        }
+      }
+
+      long remaining = lanes & anyLegal;
+      while (remaining != 0)
+      {
+        int lane = Long.numberOfTrailingZeros(remaining);
+        choices[lane] = rand.nextInt(legalCounts[lane]);
+        remaining &= (remaining - 1);
+      }
+
+      for (int i = 0; i < roleLegalSlots.length; i++)
+      {
+        long legalLanes = values[roleLegalSlots[i]] & lanes;
+
+        while (legalLanes != 0)
+        {
+          long laneBit = Long.lowestOneBit(legalLanes);
+
+          if (choices[Long.numberOfTrailingZeros(laneBit)]-- == 0 && roleInputSlots[i] != -1)
+          {
+            values[roleInputSlots[i]] |= laneBit;
+          }
+          legalLanes &= ~laneBit;
+        }
+      }
+
+      return lanes & ~anyLegal;
+    }
+
+    private void recordResults(long lanes, int depth, int[] playoutLengths, int[][] goals)
+    {
+      for (long remaining = lanes; remaining != 0; remaining &= (remaining - 1))
+      {
+        int lane = Long.numberOfTrailingZeros(remaining);
+
+        playoutLengths[lane] = depth;
+        Arrays.fill(goals[lane], 0);
+      }
+
+      //  As for the sequential state machine, the first goal prop that is true is the one that counts
+      for (int roleIndex = 0; roleIndex < goalSlots.length; roleIndex++)
+      {
+        long pending = lanes;
+
+        for (int i = 0; i < goalSlots[roleIndex].length && pending != 0; i++)
+        {
+          long goalLanes = values[goalSlots[roleIndex][i]] & pending;
+
+          pending &= ~goalLanes;
+          while (goalLanes != 0)
+          {
+            goals[Long.numberOfTrailingZeros(goalLanes)][roleIndex] = goalValues[roleIndex][i];
+            goalLanes &= (goalLanes - 1);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Construct a batch animator for a crystalized propNet.  If the network has a form that cannot be animated in
+   * batches the animator is marked as unusable (see {@link #isUsable()}).
+   * @param propNet propNet to animate
+   * @param firstBasePropIndex index of the first base prop in the internal machine states that will be played out
+   */
+  public ForwardDeadReckonPropnetBatchAnimator(ForwardDeadReckonPropNet propNet, int firstBasePropIndex)
+  {
+    this.firstBasePropIndex = firstBasePropIndex;
+
+    Map<PolymorphicComponent, Integer> slots = new HashMap<>();
+    for (PolymorphicComponent c : propNet.getComponents())
+    {
+      slots.put(c, slots.size());
+    }
+    numSlots = slots.size();
+
+    usable = build(propNet, slots);
+    if (usable)
+    {
+      LOGGER.info("Batch animator levelized " + opType.length + " operations (" + (opType.length - numPreMoveOps) +
+                  " dependent on moves)");
+    }
+    else
+    {
+      LOGGER.info("PropNet is not suitable for batched playouts");
+    }
+  }
+
+  /**
+   * @return whether this animator can be used
+   */
+  public boolean isUsable()
+  {
+    return usable;
+  }
+
+  /**
+   * Create working state for use by a single thread
+   * @return new instance state
+   */
+  public InstanceInfo createInstanceInfo()
+  {
+    return new InstanceInfo();
+  }
+
+  private boolean build(ForwardDeadReckonPropNet propNet, Map<PolymorphicComponent, Integer> slots)
+  {
+    Set<PolymorphicComponent> baseProps = new HashSet<PolymorphicComponent>(propNet.getBasePropositions().values());
+    Set<PolymorphicComponent> inputProps = new HashSet<PolymorphicComponent>(propNet.getInputPropositions().values());
+    List<Integer> trueConstants = new ArrayList<>();
+
+    //  Sources are base props, input props, constants and any other proposition with no input (including init)
+    Map<PolymorphicComponent, Integer> numPendingInputs = new HashMap<>();
+    List<PolymorphicComponent> ready = new ArrayList<>();
+
+    for (PolymorphicComponent c : propNet.getComponents())
+    {
+      if (c instanceof PolymorphicConstant)
+      {
+        if (c.getValue())
+        {
+          trueConstants.add(slots.get(c));
+        }
+      }
+      else if (baseProps.contains(c) || inputProps.contains(c))
+      {
+        //  Source
+      }
+      else if (c instanceof PolymorphicProposition && c.getInputs().isEmpty())
+      {
+        //  Source
+      }
+      else if ((c instanceof PolymorphicProposition ||
+                c instanceof PolymorphicTransition ||
+                c instanceof PolymorphicNot) && c.getInputs().size() != 1)
+      {
+        return false;
+      }
+      else
+      {
+        int numOpInputs = 0;
+        for (PolymorphicComponent input : c.getInputs())
+        {
+          if (isOp(input, baseProps, inputProps))
+          {
+            numOpInputs++;
+          }
+        }
+
+        numPendingInputs.put(c, numOpInputs);
+        if (numOpInputs == 0)
+        {
+          ready.add(c);
+        }
+      }
+    }
+
+    //  Topological sort (Kahn) of the operations
+    List<PolymorphicComponent> ordered = new ArrayList<>(numPendingInputs.size());
+    while (!ready.isEmpty())
+    {
+      PolymorphicComponent c = ready.remove(ready.size() - 1);
+      ordered.add(c);
+
+      for (PolymorphicComponent output : c.getOutputs())
+      {
+        Integer pending = numPendingInputs.get(output);
+        if (pending != null)
+        {
+          numPendingInputs.put(output, pending - 1);
+          if (pending == 1)
+          {
+            ready.add(output);
+          }
+        }
+      }
+    }
+
+    if (ordered.size() != numPendingInputs.size())
+    {
+      LOGGER.warn("PropNet contains a combinatorial cycle");
+      return false;
+    }
+
+    //  Find the cone of the input props and check that nothing we need before choosing moves is in it
+    Set<PolymorphicComponent> moveDependent = new HashSet<>();
+    List<PolymorphicComponent> toVisit = new ArrayList<>(inputProps);
+    while (!toVisit.isEmpty())
+    {
+      PolymorphicComponent c = toVisit.remove(toVisit.size() - 1);
+
+      for (PolymorphicComponent output : c.getOutputs())
+      {
+        if (numPendingInputs.containsKey(output) && moveDependent.add(output))
+        {
+          toVisit.add(output);
+        }
+      }
+    }
+
+    if (moveDependent.contains(propNet.getTerminalProposition()))
+    {
+      return false;
+    }
+
+    Role[] roles = propNet.getRoles();
+    legalSlots = new int[roles.length][];
+    legalInputSlots = new int[roles.length][];
+    goalSlots = new int[roles.length][];
+    goalValues = new int[roles.length][];
+
+    for (int roleIndex = 0; roleIndex < roles.length; roleIndex++)
+    {
+      PolymorphicProposition[] legals = propNet.getLegalPropositions().get(roles[roleIndex]);
+      PolymorphicProposition[] goalProps = propNet.getGoalPropositions().get(roles[roleIndex]);
+
+      legalSlots[roleIndex] = new int[legals.length];
+      legalInputSlots[roleIndex] = new int[legals.length];
+      for (int i = 0; i < legals.length; i++)
+      {
+        PolymorphicProposition input = propNet.getLegalInputMap().get(legals[i]);
+
+        if (moveDependent.contains(legals[i]))
+        {
+          return false;
+        }
+        legalSlots[roleIndex][i] = slots.get(legals[i]);
+        legalInputSlots[roleIndex][i] = (input == null || !slots.containsKey(input) ? -1 : slots.get(input));
+      }
+
+      goalSlots[roleIndex] = new int[goalProps.length];
+      goalValues[roleIndex] = new int[goalProps.length];
+      for (int i = 0; i < goalProps.length; i++)
+      {
+        if (moveDependent.contains(goalProps[i]))
+        {
+          return false;
+        }
+        goalSlots[roleIndex][i] = slots.get(goalProps[i]);
+        goalValues[roleIndex][i] = ((ForwardDeadReckonProposition)goalProps[i]).getGoalValue();
+      }
+    }
+
+    //  Lay out the operations - those independent of the moves first, each group in topological order
+    int numOps = ordered.size();
+    int numOpInputs = 0;
+    for (PolymorphicComponent c : ordered)
+    {
+      numOpInputs += c.getInputs().size();
+    }
+
+    opType = new int[numOps];
+    opOutputSlot = new int[numOps];
+    opInputStart = new int[numOps + 1];
+    opInputSlots = new int[numOpInputs];
+
+    int opIndex = 0;
+    int inputIndex = 0;
+    for (int pass = 0; pass < 2; pass++)
+    {
+      for (PolymorphicComponent c : ordered)
+      {
+        if (moveDependent.contains(c) != (pass == 1))
+        {
+          continue;
+        }
+
+        if (c instanceof PolymorphicAnd)
+        {
+          opType[opIndex] = opTypeAnd;
+        }
+        else if (c instanceof PolymorphicOr)
+        {
+          opType[opIndex] = opTypeOr;
+        }
+        else if (c instanceof PolymorphicNot)
+        {
+          opType[opIndex] = opTypeNot;
+        }
+        else
+        {
+          opType[opIndex] = opTypeCopy;
+        }
+
+        opOutputSlot[opIndex] = slots.get(c);
+        opInputStart[opIndex] = inputIndex;
+        for (PolymorphicComponent input : c.getInputs())
+        {
+          opInputSlots[inputIndex++] = slots.get(input);
+        }
+        opIndex++;
+      }
+
+      if (pass == 0)
+      {
+        numPreMoveOps = opIndex;
+      }
+    }
+    opInputStart[numOps] = inputIndex;
+
+    trueConstantSlots = new int[trueConstants.size()];
+    for (int i = 0; i < trueConstantSlots.length; i++)
+    {
+      trueConstantSlots[i] = trueConstants.get(i);
+    }
+
+    int maxStateIndex = 0;
+    for (PolymorphicProposition p : propNet.getBasePropositions().values())
+    {
+      maxStateIndex = Math.max(maxStateIndex, ((ForwardDeadReckonProposition)p).getInfo().index);
+    }
+
+    stateIndexToBaseSlot = new int[maxStateIndex + 1];
+    Arrays.fill(stateIndexToBaseSlot, -1);
+    baseSlots = new int[baseProps.size()];
+    baseTransitionSlots = new int[baseProps.size()];
+
+    int baseIndex = 0;
+    for (PolymorphicProposition p : propNet.getBasePropositions().values())
+    {
+      PolymorphicComponent transition = (p.getInputs().size() == 1 ? p.getSingleInput() : null);
+
+      stateIndexToBaseSlot[((ForwardDeadReckonProposition)p).getInfo().index] = slots.get(p);
+      baseSlots[baseIndex] = slots.get(p);
+      baseTransitionSlots[baseIndex] = (transition instanceof PolymorphicTransition ? slots.get(transition) : -1);
+      baseIndex++;
+    }
+
+    inputSlots = new int[inputProps.size()];
+    int inputPropIndex = 0;
+    for (PolymorphicComponent p : inputProps)
+    {
+      inputSlots[inputPropIndex++] = slots.get(p);
+    }
+
+    terminalSlot = slots.get(propNet.getTerminalProposition());
+
+    return true;
+  }
+
+  private static boolean isOp(PolymorphicComponent c,
+                              Set<PolymorphicComponent> baseProps,
+                              Set<PolymorphicComponent> inputProps)
+  {
+    if (c instanceof PolymorphicConstant || baseProps.contains(c) || inputProps.contains(c))
+    {
+      return false;
+    }
+
+    return !(c instanceof PolymorphicProposition && c.getInputs().isEmpty());
+  }
+}
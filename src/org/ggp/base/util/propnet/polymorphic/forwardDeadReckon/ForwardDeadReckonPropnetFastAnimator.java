@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 
@@ -12,6 +13,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.model.SimpleSentenceForm;
 import org.ggp.base.util.propnet.polymorphic.PolymorphicAnd;
 import org.ggp.base.util.propnet.polymorphic.PolymorphicComponent;
 import org.ggp.base.util.propnet.polymorphic.PolymorphicConstant;
@@ -146,6 +148,102 @@ public class ForwardDeadReckonPropnetFastAnimator
       }
     }
 
+    /**
+     * Equivalent of propagateComponentTrue() which records what it does in the profile
+     * @param componentIdFull
+     * @param depth depth of the component below the input being changed
+     */
+    private void profiledPropagateComponentTrue(int componentIdFull, int depth)
+    {
+      int   outputIndex = ((componentIdFull & 0xFFFFFF)<<2)+1;
+      int   numOutputs = componentDataTable[outputIndex];
+
+      profile.record(componentIdFull & 0xFFFFFF, numOutputs, depth);
+      outputIndex += numOutputs;
+
+      if (componentIdFull >= 0)
+      {
+        while(numOutputs-- > 0)
+        {
+          int triggerIndex = componentDataTable[outputIndex--];
+
+          if ( triggerIndex < 0 )
+          {
+            legalMoveNotifier.add(triggerIndex & 0x7FFFFFFF);
+          }
+          else
+          {
+            propositionTransitionNotifier.add(triggerIndex);
+          }
+        }
+      }
+      else
+      {
+        while(numOutputs-- > 0)
+        {
+          int outputFullId = componentDataTable[outputIndex--];
+
+          int stateVal = ++state[(outputFullId & 0xFFFFFF)];
+          if ( stateVal == 0 )
+          {
+            profiledPropagateComponentFalse(outputFullId, depth+1);
+          }
+          else if ( stateVal == 0x80000000 )
+          {
+            profiledPropagateComponentTrue(outputFullId, depth+1);
+          }
+        }
+      }
+    }
+
+    /**
+     * Equivalent of propagateComponentFalse() which records what it does in the profile
+     * @param componentIdFull
+     * @param depth depth of the component below the input being changed
+     */
+    private void profiledPropagateComponentFalse(int componentIdFull, int depth)
+    {
+      int   outputIndex = ((componentIdFull & 0xFFFFFF)<<2)+1;
+      int   numOutputs = componentDataTable[outputIndex];
+
+      profile.record(componentIdFull & 0xFFFFFF, numOutputs, depth);
+      outputIndex += numOutputs;
+
+      if (componentIdFull >= 0)
+      {
+        while(numOutputs-- > 0)
+        {
+          int triggerIndex = componentDataTable[outputIndex--];
+
+          if ( triggerIndex < 0 )
+          {
+            legalMoveNotifier.remove(triggerIndex & 0x7FFFFFFF);
+          }
+          else
+          {
+            propositionTransitionNotifier.remove(triggerIndex);
+          }
+        }
+      }
+      else
+      {
+        while(numOutputs-- > 0)
+        {
+          int outputFullId = componentDataTable[outputIndex--];
+
+          int stateVal = state[(outputFullId & 0xFFFFFF)]--;
+          if ( stateVal == 0 )
+          {
+            profiledPropagateComponentTrue(outputFullId, depth+1);
+          }
+          else if ( stateVal == 0x80000000 )
+          {
+            profiledPropagateComponentFalse(outputFullId, depth+1);
+          }
+        }
+      }
+    }
+
     /**
      * Process toggling of a component state during reset processing
      * @param componentId
@@ -256,7 +354,21 @@ public class ForwardDeadReckonPropnetFastAnimator
      */
     public void changeComponentValueTo(int propId, boolean value)
     {
-      if ( value )
+      if ( profile != null && profile.sampleNext() )
+      {
+        //  Sampled changes go through an instrumented copy of the propagation
+        long startTime = System.nanoTime();
+        if ( value )
+        {
+          profiledPropagateComponentTrue(propId, 0);
+        }
+        else
+        {
+          profiledPropagateComponentFalse(propId, 0);
+        }
+        profile.sampledNanos += (System.nanoTime() - startTime);
+      }
+      else if ( value )
       {
         propagateComponentTrue(propId);
       }
@@ -282,6 +394,10 @@ public class ForwardDeadReckonPropnetFastAnimator
      * Holds the current component id up to which an in-progress reset() has processed
      */
     int                                           resetWatermark;
+    /**
+     * Propagation profile being gathered, or null if profiling is not enabled
+     */
+    PropagationProfile                            profile;
   }
 
   private class ComponentIdComparator implements Comparator<Integer>{
@@ -1043,6 +1159,161 @@ public class ForwardDeadReckonPropnetFastAnimator
     }
   }
 
+  /**
+   * Start profiling propagation through the network, in all instances.  Profiling slows
+   * propagation a little even for the changes which aren't sampled, so is for diagnostic use
+   * only.  Must be called after crystalize().  Any existing profile is discarded.
+   *
+   * @param sampleInterval Profile one in every this many input changes
+   */
+  public void enableProfiling(int sampleInterval)
+  {
+    for(InstanceInfo instance : instances)
+    {
+      instance.profile = new PropagationProfile(componentDataTable.length/4, sampleInterval);
+    }
+  }
+
+  /**
+   * Stop profiling, discarding the profiles gathered
+   */
+  public void disableProfiling()
+  {
+    for(InstanceInfo instance : instances)
+    {
+      instance.profile = null;
+    }
+  }
+
+  /**
+   * Report on the propagation profiled so far (combined over all instances), mapping
+   * components back to the sentence forms of the GDL that they implement
+   *
+   * @param maxRows Maximum number of rows to list in each section of the report
+   * @return the report, or null if profiling is not enabled
+   */
+  public String getProfileReport(int maxRows)
+  {
+    if ( instances[0].profile == null )
+    {
+      return null;
+    }
+
+    int numSlots = componentDataTable.length/4;
+    PropagationProfile combined = new PropagationProfile(numSlots, 1);
+    for(InstanceInfo instance : instances)
+    {
+      combined.merge(instance.profile);
+    }
+
+    String[] slotNames = new String[numSlots];
+    String[] slotForms = new String[numSlots];
+    int[] slotTableInts = new int[numSlots];
+
+    for(PolymorphicComponent c : propNet.getComponents())
+    {
+      int id = ((ForwardDeadReckonComponent)c).id;
+
+      if ( id != notNeededComponentId && id != notSetComponentId )
+      {
+        int slot = id & 0xFFFFFF;
+
+        slotNames[slot] = describeComponent(c);
+        slotForms[slot] = getAttributedSentenceForm(c);
+        slotTableInts[slot] = getSlotSize(slot);
+      }
+    }
+
+    //  Anything else that propagated is a pass-through OR inserted to separate a component's
+    //  trigger outputs from its logic outputs
+    for(int slot = 0; slot < numSlots; slot++)
+    {
+      if ( slotNames[slot] == null && combined.triggers[slot] > 0 )
+      {
+        slotNames[slot] = "pass-through OR";
+        slotForms[slot] = "(pass-through ORs)";
+        slotTableInts[slot] = getSlotSize(slot);
+      }
+    }
+
+    return combined.format(slotNames, slotForms, slotTableInts, maxRows);
+  }
+
+  private int getSlotSize(int slot)
+  {
+    return ((componentDataTable[slot*4+1] + 5)/4)*4;
+  }
+
+  private static String describeComponent(PolymorphicComponent c)
+  {
+    if ( c instanceof PolymorphicProposition )
+    {
+      return ((PolymorphicProposition)c).getName().toString();
+    }
+
+    String type;
+    if ( c instanceof PolymorphicAnd )
+    {
+      type = "AND";
+    }
+    else if ( c instanceof PolymorphicOr )
+    {
+      type = "OR";
+    }
+    else if ( c instanceof PolymorphicNot )
+    {
+      type = "NOT";
+    }
+    else if ( c instanceof PolymorphicTransition )
+    {
+      type = "TRANSITION";
+    }
+    else
+    {
+      type = c.getClass().getSimpleName();
+    }
+
+    PolymorphicProposition target = findFedProposition(c);
+    return type + "(" + c.getInputs().size() + " inputs) -> " + (target == null ? "?" : target.getName());
+  }
+
+  private static String getAttributedSentenceForm(PolymorphicComponent c)
+  {
+    PolymorphicProposition prop = (c instanceof PolymorphicProposition) ? (PolymorphicProposition)c : findFedProposition(c);
+
+    return (prop == null) ? "(unattributed)" : SimpleSentenceForm.create(prop.getName()).toString();
+  }
+
+  /**
+   * Find the nearest proposition downstream of a component
+   */
+  private static PolymorphicProposition findFedProposition(PolymorphicComponent c)
+  {
+    Set<PolymorphicComponent> visited = new HashSet<>();
+    LinkedList<PolymorphicComponent> queue = new LinkedList<>();
+    queue.add(c);
+    visited.add(c);
+
+    while(!queue.isEmpty())
+    {
+      PolymorphicComponent current = queue.removeFirst();
+
+      for(PolymorphicComponent output : current.getOutputs())
+      {
+        if ( output instanceof PolymorphicProposition )
+        {
+          return (PolymorphicProposition)output;
+        }
+        if ( visited.add(output) )
+        {
+          queue.add(output);
+        }
+      }
+    }
+
+    return null;
+  }
+
   /**
    * Retrieve the InstanceInfo for a given instance id
    * @param instanceId id to retrieve the state structure for
@@ -0,0 +1,258 @@
+package org.ggp.base.util.propnet.polymorphic.forwardDeadReckon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Propagation statistics gathered by a fast animator instance with profiling enabled (see
+ * ForwardDeadReckonPropnetFastAnimator.enableProfiling()).
+ *
+ * Only a sample of the input changes made to the network are profiled - 1 in every sampleInterval.
+ * For each of those, every component whose output changes as a result is recorded, along with
+ * its fan-out (the number of outputs it had to process) and its depth below the input that
+ * changed.  The total fan-out processed is the best available measure of the time spent
+ * propagating, so the report ranks components by their share of it.
+ *
+ * A profile is written only by the thread which owns its instance.  Reading it concurrently
+ * gives approximate figures, which is all a profile needs.
+ */
+public class PropagationProfile
+{
+  private static final int MAX_RECORDED_DEPTH = 63;
+
+  private final int    sampleInterval;
+  private int          countdown;
+
+  final long[]         triggers;
+  final long[]         outputsProcessed;
+  final long[]         depthTotals;
+  final int[]          maxDepths;
+  final long[]         depthHistogram = new long[MAX_RECORDED_DEPTH+1];
+  long                 totalChanges;
+  long                 sampledChanges;
+  long                 sampledNanos;
+
+  /**
+   * Create an empty profile
+   * @param numSlots Number of component slots in the animator's data table
+   * @param sampleInterval Profile one in every this many input changes
+   */
+  PropagationProfile(int numSlots, int sampleInterval)
+  {
+    this.sampleInterval = Math.max(1, sampleInterval);
+    countdown = this.sampleInterval;
+    triggers = new long[numSlots];
+    outputsProcessed = new long[numSlots];
+    depthTotals = new long[numSlots];
+    maxDepths = new int[numSlots];
+  }
+
+  /**
+   * Note an input change to the network
+   * @return whether this change should be profiled
+   */
+  boolean sampleNext()
+  {
+    totalChanges++;
+    if ( --countdown > 0 )
+    {
+      return false;
+    }
+
+    countdown = sampleInterval;
+    sampledChanges++;
+    return true;
+  }
+
+  /**
+   * Record a component output change during a profiled propagation
+   * @param slot Component's slot (id without flag bits)
+   * @param numOutputs Number of outputs processed as a result
+   * @param depth Depth of the component below the changed input
+   */
+  void record(int slot, int numOutputs, int depth)
+  {
+    triggers[slot]++;
+    outputsProcessed[slot] += numOutputs;
+    depthTotals[slot] += depth;
+    if ( depth > maxDepths[slot] )
+    {
+      maxDepths[slot] = depth;
+    }
+    depthHistogram[Math.min(depth, MAX_RECORDED_DEPTH)]++;
+  }
+
+  /**
+   * Add another profile (of the same network) into this one
+   * @param other Profile to add
+   */
+  void merge(PropagationProfile other)
+  {
+    for(int i = 0; i < triggers.length; i++)
+    {
+      triggers[i] += other.triggers[i];
+      outputsProcessed[i] += other.outputsProcessed[i];
+      depthTotals[i] += other.depthTotals[i];
+      maxDepths[i] = Math.max(maxDepths[i], other.maxDepths[i]);
+    }
+    for(int i = 0; i < depthHistogram.length; i++)
+    {
+      depthHistogram[i] += other.depthHistogram[i];
+    }
+    totalChanges += other.totalChanges;
+    sampledChanges += other.sampledChanges;
+    sampledNanos += other.sampledNanos;
+  }
+
+  private static class Row
+  {
+    final String name;
+    int          components;
+    long         tableInts;
+    long         triggers;
+    long         outputsProcessed;
+    long         depthTotal;
+    int          maxDepth;
+
+    Row(String name)
+    {
+      this.name = name;
+    }
+
+    void add(PropagationProfile profile, int slot, int slotTableInts)
+    {
+      components++;
+      tableInts += slotTableInts;
+      triggers += profile.triggers[slot];
+      outputsProcessed += profile.outputsProcessed[slot];
+      depthTotal += profile.depthTotals[slot];
+      maxDepth = Math.max(maxDepth, profile.maxDepths[slot]);
+    }
+  }
+
+  /**
+   * Format the profile as a report
+   * @param slotNames Description of the component in each slot (null for unused slots)
+   * @param slotForms Sentence form each slot is attributed to (null for unused slots)
+   * @param slotTableInts Size of each slot's entry in the component data table
+   * @param maxRows Maximum number of rows to list in each section
+   * @return the report
+   */
+  String format(String[] slotNames, String[] slotForms, int[] slotTableInts, int maxRows)
+  {
+    Map<String, Row> formRows = new HashMap<>();
+    List<Row> componentRows = new ArrayList<>();
+    long totalOutputs = 0;
+    long totalTriggers = 0;
+    long totalTableInts = 0;
+
+    for(int slot = 0; slot < slotNames.length; slot++)
+    {
+      if ( slotNames[slot] == null )
+      {
+        continue;
+      }
+
+      Row formRow = formRows.get(slotForms[slot]);
+      if ( formRow == null )
+      {
+        formRow = new Row(slotForms[slot]);
+        formRows.put(slotForms[slot], formRow);
+      }
+      formRow.add(this, slot, slotTableInts[slot]);
+
+      if ( triggers[slot] > 0 )
+      {
+        Row componentRow = new Row(slotNames[slot]);
+        componentRow.add(this, slot, slotTableInts[slot]);
+        componentRows.add(componentRow);
+      }
+
+      totalOutputs += outputsProcessed[slot];
+      totalTriggers += triggers[slot];
+      totalTableInts += slotTableInts[slot];
+    }
+
+    StringBuilder report = new StringBuilder();
+    if ( totalChanges == 0 )
+    {
+      return report.append("No input changes (component data table: " + totalTableInts + " ints)\n").toString();
+    }
+
+    report.append("Profiled " + sampledChanges + " of " + totalChanges + " input changes: " +
+                  totalTriggers + " component changes, " + totalOutputs + " outputs processed");
+    if ( sampledChanges > 0 )
+    {
+      report.append(String.format(", %.1f components and %.0fns per input change",
+                                  (double)totalTriggers / sampledChanges,
+                                  (double)sampledNanos / sampledChanges));
+    }
+    report.append("\nComponent data table: " + totalTableInts + " ints\n");
+
+    List<Row> sortedFormRows = new ArrayList<>(formRows.values());
+    sortRows(sortedFormRows);
+    report.append("\nBy sentence form (components which are not propositions are attributed to the first proposition they feed):\n");
+    appendRows(report, sortedFormRows, maxRows, totalOutputs, true);
+
+    sortRows(componentRows);
+    report.append("\nBy component:\n");
+    appendRows(report, componentRows, maxRows, totalOutputs, false);
+
+    report.append("\nPropagation depth histogram (depth: component changes):\n");
+    for(int depth = 0; depth < depthHistogram.length; depth++)
+    {
+      if ( depthHistogram[depth] > 0 )
+      {
+        report.append(String.format("  %s%d: %d\n",
+                                    (depth == MAX_RECORDED_DEPTH ? ">=" : ""),
+                                    depth,
+                                    depthHistogram[depth]));
+      }
+    }
+
+    return report.toString();
+  }
+
+  private static void sortRows(List<Row> rows)
+  {
+    Collections.sort(rows, new Comparator<Row>()
+    {
+      @Override
+      public int compare(Row r1, Row r2)
+      {
+        return Long.compare(r2.outputsProcessed, r1.outputsProcessed);
+      }
+    });
+  }
+
+  private static void appendRows(StringBuilder report,
+                                 List<Row> rows,
+                                 int maxRows,
+                                 long totalOutputs,
+                                 boolean showComponentCounts)
+  {
+    report.append(String.format("  %6s %12s %14s %9s %9s %8s  %s\n",
+                                "work%", "triggers", "outputs", "avgDepth", "maxDepth", "ints",
+                                (showComponentCounts ? "sentence form (components)" : "component")));
+    for(int i = 0; i < rows.size() && i < maxRows; i++)
+    {
+      Row row = rows.get(i);
+      report.append(String.format("  %6.2f %12d %14d %9.1f %9d %8d  %s\n",
+                                  (totalOutputs == 0 ? 0 : 100.0 * row.outputsProcessed / totalOutputs),
+                                  row.triggers,
+                                  row.outputsProcessed,
+                                  (row.triggers == 0 ? 0 : (double)row.depthTotal / row.triggers),
+                                  row.maxDepth,
+                                  row.tableInts,
+                                  (showComponentCounts ? row.name + " (" + row.components + ")" : row.name)));
+    }
+    if ( rows.size() > maxRows )
+    {
+      report.append("  ... " + (rows.size() - maxRows) + " more\n");
+    }
+  }
+}
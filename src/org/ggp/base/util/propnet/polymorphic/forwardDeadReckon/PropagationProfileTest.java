@@ -0,0 +1,203 @@
+package org.ggp.base.util.propnet.polymorphic.forwardDeadReckon;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropagationProfileTest extends Assert
+{
+  private static final Pattern SUMMARY = Pattern.compile("Profiled (\\d+) of (\\d+) input changes: (\\d+) component");
+
+  @Test
+  public void testSampling()
+  {
+    PropagationProfile lProfile = new PropagationProfile(4, 3);
+    for (int lii = 1; lii <= 10; lii++)
+    {
+      assertEquals("Change " + lii, lii % 3 == 0, lProfile.sampleNext());
+    }
+    assertEquals(10, lProfile.totalChanges);
+    assertEquals(3, lProfile.sampledChanges);
+
+    // An interval of 0 (or less) samples everything.
+    lProfile = new PropagationProfile(4, 0);
+    for (int lii = 0; lii < 5; lii++)
+    {
+      assertTrue(lProfile.sampleNext());
+    }
+  }
+
+  @Test
+  public void testRecordAndMerge()
+  {
+    PropagationProfile lProfile = new PropagationProfile(4, 1);
+    lProfile.record(1, 10, 0);
+    lProfile.record(1, 10, 2);
+    lProfile.record(2, 3, 100);
+
+    assertEquals(2, lProfile.triggers[1]);
+    assertEquals(20, lProfile.outputsProcessed[1]);
+    assertEquals(2, lProfile.depthTotals[1]);
+    assertEquals(2, lProfile.maxDepths[1]);
+    assertEquals(100, lProfile.maxDepths[2]);
+    assertEquals(0, lProfile.triggers[0]);
+
+    // Depths beyond the end of the histogram are counted in its last bucket.
+    assertEquals(1, lProfile.depthHistogram[0]);
+    assertEquals(1, lProfile.depthHistogram[2]);
+    assertEquals(1, lProfile.depthHistogram[lProfile.depthHistogram.length - 1]);
+
+    PropagationProfile lOther = new PropagationProfile(4, 1);
+    lOther.sampleNext();
+    lOther.sampledNanos = 50;
+    lOther.record(1, 10, 5);
+    lOther.record(3, 1, 0);
+
+    lProfile.merge(lOther);
+    assertEquals(3, lProfile.triggers[1]);
+    assertEquals(30, lProfile.outputsProcessed[1]);
+    assertEquals(7, lProfile.depthTotals[1]);
+    assertEquals(5, lProfile.maxDepths[1]);
+    assertEquals(1, lProfile.triggers[3]);
+    assertEquals(2, lProfile.depthHistogram[0]);
+    assertEquals(1, lProfile.totalChanges);
+    assertEquals(1, lProfile.sampledChanges);
+    assertEquals(50, lProfile.sampledNanos);
+  }
+
+  @Test
+  public void testFormat()
+  {
+    String[] lNames = {null, "( true ( a 1 ) )", "( true ( a 2 ) )", "( b )"};
+    String[] lForms = {null, "(true (a _))", "(true (a _))", "(b)"};
+    int[] lTableInts = {4, 4, 8, 4};
+
+    // Nothing to report before any input changes.
+    PropagationProfile lProfile = new PropagationProfile(4, 1);
+    assertEquals("No input changes (component data table: 16 ints)\n", lProfile.format(lNames, lForms, lTableInts, 10));
+
+    lProfile.sampleNext();
+    lProfile.sampleNext();
+    lProfile.record(1, 2, 0);
+    lProfile.record(2, 10, 1);
+    lProfile.record(3, 8, 70);
+    String lReport = lProfile.format(lNames, lForms, lTableInts, 10);
+
+    // The unused slot doesn't count towards the table size.
+    assertTrue(lReport, lReport.startsWith("Profiled 2 of 2 input changes: 3 component changes, 20 outputs processed"));
+    assertTrue(lReport, lReport.contains("\nComponent data table: 16 ints\n"));
+
+    // Both "a" propositions are reported against their sentence form, which did 60% of the work and so comes first.
+    String lBySentenceForm = section(lReport, "By sentence form");
+    assertTrue(lBySentenceForm, lBySentenceForm.contains("60.00"));
+    assertTrue(lBySentenceForm, lBySentenceForm.contains("(true (a _)) (2)"));
+    assertTrue(lBySentenceForm, lBySentenceForm.indexOf("(true (a _))") < lBySentenceForm.indexOf("(b) (1)"));
+
+    // Individual components are ranked by outputs processed.
+    String lByComponent = section(lReport, "By component");
+    int lA2 = lByComponent.indexOf("( true ( a 2 ) )");
+    int lB = lByComponent.indexOf("( b )");
+    int lA1 = lByComponent.indexOf("( true ( a 1 ) )");
+    assertTrue(lByComponent, lA2 >= 0 && lA2 < lB && lB < lA1);
+
+    String lHistogram = section(lReport, "Propagation depth histogram");
+    assertTrue(lHistogram, lHistogram.contains("  0: 1\n"));
+    assertTrue(lHistogram, lHistogram.contains("  1: 1\n"));
+    assertTrue(lHistogram, lHistogram.contains("  >=63: 1\n"));
+
+    // Sections are cut short at the requested number of rows.
+    lReport = lProfile.format(lNames, lForms, lTableInts, 1);
+    assertTrue(lReport, section(lReport, "By sentence form").contains("... 1 more\n"));
+    assertTrue(lReport, section(lReport, "By component").contains("... 2 more\n"));
+  }
+
+  @Test
+  public void testProfiledPropagation() throws Exception
+  {
+    checkProfiledPropagation("ticTacToe", "xplayer");
+    checkProfiledPropagation("connectFour", "red");
+  }
+
+  private static void checkProfiledPropagation(String xiGame, String xiRole) throws Exception
+  {
+    // Play the same games on two machines, one profiling every input change and one not profiling at all.  The
+    // profiled propagation must give the same results.
+    ForwardDeadReckonPropnetStateMachine lPlain = createMachine(xiGame, xiRole);
+    ForwardDeadReckonPropnetStateMachine lProfiled = createMachine(xiGame, xiRole);
+    assertNull(lProfiled.getPropagationProfileReport(10));
+    lProfiled.enablePropagationProfiling(1);
+
+    Random lRandom = new Random(1);
+    for (int lGame = 0; lGame < 20; lGame++)
+    {
+      MachineState lPlainState = lPlain.getInitialState();
+      MachineState lProfiledState = lProfiled.getInitialState();
+
+      while (!lPlain.isTerminal(lPlainState))
+      {
+        assertFalse(lProfiled.isTerminal(lProfiledState));
+        List<Move> lMoves = new ArrayList<>();
+        for (Role lRole : lPlain.getRoles())
+        {
+          List<Move> lLegals = lPlain.getLegalMoves(lPlainState, lRole);
+          // The two machines needn't list the legal moves in the same order.
+          assertEquals(new HashSet<>(lLegals), new HashSet<>(lProfiled.getLegalMoves(lProfiledState, lRole)));
+          lMoves.add(lLegals.get(lRandom.nextInt(lLegals.size())));
+        }
+        lPlainState = lPlain.getNextState(lPlainState, lMoves);
+        lProfiledState = lProfiled.getNextState(lProfiledState, lMoves);
+        assertEquals(lPlainState, lProfiledState);
+      }
+
+      assertTrue(lProfiled.isTerminal(lProfiledState));
+      assertEquals(lPlain.getGoals(lPlainState), lProfiled.getGoals(lProfiledState));
+    }
+
+    // Every change was sampled, and each one changed at least the input itself.
+    String lReport = lProfiled.getPropagationProfileReport(10);
+    assertNotNull(lReport);
+    Matcher lMatcher = SUMMARY.matcher(lReport);
+    assertTrue(lReport, lMatcher.find());
+    do
+    {
+      long lSampled = Long.parseLong(lMatcher.group(1));
+      assertTrue(lReport, lSampled > 0);
+      assertEquals(lReport, lSampled, Long.parseLong(lMatcher.group(2)));
+      assertTrue(lReport, Long.parseLong(lMatcher.group(3)) >= lSampled);
+    } while (lMatcher.find());
+
+    lProfiled.enablePropagationProfiling(1);
+    assertFalse(lProfiled.getPropagationProfileReport(10).contains("Profiled"));
+  }
+
+  private static ForwardDeadReckonPropnetStateMachine createMachine(String xiGame, String xiRole)
+  {
+    ForwardDeadReckonPropnetStateMachine lMachine =
+                        new ForwardDeadReckonPropnetStateMachine(1, 0, new Role(GdlPool.getConstant(xiRole)), null);
+    lMachine.initialize(new TestGameRepository().getGame(xiGame).getRules());
+    return lMachine;
+  }
+
+  /**
+   * @return the section of a report starting with the specified heading, up to the next blank line.
+   */
+  private static String section(String xiReport, String xiHeading)
+  {
+    int lStart = xiReport.indexOf("\n" + xiHeading);
+    assertTrue(xiReport, lStart >= 0);
+    int lEnd = xiReport.indexOf("\n\n", lStart + 1);
+    return (lEnd < 0) ? xiReport.substring(lStart) : xiReport.substring(lStart, lEnd + 1);
+  }
+}
@@ -3,8 +3,10 @@ package org.ggp.base.util.prover.aima;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.GdlUtils;
@@ -29,21 +31,49 @@ import org.ggp.base.util.prover.aima.unifier.Unifier;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
 
+/**
+ * A backward-chaining prover over the game description.
+ *
+ * Answers are cached at three levels.  Answers that don't depend on the
+ * context (i.e. on "true" or "does" sentences) are cached for the lifetime of
+ * the prover.  Answers for relations that can't depend on "does" sentences are
+ * cached per state (the "true" sentences of the context), for the most
+ * recently queried few states, so that the legal, goal, terminal and
+ * next-state queries on one state share their derived facts.  All other
+ * answers are cached for the duration of a single query.
+ */
 public final class AimaProver implements Prover
 {
+	private static final int MAX_CACHED_STATES = 8;
 
 	private final KnowledgeBase knowledgeBase;
 
 	private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+	private final Set<GdlConstant> doesDependentRelations;
+
+	private final Map<Set<GdlSentence>, StateTables> stateTables =
+			new LinkedHashMap<Set<GdlSentence>, StateTables>(MAX_CACHED_STATES * 2, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Set<GdlSentence>, StateTables> eldest)
+				{
+					return size() > MAX_CACHED_STATES;
+				}
+			};
+
 	public AimaProver(List<Gdl> description)
 	{
 		description = DistinctAndNotMover.run(description);
 		knowledgeBase = new KnowledgeBase(Sets.newHashSet(description));
+		doesDependentRelations = findDoesDependentRelations(description);
 	}
 
 	private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
@@ -52,7 +82,7 @@ public final class AimaProver implements Prover
 		goals.add(query);
 
 		Set<Substitution> answers = new HashSet<>();
-		ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(),
+		ask(goals, createQueryContext(context), new Substitution(),
 				new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
 
 		Set<GdlSentence> results = new HashSet<>();
@@ -64,7 +94,7 @@ public final class AimaProver implements Prover
 		return results;
 	}
 
-	private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+	private void ask(LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
 	{
 		if (goals.size() == 0)
 		{
@@ -79,22 +109,22 @@ public final class AimaProver implements Prover
     if (qPrime instanceof GdlDistinct)
     {
     	GdlDistinct distinct = (GdlDistinct) qPrime;
-    	askDistinct(distinct, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+    	askDistinct(distinct, goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
     }
     else if (qPrime instanceof GdlNot)
     {
     	GdlNot not = (GdlNot) qPrime;
-    	askNot(not, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+    	askNot(not, goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
     }
     else if (qPrime instanceof GdlOr)
     {
     	GdlOr or = (GdlOr) qPrime;
-    	askOr(or, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+    	askOr(or, goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
     }
     else
     {
     	GdlSentence sentence = (GdlSentence) qPrime;
-    	askSentence(sentence, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+    	askSentence(sentence, goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
     }
 
     goals.addFirst(literal);
@@ -106,29 +136,29 @@ public final class AimaProver implements Prover
 		return ask(query, context, false);
 	}
 
-	private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+	private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
 	{
 		if (!distinct.getArg1().equals(distinct.getArg2()))
 		{
-			ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+			ask(goals, context, theta, renamer, askOne, results, recursionHandler, isConstant);
 		} else {
 			isConstant.value = true;
 		}
 	}
 
-	private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+	private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
 	{
 		LinkedList<GdlLiteral> notGoals = new LinkedList<>();
 		notGoals.add(not.getBody());
 
 		Set<Substitution> notResults = new HashSet<>();
 		boolean isConstant = true;
-		ask(notGoals, context, theta, cache, renamer, true, notResults, recursionHandler, isConstantRet);
+		ask(notGoals, context, theta, renamer, true, notResults, recursionHandler, isConstantRet);
 		isConstant &= isConstantRet.value;
 
 		if (notResults.size() == 0)
 		{
-			ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
+			ask(goals, context, theta, renamer, askOne, results, recursionHandler, isConstantRet);
 			isConstant &= isConstantRet.value;
 		}
 		isConstantRet.value = isConstant;
@@ -141,13 +171,13 @@ public final class AimaProver implements Prover
 		return (results.size() > 0) ? results.iterator().next() : null;
 	}
 
-	private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+	private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
 	{
 		boolean isConstant = true;
 		for (int i = 0; i < or.arity(); i++)
 		{
 			goals.addFirst(or.get(i));
-			ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
+			ask(goals, context, theta, renamer, askOne, results, recursionHandler, isConstantRet);
 			isConstant &= isConstantRet.value;
 			goals.removeFirst();
 
@@ -159,15 +189,15 @@ public final class AimaProver implements Prover
 		isConstantRet.value = isConstant;
 	}
 
-	private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
+	private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, QueryContext context, Substitution theta, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
 			IsConstant isConstantRet) {
 		Collection<Substitution> sentenceResults = findSentenceResults(sentence,
-				context, theta, cache, renamer, recursionHandler, isConstantRet);
+				context, theta, renamer, recursionHandler, isConstantRet);
 
 		boolean isConstant = isConstantRet.value;
 		for (Substitution thetaPrime : sentenceResults)
 		{
-			ask(goals, context, theta.compose(thetaPrime), cache, renamer, askOne, results, recursionHandler, isConstantRet);
+			ask(goals, context, theta.compose(thetaPrime), renamer, askOne, results, recursionHandler, isConstantRet);
 			isConstant &= isConstantRet.value;
 			if (askOne && (results.size() > 0))
 			{
@@ -178,15 +208,17 @@ public final class AimaProver implements Prover
 	}
 
 	private Collection<Substitution> findSentenceResults(GdlSentence sentence,
-			KnowledgeBase context, Substitution theta,
-			ProverCache cache, VariableRenamer renamer, RecursionHandler recursionHandler,
+			QueryContext context, Substitution theta,
+			VariableRenamer renamer, RecursionHandler recursionHandler,
 			IsConstant isConstantRet) {
 		GdlSentence varRenamedSentence = new VariableRenamer().rename(sentence);
-		if (!fixedAnswerCache.contains(varRenamedSentence) && !cache.contains(varRenamedSentence))
+		if (!fixedAnswerCache.contains(varRenamedSentence) && !context.hasAnswers(varRenamedSentence))
 		{
-			if (recursionHandler.alreadyAsking.contains(varRenamedSentence)) {
+			Integer askingDepth = recursionHandler.alreadyAsking.get(varRenamedSentence);
+			if (askingDepth != null) {
 				//Mark that we're in recursive mode and shouldn't cache results
 				recursionHandler.calledRecursively.add(varRenamedSentence);
+				recursionHandler.lowestDependency = Math.min(recursionHandler.lowestDependency, askingDepth);
 				//Return stuff that we've seen as an answer for this before
 				Collection<GdlSentence> previousResults = recursionHandler.previousResults.get(varRenamedSentence);
 				List<Substitution> results = Lists.newArrayListWithCapacity(previousResults.size());
@@ -195,10 +227,14 @@ public final class AimaProver implements Prover
 				}
 				return results;
 			}
-			recursionHandler.alreadyAsking.add(varRenamedSentence);
+			int depth = recursionHandler.alreadyAsking.size();
+			recursionHandler.alreadyAsking.put(varRenamedSentence, depth);
+			int outerLowestDependency = recursionHandler.lowestDependency;
+			recursionHandler.lowestDependency = Integer.MAX_VALUE;
+
 			List<GdlRule> candidates = new ArrayList<>();
 			candidates.addAll(knowledgeBase.fetch(sentence));
-			candidates.addAll(context.fetch(sentence));
+			context.addFacts(sentence, candidates);
 			boolean isConstant = !isTrueOrDoesSentence(sentence);
 
 			Set<Substitution> sentenceResults = new HashSet<>();
@@ -215,7 +251,7 @@ public final class AimaProver implements Prover
 						sentenceGoals.add(r.get(i));
 					}
 
-					ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
+					ask(sentenceGoals, context, theta.compose(thetaPrime), renamer, false, sentenceResults, recursionHandler, isConstantRet);
 					isConstant &= isConstantRet.value;
 				}
 			}
@@ -240,7 +276,7 @@ public final class AimaProver implements Prover
 								sentenceGoals.add(r.get(i));
 							}
 
-							ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
+							ask(sentenceGoals, context, theta.compose(thetaPrime), renamer, false, sentenceResults, recursionHandler, isConstantRet);
 							isConstant &= isConstantRet.value;
 						}
 					}
@@ -251,12 +287,18 @@ public final class AimaProver implements Prover
 			recursionHandler.alreadyAsking.remove(varRenamedSentence);
 			recursionHandler.previousResults.removeAll(varRenamedSentence);
 
+			//The answers are complete unless they were derived from the partial
+			//answers of a goal that is still being evaluated further up the stack
+			boolean complete = (recursionHandler.lowestDependency >= depth);
+			recursionHandler.lowestDependency = complete ? outerLowestDependency :
+					Math.min(outerLowestDependency, recursionHandler.lowestDependency);
+
 			isConstantRet.value = isConstant;
-			if (recursionHandler.calledRecursively.isEmpty()) {
+			if (complete) {
 				if (isConstant) {
 					fixedAnswerCache.put(sentence, varRenamedSentence, sentenceResults);
 				} else {
-					cache.put(sentence, varRenamedSentence, sentenceResults);
+					context.putAnswers(sentence, varRenamedSentence, sentenceResults);
 				}
 			}
 
@@ -271,7 +313,7 @@ public final class AimaProver implements Prover
 		List<Substitution> cachedResults = fixedAnswerCache.get(sentence, varRenamedSentence);
 		isConstantRet.value = (cachedResults != null);
 		if (cachedResults == null) {
-			cachedResults = cache.get(sentence, varRenamedSentence);
+			cachedResults = context.getAnswers(sentence, varRenamedSentence);
 		}
 		return cachedResults;
 	}
@@ -290,6 +332,106 @@ public final class AimaProver implements Prover
 		return results;
 	}
 
+	/**
+	 * @return the relations whose answers may depend on "does" sentences, i.e.
+	 * "does" itself and everything defined in terms of it.
+	 */
+	private static Set<GdlConstant> findDoesDependentRelations(List<Gdl> description)
+	{
+		Multimap<GdlConstant, GdlConstant> dependents = HashMultimap.create();
+		for (Gdl gdl : description)
+		{
+			if (gdl instanceof GdlRule)
+			{
+				GdlRule rule = (GdlRule)gdl;
+				for (GdlLiteral literal : rule.getBody())
+				{
+					addDependents(literal, rule.getHead().getName(), dependents);
+				}
+			}
+		}
+
+		Set<GdlConstant> result = Sets.newHashSet(GdlPool.DOES);
+		LinkedList<GdlConstant> toVisit = new LinkedList<>(result);
+		while (!toVisit.isEmpty())
+		{
+			for (GdlConstant dependent : dependents.get(toVisit.removeFirst()))
+			{
+				if (result.add(dependent))
+				{
+					toVisit.add(dependent);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void addDependents(GdlLiteral literal, GdlConstant head, Multimap<GdlConstant, GdlConstant> dependents)
+	{
+		if (literal instanceof GdlSentence)
+		{
+			dependents.put(((GdlSentence)literal).getName(), head);
+		}
+		else if (literal instanceof GdlNot)
+		{
+			addDependents(((GdlNot)literal).getBody(), head, dependents);
+		}
+		else if (literal instanceof GdlOr)
+		{
+			GdlOr or = (GdlOr)literal;
+			for (int i = 0; i < or.arity(); i++)
+			{
+				addDependents(or.get(i), head, dependents);
+			}
+		}
+	}
+
+	/**
+	 * Split the context into the state ("true" sentences) and the moves ("does"
+	 * sentences), and look up (or create) the cached tables for the state.
+	 */
+	private QueryContext createQueryContext(Set<GdlSentence> context)
+	{
+		Set<GdlSentence> stateContext = context;
+		Set<GdlSentence> moveContext = null;
+		for (GdlSentence sentence : context)
+		{
+			if (sentence.getName() == GdlPool.DOES)
+			{
+				stateContext = new HashSet<>();
+				moveContext = new HashSet<>();
+				for (GdlSentence contextSentence : context)
+				{
+					if (contextSentence.getName() == GdlPool.DOES)
+					{
+						moveContext.add(contextSentence);
+					}
+					else
+					{
+						stateContext.add(contextSentence);
+					}
+				}
+				break;
+			}
+		}
+
+		StateTables tables;
+		synchronized (stateTables)
+		{
+			tables = stateTables.get(stateContext);
+			if (tables == null)
+			{
+				// Copy the key, in case the caller goes on to modify its context.
+				stateContext = new HashSet<>(stateContext);
+				tables = new StateTables(new KnowledgeBase(stateContext));
+				stateTables.put(stateContext, tables);
+			}
+		}
+
+		return new QueryContext(tables,
+				(moveContext == null) ? null : new KnowledgeBase(moveContext));
+	}
+
 	private boolean isTrueOrDoesSentence(GdlSentence sentence) {
 		GdlConstant name = sentence.getName();
 		return name == GdlPool.TRUE || name == GdlPool.DOES;
@@ -310,6 +452,62 @@ public final class AimaProver implements Prover
 		public boolean value = true;
 	}
 
+	/*
+	 * The facts of a state, and the answers derived from them (for relations
+	 * that don't depend on "does").  Shared between queries, and so between
+	 * threads.
+	 */
+	private static class StateTables {
+		public final KnowledgeBase facts;
+		public final ProverCache answers = ProverCache.createMultiThreadedCache();
+
+		public StateTables(KnowledgeBase facts) {
+			this.facts = facts;
+		}
+	}
+
+	/*
+	 * The context of a single query: the state's facts and answers, plus the
+	 * facts of any moves and the answers that depend on them.
+	 */
+	private final class QueryContext {
+		private final StateTables stateTables;
+		private final KnowledgeBase moveFacts;
+		private final ProverCache moveAnswers = ProverCache.createSingleThreadedCache();
+
+		public QueryContext(StateTables stateTables, KnowledgeBase moveFacts) {
+			this.stateTables = stateTables;
+			this.moveFacts = moveFacts;
+		}
+
+		public void addFacts(GdlSentence sentence, List<GdlRule> candidates) {
+			candidates.addAll(stateTables.facts.fetch(sentence));
+			if (moveFacts != null) {
+				candidates.addAll(moveFacts.fetch(sentence));
+			}
+		}
+
+		public boolean hasAnswers(GdlSentence renamedSentence) {
+			return stateTables.answers.contains(renamedSentence) || moveAnswers.contains(renamedSentence);
+		}
+
+		public List<Substitution> getAnswers(GdlSentence sentence, GdlSentence renamedSentence) {
+			List<Substitution> answers = stateTables.answers.get(sentence, renamedSentence);
+			if (answers == null) {
+				answers = moveAnswers.get(sentence, renamedSentence);
+			}
+			return answers;
+		}
+
+		public void putAnswers(GdlSentence sentence, GdlSentence renamedSentence, Set<Substitution> answers) {
+			if (doesDependentRelations.contains(sentence.getName())) {
+				moveAnswers.put(sentence, renamedSentence, answers);
+			} else {
+				stateTables.answers.put(sentence, renamedSentence, answers);
+			}
+		}
+	}
+
 	/*
 	 * Contains some mutable values used by the recursion implementation, to reduce
 	 * the number of arguments being passed around.
@@ -323,9 +521,16 @@ public final class AimaProver implements Prover
 	 * We also stop the caching of intermediate results while running a recursive query.
 	 *
 	 * This is not necessarily the most efficient approach, but it gives correct results.
+	 *
+	 * Each goal being asked is recorded with its depth in the stack of goals being
+	 * asked.  lowestDependency is the lowest depth of any goal whose partial answers
+	 * have been used since the current goal was entered.  If that isn't above the
+	 * current goal, the current goal's answers are complete and can be tabled, even
+	 * while some other recursive query is in progress.
 	 */
 	private static class RecursionHandler {
-		public Set<GdlSentence> alreadyAsking = Sets.newHashSet();
+		public Map<GdlSentence, Integer> alreadyAsking = Maps.newHashMap();
+		public int lowestDependency = Integer.MAX_VALUE;
 		public Set<GdlSentence> calledRecursively = Sets.newHashSet();
 		public Multimap<GdlSentence, GdlSentence> previousResults = HashMultimap.create();
 	}
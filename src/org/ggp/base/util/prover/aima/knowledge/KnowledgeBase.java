@@ -1,7 +1,7 @@
-
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,14 +9,74 @@ import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
 
+/**
+ * The rules (and facts) of a description, indexed by the name of their head
+ * and then by the first argument of their head.
+ *
+ * The first-argument key of a sentence is its first argument if that is a
+ * constant, or the name of its first argument if that is a function.  A rule
+ * whose head has no such key (because its first argument is a variable, or it
+ * has no arguments) can match any query, so it is included in every keyed
+ * list.  A query with no key gets all the rules for its name.  Within each
+ * list, rules stay in description order.
+ */
 public final class KnowledgeBase
 {
-  private final Map<GdlConstant, List<GdlRule>> contents;
+  private static final List<GdlRule> NO_RULES = Collections.emptyList();
+
+  private final Map<GdlConstant, RulesForName> contents;
+
+  private static final class RulesForName
+  {
+    final List<GdlRule>                    all      = new ArrayList<>();
+    final List<GdlRule>                    unkeyed  = new ArrayList<>();
+    final Map<GdlConstant, List<GdlRule>> byFirstArg = new HashMap<>();
+
+    void add(GdlRule rule)
+    {
+      all.add(rule);
+
+      GdlConstant key = getFirstArgKey(rule.getHead());
+      if (key == null)
+      {
+        unkeyed.add(rule);
+        for (List<GdlRule> keyedRules : byFirstArg.values())
+        {
+          keyedRules.add(rule);
+        }
+      }
+      else
+      {
+        List<GdlRule> keyedRules = byFirstArg.get(key);
+        if (keyedRules == null)
+        {
+          // Any unkeyed rules seen so far precede this one.
+          keyedRules = new ArrayList<>(unkeyed);
+          byFirstArg.put(key, keyedRules);
+        }
+        keyedRules.add(rule);
+      }
+    }
+
+    List<GdlRule> fetch(GdlSentence sentence)
+    {
+      GdlConstant key = getFirstArgKey(sentence);
+      if (key == null)
+      {
+        return all;
+      }
+
+      List<GdlRule> keyedRules = byFirstArg.get(key);
+      return (keyedRules != null) ? keyedRules : unkeyed;
+    }
+  }
 
   public KnowledgeBase(Set<? extends Gdl> description)
   {
@@ -29,20 +89,44 @@ public final class KnowledgeBase
 
       if (!contents.containsKey(key))
       {
-        contents.put(key, new ArrayList<GdlRule>());
+        contents.put(key, new RulesForName());
       }
       contents.get(key).add(rule);
     }
   }
 
+  /**
+   * @return the rules whose heads might unify with the given sentence.  The
+   * returned list must not be modified.
+   */
   public synchronized List<GdlRule> fetch(GdlSentence sentence)
   {
     GdlConstant key = sentence.getName();
 
-    if (contents.containsKey(key))
+    RulesForName rules = contents.get(key);
+    if (rules != null)
+    {
+      return rules.fetch(sentence);
+    }
+    return NO_RULES;
+  }
+
+  private static GdlConstant getFirstArgKey(GdlSentence sentence)
+  {
+    if (sentence.arity() == 0)
+    {
+      return null;
+    }
+
+    GdlTerm firstArg = sentence.get(0);
+    if (firstArg instanceof GdlConstant)
+    {
+      return (GdlConstant)firstArg;
+    }
+    if (firstArg instanceof GdlFunction)
     {
-      return contents.get(key);
+      return ((GdlFunction)firstArg).getName();
     }
-    return new ArrayList<>();
+    return null;
   }
-}
\ No newline at end of file
+}
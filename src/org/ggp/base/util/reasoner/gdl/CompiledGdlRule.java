@@ -0,0 +1,164 @@
+package org.ggp.base.util.reasoner.gdl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModels;
+import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SimpleSentenceForm;
+import org.ggp.base.util.gdl.model.assignments.AssignmentsImpl;
+import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
+import org.ggp.base.util.gdl.model.assignments.IterationOrderCandidate;
+
+/**
+ * A rule prepared for repeated application by a {@link GdlChainingReasoner}.
+ * The variable domains are computed up front, and the iteration order (join
+ * plan) is chosen the first time the rule is applied - both for a full
+ * application and for each body literal used as the input to a differential
+ * application - and reused thereafter. The sentence form and variables of
+ * each literal are also computed up front. Note that this class is not
+ * thread-safe.
+ */
+public class CompiledGdlRule
+{
+  private final GdlRule                                rule;
+  private final Map<GdlVariable, Set<GdlConstant>>     varDomains;
+  private final boolean                                reusePlans;
+  private final Map<GdlSentence, SentenceForm>         sentenceForms = new IdentityHashMap<>();
+  private final Map<GdlLiteral, List<GdlVariable>>     literalVariables = new IdentityHashMap<>();
+  private IterationOrderCandidate                      fullPlan;
+  private final Map<GdlSentence, IterationOrderCandidate> differentialPlans = new IdentityHashMap<>();
+
+  private static final Map<GdlVariable, GdlConstant>   NO_PREASSIGNMENT = Collections.emptyMap();
+
+  private CompiledGdlRule(GdlRule rule,
+                          Map<GdlVariable, Set<GdlConstant>> varDomains,
+                          boolean reusePlans)
+  {
+    this.rule = rule;
+    this.varDomains = varDomains;
+    this.reusePlans = reusePlans;
+
+    sentenceForms.put(rule.getHead(), SimpleSentenceForm.create(rule.getHead()));
+    literalVariables.put(rule.getHead(), GdlUtils.getVariables(rule.getHead()));
+    for (GdlLiteral literal : rule.getBody())
+    {
+      literalVariables.put(literal, GdlUtils.getVariables(literal));
+      if (literal instanceof GdlSentence)
+      {
+        sentenceForms.put((GdlSentence)literal,
+                          SimpleSentenceForm.create((GdlSentence)literal));
+      }
+      else if (literal instanceof GdlNot &&
+               ((GdlNot)literal).getBody() instanceof GdlSentence)
+      {
+        GdlSentence body = (GdlSentence)((GdlNot)literal).getBody();
+        sentenceForms.put(body, SimpleSentenceForm.create(body));
+      }
+    }
+  }
+
+  /**
+   * Compiles a rule whose plans will be reused for every application.
+   */
+  public static CompiledGdlRule create(GdlRule rule, SentenceDomainModel domainModel)
+  {
+    return new CompiledGdlRule(rule, getVarDomains(rule, domainModel), true);
+  }
+
+  /**
+   * Wraps a rule for a single application, planning afresh from the current
+   * sentences.
+   */
+  static CompiledGdlRule createForSingleUse(GdlRule rule, SentenceDomainModel domainModel)
+  {
+    return new CompiledGdlRule(rule, getVarDomains(rule, domainModel), false);
+  }
+
+  private static Map<GdlVariable, Set<GdlConstant>> getVarDomains(GdlRule rule,
+                                                                  SentenceDomainModel domainModel)
+  {
+    return SentenceDomainModels.getVarDomains(rule,
+                                              domainModel,
+                                              VarDomainOpts.INCLUDE_HEAD);
+  }
+
+  public GdlRule getRule()
+  {
+    return rule;
+  }
+
+  /**
+   * Returns the sentence form of a (positive or negated) sentence in the body
+   * of the rule, or of its head. Instantiating a sentence's variables doesn't
+   * change its form, so this is also the form of any ground instance.
+   */
+  SentenceForm getSentenceForm(GdlSentence sentence)
+  {
+    return sentenceForms.get(sentence);
+  }
+
+  /**
+   * Returns the variables of a literal in the body of the rule, or of its
+   * head.
+   */
+  List<GdlVariable> getVariables(GdlLiteral literal)
+  {
+    return literalVariables.get(literal);
+  }
+
+  IterationOrderCandidate getPlan(Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+                                  Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues)
+  {
+    if (fullPlan == null || !reusePlans)
+    {
+      fullPlan = AssignmentsImpl.getBestIterationOrder(NO_PREASSIGNMENT,
+                                                       rule,
+                                                       varDomains,
+                                                       functionInfoMap,
+                                                       completedSentenceFormValues);
+    }
+    return fullPlan;
+  }
+
+  IterationOrderCandidate getPlan(GdlSentence chosenLiteral,
+                                  Map<GdlVariable, GdlConstant> preassignments,
+                                  Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+                                  Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues)
+  {
+    //The preassigned variables are always exactly those of the chosen
+    //literal, so one plan per literal suffices.
+    IterationOrderCandidate plan = reusePlans ? differentialPlans.get(chosenLiteral) : null;
+    if (plan == null)
+    {
+      plan = AssignmentsImpl.getBestIterationOrder(preassignments,
+                                                   rule,
+                                                   varDomains,
+                                                   functionInfoMap,
+                                                   completedSentenceFormValues);
+      if (reusePlans)
+      {
+        differentialPlans.put(chosenLiteral, plan);
+      }
+    }
+    return plan;
+  }
+
+  Map<GdlVariable, Set<GdlConstant>> getVarDomains()
+  {
+    return varDomains;
+  }
+}
@@ -2,6 +2,8 @@
 package org.ggp.base.util.reasoner.gdl;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -17,8 +19,6 @@ import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
 import org.ggp.base.util.gdl.model.SentenceDomainModel;
-import org.ggp.base.util.gdl.model.SentenceDomainModels;
-import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
 import org.ggp.base.util.gdl.model.SentenceForm;
 import org.ggp.base.util.gdl.model.SentenceFormModel;
 import org.ggp.base.util.gdl.model.assignments.AddibleFunctionInfo;
@@ -26,6 +26,7 @@ import org.ggp.base.util.gdl.model.assignments.AssignmentIterator;
 import org.ggp.base.util.gdl.model.assignments.Assignments;
 import org.ggp.base.util.gdl.model.assignments.AssignmentsImpl;
 import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
+import org.ggp.base.util.gdl.model.assignments.IterationOrderCandidate;
 import org.ggp.base.util.gdl.transforms.CommonTransforms;
 import org.ggp.base.util.reasoner.DifferentialForwardChainingReasoner;
 
@@ -72,20 +73,36 @@ public class GdlChainingReasoner
                                        SentenceDomainModel domainModel,
                                        GdlSentenceSet sentencesSoFar)
       throws InterruptedException
+  {
+    return getRuleResults(CompiledGdlRule.createForSingleUse(rule, domainModel),
+                          sentencesSoFar);
+  }
+
+  /**
+   * As {@link #getRuleResults(GdlRule, SentenceDomainModel, GdlSentenceSet)},
+   * for a rule that has been compiled for repeated application.
+   */
+  public GdlSentenceSet getRuleResults(CompiledGdlRule compiledRule,
+                                       GdlSentenceSet sentencesSoFar)
+      throws InterruptedException
   {
     ConcurrencyUtils.checkForInterruption();
-    SentenceForm headForm = model.getSentenceForm(rule.getHead());
-    Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels
-        .getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+    GdlRule rule = compiledRule.getRule();
+    SentenceForm headForm = compiledRule.getSentenceForm(rule.getHead());
     Map<SentenceForm, ? extends FunctionInfo> functionInfoMap = sentencesSoFar
         .getFunctionInfo();
     Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = sentencesSoFar
         .getSentences().asMap();
 
-    AssignmentsImpl assignments = new AssignmentsImpl(rule,
-                                                      varDomains,
-                                                      functionInfoMap,
-                                                      completedSentenceFormValues);
+    IterationOrderCandidate plan = compiledRule.getPlan(functionInfoMap,
+                                                        completedSentenceFormValues);
+    Assignments assignments = new AssignmentsImpl(plan,
+                                                  Collections.<GdlVariable, GdlConstant> emptyMap(),
+                                                  rule,
+                                                  compiledRule.getVarDomains(),
+                                                  functionInfoMap,
+                                                  completedSentenceFormValues);
+    List<GdlSentence> sourceConjuncts = plan.getSourceConjuncts();
     AssignmentIterator asnItr = assignments.getIterator();
     GdlSentenceSet sentencesToAdd = GdlSentenceSet.create();
     while (asnItr.hasNext())
@@ -95,9 +112,14 @@ public class GdlChainingReasoner
       for (GdlLiteral literal : rule.getBody())
       {
         ConcurrencyUtils.checkForInterruption();
-        if (!satisfies(assignment, literal, sentencesSoFar.getSentences()))
+        if (isSourceConjunct(literal, sourceConjuncts))
+        {
+          //The assignment was taken from a true instance of this literal
+          continue;
+        }
+        if (!satisfies(assignment, literal, sentencesSoFar.getSentences(), compiledRule))
         {
-          asnItr.changeOneInNext(GdlUtils.getVariables(literal), assignment);
+          asnItr.changeOneInNext(compiledRule.getVariables(literal), assignment);
           allSatisfied = false;
           break;
         }
@@ -107,21 +129,38 @@ public class GdlChainingReasoner
         GdlSentence head = rule.getHead();
         sentencesToAdd
             .put(headForm, CommonTransforms.replaceVariables(head, assignment));
-        asnItr.changeOneInNext(GdlUtils.getVariables(head), assignment);
+        asnItr.changeOneInNext(compiledRule.getVariables(head), assignment);
       }
     }
     return sentencesToAdd;
   }
 
+  private static boolean isSourceConjunct(GdlLiteral literal,
+                                          List<GdlSentence> sourceConjuncts)
+  {
+    //The plan's source conjuncts are the rule's own literals, so identity
+    //comparison suffices (and avoids deep equality checks).
+    for (GdlSentence sourceConjunct : sourceConjuncts)
+    {
+      if (sourceConjunct == literal)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private boolean satisfies(Map<GdlVariable, GdlConstant> assignment,
                             GdlLiteral literal,
-                            SetMultimap<SentenceForm, GdlSentence> sentencesSoFar)
+                            SetMultimap<SentenceForm, GdlSentence> sentencesSoFar,
+                            CompiledGdlRule compiledRule)
   {
     if (literal instanceof GdlSentence)
     {
       return satisfiesSentence(assignment,
                                (GdlSentence)literal,
-                               sentencesSoFar);
+                               sentencesSoFar,
+                               compiledRule);
     }
     else if (literal instanceof GdlNot)
     {
@@ -131,7 +170,10 @@ public class GdlChainingReasoner
         throw new IllegalStateException("Negated literal should be a sentence but isn't: " +
                                         body);
       }
-      return !satisfiesSentence(assignment, (GdlSentence)body, sentencesSoFar);
+      return !satisfiesSentence(assignment,
+                                (GdlSentence)body,
+                                sentencesSoFar,
+                                compiledRule);
     }
     else if (literal instanceof GdlDistinct)
     {
@@ -143,7 +185,7 @@ public class GdlChainingReasoner
       for (int i = 0; i < or.arity(); i++)
       {
         GdlLiteral innerLiteral = or.get(i);
-        if (satisfies(assignment, innerLiteral, sentencesSoFar))
+        if (satisfies(assignment, innerLiteral, sentencesSoFar, compiledRule))
         {
           return true;
         }
@@ -160,10 +202,16 @@ public class GdlChainingReasoner
 
   private boolean satisfiesSentence(Map<GdlVariable, GdlConstant> assignment,
                                     GdlSentence sentence,
-                                    SetMultimap<SentenceForm, GdlSentence> sentencesSoFar)
+                                    SetMultimap<SentenceForm, GdlSentence> sentencesSoFar,
+                                    CompiledGdlRule compiledRule)
   {
+    //Sentences nested in ORs don't have a precomputed form
+    SentenceForm form = compiledRule.getSentenceForm(sentence);
     sentence = CommonTransforms.replaceVariables(sentence, assignment);
-    SentenceForm form = model.getSentenceForm(sentence);
+    if (form == null)
+    {
+      form = model.getSentenceForm(sentence);
+    }
     return sentencesSoFar.get(form).contains(sentence);
   }
 
@@ -203,20 +251,32 @@ public class GdlChainingReasoner
                                                       GdlSentenceSet allSentences,
                                                       GdlSentenceSet newSentences)
       throws InterruptedException
+  {
+    return getRuleResultsForNewSentences(CompiledGdlRule.createForSingleUse(rule, domainModel),
+                                         allSentences,
+                                         newSentences);
+  }
+
+  /**
+   * As {@link #getRuleResultsForNewSentences(GdlRule, SentenceDomainModel, GdlSentenceSet, GdlSentenceSet)},
+   * for a rule that has been compiled for repeated application.
+   */
+  public GdlSentenceSet getRuleResultsForNewSentences(CompiledGdlRule compiledRule,
+                                                      GdlSentenceSet allSentences,
+                                                      GdlSentenceSet newSentences)
+      throws InterruptedException
   {
     GdlSentenceSet results = GdlSentenceSet.create();
-    for (GdlLiteral literal : rule.getBody())
+    for (GdlLiteral literal : compiledRule.getRule().getBody())
     {
       ConcurrencyUtils.checkForInterruption();
       if (literal instanceof GdlSentence)
       {
-        SentenceForm literalForm = domainModel
-            .getSentenceForm((GdlSentence)literal);
-        addRuleResultsForChosenLiteral(rule,
+        SentenceForm literalForm = compiledRule.getSentenceForm((GdlSentence)literal);
+        addRuleResultsForChosenLiteral(compiledRule,
                                        (GdlSentence)literal,
                                        newSentences.getSentences()
                                            .get(literalForm),
-                                       domainModel,
                                        allSentences,
                                        results);
       }
@@ -228,16 +288,14 @@ public class GdlChainingReasoner
     return results;
   }
 
-  private void addRuleResultsForChosenLiteral(GdlRule rule,
+  private void addRuleResultsForChosenLiteral(CompiledGdlRule compiledRule,
                                               GdlSentence chosenLiteral,
                                               Set<GdlSentence> chosenNewSentences,
-                                              SentenceDomainModel domainModel,
                                               GdlSentenceSet allSentences,
                                               GdlSentenceSet sentencesToAdd)
   {
-    SentenceForm headForm = model.getSentenceForm(rule.getHead());
-    Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels
-        .getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+    GdlRule rule = compiledRule.getRule();
+    SentenceForm headForm = compiledRule.getSentenceForm(rule.getHead());
     Map<SentenceForm, AddibleFunctionInfo> functionInfoMap = allSentences
         .getFunctionInfo();
     Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = allSentences
@@ -249,11 +307,17 @@ public class GdlChainingReasoner
           .getAssignmentMakingLeftIntoRight(chosenLiteral, chosenNewSentence);
       if (preassignments != null)
       {
-        Assignments assignments = new AssignmentsImpl(preassignments,
+        IterationOrderCandidate plan = compiledRule.getPlan(chosenLiteral,
+                                                            preassignments,
+                                                            functionInfoMap,
+                                                            completedSentenceFormValues);
+        Assignments assignments = new AssignmentsImpl(plan,
+                                                      preassignments,
                                                       rule,
-                                                      varDomains,
+                                                      compiledRule.getVarDomains(),
                                                       functionInfoMap,
                                                       completedSentenceFormValues);
+        List<GdlSentence> sourceConjuncts = plan.getSourceConjuncts();
         AssignmentIterator asnItr = assignments.getIterator();
         while (asnItr.hasNext())
         {
@@ -262,14 +326,18 @@ public class GdlChainingReasoner
           boolean allSatisfied = true;
           for (GdlLiteral literal : rule.getBody())
           {
-            if (literal == chosenLiteral)
+            if (literal == chosenLiteral ||
+                isSourceConjunct(literal, sourceConjuncts))
             {
               //Already satisfied
               continue;
             }
-            if (!satisfies(assignment, literal, allSentences.getSentences()))
+            if (!satisfies(assignment,
+                           literal,
+                           allSentences.getSentences(),
+                           compiledRule))
             {
-              asnItr.changeOneInNext(GdlUtils.getVariables(literal),
+              asnItr.changeOneInNext(compiledRule.getVariables(literal),
                                      assignment);
               allSatisfied = false;
               break;
@@ -284,7 +352,7 @@ public class GdlChainingReasoner
             {
               sentencesToAdd.put(headForm, newHead);
             }
-            asnItr.changeOneInNext(GdlUtils.getVariables(head), assignment);
+            asnItr.changeOneInNext(compiledRule.getVariables(head), assignment);
           }
         }
       }
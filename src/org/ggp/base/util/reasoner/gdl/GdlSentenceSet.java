@@ -25,7 +25,7 @@ import com.google.common.collect.SetMultimap;
 public class GdlSentenceSet
 {
   private final SetMultimap<SentenceForm, GdlSentence> sentences;
-  private final Map<SentenceForm, AddibleFunctionInfo> functionInfoMap;
+  private final Map<SentenceForm, MutableFunctionInfo> functionInfoMap;
 
   private GdlSentenceSet()
   {
@@ -33,6 +33,16 @@ public class GdlSentenceSet
     this.functionInfoMap = Maps.newHashMap();
   }
 
+  private GdlSentenceSet(GdlSentenceSet other)
+  {
+    this.sentences = HashMultimap.create(other.sentences);
+    this.functionInfoMap = Maps.newHashMapWithExpectedSize(other.functionInfoMap.size());
+    for (Entry<SentenceForm, MutableFunctionInfo> entry : other.functionInfoMap.entrySet())
+    {
+      functionInfoMap.put(entry.getKey(), MutableFunctionInfo.copyOf(entry.getValue()));
+    }
+  }
+
   public static GdlSentenceSet create()
   {
     return new GdlSentenceSet();
@@ -45,6 +55,16 @@ public class GdlSentenceSet
     return result;
   }
 
+  /**
+   * Returns an independent copy of the given set. The function information
+   * is copied rather than recomputed, so this is cheaper than
+   * {@link #create(Multimap)} on the other set's sentences.
+   */
+  public static GdlSentenceSet copyOf(GdlSentenceSet other)
+  {
+    return new GdlSentenceSet(other);
+  }
+
   /**
    * Returns an unmodifiable view of the sentences in this set. Note that this
    * view may change if the collection is concurrently modified.
@@ -88,6 +108,6 @@ public class GdlSentenceSet
    */
   public Map<SentenceForm, AddibleFunctionInfo> getFunctionInfo()
   {
-    return Collections.unmodifiableMap(functionInfoMap);
+    return Collections.<SentenceForm, AddibleFunctionInfo> unmodifiableMap(functionInfoMap);
   }
 }
@@ -4,6 +4,8 @@ package org.ggp.base.util.statemachine;
 import java.util.List;
 import java.util.Set;
 
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
@@ -12,13 +14,16 @@ import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.chaining.ForwardChainingStateMachine;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
 
 
 /**
  * The FailsafeStateMachine is a wrapper around a particular state machine. It
  * will catch errors/exceptions being thrown from that state machine, and fall
- * back to a regular prover if the state machine fails. It's not totally clear
+ * back to a forward-chaining state machine, and failing that a regular prover,
+ * if the state machine fails (or the other way round, if FAILSAFE_CHAINING_FIRST
+ * is configured off). It's not totally clear
  * that this is helpful, but it's an additional layer of bullet-proofing in
  * case anything goes wrong.
  *
@@ -26,12 +31,16 @@ import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
  */
 public class FailsafeStateMachine extends StateMachine
 {
+  private static final int NUM_FALLBACK_MACHINES = 2;
+
   private StateMachine theBackingMachine = null;
   private List<Gdl>    gameDescription;
+  private final boolean chainingFirst;
 
   public FailsafeStateMachine(StateMachine theInitialMachine)
   {
     theBackingMachine = theInitialMachine;
+    chainingFirst = MachineSpecificConfiguration.getCfgBool(CfgItem.FAILSAFE_CHAINING_FIRST);
   }
 
   @Override
@@ -55,8 +64,11 @@ public class FailsafeStateMachine extends StateMachine
     GamerLogger
         .logError("StateMachine",
                   "Failsafe Machine: failed to load initial state machine. Falling back...");
-    if (attemptLoadingProverMachine())
-      return;
+    for (int i = 0; i < NUM_FALLBACK_MACHINES; i++)
+    {
+      if (attemptLoadingFallbackMachine(i))
+        return;
+    }
 
     GamerLogger
         .logError("StateMachine",
@@ -77,20 +89,51 @@ public class FailsafeStateMachine extends StateMachine
         .logError("StateMachine",
                   "Failsafe Machine: graceful failure mode kicking in.");
 
-    if (theBackingMachine.getClass() != ProverStateMachine.class)
+    // Move on to the fallback machines after the one that failed (all of
+    // them, if it was the initial machine).
+    Class<?> failedClass = theBackingMachine.getClass();
+    int first = 0;
+    for (int i = 0; i < NUM_FALLBACK_MACHINES; i++)
+    {
+      if (failedClass == getFallbackMachineClass(i))
+        first = i + 1;
+    }
+
+    for (int i = first; i < NUM_FALLBACK_MACHINES; i++)
     {
       GamerLogger
           .logError("StateMachine", "Failsafe Machine: online failure for " +
-                                    theBackingMachine.getClass() +
-                                    ". Attempting to restart with a standard prover.");
-      if (attemptLoadingProverMachine())
+                                    failedClass +
+                                    ". Attempting to restart with " +
+                                    (isChainingFallback(i) ? "a forward-chaining machine." : "a standard prover."));
+      if (attemptLoadingFallbackMachine(i))
         return;
     }
 
     theBackingMachine = null;
     GamerLogger
         .logError("StateMachine",
-                  "Failsafe Machine: online failure for regular prover. Cannot recover.");
+                  "Failsafe Machine: online failure for " + failedClass + ". Cannot recover.");
+  }
+
+  /**
+   * @return whether the fallback machine at the specified position in the
+   *         fallback order is the forward-chaining machine (rather than the
+   *         prover).
+   */
+  private boolean isChainingFallback(int index)
+  {
+    return (index == 0) == chainingFirst;
+  }
+
+  private Class<?> getFallbackMachineClass(int index)
+  {
+    return isChainingFallback(index) ? ForwardChainingStateMachine.class : ProverStateMachine.class;
+  }
+
+  private boolean attemptLoadingFallbackMachine(int index)
+  {
+    return isChainingFallback(index) ? attemptLoadingChainingMachine() : attemptLoadingProverMachine();
   }
 
   private boolean attemptLoadingInitialMachine()
@@ -116,6 +159,35 @@ public class FailsafeStateMachine extends StateMachine
     return false;
   }
 
+  private boolean attemptLoadingChainingMachine()
+  {
+    try
+    {
+      StateMachine theStateMachine = new ForwardChainingStateMachine();
+      theStateMachine.initialize(gameDescription);
+      theBackingMachine = theStateMachine;
+      GamerLogger
+          .log("StateMachine",
+               "Failsafe Machine: successfully loaded forward-chaining machine.");
+      return true;
+    }
+    catch (Exception e1)
+    {
+    }
+    catch (ThreadDeath d)
+    {
+      throw d;
+    }
+    catch (OutOfMemoryError e)
+    {
+      throw e;
+    }
+    catch (Error e2)
+    {
+    }
+    return false;
+  }
+
   private boolean attemptLoadingProverMachine()
   {
     try
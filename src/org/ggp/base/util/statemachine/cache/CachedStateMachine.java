@@ -1,54 +1,83 @@
 
 package org.ggp.base.util.statemachine.cache;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.ShardedCache.EvictionPolicy;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
+/**
+ * A state machine wrapper that caches the goals, legal moves, next states and
+ * terminality of the states it has been asked about.
+ *
+ * The cache holds a bounded number of states (evicting with CLOCK by default,
+ * or LRU) and persists across turns.  It is sharded, and lookups of cached
+ * results take no locks, so it can be shared by many threads.  Results are
+ * computed outside any lock, so two threads that miss on the same query at
+ * once may both compute the result; the first to finish is kept.
+ */
 public final class CachedStateMachine extends StateMachine
 {
-  private final StateMachine                  backingStateMachine;
-  private final TtlCache<MachineState, Entry> ttlCache;
+  /**
+   * The default number of states to cache.
+   */
+  public static final int DEFAULT_CAPACITY = 50000;
 
-  private final class Entry
-  {
-    public Map<Role, Integer>            goals;
-    public Map<Role, List<Move>>         moves;
-    public Map<List<Move>, MachineState> nexts;
-    public Boolean                       terminal;
+  private final StateMachine                      backingStateMachine;
+  private final ShardedCache<MachineState, Entry> cache;
 
-    public Entry()
-    {
-      goals = new HashMap<>();
-      moves = new HashMap<>();
-      nexts = new HashMap<>();
-      terminal = null;
-    }
+  private static final class Entry
+  {
+    public final ConcurrentMap<Role, Integer>            goals = new ConcurrentHashMap<>();
+    public final ConcurrentMap<Role, List<Move>>         moves = new ConcurrentHashMap<>();
+    public final ConcurrentMap<List<Move>, MachineState> nexts = new ConcurrentHashMap<>();
+    public volatile Boolean                              terminal;
   }
 
   public CachedStateMachine(StateMachine backingStateMachine)
+  {
+    this(backingStateMachine, DEFAULT_CAPACITY, EvictionPolicy.CLOCK);
+  }
+
+  /**
+   * @param backingStateMachine - the state machine to cache the results of.
+   * @param capacity - the maximum number of states to cache.
+   * @param policy - the eviction policy.
+   */
+  public CachedStateMachine(StateMachine backingStateMachine,
+                            int capacity,
+                            EvictionPolicy policy)
   {
     this.backingStateMachine = backingStateMachine;
-    ttlCache = new TtlCache<>(1);
+    cache = new ShardedCache<>(capacity,
+                               4 * Runtime.getRuntime().availableProcessors(),
+                               policy);
   }
 
   private Entry getEntry(MachineState state)
   {
-    if (!ttlCache.containsKey(state))
+    Entry entry = cache.get(state);
+    if (entry == null)
     {
-      ttlCache.put(state, new Entry());
+      entry = new Entry();
+      Entry existing = cache.putIfAbsent(state, entry);
+      if (existing != null)
+      {
+        entry = existing;
+      }
     }
-
-    return ttlCache.get(state);
+    return entry;
   }
 
   @Override
@@ -56,15 +85,13 @@ public final class CachedStateMachine extends StateMachine
       throws GoalDefinitionException
   {
     Entry entry = getEntry(state);
-    synchronized (entry)
+    Integer goal = entry.goals.get(role);
+    if (goal == null)
     {
-      if (!entry.goals.containsKey(role))
-      {
-        entry.goals.put(role, backingStateMachine.getGoal(state, role));
-      }
-
-      return entry.goals.get(role);
+      goal = backingStateMachine.getGoal(state, role);
+      entry.goals.putIfAbsent(role, goal);
     }
+    return goal;
   }
 
   @Override
@@ -72,15 +99,17 @@ public final class CachedStateMachine extends StateMachine
       throws MoveDefinitionException
   {
     Entry entry = getEntry(state);
-    synchronized (entry)
+    List<Move> moves = entry.moves.get(role);
+    if (moves == null)
     {
-      if (!entry.moves.containsKey(role))
+      moves = backingStateMachine.getLegalMoves(state, role);
+      List<Move> existing = entry.moves.putIfAbsent(role, moves);
+      if (existing != null)
       {
-        entry.moves.put(role, backingStateMachine.getLegalMoves(state, role));
+        moves = existing;
       }
-
-      return entry.moves.get(role);
     }
+    return moves;
   }
 
   @Override
@@ -88,41 +117,55 @@ public final class CachedStateMachine extends StateMachine
       throws TransitionDefinitionException
   {
     Entry entry = getEntry(state);
-    synchronized (entry)
+    MachineState next = entry.nexts.get(moves);
+    if (next == null)
     {
-      if (!entry.nexts.containsKey(moves))
+      next = backingStateMachine.getNextState(state, moves);
+      // Copy the moves, in case the caller goes on to modify its list.
+      MachineState existing = entry.nexts.putIfAbsent(new ArrayList<>(moves), next);
+      if (existing != null)
       {
-        entry.nexts.put(moves, backingStateMachine.getNextState(state, moves));
+        next = existing;
       }
-
-      return entry.nexts.get(moves);
     }
+    return next;
   }
 
   @Override
   public boolean isTerminal(MachineState state)
   {
     Entry entry = getEntry(state);
-    synchronized (entry)
+    Boolean terminal = entry.terminal;
+    if (terminal == null)
     {
-      if (entry.terminal == null)
-      {
-        entry.terminal = backingStateMachine.isTerminal(state);
-      }
-
-      return entry.terminal;
+      terminal = backingStateMachine.isTerminal(state);
+      entry.terminal = terminal;
     }
+    return terminal;
   }
 
   @Override
   public void doPerMoveWork()
   {
-    prune();
+    // The cache is bounded by size rather than age, so entries stay valid for
+    // later turns.  Just report how well it's doing.
+    GamerLogger.log("StateMachine", "Cache: " + cache);
   }
 
+  /**
+   * Discard all cached results.
+   */
   public void prune()
   {
-    ttlCache.prune();
+    cache.clear();
+  }
+
+  /**
+   * @return the cache, for its hit/miss statistics.
+   */
+  public ShardedCache<MachineState, ?> getCache()
+  {
+    return cache;
   }
 
   @Override
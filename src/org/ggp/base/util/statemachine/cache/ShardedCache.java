@@ -0,0 +1,358 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache that maps keys of type K to values of type V, for use
+ * by many threads at once.
+ *
+ * The cache is split into shards by key hash, each with its own share of the
+ * capacity, so that threads working on different keys don't contend.  Each
+ * shard evicts according to the cache's {@link EvictionPolicy}:
+ *
+ * - CLOCK (the default) approximates LRU.  Lookups take no locks at all - they
+ *   just mark the entry as recently used - and only insertions lock the shard.
+ *
+ * - LRU is exact, but every lookup locks the shard to update the recency order.
+ *
+ * Hit, miss and eviction counts are maintained for diagnostics.
+ *
+ * @param <K>
+ *          Key type
+ * @param <V>
+ *          Value type
+ */
+public final class ShardedCache<K, V>
+{
+  public enum EvictionPolicy
+  {
+    CLOCK,
+    LRU
+  }
+
+  private abstract class Shard
+  {
+    protected final int        capacity;
+    protected final AtomicLong hits      = new AtomicLong();
+    protected final AtomicLong misses    = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    protected Shard(int capacity)
+    {
+      this.capacity = capacity;
+    }
+
+    abstract V get(K key);
+
+    abstract V putIfAbsent(K key, V value);
+
+    abstract int size();
+
+    abstract void clear();
+  }
+
+  /**
+   * A shard using CLOCK (second-chance) eviction.  The entries sit in a ring;
+   * when space is needed, the hand sweeps the ring, clearing reference bits,
+   * until it finds an entry that hasn't been used since it was last swept.
+   */
+  private final class ClockShard extends Shard
+  {
+    private final class Node
+    {
+      final K          key;
+      final V          value;
+      volatile boolean referenced;
+
+      Node(K key, V value)
+      {
+        this.key = key;
+        this.value = value;
+      }
+    }
+
+    private final ConcurrentHashMap<K, Node> map;
+    private final List<Node>                 ring;
+    private int                              hand;
+    private int                              count;
+
+    ClockShard(int capacity)
+    {
+      super(capacity);
+      map = new ConcurrentHashMap<>(capacity);
+      ring = new ArrayList<>(Collections.<Node>nCopies(capacity, null));
+    }
+
+    @Override
+    V get(K key)
+    {
+      Node node = map.get(key);
+      if (node == null)
+      {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      node.referenced = true;
+      return node.value;
+    }
+
+    @Override
+    synchronized V putIfAbsent(K key, V value)
+    {
+      Node existing = map.get(key);
+      if (existing != null)
+      {
+        return existing.value;
+      }
+
+      if (count == capacity)
+      {
+        while (true)
+        {
+          Node candidate = ring.get(hand);
+          if (!candidate.referenced)
+          {
+            map.remove(candidate.key);
+            evictions.incrementAndGet();
+            count--;
+            break;
+          }
+          candidate.referenced = false;
+          hand = (hand + 1) % capacity;
+        }
+      }
+      else
+      {
+        // Until the shard first fills, the hand marks the next free slot.
+        hand = count;
+      }
+
+      Node node = new Node(key, value);
+      ring.set(hand, node);
+      hand = (hand + 1) % capacity;
+      count++;
+      map.put(key, node);
+      return null;
+    }
+
+    @Override
+    int size()
+    {
+      return map.size();
+    }
+
+    @Override
+    synchronized void clear()
+    {
+      map.clear();
+      Collections.fill(ring, null);
+      hand = 0;
+      count = 0;
+    }
+  }
+
+  /**
+   * A shard using exact LRU eviction.
+   */
+  private final class LruShard extends Shard
+  {
+    private final LinkedHashMap<K, V> map;
+
+    LruShard(final int capacity)
+    {
+      super(capacity);
+      map = new LinkedHashMap<K, V>(capacity, 0.75f, true)
+      {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+        {
+          if (size() > capacity)
+          {
+            evictions.incrementAndGet();
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+
+    @Override
+    synchronized V get(K key)
+    {
+      V value = map.get(key);
+      if (value == null)
+      {
+        misses.incrementAndGet();
+      }
+      else
+      {
+        hits.incrementAndGet();
+      }
+      return value;
+    }
+
+    @Override
+    synchronized V putIfAbsent(K key, V value)
+    {
+      V existing = map.get(key);
+      if (existing != null)
+      {
+        return existing;
+      }
+      map.put(key, value);
+      return null;
+    }
+
+    @Override
+    synchronized int size()
+    {
+      return map.size();
+    }
+
+    @Override
+    synchronized void clear()
+    {
+      map.clear();
+    }
+  }
+
+  private final List<Shard>    shards;
+  private final int            shardMask;
+  private final EvictionPolicy policy;
+
+  /**
+   * Create a cache.
+   *
+   * @param capacity - the maximum number of entries.
+   * @param numShards - the number of shards; rounded up to a power of 2.
+   * @param policy - the eviction policy.
+   */
+  public ShardedCache(int capacity, int numShards, EvictionPolicy policy)
+  {
+    if (capacity < 1 || numShards < 1)
+    {
+      throw new IllegalArgumentException("Capacity and shard count must be positive");
+    }
+
+    int shardCount = Integer.highestOneBit(numShards);
+    if (shardCount < numShards)
+    {
+      shardCount <<= 1;
+    }
+    shardCount = Math.min(shardCount, Integer.highestOneBit(capacity));
+
+    this.policy = policy;
+    shards = new ArrayList<>(shardCount);
+    shardMask = shardCount - 1;
+    int shardCapacity = (capacity + shardCount - 1) / shardCount;
+    for (int i = 0; i < shardCount; i++)
+    {
+      shards.add((policy == EvictionPolicy.LRU) ? new LruShard(shardCapacity) :
+                                                  new ClockShard(shardCapacity));
+    }
+  }
+
+  private Shard shardFor(Object key)
+  {
+    // Spread the hash bits, as HashMap does, since shards are chosen by the
+    // low bits.
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return shards.get(h & shardMask);
+  }
+
+  /**
+   * @return the value for the key, or null if it isn't cached.
+   */
+  public V get(K key)
+  {
+    return shardFor(key).get(key);
+  }
+
+  /**
+   * Cache a value for a key, unless one is already cached (possibly evicting
+   * some other entry).
+   *
+   * @return the value already cached, or null if the given value was added.
+   */
+  public V putIfAbsent(K key, V value)
+  {
+    return shardFor(key).putIfAbsent(key, value);
+  }
+
+  /**
+   * @return the number of cached entries.
+   */
+  public int size()
+  {
+    int size = 0;
+    for (Shard shard : shards)
+    {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  public void clear()
+  {
+    for (Shard shard : shards)
+    {
+      shard.clear();
+    }
+  }
+
+  public EvictionPolicy getEvictionPolicy()
+  {
+    return policy;
+  }
+
+  public long getHits()
+  {
+    long total = 0;
+    for (Shard shard : shards)
+    {
+      total += shard.hits.get();
+    }
+    return total;
+  }
+
+  public long getMisses()
+  {
+    long total = 0;
+    for (Shard shard : shards)
+    {
+      total += shard.misses.get();
+    }
+    return total;
+  }
+
+  public long getEvictions()
+  {
+    long total = 0;
+    for (Shard shard : shards)
+    {
+      total += shard.evictions.get();
+    }
+    return total;
+  }
+
+  @Override
+  public String toString()
+  {
+    long hits = getHits();
+    long lookups = hits + getMisses();
+    return "ShardedCache [policy=" + policy + ", size=" + size() +
+           ", hits=" + hits + ", misses=" + (lookups - hits) +
+           ", hitRate=" + ((lookups == 0) ? 0 : (100 * hits / lookups)) + "%" +
+           ", evictions=" + getEvictions() + "]";
+  }
+}
@@ -0,0 +1,400 @@
+package org.ggp.base.util.statemachine.implementation.chaining;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.SentenceForms;
+import org.ggp.base.util.gdl.model.SimpleSentenceForm;
+import org.ggp.base.util.gdl.transforms.ConstantChecker;
+import org.ggp.base.util.gdl.transforms.ConstantCheckerFactory;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.reasoner.gdl.CompiledGdlRule;
+import org.ggp.base.util.reasoner.gdl.GdlChainingReasoner;
+import org.ggp.base.util.reasoner.gdl.GdlSentenceSet;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * A state machine that evaluates the game rules by forward chaining over
+ * ungrounded GDL, using {@link GdlChainingReasoner}.  It needs no grounding, so
+ * it works for games whose propnets are too large to build.  It is typically
+ * comparable in speed to the backward-chaining {@link
+ * org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine},
+ * and faster on games with large joins, but slower on games whose rules derive
+ * many sentences that the queries never need (e.g. arithmetic tables).
+ *
+ * The rules are compiled once, at initialization, into an ordered list of
+ * strata (following the stratification of the dependency graph).  Each rule's
+ * variable domains are precomputed and its join plans (iteration orders) are
+ * chosen on first use and then reused.  Constant sentence forms are
+ * evaluated once.  The remaining strata are split into those that depend on
+ * the moves being played and those that depend only on the state, so that the
+ * state-only consequences of a state are computed once and shared between the
+ * legal, goal, terminal and next state queries.  Within each recursive stratum,
+ * evaluation is semi-naive: after the first pass, rules are only re-applied to
+ * the sentences derived in the previous pass.
+ *
+ * This class is not thread-safe.
+ */
+public class ForwardChainingStateMachine extends StateMachine
+{
+  /**
+   * A set of mutually recursive sentence forms, together with the rules that
+   * define them.
+   */
+  private static class Stratum
+  {
+    final List<CompiledGdlRule> mRules = new ArrayList<>();
+    boolean mRecursive;
+  }
+
+  private SentenceDomainModel mModel;
+  private GdlChainingReasoner mReasoner;
+  private GdlSentenceSet      mConstantSentences;
+  private List<Stratum>       mStateStrata;
+  private List<Stratum>       mMoveStrata;
+  private Role[]              mRoles;
+  private MachineState        mInitialState;
+
+  // The state-only consequences of the most recently queried state.
+  private MachineState        mCachedState;
+  private GdlSentenceSet      mCachedSentences;
+
+  @Override
+  public void initialize(List<Gdl> xiDescription)
+  {
+    try
+    {
+      mRoles = Role.computeRoles(xiDescription);
+
+      xiDescription = GdlCleaner.run(xiDescription);
+      xiDescription = DeORer.run(xiDescription);
+      xiDescription = VariableConstrainer.replaceFunctionValuedVariables(xiDescription);
+
+      SentenceDomainModel lModel = SentenceDomainModelFactory.createWithCartesianDomains(xiDescription);
+      ConstantChecker lConstantChecker = ConstantCheckerFactory.createWithForwardChaining(lModel);
+      mModel = lModel;
+      mReasoner = GdlChainingReasoner.create(lModel);
+
+      // Evaluate the constant forms once and for all.
+      Multimap<SentenceForm, GdlSentence> lConstantSentences = HashMultimap.create();
+      for (SentenceForm lForm : lConstantChecker.getConstantSentenceForms())
+      {
+        lConstantSentences.putAll(lForm, lConstantChecker.getTrueSentences(lForm));
+      }
+      mConstantSentences = GdlSentenceSet.create(lConstantSentences);
+
+      // Stratify the remaining forms (other than the inputs - true and does).
+      Set<SentenceForm> lDerivedForms = new HashSet<>(lModel.getSentenceForms());
+      lDerivedForms.removeAll(lConstantChecker.getConstantSentenceForms());
+      for (SentenceForm lForm : lModel.getSentenceForms())
+      {
+        if (SentenceForms.TRUE_PRED.apply(lForm) || SentenceForms.DOES_PRED.apply(lForm))
+        {
+          lDerivedForms.remove(lForm);
+        }
+      }
+
+      SetMultimap<SentenceForm, SentenceForm> lDependencyGraph = HashMultimap.create(lModel.getDependencyGraph());
+      Set<SentenceForm> lMoveDependentForms = DependencyGraphs.getMatchingAndDownstream(lModel.getSentenceForms(),
+                                                                                         lDependencyGraph,
+                                                                                         SentenceForms.DOES_PRED);
+      SetMultimap<SentenceForm, SentenceForm> lDerivedGraph = HashMultimap.create();
+      for (Map.Entry<SentenceForm, SentenceForm> lEdge : lDependencyGraph.entries())
+      {
+        if (lDerivedForms.contains(lEdge.getKey()) && lDerivedForms.contains(lEdge.getValue()))
+        {
+          lDerivedGraph.put(lEdge.getKey(), lEdge.getValue());
+        }
+      }
+
+      mStateStrata = new ArrayList<>();
+      mMoveStrata = new ArrayList<>();
+      for (Set<SentenceForm> lForms : DependencyGraphs.toposortSafe(lDerivedForms, lDerivedGraph))
+      {
+        Stratum lStratum = new Stratum();
+        lStratum.mRecursive = (lForms.size() > 1);
+        for (SentenceForm lForm : lForms)
+        {
+          if (lDerivedGraph.containsEntry(lForm, lForm))
+          {
+            lStratum.mRecursive = true;
+          }
+          for (GdlRule lRule : lModel.getRules(lForm))
+          {
+            if (canFire(lRule, lModel))
+            {
+              lStratum.mRules.add(CompiledGdlRule.create(lRule, lModel));
+            }
+          }
+        }
+
+        // Strata never mix move-dependent and state-only forms, because
+        // every member of a stratum depends on every other.
+        if (lMoveDependentForms.contains(lForms.iterator().next()))
+        {
+          mMoveStrata.add(lStratum);
+        }
+        else
+        {
+          mStateStrata.add(lStratum);
+        }
+      }
+
+      // The init sentences don't depend on the state, so they're constant.
+      mInitialState = toState(mConstantSentences, GdlPool.INIT);
+    }
+    catch (InterruptedException lEx)
+    {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted whilst compiling rules", lEx);
+    }
+  }
+
+  @Override
+  public int getGoal(MachineState xiState, Role xiRole) throws GoalDefinitionException
+  {
+    List<GdlSentence> lGoals = getSentencesForRole(getStateSentences(xiState), GdlPool.GOAL, xiRole);
+    if (lGoals.size() != 1)
+    {
+      throw new GoalDefinitionException(xiState, xiRole);
+    }
+
+    try
+    {
+      return Integer.parseInt(lGoals.get(0).get(1).toString());
+    }
+    catch (NumberFormatException lEx)
+    {
+      throw new GoalDefinitionException(xiState, xiRole);
+    }
+  }
+
+  @Override
+  public boolean isTerminal(MachineState xiState)
+  {
+    for (SentenceForm lForm : getStateSentences(xiState).getSentences().keySet())
+    {
+      if (lForm.getName() == GdlPool.TERMINAL)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Role[] getRoles()
+  {
+    return mRoles;
+  }
+
+  @Override
+  public MachineState getInitialState()
+  {
+    return mInitialState;
+  }
+
+  @Override
+  public List<Move> getLegalMoves(MachineState xiState, Role xiRole) throws MoveDefinitionException
+  {
+    List<Move> lMoves = new ArrayList<>();
+    for (GdlSentence lLegal : getSentencesForRole(getStateSentences(xiState), GdlPool.LEGAL, xiRole))
+    {
+      lMoves.add(new Move(lLegal.get(1)));
+    }
+
+    if (lMoves.isEmpty())
+    {
+      throw new MoveDefinitionException(xiState, xiRole);
+    }
+    return lMoves;
+  }
+
+  @Override
+  public MachineState getNextState(MachineState xiState, List<Move> xiMoves)
+      throws TransitionDefinitionException
+  {
+    GdlSentenceSet lSentences = GdlSentenceSet.copyOf(getStateSentences(xiState));
+    for (int lii = 0; lii < mRoles.length; lii++)
+    {
+      GdlSentence lDoes = GdlPool.getRelation(GdlPool.DOES,
+                                              new GdlTerm[] {mRoles[lii].getName(), xiMoves.get(lii).getContents()});
+      lSentences.put(mModel.getSentenceForm(lDoes), lDoes);
+    }
+
+    try
+    {
+      evaluate(mMoveStrata, lSentences);
+    }
+    catch (InterruptedException lEx)
+    {
+      Thread.currentThread().interrupt();
+      throw new TransitionDefinitionException(xiState, xiMoves);
+    }
+
+    return toState(lSentences, GdlPool.NEXT);
+  }
+
+  @Override
+  public String getName()
+  {
+    return "ForwardChaining";
+  }
+
+  /**
+   * @return the true sentences in the specified state, together with all
+   * their state-only consequences.
+   */
+  private GdlSentenceSet getStateSentences(MachineState xiState)
+  {
+    if (!xiState.equals(mCachedState))
+    {
+      GdlSentenceSet lSentences = GdlSentenceSet.copyOf(mConstantSentences);
+      for (GdlSentence lTrue : xiState.getContents())
+      {
+        lSentences.put(mModel.getSentenceForm(lTrue), lTrue);
+      }
+
+      try
+      {
+        evaluate(mStateStrata, lSentences);
+      }
+      catch (InterruptedException lEx)
+      {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted whilst evaluating state", lEx);
+      }
+
+      mCachedState = xiState;
+      mCachedSentences = lSentences;
+    }
+    return mCachedSentences;
+  }
+
+  /**
+   * Add the consequences of the specified strata to a set of sentences.
+   */
+  private void evaluate(List<Stratum> xiStrata, GdlSentenceSet xoSentences) throws InterruptedException
+  {
+    for (Stratum lStratum : xiStrata)
+    {
+      // One full pass...
+      GdlSentenceSet lNewSentences = GdlSentenceSet.create();
+      for (CompiledGdlRule lRule : lStratum.mRules)
+      {
+        GdlSentenceSet lResults = mReasoner.getRuleResults(lRule, xoSentences);
+        if (!mReasoner.isSubsetOf(xoSentences, lResults))
+        {
+          xoSentences.putAll(lResults.getSentences());
+          lNewSentences.putAll(lResults.getSentences());
+        }
+      }
+
+      if (!lStratum.mRecursive)
+      {
+        continue;
+      }
+
+      // ...then differential passes until nothing new is derived.
+      while (!lNewSentences.getSentences().isEmpty())
+      {
+        GdlSentenceSet lNewInThisPass = GdlSentenceSet.create();
+        for (CompiledGdlRule lRule : lStratum.mRules)
+        {
+          GdlSentenceSet lResults = mReasoner.getRuleResultsForNewSentences(lRule,
+                                                                            xoSentences,
+                                                                            lNewSentences);
+          lNewInThisPass.putAll(lResults.getSentences());
+        }
+        xoSentences.putAll(lNewInThisPass.getSentences());
+        lNewSentences = lNewInThisPass;
+      }
+    }
+  }
+
+  /**
+   * @return whether a rule could ever fire - i.e. that none of its positive
+   * conditions is of a form that can never be true.
+   */
+  private static boolean canFire(GdlRule xiRule, SentenceDomainModel xiModel)
+  {
+    for (GdlLiteral lLiteral : xiRule.getBody())
+    {
+      if ((lLiteral instanceof GdlSentence) &&
+          (xiModel.getDomain(SimpleSentenceForm.create((GdlSentence)lLiteral)) == null))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<GdlSentence> getSentencesForRole(GdlSentenceSet xiSentences,
+                                                       GdlConstant xiName,
+                                                       Role xiRole)
+  {
+    List<GdlSentence> lMatches = new ArrayList<>();
+    SetMultimap<SentenceForm, GdlSentence> lSentences = xiSentences.getSentences();
+    for (SentenceForm lForm : lSentences.keySet())
+    {
+      if (lForm.getName() == xiName)
+      {
+        for (GdlSentence lSentence : lSentences.get(lForm))
+        {
+          if (lSentence.get(0) == xiRole.getName())
+          {
+            lMatches.add(lSentence);
+          }
+        }
+      }
+    }
+    return lMatches;
+  }
+
+  /**
+   * @return the state made up of the bodies of the sentences with the
+   * specified name (init or next).
+   */
+  private static MachineState toState(GdlSentenceSet xiSentences, GdlConstant xiName)
+  {
+    Set<GdlSentence> lTrues = new HashSet<>();
+    SetMultimap<SentenceForm, GdlSentence> lSentences = xiSentences.getSentences();
+    for (SentenceForm lForm : lSentences.keySet())
+    {
+      if (lForm.getName() == xiName)
+      {
+        for (GdlSentence lSentence : lSentences.get(lForm))
+        {
+          lTrues.add(GdlPool.getRelation(GdlPool.TRUE, new GdlTerm[] {lSentence.get(0)}));
+        }
+      }
+    }
+    return new MachineState(lTrues);
+  }
+}
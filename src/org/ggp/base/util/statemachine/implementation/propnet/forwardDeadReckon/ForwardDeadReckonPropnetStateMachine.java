@@ -7,6 +7,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +16,8 @@ import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
 import org.ggp.base.player.gamer.statemachine.sancho.RoleOrdering;
 import org.ggp.base.player.gamer.statemachine.sancho.RuntimeGameCharacteristics;
 import org.ggp.base.player.gamer.statemachine.sancho.TreePath;
@@ -36,6 +39,7 @@ import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckon
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropNet;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropnetBatchAnimator;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropnetFastAnimator;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonProposition;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropositionInfo;
@@ -91,6 +95,10 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
   private ForwardDeadReckonPropNet                                     propNet                         = null;
   private ForwardDeadReckonPropnetFastAnimator.InstanceInfo            propNetInstanceInfo             = null;
 
+  // Bit-parallel animator for the full propnet, used for batched playouts (null if not in use).
+  private ForwardDeadReckonPropnetBatchAnimator                        mBatchAnimator                  = null;
+  private ForwardDeadReckonPropnetBatchAnimator.InstanceInfo           mBatchInstanceInfo              = null;
+
   private Map<Role, ForwardDeadReckonComponent[]>                      legalPropositionsX              = null;
   private Map<Role, Move[]>                                            legalPropositionMovesX          = null;
   private Map<Role, ForwardDeadReckonComponent[]>                      legalPropositionsO              = null;
@@ -143,7 +151,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
   private final Set<GdlSentence>                                       mFillerMoves                    = new HashSet<>();
   private GoalsCalculator                                              mGoalsCalculator                = null;
   private IPlayoutPolicy                                               mPlayoutPolicy                  = null;
-  private Map<Role,ForwardDeadReckonInternalMachineState>              mRoleUnionPositiveGoalLatches   = null;
+  private LatchedGoalTable                                             mLatchedGoalTable               = null;
 
   private final TerminalResultSet                                      mResultSet                      = new TerminalResultSet();
   // A re-usable iterator over the propositions in a machine state.
@@ -389,9 +397,20 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
      */
     public final ForwardDeadReckonLegalMoveInfo[] playoutTrace;
     public final ForwardDeadReckonInternalMachineState[] statesVisited;
+    /**
+     * Whether the scores in the final state of the playout were decided by goal latches, in which case they're in
+     * latchedGoals and there's no need to ask the state machine for them
+     */
+    public boolean      goalsLatched;
+    /**
+     * Scores in the final state, indexed as per the role ordering (valid only if goalsLatched is set)
+     */
+    public final int[]  latchedGoals;
 
     public PlayoutInfo(int maxDepth)
     {
+      latchedGoals = new int[numRoles];
+
       if ( maxDepth <= 0 )
       {
         recordTrace = false;
@@ -626,6 +645,15 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       LOGGER.info("No negative goal latches");
       mNegativeGoalLatches = null;
     }
+
+    if (mPositiveGoalLatches != null || mNegativeGoalLatches != null)
+    {
+      mLatchedGoalTable = new LatchedGoalTable(getRoles(),
+                                               fullPropNet.getGoalPropositions(),
+                                               mPositiveGoalLatches,
+                                               mNegativeGoalLatches,
+                                               roleOrdering);
+    }
   }
 
   private void findAllLatchedStatesFor(PolymorphicComponent xiComponent,
@@ -782,6 +810,9 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
 //  }
 
   /**
+   * A role's score is latched if one of its goals is positively latched.  (Negative latches alone aren't enough,
+   * because callers go on to ask for the goal values in the latched state, which needn't be the final ones.)
+   *
    * @param xiState - state to test for latched score in
    * @return true if all roles' scores are latched
    */
@@ -795,56 +826,9 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       }
     }
 
-    if (mPositiveGoalLatches != null)
+    if (mLatchedGoalTable != null)
     {
-      if ( mRoleUnionPositiveGoalLatches == null )
-      {
-        //  Allocate a working buffer for future use and calculate the role masks that imply
-        //  some positively latched goal for the role
-        mRoleUnionPositiveGoalLatches = new HashMap<>();
-
-        for(Role role : getRoles())
-        {
-          ForwardDeadReckonInternalMachineState roleLatchMask = createEmptyInternalState();
-
-          for(PolymorphicProposition goalProp : fullPropNet.getGoalPropositions().get(role))
-          {
-            ForwardDeadReckonInternalMachineState goalMask = mPositiveGoalLatches.get(goalProp);
-
-            if ( goalMask != null )
-            {
-              roleLatchMask.merge(goalMask);
-            }
-          }
-
-          if ( roleLatchMask.size() > 0 )
-          {
-            mRoleUnionPositiveGoalLatches.put(role, roleLatchMask);
-          }
-        }
-      }
-
-      boolean result = true;
-
-      for(Role role : getRoles())
-      {
-        ForwardDeadReckonInternalMachineState roleLatchMask = mRoleUnionPositiveGoalLatches.get(role);
-        if ( roleLatchMask != null )
-        {
-          if ( !xiState.intersects(roleLatchMask) )
-          {
-            result = false;
-            break;
-          }
-        }
-        else
-        {
-          result = false;
-          break;
-        }
-      }
-
-      return result;
+      return mLatchedGoalTable.allScoresPositivelyLatched(xiState);
     }
 
     return false;
@@ -1556,6 +1540,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
     roles = master.roles;
     numRoles = master.numRoles;
     fullPropNet = master.fullPropNet;
+    mBatchAnimator = master.mBatchAnimator;
     masterInfoSet = master.masterInfoSet;
     factors = master.factors;
     mPositiveGoalLatches = master.mPositiveGoalLatches;
@@ -1567,7 +1552,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
     {
       mGoalsCalculator = master.mGoalsCalculator.createThreadSafeReference();
     }
-    mRoleUnionPositiveGoalLatches = master.mRoleUnionPositiveGoalLatches;
+    mLatchedGoalTable = master.mLatchedGoalTable;
     mGameCharacteristics = master.mGameCharacteristics;
     mControlMask = master.mControlMask;
     mNonControlMask = master.mNonControlMask;
@@ -1632,52 +1617,71 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       //validationMachine = new ProverStateMachine();
       //validationMachine.initialize(description);
 
-      fullPropNet = (ForwardDeadReckonPropNet)OptimizingPolymorphicPropNetFactory.create(
-                                                                               description,
-                                                                               new ForwardDeadReckonComponentFactory());
-      fullPropNet.renderToFile("propnet_001.dot");
+      // If we've played this game before, load the optimized propnet from the cache rather than rebuilding it.
+      PropNetCache lPropNetCache = new PropNetCache(mGameCharacteristics == null ?
+                                                      null :
+                                                      mGameCharacteristics.getGameDirectory(),
+                                                    description,
+                                                    ourRole);
+      PropNetCache.CachedPropNet lCachedPropNet = lPropNetCache.load();
+
+      if (lCachedPropNet != null)
+      {
+        fullPropNet = lCachedPropNet.mPropNet;
+        isPseudoPuzzle = lCachedPropNet.mIsPseudoPuzzle;
+        mFillerMoves.addAll(lCachedPropNet.mFillerMoves);
+      }
+      else
+      {
+        fullPropNet = (ForwardDeadReckonPropNet)OptimizingPolymorphicPropNetFactory.create(
+                                                                                 description,
+                                                                                 new ForwardDeadReckonComponentFactory());
+        fullPropNet.renderToFile("propnet_001.dot");
+
+        OptimizingPolymorphicPropNetFactory.removeAnonymousPropositions(fullPropNet);
+        fullPropNet.renderToFile("propnet_012_AnonRemoved.dot");
+        LOGGER.debug("Num components after anon prop removal: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.removeAnonymousPropositions(fullPropNet);
-      fullPropNet.renderToFile("propnet_012_AnonRemoved.dot");
-      LOGGER.debug("Num components after anon prop removal: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.removeUnreachableBasesAndInputs(fullPropNet);
+        fullPropNet.renderToFile("propnet_014_UnreachablesRemoved.dot");
 
-      OptimizingPolymorphicPropNetFactory.removeUnreachableBasesAndInputs(fullPropNet);
-      fullPropNet.renderToFile("propnet_014_UnreachablesRemoved.dot");
+        isPseudoPuzzle = OptimizingPolymorphicPropNetFactory.removeIrrelevantBasesAndInputs(fullPropNet, ourRole, mFillerMoves);
+        fullPropNet.renderToFile("propnet_016_IrrelevantRemoved.dot");
+        LOGGER.debug("Num components after unreachable removal: " + fullPropNet.getComponents().size());
 
-      isPseudoPuzzle = OptimizingPolymorphicPropNetFactory.removeIrrelevantBasesAndInputs(fullPropNet, ourRole, mFillerMoves);
-      fullPropNet.renderToFile("propnet_016_IrrelevantRemoved.dot");
-      LOGGER.debug("Num components after unreachable removal: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.removeRedundantConstantsAndGates(fullPropNet, false);
+        fullPropNet.renderToFile("propnet_018_RedundantRemoved.dot");
+        LOGGER.debug("Num components after first pass redundant components removal: " +
+                     fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.removeRedundantConstantsAndGates(fullPropNet, false);
-      fullPropNet.renderToFile("propnet_018_RedundantRemoved.dot");
-      LOGGER.debug("Num components after first pass redundant components removal: " +
-                   fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.refactorLargeGates(fullPropNet);
+        fullPropNet.renderToFile("propnet_020_BeforeLargeFanout.dot");
 
-      OptimizingPolymorphicPropNetFactory.refactorLargeGates(fullPropNet);
-      fullPropNet.renderToFile("propnet_020_BeforeLargeFanout.dot");
+        OptimizingPolymorphicPropNetFactory.refactorLargeFanouts(fullPropNet);
+        fullPropNet.renderToFile("propnet_030_AfterLargeFanout.dot");
+        LOGGER.debug("Num components after large gate refactoring: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.refactorLargeFanouts(fullPropNet);
-      fullPropNet.renderToFile("propnet_030_AfterLargeFanout.dot");
-      LOGGER.debug("Num components after large gate refactoring: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.removeDuplicateLogic(fullPropNet);
+        LOGGER.debug("Num components after duplicate removal: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.removeDuplicateLogic(fullPropNet);
-      LOGGER.debug("Num components after duplicate removal: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.optimizeInputSets(fullPropNet);
+        LOGGER.debug("Num components after input set optimization: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.optimizeInputSets(fullPropNet);
-      LOGGER.debug("Num components after input set optimization: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.optimizeInvertedInputs(fullPropNet);
+        LOGGER.debug("Num components after inverted input optimization: " + fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.optimizeInvertedInputs(fullPropNet);
-      LOGGER.debug("Num components after inverted input optimization: " + fullPropNet.getComponents().size());
+        OptimizingPolymorphicPropNetFactory.removeRedundantConstantsAndGates(fullPropNet);
+        LOGGER.debug("Num components after further removal of redundant components: " +
+                     fullPropNet.getComponents().size());
 
-      OptimizingPolymorphicPropNetFactory.removeRedundantConstantsAndGates(fullPropNet);
-      LOGGER.debug("Num components after further removal of redundant components: " +
-                   fullPropNet.getComponents().size());
+        // Ensure that no propositions apart from strict input props (base, does, init) have any outputs, as this is
+        // assumed by the fast animator.  Accordingly we re-wire slightly such that if any such do exist we replace their
+        // output connection by one from their input (which they anyway just directly forward, so this also removes a
+        // small propagation step).
+        OptimizingPolymorphicPropNetFactory.removeNonBaseOrDoesPropositionOutputs(fullPropNet);
 
-      // Ensure that no propositions apart from strict input props (base, does, init) have any outputs, as this is
-      // assumed by the fast animator.  Accordingly we re-wire slightly such that if any such do exist we replace their
-      // output connection by one from their input (which they anyway just directly forward, so this also removes a
-      // small propagation step).
-      OptimizingPolymorphicPropNetFactory.removeNonBaseOrDoesPropositionOutputs(fullPropNet);
+        lPropNetCache.save(fullPropNet, isPseudoPuzzle, mFillerMoves);
+      }
 
       fullPropNet.renderToFile("propnet_040_Reduced.dot");
       roles = fullPropNet.getRoles();
@@ -2089,6 +2093,14 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
 
       totalNumMoves = fullPropNet.getMasterMoveList().length;
 
+      if (MachineSpecificConfiguration.getCfgBool(CfgItem.USE_BATCHED_ROLLOUTS))
+      {
+        mBatchAnimator = new ForwardDeadReckonPropnetBatchAnimator(fullPropNet, firstBasePropIndex);
+        if (!mBatchAnimator.isUsable())
+        {
+          mBatchAnimator = null;
+        }
+      }
     }
     catch (InterruptedException e)
     {
@@ -2338,6 +2350,70 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
     return propNetOWithoutGoals;
   }
 
+  /**
+   * @return the propnets animated by this state machine, by name, omitting any not in use.
+   */
+  private Map<String, ForwardDeadReckonPropNet> getAnimatedPropNets()
+  {
+    Map<String, ForwardDeadReckonPropNet> lNets = new LinkedHashMap<>();
+    lNets.put("X-net", propNetX);
+    if (propNetO != propNetX)
+    {
+      lNets.put("O-net", propNetO);
+    }
+    lNets.put("Goals net", goalsNet);
+    lNets.put("Terminality net", terminalityNet);
+
+    Iterator<ForwardDeadReckonPropNet> lIterator = lNets.values().iterator();
+    while (lIterator.hasNext())
+    {
+      ForwardDeadReckonPropNet lNet = lIterator.next();
+      if (lNet == null || lNet.animator == null)
+      {
+        lIterator.remove();
+      }
+    }
+    return lNets;
+  }
+
+  /**
+   * Start profiling propagation through all the propnets in use (for all instances of this state machine).  For
+   * diagnostic use - see ForwardDeadReckonPropnetFastAnimator.enableProfiling().
+   *
+   * @param xiSampleInterval - profile one in every this many input changes.
+   */
+  public void enablePropagationProfiling(int xiSampleInterval)
+  {
+    for (ForwardDeadReckonPropNet lNet : getAnimatedPropNets().values())
+    {
+      lNet.animator.enableProfiling(xiSampleInterval);
+    }
+  }
+
+  /**
+   * @param xiMaxRows - maximum number of rows in each section of each propnet's report.
+   *
+   * @return a report of the propagation profiled so far, for each of the propnets in use, or null if profiling isn't
+   * enabled.
+   */
+  public String getPropagationProfileReport(int xiMaxRows)
+  {
+    StringBuilder lReport = null;
+    for (Entry<String, ForwardDeadReckonPropNet> lEntry : getAnimatedPropNets().entrySet())
+    {
+      String lNetReport = lEntry.getValue().animator.getProfileReport(xiMaxRows);
+      if (lNetReport != null)
+      {
+        if (lReport == null)
+        {
+          lReport = new StringBuilder();
+        }
+        lReport.append("=== " + lEntry.getKey() + " ===\n" + lNetReport + "\n");
+      }
+    }
+    return (lReport == null) ? null : lReport.toString();
+  }
+
   /**
    * Return a search filter for use with this state machine when performing higher level goal search.
    *
@@ -3974,7 +4050,7 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       {
         ForwardDeadReckonLegalMoveSet moves = activeLegalMoves;
         ForwardDeadReckonLegalMoveInfo chosen = null;
-        Iterator<ForwardDeadReckonLegalMoveInfo> itr;
+        Iterator<ForwardDeadReckonLegalMoveInfo> itr = null;
 
         if ( mPlayoutPolicy != null && playedMoves != null )
         {
@@ -3986,7 +4062,6 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
           if ( factor == null )
           {
             numChoices = moves.getNumChoices(roleIndex);
-            itr = moves.getContents(roleIndex).iterator();
           }
           else
           {
@@ -4043,23 +4118,24 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
             moveIndex = 0;
           }
 
-          for (int iMove = 0; iMove < numChoices; iMove++)
+          if ( factor == null )
           {
-            ForwardDeadReckonLegalMoveInfo info;
-
-            // Get next move for this factor
-            info = StateMachineFilterUtils.nextFilteredMove(factor, itr);
-
-            if (moveIndex == iMove)
+            //  Unfiltered moves can be selected directly by position
+            chosen = moves.getMove(roleIndex, moveIndex);
+          }
+          else
+          {
+            for (int iMove = 0; iMove <= moveIndex; iMove++)
             {
-              chosen = info;
-              if ( roleIndex == choosingRole )
-              {
-                chooserChoice = chosen;
-              }
-              break;
+              // Get next move for this factor
+              chosen = StateMachineFilterUtils.nextFilteredMove(factor, itr);
             }
           }
+
+          if ( roleIndex == choosingRole )
+          {
+            chooserChoice = chosen;
+          }
         }
         else
         {
@@ -4452,6 +4528,18 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
       info.playoutLength = rolloutStackDepth;
       info.averageBranchingFactor = (int)(branchingFactor + 0.5);
     }
+
+    //  If the final scores are decided by latches, look them up rather than leaving the caller to propagate the
+    //  final state through the goals network.  (A goals calculator, if any, takes precedence, and in factored
+    //  games the goal of a factor-terminal state needs special handling - see getGoal().)  Only do so if the
+    //  playout really finished, because scores decided by negative latches in a non-terminal state needn't match
+    //  what getGoal() would report for that state.
+    info.goalsLatched = (mLatchedGoalTable != null &&
+                         mGoalsCalculator == null &&
+                         factors == null &&
+                         (isTerminal() || scoresAreLatched(lastInternalSetState)) &&
+                         mLatchedGoalTable.getLatchedGoals(lastInternalSetState, info.latchedGoals));
+
     for (int i = 0; i < numRoles; i++)
     {
       int xId = previouslyChosenJointMovePropIdsX[i];
@@ -4468,6 +4556,56 @@ public class ForwardDeadReckonPropnetStateMachine extends StateMachine
     }
   }
 
+  /**
+   * @return whether depth charges can currently be performed in batches (see
+   * {@link #getDepthChargeResults(ForwardDeadReckonInternalMachineState[], int, int, int[], int[][])}).
+   */
+  public boolean canPerformBatchedDepthCharges()
+  {
+    // Batched playouts are plain random playouts to terminality (or the cutoff).  Anything which modifies that (or
+    // which needs more than the final goal values) must use single depth charges.
+    return mBatchAnimator != null &&
+           !(enableGreedyRollouts && numRoles <= 2) &&
+           factors == null &&
+           mPlayoutPolicy == null &&
+           mGoalsCalculator == null &&
+           mLatchedGoalTable == null &&
+           !isPseudoPuzzle;
+  }
+
+  /**
+   * Perform a batch of random depth charges, each from its own start state, using the bit-parallel batch animator.
+   * This does not disturb the state of the (single depth charge) propnets.
+   *
+   * @param xiStates         - the start states (the same state may appear more than once).
+   * @param xiNumPlayouts    - the number of depth charges (at most ForwardDeadReckonPropnetBatchAnimator.LANES).
+   * @param xiCutoffDepth    - max depth, after which the playout is cut off as for single depth charges.
+   * @param xoPlayoutLengths - output array for the number of moves played in each depth charge.
+   * @param xoGoals          - output array for the goal values reached by each depth charge, indexed by depth charge
+   *                           and then by (raw) role index.
+   *
+   * @return false if batched depth charges cannot currently be performed, in which case nothing has been done.
+   */
+  public boolean getDepthChargeResults(ForwardDeadReckonInternalMachineState[] xiStates,
+                                       int xiNumPlayouts,
+                                       int xiCutoffDepth,
+                                       int[] xoPlayoutLengths,
+                                       int[][] xoGoals)
+  {
+    if (!canPerformBatchedDepthCharges())
+    {
+      return false;
+    }
+
+    if (mBatchInstanceInfo == null)
+    {
+      mBatchInstanceInfo = mBatchAnimator.createInstanceInfo();
+    }
+
+    mBatchInstanceInfo.playouts(xiStates, xiNumPlayouts, xiCutoffDepth, xoPlayoutLengths, xoGoals);
+    return true;
+  }
+
   public Set<Factor> getFactors()
   {
     return factors;
@@ -0,0 +1,162 @@
+package org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon;
+
+import java.util.Map;
+
+import org.ggp.base.player.gamer.statemachine.sancho.RoleOrdering;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicProposition;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonProposition;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * Flattened form of the goal latches found during semantic analysis, for use in playouts.
+ *
+ * A role's score is decided in a state if either one of its goals is positively latched, or all its goals bar those
+ * with a single value are negatively latched.  Testing that is a handful of mask intersections per role, so it's
+ * cheap enough to do after every move of a playout - and once every role's score is decided, the goals can be read
+ * from here rather than by propagating the state through the goals network.
+ *
+ * A score decided by negative latches is the score the role will end up with, but not necessarily its goal value in
+ * the current state.  So only a positively latched state may be treated as final before the game is over.
+ */
+final class LatchedGoalTable
+{
+  private final int                                       mNumRoles;
+
+  // For each role (indexed as per the role ordering), the value of each of its goals and the masks of base props
+  // which positively/negatively latch them (null if there are none).
+  private final int[][]                                   mGoalValues;
+  private final ForwardDeadReckonInternalMachineState[][] mPositiveMasks;
+  private final ForwardDeadReckonInternalMachineState[][] mNegativeMasks;
+
+  /**
+   * Create a table from the latch analysis.
+   *
+   * @param xiRoles              - the roles (in raw order).
+   * @param xiGoalProps          - the goal propositions for each role.
+   * @param xiPositiveLatches    - positive goal latches (may be null).
+   * @param xiNegativeLatches    - negative goal latches (may be null).
+   * @param xiRoleOrdering       - the role ordering by which to index roles.
+   */
+  LatchedGoalTable(Role[] xiRoles,
+                   Map<Role, PolymorphicProposition[]> xiGoalProps,
+                   Map<PolymorphicProposition, ForwardDeadReckonInternalMachineState> xiPositiveLatches,
+                   Map<PolymorphicProposition, ForwardDeadReckonInternalMachineState> xiNegativeLatches,
+                   RoleOrdering xiRoleOrdering)
+  {
+    mNumRoles = xiRoles.length;
+    mGoalValues = new int[mNumRoles][];
+    mPositiveMasks = new ForwardDeadReckonInternalMachineState[mNumRoles][];
+    mNegativeMasks = new ForwardDeadReckonInternalMachineState[mNumRoles][];
+
+    for (int lRawRoleIndex = 0; lRawRoleIndex < mNumRoles; lRawRoleIndex++)
+    {
+      // (Go via the raw index, because a role ordering for no particular role doesn't map roles to indices.)
+      int lRoleIndex = xiRoleOrdering.rawRoleIndexToRoleIndex(lRawRoleIndex);
+      PolymorphicProposition[] lGoals = xiGoalProps.get(xiRoles[lRawRoleIndex]);
+
+      mGoalValues[lRoleIndex] = new int[lGoals.length];
+      mPositiveMasks[lRoleIndex] = new ForwardDeadReckonInternalMachineState[lGoals.length];
+      mNegativeMasks[lRoleIndex] = new ForwardDeadReckonInternalMachineState[lGoals.length];
+
+      for (int lii = 0; lii < lGoals.length; lii++)
+      {
+        mGoalValues[lRoleIndex][lii] = ((ForwardDeadReckonProposition)lGoals[lii]).getGoalValue();
+        if (xiPositiveLatches != null)
+        {
+          mPositiveMasks[lRoleIndex][lii] = xiPositiveLatches.get(lGoals[lii]);
+        }
+        if (xiNegativeLatches != null)
+        {
+          mNegativeMasks[lRoleIndex][lii] = xiNegativeLatches.get(lGoals[lii]);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param xiState     - the state.
+   * @param xiRoleIndex - the role (as per the role ordering).
+   *
+   * @return the role's score in the state, if it is decided by the latches, or -1 if not.
+   */
+  int getLatchedGoal(ForwardDeadReckonInternalMachineState xiState, int xiRoleIndex)
+  {
+    int[] lValues = mGoalValues[xiRoleIndex];
+    ForwardDeadReckonInternalMachineState[] lPositiveMasks = mPositiveMasks[xiRoleIndex];
+    ForwardDeadReckonInternalMachineState[] lNegativeMasks = mNegativeMasks[xiRoleIndex];
+    int lRemainingValue = -1;
+
+    for (int lii = 0; lii < lValues.length; lii++)
+    {
+      if (lPositiveMasks[lii] != null && xiState.intersects(lPositiveMasks[lii]))
+      {
+        return lValues[lii];
+      }
+
+      if (lNegativeMasks[lii] == null || !xiState.intersects(lNegativeMasks[lii]))
+      {
+        // This goal is still available.  If it isn't the only value that is, the score isn't decided yet.  (Keep
+        // looking for a positive latch though.)
+        if (lRemainingValue == -1)
+        {
+          lRemainingValue = lValues[lii];
+        }
+        else if (lRemainingValue != lValues[lii])
+        {
+          lRemainingValue = -2;
+        }
+      }
+    }
+
+    return (lRemainingValue < 0) ? -1 : lRemainingValue;
+  }
+
+  /**
+   * @param xiState - the state.
+   *
+   * @return whether every role has a positively latched goal in the specified state.
+   */
+  boolean allScoresPositivelyLatched(ForwardDeadReckonInternalMachineState xiState)
+  {
+    for (int lRoleIndex = 0; lRoleIndex < mNumRoles; lRoleIndex++)
+    {
+      ForwardDeadReckonInternalMachineState[] lPositiveMasks = mPositiveMasks[lRoleIndex];
+      boolean lLatched = false;
+
+      for (int lii = 0; lii < lPositiveMasks.length && !lLatched; lii++)
+      {
+        lLatched = (lPositiveMasks[lii] != null && xiState.intersects(lPositiveMasks[lii]));
+      }
+
+      if (!lLatched)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the scores of all roles, if they're all decided by the latches.  Only use this for a terminal state or one
+   * in which all scores are positively latched.
+   *
+   * @param xiState  - the state.
+   * @param xoGoals  - output array for the scores, indexed as per the role ordering.  Its contents are undefined if
+   *                   this method returns false.
+   *
+   * @return whether every role's score is decided.
+   */
+  boolean getLatchedGoals(ForwardDeadReckonInternalMachineState xiState, int[] xoGoals)
+  {
+    for (int lii = 0; lii < mNumRoles; lii++)
+    {
+      xoGoals[lii] = getLatchedGoal(xiState, lii);
+      if (xoGoals[lii] == -1)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+}
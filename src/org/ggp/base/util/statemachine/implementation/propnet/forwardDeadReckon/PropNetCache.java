@@ -0,0 +1,610 @@
+package org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration;
+import org.ggp.base.player.gamer.statemachine.sancho.MachineSpecificConfiguration.CfgItem;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicAnd;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicComponent;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicComponentFactory;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicConstant;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicNot;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicOr;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicProposition;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicTransition;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonComponentFactory;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropNet;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * On-disk cache of optimized propnets, so that a game which has been played before doesn't need its propnet rebuilding
+ * and re-optimizing during meta-gaming.
+ *
+ * Entries are stored in the game's learning directory (alongside the saved game characteristics) in a compact binary
+ * format, which is read back with memory-mapped I/O.  Each entry is keyed by a hash of the (already de-scrambled) GDL
+ * and our role, since the propnet optimizations are role-specific.  Each entry ends with a CRC32 of its contents.  An
+ * entry which doesn't match its key or checksum, or which can't be read, is simply ignored (and will be overwritten
+ * once the propnet has been rebuilt).
+ */
+public class PropNetCache
+{
+  private static final Logger LOGGER = LogManager.getLogger();
+
+  // File format identification.  Bump the version whenever the format (or the meaning of the cached data) changes.
+  private static final int    MAGIC        = 0x53504E43;
+  private static final int    VERSION      = 2;
+
+  private static final String FILE_PREFIX  = "propnet_";
+  private static final String FILE_SUFFIX  = ".bin";
+
+  // Component types.
+  private static final byte   TYPE_PROPOSITION = 0;
+  private static final byte   TYPE_AND         = 1;
+  private static final byte   TYPE_OR          = 2;
+  private static final byte   TYPE_NOT         = 3;
+  private static final byte   TYPE_TRANSITION  = 4;
+  private static final byte   TYPE_CONSTANT    = 5;
+
+  // Flags recording the special purposes of a proposition.
+  private static final byte   FLAG_BASE        = 0x01;
+  private static final byte   FLAG_INPUT       = 0x02;
+  private static final byte   FLAG_LEGAL       = 0x04;
+  private static final byte   FLAG_GOAL        = 0x08;
+  private static final byte   FLAG_INIT        = 0x10;
+  private static final byte   FLAG_TERMINAL    = 0x20;
+
+  /**
+   * A propnet (and associated results of its optimization) loaded from the cache.
+   */
+  public static class CachedPropNet
+  {
+    /**
+     * The optimized propnet.
+     */
+    public final ForwardDeadReckonPropNet mPropNet;
+
+    /**
+     * Whether the game was found to be a pseudo-puzzle whilst removing irrelevant bases and inputs.
+     */
+    public final boolean                  mIsPseudoPuzzle;
+
+    /**
+     * The filler moves found whilst removing irrelevant bases and inputs.
+     */
+    public final Set<GdlSentence>         mFillerMoves;
+
+    CachedPropNet(ForwardDeadReckonPropNet xiPropNet, boolean xiIsPseudoPuzzle, Set<GdlSentence> xiFillerMoves)
+    {
+      mPropNet = xiPropNet;
+      mIsPseudoPuzzle = xiIsPseudoPuzzle;
+      mFillerMoves = xiFillerMoves;
+    }
+  }
+
+  private final File   mFile;
+  private final String mKey;
+
+  /**
+   * Create a handle on the cached propnet for a game.
+   *
+   * @param xiGameDirectory - the game's learning directory, or null if the game isn't known.
+   * @param xiDescription   - the GDL.
+   * @param xiOurRole       - the role we're playing (may be null).
+   */
+  public PropNetCache(File xiGameDirectory, List<Gdl> xiDescription, Role xiOurRole)
+  {
+    mKey = computeKey(xiDescription, xiOurRole);
+
+    if (xiGameDirectory == null || MachineSpecificConfiguration.getCfgBool(CfgItem.DISABLE_LEARNING))
+    {
+      mFile = null;
+    }
+    else
+    {
+      mFile = new File(xiGameDirectory, FILE_PREFIX + mKey.substring(0, 16) + FILE_SUFFIX);
+    }
+  }
+
+  /**
+   * @return the key for a game, which is a hash of its GDL and our role.
+   *
+   * @param xiDescription - the GDL.
+   * @param xiOurRole     - our role (may be null).
+   */
+  static String computeKey(List<Gdl> xiDescription, Role xiOurRole)
+  {
+    MessageDigest lDigest;
+    try
+    {
+      lDigest = MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException lEx)
+    {
+      throw new RuntimeException("SHA-256 not available", lEx);
+    }
+
+    lDigest.update(("v" + VERSION + " " + xiOurRole + "\n").getBytes(StandardCharsets.UTF_8));
+    for (Gdl lRule : xiDescription)
+    {
+      lDigest.update(lRule.toString().getBytes(StandardCharsets.UTF_8));
+      lDigest.update((byte)'\n');
+    }
+
+    StringBuilder lKey = new StringBuilder();
+    for (byte lByte : lDigest.digest())
+    {
+      lKey.append(String.format("%02x", lByte));
+    }
+    return lKey.toString();
+  }
+
+  /**
+   * Load the cached propnet, if there is one.
+   *
+   * @return the cached propnet, or null if there isn't a valid cached propnet for this game.
+   */
+  public CachedPropNet load()
+  {
+    if (mFile == null || !mFile.exists())
+    {
+      return null;
+    }
+
+    long lStartTime = System.currentTimeMillis();
+    try (FileChannel lChannel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ))
+    {
+      MappedByteBuffer lBuffer = lChannel.map(FileChannel.MapMode.READ_ONLY, 0, lChannel.size());
+      CachedPropNet lResult = read(lBuffer);
+
+      if (lResult != null)
+      {
+        LOGGER.info("Loaded cached propnet with " + lResult.mPropNet.getComponents().size() + " components in " +
+                    (System.currentTimeMillis() - lStartTime) + "ms");
+      }
+      return lResult;
+    }
+    catch (IOException | RuntimeException lEx)
+    {
+      LOGGER.warn("Failed to load cached propnet from " + mFile + ": " + lEx);
+      return null;
+    }
+  }
+
+  /**
+   * Save an optimized propnet to the cache.  This must be done before the propnet is crystalized.
+   *
+   * @param xiPropNet       - the propnet.
+   * @param xiIsPseudoPuzzle - whether the game is a pseudo-puzzle.
+   * @param xiFillerMoves   - the filler moves.
+   */
+  public void save(ForwardDeadReckonPropNet xiPropNet, boolean xiIsPseudoPuzzle, Set<GdlSentence> xiFillerMoves)
+  {
+    if (mFile == null)
+    {
+      return;
+    }
+
+    // Write to a temporary file and then move it into place, so that a partially written file is never seen.
+    File lTempFile = new File(mFile.getPath() + ".tmp");
+    try
+    {
+      boolean lWritten;
+      try (CheckedOutputStream lChecked = new CheckedOutputStream(
+                                                    new BufferedOutputStream(new FileOutputStream(lTempFile)),
+                                                    new CRC32());
+           DataOutputStream lOutput = new DataOutputStream(lChecked))
+      {
+        lWritten = write(lOutput, xiPropNet, xiIsPseudoPuzzle, xiFillerMoves);
+        if (lWritten)
+        {
+          lOutput.writeLong(lChecked.getChecksum().getValue());
+        }
+      }
+
+      // If the propnet couldn't be written, the temporary file is tidied up below.
+      if (lWritten)
+      {
+        if (mFile.exists() && !mFile.delete())
+        {
+          LOGGER.warn("Failed to replace cached propnet " + mFile);
+        }
+        else if (!lTempFile.renameTo(mFile))
+        {
+          LOGGER.warn("Failed to save cached propnet to " + mFile);
+        }
+        else
+        {
+          LOGGER.info("Saved propnet to " + mFile);
+        }
+      }
+    }
+    catch (IOException lEx)
+    {
+      LOGGER.warn("Failed to save cached propnet to " + mFile + ": " + lEx);
+    }
+    lTempFile.delete();
+  }
+
+  private boolean write(DataOutputStream xiOutput,
+                        ForwardDeadReckonPropNet xiPropNet,
+                        boolean xiIsPseudoPuzzle,
+                        Set<GdlSentence> xiFillerMoves) throws IOException
+  {
+    Role[] lRoles = xiPropNet.getRoles();
+
+    // Number the components.
+    Map<PolymorphicComponent, Integer> lIndices = new HashMap<>();
+    PolymorphicComponent[] lComponents = new PolymorphicComponent[xiPropNet.getComponents().size()];
+    for (PolymorphicComponent lComponent : xiPropNet.getComponents())
+    {
+      lComponents[lIndices.size()] = lComponent;
+      lIndices.put(lComponent, lIndices.size());
+    }
+
+    // Work out the special purposes of the propositions.
+    Map<PolymorphicComponent, Integer> lFlags = new HashMap<>();
+    Map<PolymorphicComponent, Integer> lRoleIndices = new HashMap<>();
+    for (PolymorphicProposition lProp : xiPropNet.getBasePropositions().values())
+    {
+      addFlag(lFlags, lProp, FLAG_BASE);
+    }
+    for (PolymorphicProposition lProp : xiPropNet.getInputPropositions().values())
+    {
+      addFlag(lFlags, lProp, FLAG_INPUT);
+    }
+    for (int lRoleIndex = 0; lRoleIndex < lRoles.length; lRoleIndex++)
+    {
+      for (PolymorphicProposition lProp : xiPropNet.getLegalPropositions().get(lRoles[lRoleIndex]))
+      {
+        addFlag(lFlags, lProp, FLAG_LEGAL);
+        lRoleIndices.put(lProp, lRoleIndex);
+      }
+      for (PolymorphicProposition lProp : xiPropNet.getGoalPropositions().get(lRoles[lRoleIndex]))
+      {
+        addFlag(lFlags, lProp, FLAG_GOAL);
+        lRoleIndices.put(lProp, lRoleIndex);
+      }
+    }
+    if (xiPropNet.getInitProposition() != null)
+    {
+      addFlag(lFlags, xiPropNet.getInitProposition(), FLAG_INIT);
+    }
+    addFlag(lFlags, xiPropNet.getTerminalProposition(), FLAG_TERMINAL);
+
+    xiOutput.writeInt(MAGIC);
+    xiOutput.writeInt(VERSION);
+    writeString(xiOutput, mKey);
+
+    xiOutput.writeBoolean(xiIsPseudoPuzzle);
+    xiOutput.writeInt(xiFillerMoves.size());
+    for (GdlSentence lMove : xiFillerMoves)
+    {
+      if (!writeSentence(xiOutput, lMove))
+      {
+        return false;
+      }
+    }
+
+    xiOutput.writeInt(lRoles.length);
+    for (Role lRole : lRoles)
+    {
+      writeString(xiOutput, lRole.getName().getValue());
+    }
+
+    xiOutput.writeInt(lComponents.length);
+    for (PolymorphicComponent lComponent : lComponents)
+    {
+      if (lComponent instanceof PolymorphicProposition)
+      {
+        Integer lComponentFlags = lFlags.get(lComponent);
+        Integer lRoleIndex = lRoleIndices.get(lComponent);
+
+        xiOutput.writeByte(TYPE_PROPOSITION);
+        xiOutput.writeByte(lComponentFlags == null ? 0 : lComponentFlags);
+        xiOutput.writeByte(lRoleIndex == null ? 0 : lRoleIndex);
+        if (!writeSentence(xiOutput, ((PolymorphicProposition)lComponent).getName()))
+        {
+          return false;
+        }
+      }
+      else if (lComponent instanceof PolymorphicAnd)
+      {
+        xiOutput.writeByte(TYPE_AND);
+      }
+      else if (lComponent instanceof PolymorphicOr)
+      {
+        xiOutput.writeByte(TYPE_OR);
+      }
+      else if (lComponent instanceof PolymorphicNot)
+      {
+        xiOutput.writeByte(TYPE_NOT);
+      }
+      else if (lComponent instanceof PolymorphicTransition)
+      {
+        xiOutput.writeByte(TYPE_TRANSITION);
+      }
+      else if (lComponent instanceof PolymorphicConstant)
+      {
+        xiOutput.writeByte(TYPE_CONSTANT);
+        xiOutput.writeBoolean(lComponent.getValue());
+      }
+      else
+      {
+        LOGGER.warn("Not caching propnet containing unknown component " + lComponent);
+        return false;
+      }
+    }
+
+    // Connections - in order, since the order of inputs and outputs is significant.
+    for (PolymorphicComponent lComponent : lComponents)
+    {
+      xiOutput.writeInt(lComponent.getInputs().size());
+      for (PolymorphicComponent lInput : lComponent.getInputs())
+      {
+        xiOutput.writeInt(lIndices.get(lInput));
+      }
+      xiOutput.writeInt(lComponent.getOutputs().size());
+      for (PolymorphicComponent lOutput : lComponent.getOutputs())
+      {
+        xiOutput.writeInt(lIndices.get(lOutput));
+      }
+    }
+
+    // The legal <-> input map (which holds both directions).
+    xiOutput.writeInt(xiPropNet.getLegalInputMap().size());
+    for (Entry<PolymorphicProposition, PolymorphicProposition> lEntry : xiPropNet.getLegalInputMap().entrySet())
+    {
+      xiOutput.writeInt(lIndices.get(lEntry.getKey()));
+      xiOutput.writeInt(lIndices.get(lEntry.getValue()));
+    }
+
+    return true;
+  }
+
+  private CachedPropNet read(ByteBuffer xiBuffer)
+  {
+    if (xiBuffer.getInt() != MAGIC || xiBuffer.getInt() != VERSION || !mKey.equals(readString(xiBuffer)))
+    {
+      LOGGER.info("Ignoring stale cached propnet " + mFile);
+      return null;
+    }
+
+    if (!checksumMatches(xiBuffer))
+    {
+      LOGGER.warn("Ignoring corrupt cached propnet " + mFile);
+      return null;
+    }
+
+    boolean lIsPseudoPuzzle = (xiBuffer.get() != 0);
+    int lNumFillerMoves = xiBuffer.getInt();
+    Set<GdlSentence> lFillerMoves = new HashSet<>();
+    for (int lii = 0; lii < lNumFillerMoves; lii++)
+    {
+      lFillerMoves.add(readSentence(xiBuffer));
+    }
+
+    Role[] lRoles = new Role[xiBuffer.getInt()];
+    for (int lii = 0; lii < lRoles.length; lii++)
+    {
+      lRoles[lii] = new Role(GdlPool.getConstant(readString(xiBuffer)));
+    }
+
+    PolymorphicComponentFactory lFactory = new ForwardDeadReckonComponentFactory();
+    PolymorphicComponent[] lComponents = new PolymorphicComponent[xiBuffer.getInt()];
+    Set<PolymorphicComponent> lComponentSet = new HashSet<>();
+    Map<GdlSentence, PolymorphicProposition> lBasePropositions = new HashMap<>();
+    Map<GdlSentence, PolymorphicProposition> lInputPropositions = new HashMap<>();
+    Map<Role, Set<PolymorphicProposition>> lLegalPropositions = new HashMap<>();
+    Map<Role, Set<PolymorphicProposition>> lGoalPropositions = new HashMap<>();
+    PolymorphicProposition lInitProposition = null;
+    PolymorphicProposition lTerminalProposition = null;
+
+    for (Role lRole : lRoles)
+    {
+      lLegalPropositions.put(lRole, new HashSet<PolymorphicProposition>());
+      lGoalPropositions.put(lRole, new HashSet<PolymorphicProposition>());
+    }
+
+    for (int lii = 0; lii < lComponents.length; lii++)
+    {
+      byte lType = xiBuffer.get();
+      switch (lType)
+      {
+        case TYPE_PROPOSITION:
+          int lFlags = xiBuffer.get();
+          Role lRole = lRoles[xiBuffer.get()];
+          PolymorphicProposition lProp = lFactory.createProposition(-1, readSentence(xiBuffer));
+
+          if ((lFlags & FLAG_BASE) != 0)     {lBasePropositions.put(lProp.getName(), lProp);}
+          if ((lFlags & FLAG_INPUT) != 0)    {lInputPropositions.put(lProp.getName(), lProp);}
+          if ((lFlags & FLAG_LEGAL) != 0)    {lLegalPropositions.get(lRole).add(lProp);}
+          if ((lFlags & FLAG_GOAL) != 0)     {lGoalPropositions.get(lRole).add(lProp);}
+          if ((lFlags & FLAG_INIT) != 0)     {lInitProposition = lProp;}
+          if ((lFlags & FLAG_TERMINAL) != 0) {lTerminalProposition = lProp;}
+          lComponents[lii] = lProp;
+          break;
+        case TYPE_AND:
+          lComponents[lii] = lFactory.createAnd(-1, -1);
+          break;
+        case TYPE_OR:
+          lComponents[lii] = lFactory.createOr(-1, -1);
+          break;
+        case TYPE_NOT:
+          lComponents[lii] = lFactory.createNot(-1);
+          break;
+        case TYPE_TRANSITION:
+          lComponents[lii] = lFactory.createTransition(-1);
+          break;
+        case TYPE_CONSTANT:
+          lComponents[lii] = lFactory.createConstant(-1, xiBuffer.get() != 0);
+          break;
+        default:
+          throw new IllegalStateException("Invalid component type " + lType);
+      }
+      lComponentSet.add(lComponents[lii]);
+    }
+
+    for (PolymorphicComponent lComponent : lComponents)
+    {
+      int lNumInputs = xiBuffer.getInt();
+      for (int lii = 0; lii < lNumInputs; lii++)
+      {
+        lComponent.addInput(lComponents[xiBuffer.getInt()]);
+      }
+      int lNumOutputs = xiBuffer.getInt();
+      for (int lii = 0; lii < lNumOutputs; lii++)
+      {
+        lComponent.addOutput(lComponents[xiBuffer.getInt()]);
+      }
+    }
+
+    Map<PolymorphicProposition, PolymorphicProposition> lLegalInputMap = new HashMap<>();
+    int lNumLegalInputEntries = xiBuffer.getInt();
+    for (int lii = 0; lii < lNumLegalInputEntries; lii++)
+    {
+      PolymorphicProposition lKey = (PolymorphicProposition)lComponents[xiBuffer.getInt()];
+      lLegalInputMap.put(lKey, (PolymorphicProposition)lComponents[xiBuffer.getInt()]);
+    }
+
+    if (lTerminalProposition == null)
+    {
+      throw new IllegalStateException("No terminal proposition");
+    }
+
+    if (xiBuffer.position() != xiBuffer.limit() - 8)
+    {
+      throw new IllegalStateException("Unexpected data after propnet");
+    }
+
+    ForwardDeadReckonPropNet lPropNet = new ForwardDeadReckonPropNet(lRoles,
+                                                                     lComponentSet,
+                                                                     lBasePropositions,
+                                                                     lInputPropositions,
+                                                                     lLegalPropositions,
+                                                                     lGoalPropositions,
+                                                                     lInitProposition,
+                                                                     lTerminalProposition,
+                                                                     lLegalInputMap,
+                                                                     lFactory);
+    return new CachedPropNet(lPropNet, lIsPseudoPuzzle, lFillerMoves);
+  }
+
+  /**
+   * @return whether the checksum at the end of a cached propnet matches its contents.
+   */
+  private static boolean checksumMatches(ByteBuffer xiBuffer)
+  {
+    int lLength = xiBuffer.limit() - 8;
+    if (lLength < xiBuffer.position())
+    {
+      return false;
+    }
+
+    CRC32 lChecksum = new CRC32();
+    ByteBuffer lContents = xiBuffer.duplicate();
+    lContents.position(0);
+    lContents.limit(lLength);
+    byte[] lChunk = new byte[65536];
+    while (lContents.hasRemaining())
+    {
+      int lChunkLength = Math.min(lChunk.length, lContents.remaining());
+      lContents.get(lChunk, 0, lChunkLength);
+      lChecksum.update(lChunk, 0, lChunkLength);
+    }
+
+    return lChecksum.getValue() == xiBuffer.getLong(lLength);
+  }
+
+  private static void addFlag(Map<PolymorphicComponent, Integer> xiFlags, PolymorphicComponent xiProp, int xiFlag)
+  {
+    Integer lFlags = xiFlags.get(xiProp);
+    xiFlags.put(xiProp, (lFlags == null ? 0 : lFlags) | xiFlag);
+  }
+
+  /**
+   * Write a sentence, checking that it will be read back as the same sentence.
+   *
+   * @return whether the sentence could be written.
+   */
+  private static boolean writeSentence(DataOutputStream xiOutput, GdlSentence xiSentence) throws IOException
+  {
+    String lText = xiSentence.toString();
+
+    if (!xiSentence.equals(parseSentence(lText)))
+    {
+      LOGGER.warn("Not caching propnet containing unparseable sentence " + lText);
+      return false;
+    }
+
+    writeString(xiOutput, lText);
+    return true;
+  }
+
+  private static GdlSentence readSentence(ByteBuffer xiBuffer)
+  {
+    return parseSentence(readString(xiBuffer));
+  }
+
+  private static GdlSentence parseSentence(String xiText)
+  {
+    try
+    {
+      Gdl lGdl = GdlFactory.create(xiText);
+      if (lGdl instanceof GdlConstant)
+      {
+        return GdlPool.getProposition((GdlConstant)lGdl);
+      }
+      return (GdlSentence)lGdl;
+    }
+    catch (Exception lEx)
+    {
+      return null;
+    }
+  }
+
+  private static void writeString(DataOutputStream xiOutput, String xiString) throws IOException
+  {
+    byte[] lBytes = xiString.getBytes(StandardCharsets.UTF_8);
+    xiOutput.writeInt(lBytes.length);
+    xiOutput.write(lBytes);
+  }
+
+  private static String readString(ByteBuffer xiBuffer)
+  {
+    int lLength = xiBuffer.getInt();
+    if (lLength < 0 || lLength > xiBuffer.remaining())
+    {
+      throw new IllegalStateException("Invalid string length " + lLength);
+    }
+
+    byte[] lBytes = new byte[lLength];
+    xiBuffer.get(lBytes);
+    return new String(lBytes, StandardCharsets.UTF_8);
+  }
+}
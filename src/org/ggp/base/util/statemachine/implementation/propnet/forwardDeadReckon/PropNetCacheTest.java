@@ -0,0 +1,175 @@
+package org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.player.gamer.statemachine.sancho.RuntimeGameCharacteristics;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.propnet.polymorphic.PolymorphicProposition;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonPropNet;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PropNetCacheTest extends Assert
+{
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    checkRoundTrip("ticTacToe", "xplayer");
+    checkRoundTrip("connectFour", "red");
+  }
+
+  private void checkRoundTrip(String xiGame, String xiRole) throws Exception
+  {
+    File lDirectory = mFolder.newFolder();
+    List<Gdl> lDescription = new TestGameRepository().getGame(xiGame).getRules();
+    Role lRole = new Role(GdlPool.getConstant(xiRole));
+
+    // The first time, the propnet is built and saved.
+    File lFile = getCacheFile(lDirectory, lDescription, lRole);
+    ForwardDeadReckonPropnetStateMachine lBuilt = createMachine(lDirectory, lDescription, lRole);
+    assertTrue(lFile.exists());
+    long lModified = lFile.lastModified();
+
+    // The second time, it's loaded from the cache (and not saved again).
+    PropNetCache.CachedPropNet lCached = new PropNetCache(lDirectory, lDescription, lRole).load();
+    assertNotNull(lCached);
+    ForwardDeadReckonPropnetStateMachine lLoaded = createMachine(lDirectory, lDescription, lRole);
+    assertEquals(lModified, lFile.lastModified());
+
+    // The loaded propnet has the same shape as the one that was built.
+    ForwardDeadReckonPropNet lBuiltNet = lBuilt.getFullPropNet();
+    ForwardDeadReckonPropNet lLoadedNet = lLoaded.getFullPropNet();
+    assertEquals(lBuiltNet.getComponents().size(), lCached.mPropNet.getComponents().size());
+    assertEquals(lBuiltNet.getComponents().size(), lLoadedNet.getComponents().size());
+    assertEquals(lBuiltNet.getBasePropositions().keySet(), lLoadedNet.getBasePropositions().keySet());
+    assertEquals(lBuiltNet.getInputPropositions().keySet(), lLoadedNet.getInputPropositions().keySet());
+    for (Role lGameRole : lBuiltNet.getRoles())
+    {
+      assertEquals(getNames(lBuiltNet.getLegalPropositions().get(lGameRole)),
+                   getNames(lLoadedNet.getLegalPropositions().get(lGameRole)));
+      assertEquals(getNames(lBuiltNet.getGoalPropositions().get(lGameRole)),
+                   getNames(lLoadedNet.getGoalPropositions().get(lGameRole)));
+    }
+
+    // And it behaves in the same way.
+    assertEquals(lBuilt.getRoles().length, lLoaded.getRoles().length);
+    Random lRandom = new Random(1);
+    for (int lGame = 0; lGame < 20; lGame++)
+    {
+      MachineState lBuiltState = lBuilt.getInitialState();
+      MachineState lLoadedState = lLoaded.getInitialState();
+      assertEquals(lBuiltState, lLoadedState);
+
+      while (!lBuilt.isTerminal(lBuiltState))
+      {
+        assertFalse(lLoaded.isTerminal(lLoadedState));
+        List<Move> lMoves = new ArrayList<>();
+        for (Role lGameRole : lBuilt.getRoles())
+        {
+          List<Move> lLegals = lBuilt.getLegalMoves(lBuiltState, lGameRole);
+          assertEquals(new HashSet<>(lLegals), new HashSet<>(lLoaded.getLegalMoves(lLoadedState, lGameRole)));
+          lMoves.add(lLegals.get(lRandom.nextInt(lLegals.size())));
+        }
+        lBuiltState = lBuilt.getNextState(lBuiltState, lMoves);
+        lLoadedState = lLoaded.getNextState(lLoadedState, lMoves);
+        assertEquals(lBuiltState, lLoadedState);
+      }
+
+      assertTrue(lLoaded.isTerminal(lLoadedState));
+      assertEquals(lBuilt.getGoals(lBuiltState), lLoaded.getGoals(lLoadedState));
+    }
+  }
+
+  @Test
+  public void testRejectsStaleAndCorruptFiles() throws Exception
+  {
+    File lDirectory = mFolder.newFolder();
+    List<Gdl> lDescription = new TestGameRepository().getGame("ticTacToe").getRules();
+    Role lRole = new Role(GdlPool.getConstant("xplayer"));
+    File lFile = getCacheFile(lDirectory, lDescription, lRole);
+    createMachine(lDirectory, lDescription, lRole);
+    byte[] lGood = Files.readAllBytes(lFile.toPath());
+    PropNetCache lCache = new PropNetCache(lDirectory, lDescription, lRole);
+    assertNotNull(lCache.load());
+
+    // A file saved for another role (or game) isn't used, even under this role's name.
+    Role lOtherRole = new Role(GdlPool.getConstant("oplayer"));
+    File lOtherFile = getCacheFile(lDirectory, lDescription, lOtherRole);
+    Files.write(lOtherFile.toPath(), lGood);
+    assertNull(new PropNetCache(lDirectory, lDescription, lOtherRole).load());
+
+    // Nor is one written by a different version.
+    byte[] lBad = lGood.clone();
+    lBad[7]++;
+    Files.write(lFile.toPath(), lBad);
+    assertNull(lCache.load());
+
+    // Nor one that has been truncated...
+    for (int lLength : new int[] {0, 6, lGood.length / 2, lGood.length - 1})
+    {
+      Files.write(lFile.toPath(), Arrays.copyOf(lGood, lLength));
+      assertNull("Accepted file truncated to " + lLength + " bytes", lCache.load());
+    }
+
+    // ...or extended...
+    Files.write(lFile.toPath(), Arrays.copyOf(lGood, lGood.length + 1));
+    assertNull(lCache.load());
+
+    // ...or has any byte changed.
+    for (int lOffset = 0; lOffset < lGood.length; lOffset += 1 + lOffset / 8)
+    {
+      lBad = lGood.clone();
+      lBad[lOffset] ^= 0x10;
+      Files.write(lFile.toPath(), lBad);
+      assertNull("Accepted file with byte " + lOffset + " changed", lCache.load());
+    }
+
+    // A state machine faced with a corrupt file rebuilds the propnet and replaces the file.
+    ForwardDeadReckonPropnetStateMachine lMachine = createMachine(lDirectory, lDescription, lRole);
+    assertNotNull(lMachine.getInitialState());
+    assertNotNull(lCache.load());
+  }
+
+  private static ForwardDeadReckonPropnetStateMachine createMachine(File xiDirectory,
+                                                                    List<Gdl> xiDescription,
+                                                                    Role xiRole)
+  {
+    RuntimeGameCharacteristics lCharacteristics = new RuntimeGameCharacteristics(xiDirectory);
+    ForwardDeadReckonPropnetStateMachine lMachine =
+                                   new ForwardDeadReckonPropnetStateMachine(1, 0, xiRole, lCharacteristics);
+    lMachine.initialize(xiDescription);
+    return lMachine;
+  }
+
+  private static File getCacheFile(File xiDirectory, List<Gdl> xiDescription, Role xiRole)
+  {
+    String lKey = PropNetCache.computeKey(xiDescription, xiRole);
+    return new File(xiDirectory, "propnet_" + lKey.substring(0, 16) + ".bin");
+  }
+
+  private static HashSet<String> getNames(PolymorphicProposition[] xiProps)
+  {
+    HashSet<String> lNames = new HashSet<>();
+    for (PolymorphicProposition lProp : xiProps)
+    {
+      lNames.add(lProp.getName().toString());
+    }
+    return lNames;
+  }
+}
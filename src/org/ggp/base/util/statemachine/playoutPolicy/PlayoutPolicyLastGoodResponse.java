@@ -1,5 +1,10 @@
 package org.ggp.base.util.statemachine.playoutPolicy;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.apache.logging.log4j.LogManager;
@@ -7,6 +12,7 @@ import org.apache.logging.log4j.Logger;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
 import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
+import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
 import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.StateMachineFilter;
@@ -22,11 +28,15 @@ public class PlayoutPolicyLastGoodResponse implements IPlayoutPolicy
   private static final double EPSILON_GREEDY_THRESHOLD = 0.7;
   private final boolean traceStats = true;
 
+  /**
+   * Largest number of (move, response) pairs to keep statistics for.
+   */
+  private static final int MAX_RESPONSE_TABLE_CAPACITY = 1 << 20;
+
   private final ForwardDeadReckonPropnetStateMachine stateMachine;
-  private final float[][]  bestResponseScores;
-  private final float[][]  responseSampleSize;
+  private final ResponseTable responses;
   private final int[] latchedScoreRangeBuffer = new int[2];
-  private final int[] opponentEquivalent;
+  private int turnsSeen = 0;
 
   private ForwardDeadReckonLegalMoveInfo[] playoutMoves = null;
   private int                              currentMoveIndex;
@@ -42,26 +52,20 @@ public class PlayoutPolicyLastGoodResponse implements IPlayoutPolicy
    */
   public PlayoutPolicyLastGoodResponse(ForwardDeadReckonPropnetStateMachine xiStateMachine)
   {
-    stateMachine = xiStateMachine;
-    bestResponseScores = new float[stateMachine.getFullPropNet().getMasterMoveList().length][stateMachine.getFullPropNet().getMasterMoveList().length];
-    responseSampleSize = new float[stateMachine.getFullPropNet().getMasterMoveList().length][stateMachine.getFullPropNet().getMasterMoveList().length];
-    opponentEquivalent = new int[stateMachine.getFullPropNet().getMasterMoveList().length];
+    this(xiStateMachine,
+         new ResponseTable(ResponseTable.suggestCapacity(xiStateMachine.getFullPropNet().getMasterMoveList().length,
+                                                         MAX_RESPONSE_TABLE_CAPACITY)));
+  }
 
-    for(int i = 0; i < stateMachine.getFullPropNet().getMasterMoveList().length; i++)
-    {
-      opponentEquivalent[i] = -1;
-      for(int j = 0; j < stateMachine.getFullPropNet().getMasterMoveList().length; j++)
-      {
-        if (i != j &&
-            stateMachine.getFullPropNet().getMasterMoveList()[i] != null &&
-            stateMachine.getFullPropNet().getMasterMoveList()[j] != null &&
-            stateMachine.getFullPropNet().getMasterMoveList()[i].mMove.equals(stateMachine.getFullPropNet().getMasterMoveList()[j].mMove))
-        {
-          opponentEquivalent[i] = j;
-          break;
-        }
-      }
-    }
+  /**
+   * Construct an instance sharing its response statistics with others
+   * @param xiStateMachine
+   * @param xiResponses - the shared statistics
+   */
+  private PlayoutPolicyLastGoodResponse(ForwardDeadReckonPropnetStateMachine xiStateMachine, ResponseTable xiResponses)
+  {
+    stateMachine = xiStateMachine;
+    responses = xiResponses;
 
     ourRoleIndex = stateMachine.getRoleOrdering().getOurRawRoleIndex();
     ourRole = stateMachine.getRoleOrdering().getOurRole();
@@ -70,7 +74,8 @@ public class PlayoutPolicyLastGoodResponse implements IPlayoutPolicy
   @Override
   public IPlayoutPolicy cloneFor(ForwardDeadReckonPropnetStateMachine xiStateMachine)
   {
-    return new PlayoutPolicyLastGoodResponse(xiStateMachine);
+    //  All instances learn into (and play from) the same statistics
+    return new PlayoutPolicyLastGoodResponse(xiStateMachine, responses);
   }
 
   @Override
@@ -132,22 +137,15 @@ public class PlayoutPolicyLastGoodResponse implements IPlayoutPolicy
       for(int i = 0; i < xiLength; i++)
       {
         ForwardDeadReckonLegalMoveInfo move = xiMoves[i];
+        float score = ((move.mRoleIndex == ourRoleIndex) == isWin ? 1 : 0);
         if ( prev != null )
         {
-          responseSampleSize[prev.mMasterIndex][move.mMasterIndex]++;
-          if ( (move.mRoleIndex == ourRoleIndex) == isWin )
-          {
-            bestResponseScores[prev.mMasterIndex][move.mMasterIndex]++;
-          }
+          responses.addSample(prev.mMasterIndex, move.mMasterIndex, score);
         }
 
         if ( prevPrev != null )
         {
-          responseSampleSize[prevPrev.mMasterIndex][move.mMasterIndex]++;
-          if ( (move.mRoleIndex == ourRoleIndex) == isWin )
-          {
-            bestResponseScores[prevPrev.mMasterIndex][move.mMasterIndex]++;
-          }
+          responses.addSample(prevPrev.mMasterIndex, move.mMasterIndex, score);
         }
 
         prevPrev = prev;
@@ -165,38 +163,29 @@ public class PlayoutPolicyLastGoodResponse implements IPlayoutPolicy
     }
 
     ForwardDeadReckonLegalMoveInfo bestResponse = null;
-    float[] moveResponseScores = bestResponseScores[playoutMoves[currentMoveIndex-1].mMasterIndex];
-    float[] moveResponseSamples = responseSampleSize[playoutMoves[currentMoveIndex-1].mMasterIndex];
-    float[] moveFollowOnScores = (currentMoveIndex > 1 ? bestResponseScores[playoutMoves[currentMoveIndex-2].mMasterIndex] : null);
-    float[] moveFollowOnSamples = (currentMoveIndex > 1 ? responseSampleSize[playoutMoves[currentMoveIndex-2].mMasterIndex] : null);
+    int previousMove = playoutMoves[currentMoveIndex-1].mMasterIndex;
+    int previousPreviousMove = (currentMoveIndex > 1 ? playoutMoves[currentMoveIndex-2].mMasterIndex : -1);
     float best = -Float.MAX_VALUE;
-    for(int i = 0; i < moveResponseScores.length; i++)
+    for(ForwardDeadReckonLegalMoveInfo response : availableMoves.getContents(xiRoleIndex))
     {
-      ForwardDeadReckonLegalMoveInfo response = stateMachine.getFullPropNet().getMasterMoveList()[i];
-
-      if ( response.mRoleIndex == xiRoleIndex )
+      float score = 1;
+      boolean valid = false;
+      float followOnScore = (previousPreviousMove == -1 ? -1 : responses.getAverageScore(previousPreviousMove, response.mMasterIndex));
+      if ( followOnScore >= 0 )
       {
-        float score = 1;
-        boolean valid = false;
-        if ( moveFollowOnSamples != null && moveFollowOnSamples[i] > 0 )
-        {
-          assert(moveFollowOnScores != null);
-          score += moveFollowOnScores[i]/moveFollowOnSamples[i];
-          valid = true;
-        }
-        if ( moveResponseSamples[i] > 0 )
-        {
-          score *= moveResponseScores[i]/moveResponseSamples[i];
-          valid = true;
-        }
-        if ( valid && score > best )
-        {
-          if ( availableMoves.getContents(xiRoleIndex).contains(response) )
-          {
-            bestResponse = availableMoves.getMasterList()[response.mMasterIndex];
-            best = score;
-          }
-        }
+        score += followOnScore;
+        valid = true;
+      }
+      float responseScore = responses.getAverageScore(previousMove, response.mMasterIndex);
+      if ( responseScore >= 0 )
+      {
+        score *= responseScore;
+        valid = true;
+      }
+      if ( valid && score > best )
+      {
+        bestResponse = response;
+        best = score;
       }
     }
 
@@ -238,55 +227,101 @@ public class PlayoutPolicyLastGoodResponse implements IPlayoutPolicy
     //  Dump best responses from the previous turn for first non-master instance
     if ( traceStats && stateMachine.getInstanceId() == 1 )
     {
-      ForwardDeadReckonLegalMoveInfo[] masterList = stateMachine.getFullPropNet().getMasterMoveList();
-      for(int i = 0; i < bestResponseScores.length; i++)
+      dumpBestResponses();
+    }
+
+    // Decay the stats (which only the first instance to see the new turn actually does)
+    responses.decay(++turnsSeen);
+  }
+
+  private void dumpBestResponses()
+  {
+    ForwardDeadReckonLegalMoveInfo[] masterList = stateMachine.getFullPropNet().getMasterMoveList();
+
+    //  Best response (by the other role) and follow-on (by the same role) to each move, as slots in the table
+    int[] bestSlot = new int[masterList.length];
+    int[] bestFollowSlot = new int[masterList.length];
+    Arrays.fill(bestSlot, -1);
+    Arrays.fill(bestFollowSlot, -1);
+
+    for(int slot = 0; slot < responses.capacity(); slot++)
+    {
+      int move = responses.getMoveAt(slot);
+      if ( move == -1 )
+      {
+        continue;
+      }
+
+      int response = responses.getResponseAt(slot);
+      int[] bestSlots = (masterList[move].mRoleIndex != masterList[response].mRoleIndex ? bestSlot : bestFollowSlot);
+      if ( bestSlots[move] == -1 || responses.getAverageScoreAt(slot) > responses.getAverageScoreAt(bestSlots[move]) )
+      {
+        bestSlots[move] = slot;
+      }
+    }
+
+    Map<Move, List<Integer>> movesByTerm = null;
+    for(int i = 0; i < masterList.length; i++)
+    {
+      if ( bestSlot[i] == -1 && bestFollowSlot[i] == -1 )
       {
-        float best = -Float.MAX_VALUE;
-        float bestFollow = -Float.MAX_VALUE;
-        int bestIndex = -1;
-        int bestFollowIndex = -1;
-        for(int j = 0; j < bestResponseScores.length; j++)
+        continue;
+      }
+
+      LOGGER.info("Best response to " + masterList[i].mInputProposition + ": " + describeResponse(masterList, bestSlot[i]));
+      LOGGER.info("Best follow-on to " + masterList[i].mInputProposition + ": " + describeResponse(masterList, bestFollowSlot[i]));
+
+      if ( bestSlot[i] != -1 )
+      {
+        //  The same move as the best response, but played by the other role
+        if ( movesByTerm == null )
         {
-          if ( responseSampleSize[i][j] > 0 )
+          movesByTerm = indexMovesByTerm(masterList);
+        }
+        int bestIndex = responses.getResponseAt(bestSlot[i]);
+        int bestDeny = -1;
+        for(int candidate : movesByTerm.get(masterList[bestIndex].mMove))
+        {
+          if ( candidate != bestIndex )
           {
-            float score = bestResponseScores[i][j]/responseSampleSize[i][j];
-            if ( masterList[i].mRoleIndex != masterList[j].mRoleIndex)
-            {
-              if ( score > best )
-              {
-                best = score;
-                bestIndex = j;
-              }
-            }
-            else
-            {
-              if ( score > bestFollow )
-              {
-                bestFollow = score;
-                bestFollowIndex = j;
-              }
-            }
+            bestDeny = candidate;
+            break;
           }
         }
-
-        LOGGER.info("Best response to " + masterList[i].mInputProposition + ": " + (bestIndex == -1 ? "NONE" : masterList[bestIndex].mInputProposition + " (" + (100*best) + "% [" + responseSampleSize[i][bestIndex] + "] )"));
-        LOGGER.info("Best follow-on to " + masterList[i].mInputProposition + ": " + (bestFollowIndex == -1 ? "NONE" : masterList[bestFollowIndex].mInputProposition + " (" + (100*bestFollow) + "% [" + responseSampleSize[i][bestFollowIndex] + "] )"));
-        if ( bestIndex != -1 && opponentEquivalent[bestIndex] != bestFollowIndex )
+        if ( bestDeny != (bestFollowSlot[i] == -1 ? -1 : responses.getResponseAt(bestFollowSlot[i])) )
         {
-          int bestDeny = opponentEquivalent[bestIndex];
-          LOGGER.info("Best denial to " + masterList[i].mInputProposition + ": " + (bestDeny == -1 ? "NONE" : masterList[bestDeny].mInputProposition + " (" + (100*(bestResponseScores[i][bestDeny]/responseSampleSize[i][bestDeny])) + "% [" + responseSampleSize[i][bestDeny] + "] )"));
+          float denyScore = (bestDeny == -1 ? -1 : responses.getAverageScore(i, bestDeny));
+          LOGGER.info("Best denial to " + masterList[i].mInputProposition + ": " + (bestDeny == -1 ? "NONE" : masterList[bestDeny].mInputProposition + (denyScore < 0 ? " (no samples)" : " (" + (100*denyScore) + "%)")));
         }
       }
     }
+  }
+
+  private String describeResponse(ForwardDeadReckonLegalMoveInfo[] masterList, int slot)
+  {
+    if ( slot == -1 )
+    {
+      return "NONE";
+    }
+    return masterList[responses.getResponseAt(slot)].mInputProposition + " (" + (100*responses.getAverageScoreAt(slot)) + "% [" + responses.getSamplesAt(slot) + "] )";
+  }
 
-    // Reset the stats
-    for(int i = 0; i < bestResponseScores.length; i++)
+  private static Map<Move, List<Integer>> indexMovesByTerm(ForwardDeadReckonLegalMoveInfo[] masterList)
+  {
+    Map<Move, List<Integer>> result = new HashMap<>();
+    for(int i = 0; i < masterList.length; i++)
     {
-      for(int j = 0; j < bestResponseScores.length; j++)
+      if ( masterList[i] != null )
       {
-        bestResponseScores[i][j] /= 2;
-        responseSampleSize[i][j] /= 2;
+        List<Integer> indexes = result.get(masterList[i].mMove);
+        if ( indexes == null )
+        {
+          indexes = new ArrayList<>();
+          result.put(masterList[i].mMove, indexes);
+        }
+        indexes.add(i);
       }
     }
+    return result;
   }
 }
@@ -0,0 +1,238 @@
+package org.ggp.base.util.statemachine.playoutPolicy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sparse table of statistics for responses to moves, keyed by the master indexes of a (previous move, response)
+ * pair.  Only pairs actually seen in playouts take space, and the table has a fixed capacity, so it's usable on
+ * games with far too many moves for a dense move x move matrix.
+ *
+ * The table is shared by the policy instances of all the threads doing playouts, which add their samples with
+ * lock-free atomic updates.  Each entry packs its score total and sample count into a single long, so the two
+ * are always updated together.  Statistics decay once per turn, and pairs whose sample count has decayed away are
+ * dropped to make room for new ones.  If there's no room for a pair, samples for it are discarded - the statistics
+ * are only used to bias playouts, so approximate figures are fine.
+ */
+public final class ResponseTable
+{
+  /**
+   * Maximum number of slots probed for a pair.  Lookups always check them all (rather than stopping at the first
+   * empty slot), so that entries can be dropped without disturbing the others.
+   */
+  private static final int   MAX_PROBES        = 8;
+
+  /**
+   * Entries with a sample count below this after decay are dropped.
+   */
+  private static final float MIN_KEPT_SAMPLES  = 0.5f;
+
+  private static final long  EMPTY             = 0;
+
+  private final AtomicLongArray mKeys;
+  private final AtomicLongArray mValues;
+  private final int             mIndexMask;
+  private final AtomicInteger   mDecayedTurns = new AtomicInteger();
+
+  /**
+   * Create an empty table.
+   *
+   * @param xiCapacity - maximum number of (move, response) pairs to hold.  Rounded up to a power of 2.
+   */
+  public ResponseTable(int xiCapacity)
+  {
+    int lCapacity = Integer.highestOneBit(Math.max(xiCapacity, MAX_PROBES) - 1) << 1;
+
+    mKeys = new AtomicLongArray(lCapacity);
+    mValues = new AtomicLongArray(lCapacity);
+    mIndexMask = lCapacity - 1;
+  }
+
+  /**
+   * @return a capacity for a table of responses to moves of a game, bounded by the memory it would take.
+   *
+   * @param xiNumMoves - size of the game's master move list.
+   * @param xiMaxCapacity - largest capacity to use.
+   */
+  public static int suggestCapacity(int xiNumMoves, int xiMaxCapacity)
+  {
+    return (int)Math.min((long)xiNumMoves * xiNumMoves, xiMaxCapacity);
+  }
+
+  /**
+   * @return the number of slots in the table.
+   */
+  public int capacity()
+  {
+    return mKeys.length();
+  }
+
+  /**
+   * Add a sample for a response to a move.
+   *
+   * @param xiMove     - master index of the move.
+   * @param xiResponse - master index of the response.
+   * @param xiScore    - score for the sample (between 0 and 1).
+   */
+  public void addSample(int xiMove, int xiResponse, float xiScore)
+  {
+    int lSlot = findSlot(xiMove, xiResponse, true);
+    if (lSlot == -1)
+    {
+      return;
+    }
+
+    long lOld;
+    long lNew;
+    do
+    {
+      lOld = mValues.get(lSlot);
+      lNew = pack(scoreOf(lOld) + xiScore, samplesOf(lOld) + 1);
+    }
+    while (!mValues.compareAndSet(lSlot, lOld, lNew));
+  }
+
+  /**
+   * @return the average score of a response to a move, or -1 if there are no samples for it.
+   *
+   * @param xiMove     - master index of the move.
+   * @param xiResponse - master index of the response.
+   */
+  public float getAverageScore(int xiMove, int xiResponse)
+  {
+    int lSlot = findSlot(xiMove, xiResponse, false);
+    return (lSlot == -1) ? -1 : averageOf(mValues.get(lSlot));
+  }
+
+  /**
+   * Decay the statistics, if they haven't already been decayed for the specified turn.  The policy instances of all
+   * threads can call this as they notice a new turn, and only the first to do so decays the table.
+   *
+   * @param xiTurn - the number of turns the caller has seen.
+   */
+  public void decay(int xiTurn)
+  {
+    int lDecayedTurns = mDecayedTurns.get();
+    if (xiTurn <= lDecayedTurns || !mDecayedTurns.compareAndSet(lDecayedTurns, xiTurn))
+    {
+      return;
+    }
+
+    for (int lSlot = 0; lSlot < mKeys.length(); lSlot++)
+    {
+      if (mKeys.get(lSlot) == EMPTY)
+      {
+        continue;
+      }
+
+      long lOld;
+      long lNew;
+      do
+      {
+        lOld = mValues.get(lSlot);
+        float lSamples = samplesOf(lOld) / 2;
+        lNew = (lSamples < MIN_KEPT_SAMPLES) ? EMPTY : pack(scoreOf(lOld) / 2, lSamples);
+      }
+      while (!mValues.compareAndSet(lSlot, lOld, lNew));
+
+      if (lNew == EMPTY)
+      {
+        mKeys.set(lSlot, EMPTY);
+      }
+    }
+  }
+
+  // Accessors for walking the table's entries by slot, e.g. to report on them.
+
+  /**
+   * @return the master index of the move whose response is held in a slot, or -1 if the slot is empty.
+   */
+  public int getMoveAt(int xiSlot)
+  {
+    long lKey = mKeys.get(xiSlot);
+    return (lKey == EMPTY) ? -1 : (int)(lKey >>> 32) - 1;
+  }
+
+  /**
+   * @return the master index of the response held in a (non-empty) slot.
+   */
+  public int getResponseAt(int xiSlot)
+  {
+    return (int)mKeys.get(xiSlot) - 1;
+  }
+
+  /**
+   * @return the average score of the response held in a (non-empty) slot.
+   */
+  public float getAverageScoreAt(int xiSlot)
+  {
+    return averageOf(mValues.get(xiSlot));
+  }
+
+  /**
+   * @return the (decayed) sample count of the response held in a (non-empty) slot.
+   */
+  public float getSamplesAt(int xiSlot)
+  {
+    return samplesOf(mValues.get(xiSlot));
+  }
+
+  private int findSlot(int xiMove, int xiResponse, boolean xiCreate)
+  {
+    // Master indexes are offset by 1 so that no key is 0.
+    long lKey = ((long)(xiMove + 1) << 32) | (xiResponse + 1);
+    int lStart = (int)((lKey * 0x9E3779B97F4A7C15L) >>> 32);
+    int lFirstEmpty = -1;
+
+    for (int lProbe = 0; lProbe < MAX_PROBES; lProbe++)
+    {
+      int lSlot = (lStart + lProbe) & mIndexMask;
+      long lSlotKey = mKeys.get(lSlot);
+      if (lSlotKey == lKey)
+      {
+        return lSlot;
+      }
+      if (lSlotKey == EMPTY && lFirstEmpty == -1)
+      {
+        lFirstEmpty = lSlot;
+      }
+    }
+
+    if (!xiCreate || lFirstEmpty == -1)
+    {
+      return -1;
+    }
+
+    // Claim the empty slot, clearing out anything added to it by a thread racing with its removal.  If another thread
+    // got there first, it may have been adding the same pair.
+    if (mKeys.compareAndSet(lFirstEmpty, EMPTY, lKey))
+    {
+      mValues.set(lFirstEmpty, EMPTY);
+      return lFirstEmpty;
+    }
+    return (mKeys.get(lFirstEmpty) == lKey) ? lFirstEmpty : -1;
+  }
+
+  // Packing of entry values.  Package-private so that the tests can check it.
+
+  static long pack(float xiScore, float xiSamples)
+  {
+    return ((long)Float.floatToRawIntBits(xiSamples) << 32) | (Float.floatToRawIntBits(xiScore) & 0xFFFFFFFFL);
+  }
+
+  static float scoreOf(long xiValue)
+  {
+    return Float.intBitsToFloat((int)xiValue);
+  }
+
+  static float samplesOf(long xiValue)
+  {
+    return Float.intBitsToFloat((int)(xiValue >>> 32));
+  }
+
+  private static float averageOf(long xiValue)
+  {
+    float lSamples = samplesOf(xiValue);
+    return (lSamples == 0) ? -1 : scoreOf(xiValue) / lSamples;
+  }
+}
@@ -0,0 +1,198 @@
+package org.ggp.base.util.statemachine.playoutPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseTableTest extends Assert
+{
+  @Test
+  public void testPackUnpack()
+  {
+    // An entry with no score and no samples is indistinguishable from an empty one.
+    assertEquals(0, ResponseTable.pack(0, 0));
+
+    float[] lScores = {0, 0.25f, 0.3f, 1, 12345.678f};
+    float[] lSamples = {0.5f, 1, 3, 1e6f, 16777216};
+    for (float lScore : lScores)
+    {
+      for (float lSampleCount : lSamples)
+      {
+        long lValue = ResponseTable.pack(lScore, lSampleCount);
+        assertEquals(lScore, ResponseTable.scoreOf(lValue), 0);
+        assertEquals(lSampleCount, ResponseTable.samplesOf(lValue), 0);
+      }
+    }
+  }
+
+  @Test
+  public void testAddSample()
+  {
+    ResponseTable lTable = new ResponseTable(64);
+    assertEquals(64, lTable.capacity());
+    assertEquals(-1, lTable.getAverageScore(1, 2), 0);
+
+    lTable.addSample(1, 2, 1);
+    lTable.addSample(1, 2, 0);
+    lTable.addSample(1, 2, 0.5f);
+    lTable.addSample(2, 1, 0.25f);
+    assertEquals(0.5f, lTable.getAverageScore(1, 2), 1e-6);
+    assertEquals(0.25f, lTable.getAverageScore(2, 1), 1e-6);
+
+    // Move and response 0 are valid indexes.
+    lTable.addSample(0, 0, 1);
+    assertEquals(1, lTable.getAverageScore(0, 0), 0);
+    assertEquals(-1, lTable.getAverageScore(0, 1), 0);
+  }
+
+  @Test
+  public void testDecay()
+  {
+    ResponseTable lTable = new ResponseTable(64);
+    addSamples(lTable, 1, 2, 4, 0.75f);
+    addSamples(lTable, 3, 4, 1, 1);
+
+    // Decay halves the score total and the sample count (leaving the average alone), once per turn.
+    lTable.decay(1);
+    lTable.decay(1);
+    assertEquals(2, getSamples(lTable, 1, 2), 0);
+    assertEquals(0.5f, getSamples(lTable, 3, 4), 0);
+    assertEquals(0.75f, lTable.getAverageScore(1, 2), 1e-6);
+    assertEquals(1, lTable.getAverageScore(3, 4), 1e-6);
+
+    // Once the sample count falls below MIN_KEPT_SAMPLES, the entry is dropped.
+    lTable.decay(2);
+    assertEquals(1, getSamples(lTable, 1, 2), 0);
+    assertEquals(-1, lTable.getAverageScore(3, 4), 0);
+    assertEquals(1, countEntries(lTable));
+
+    // Stale turns are ignored.
+    lTable.decay(1);
+    assertEquals(1, getSamples(lTable, 1, 2), 0);
+  }
+
+  @Test
+  public void testLookupAfterNeighbourDropped()
+  {
+    // The smallest table has as many slots as the probe window, so every pair competes for the same slots.
+    ResponseTable lTable = new ResponseTable(1);
+    int lCapacity = lTable.capacity();
+    for (int lii = 0; lii < lCapacity; lii++)
+    {
+      addSamples(lTable, lii, lii + 1, (lii % 2 == 0) ? 1 : 4, 0.5f);
+    }
+    assertEquals(lCapacity, countEntries(lTable));
+
+    // The table is full, so samples for another pair are discarded.
+    lTable.addSample(100, 101, 1);
+    assertEquals(-1, lTable.getAverageScore(100, 101), 0);
+
+    // Drop the pairs with few samples.  Those after them in the probe sequence must still be found.
+    lTable.decay(1);
+    lTable.decay(2);
+    assertEquals(lCapacity / 2, countEntries(lTable));
+    for (int lii = 0; lii < lCapacity; lii++)
+    {
+      assertEquals((lii % 2 == 0) ? -1 : 0.5f, lTable.getAverageScore(lii, lii + 1), 1e-6);
+    }
+
+    // The freed slots can be re-used, without disturbing the surviving entries.
+    lTable.addSample(100, 101, 1);
+    assertEquals(1, lTable.getAverageScore(100, 101), 0);
+    for (int lii = 1; lii < lCapacity; lii += 2)
+    {
+      assertEquals(1, getSamples(lTable, lii, lii + 1), 0);
+    }
+  }
+
+  @Test
+  public void testConcurrentAddSample() throws Exception
+  {
+    final ResponseTable lTable = new ResponseTable(1024);
+    final int lNumThreads = 8;
+    final int lNumPairs = 16;
+    final int lSamplesPerPair = 10000;
+    final CountDownLatch lStart = new CountDownLatch(1);
+    List<Thread> lThreads = new ArrayList<>();
+
+    for (int lThreadIndex = 0; lThreadIndex < lNumThreads; lThreadIndex++)
+    {
+      Thread lThread = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          try
+          {
+            lStart.await();
+          }
+          catch (InterruptedException lEx)
+          {
+            return;
+          }
+
+          // Each pair gets 1 for a third of its samples, so the totals are exact in floating point.
+          for (int lii = 0; lii < lSamplesPerPair; lii++)
+          {
+            for (int lPair = 0; lPair < lNumPairs; lPair++)
+            {
+              lTable.addSample(lPair, lPair * 7, (lii % 3 == 0) ? 1 : 0);
+            }
+          }
+        }
+      };
+      lThreads.add(lThread);
+      lThread.start();
+    }
+
+    lStart.countDown();
+    for (Thread lThread : lThreads)
+    {
+      lThread.join();
+    }
+
+    float lExpectedAverage = (float)((lSamplesPerPair + 2) / 3) / lSamplesPerPair;
+    for (int lPair = 0; lPair < lNumPairs; lPair++)
+    {
+      assertEquals(lNumThreads * lSamplesPerPair, getSamples(lTable, lPair, lPair * 7), 0);
+      assertEquals(lExpectedAverage, lTable.getAverageScore(lPair, lPair * 7), 1e-6);
+    }
+    assertEquals(lNumPairs, countEntries(lTable));
+  }
+
+  private static void addSamples(ResponseTable xiTable, int xiMove, int xiResponse, int xiCount, float xiScore)
+  {
+    for (int lii = 0; lii < xiCount; lii++)
+    {
+      xiTable.addSample(xiMove, xiResponse, xiScore);
+    }
+  }
+
+  private static float getSamples(ResponseTable xiTable, int xiMove, int xiResponse)
+  {
+    for (int lSlot = 0; lSlot < xiTable.capacity(); lSlot++)
+    {
+      if (xiTable.getMoveAt(lSlot) == xiMove && xiTable.getResponseAt(lSlot) == xiResponse)
+      {
+        return xiTable.getSamplesAt(lSlot);
+      }
+    }
+    return 0;
+  }
+
+  private static int countEntries(ResponseTable xiTable)
+  {
+    int lCount = 0;
+    for (int lSlot = 0; lSlot < xiTable.capacity(); lSlot++)
+    {
+      if (xiTable.getMoveAt(lSlot) != -1)
+      {
+        lCount++;
+      }
+    }
+    return lCount;
+  }
+}
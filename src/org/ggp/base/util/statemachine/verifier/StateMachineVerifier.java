@@ -10,6 +10,7 @@ import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
 import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
 
 public class StateMachineVerifier
 {
@@ -49,8 +50,11 @@ public class StateMachineVerifier
                              theReference.getClass().getName() +
                              " as a reference.");
 
+    // Every round replays from the initial state, and the reference is asked
+    // about each state more than once, so cache its answers.  (The subject
+    // isn't cached, so that it's exercised fully.)
     List<StateMachine> theMachines = new ArrayList<>();
-    theMachines.add(theReference);
+    theMachines.add(new CachedStateMachine(theReference));
     theMachines.add(theSubject);
 
     GamerLogger.emitToConsole("Consistency checking: [");
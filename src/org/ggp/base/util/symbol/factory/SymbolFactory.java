@@ -1,12 +1,11 @@
-
 package org.ggp.base.util.symbol.factory;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
 import org.ggp.base.util.symbol.grammar.Symbol;
+import org.ggp.base.util.symbol.grammar.SymbolArena;
 import org.ggp.base.util.symbol.grammar.SymbolAtom;
 import org.ggp.base.util.symbol.grammar.SymbolList;
 import org.ggp.base.util.symbol.grammar.SymbolPool;
@@ -15,12 +14,20 @@ import org.ggp.base.util.symbol.grammar.SymbolPool;
 public final class SymbolFactory
 {
   public static Symbol create(String string) throws SymbolFormatException
+  {
+    return create(string, null);
+  }
+
+  /**
+   * Parse a symbol, interning its lists in the given arena (or in the
+   * SymbolPool, if the arena is null).  Anything after the symbol is ignored.
+   */
+  public static Symbol create(String string, SymbolArena arena)
+      throws SymbolFormatException
   {
     try
     {
-      String preprocessed = preprocess(string);
-      List<String> tokens = lex(preprocessed);
-      return convert(new LinkedList<>(tokens));
+      return new Scanner(string, arena).convert();
     }
     catch (Exception e)
     {
@@ -30,53 +37,109 @@ public final class SymbolFactory
 
   /* Private, implementation-specific methods below here */
 
-  private static Symbol convert(LinkedList<String> tokens)
+  /**
+   * A single-pass scanner over the text.  Parentheses are tokens in their own
+   * right; any other run of non-whitespace characters is an atom.
+   */
+  private static final class Scanner
   {
-    if (tokens.getFirst().equals("("))
+    private final String                  text;
+    private final SymbolArena             arena;
+    private final List<ArrayList<Symbol>> scratch = new ArrayList<>();
+    private int                           pos;
+    private int                           depth;
+
+    Scanner(String text, SymbolArena arena)
     {
-      return convertList(tokens);
+      this.text = text;
+      this.arena = arena;
     }
-    return convertAtom(tokens);
-  }
 
-  private static SymbolAtom convertAtom(LinkedList<String> tokens)
-  {
-    return SymbolPool.getAtom(tokens.removeFirst());
-  }
-
-  private static SymbolList convertList(LinkedList<String> tokens)
-  {
-    List<Symbol> contents = new ArrayList<>();
-
-    tokens.removeFirst();
-    while (!tokens.getFirst().equals(")"))
+    Symbol convert()
     {
-      contents.add(convert(tokens));
+      skipWhitespace();
+      if (pos == text.length())
+      {
+        // An empty string is a single empty atom.
+        return getAtom("");
+      }
+      if (text.charAt(pos) == ')')
+      {
+        pos++;
+        return getAtom(")");
+      }
+      return convertSymbol();
     }
-    tokens.removeFirst();
 
-    return SymbolPool.getList(contents);
-  }
+    private Symbol convertSymbol()
+    {
+      if (text.charAt(pos) == '(')
+      {
+        pos++;
+        return convertList();
+      }
+      return convertAtom();
+    }
 
-  private static List<String> lex(String string)
-  {
-    List<String> tokens = new ArrayList<>();
-    for (String token : string.split(" "))
+    private SymbolAtom convertAtom()
     {
-      tokens.add(token);
+      int start = pos;
+      while (pos < text.length())
+      {
+        char c = text.charAt(pos);
+        if (c == '(' || c == ')' || isWhitespace(c))
+        {
+          break;
+        }
+        pos++;
+      }
+      return getAtom(text.substring(start, pos));
     }
 
-    return tokens;
-  }
+    private SymbolList convertList()
+    {
+      while (scratch.size() <= depth)
+      {
+        scratch.add(new ArrayList<Symbol>());
+      }
+      List<Symbol> contents = scratch.get(depth++);
+      contents.clear();
+
+      skipWhitespace();
+      while (text.charAt(pos) != ')')
+      {
+        contents.add(convertSymbol());
+        skipWhitespace();
+      }
+      pos++;
+      depth--;
+
+      if (arena != null)
+      {
+        return arena.getList(contents);
+      }
+      return SymbolPool.getList(new ArrayList<>(contents));
+    }
 
-  private static String preprocess(String string)
-  {
-    string = string.replaceAll("\\(", " ( ");
-    string = string.replaceAll("\\)", " ) ");
+    private SymbolAtom getAtom(String value)
+    {
+      return (arena != null) ? arena.getAtom(value) : SymbolPool.getAtom(value);
+    }
 
-    string = string.replaceAll("\\s+", " ");
-    string = string.trim();
+    private void skipWhitespace()
+    {
+      while (pos < text.length() && isWhitespace(text.charAt(pos)))
+      {
+        pos++;
+      }
+    }
 
-    return string;
+    /**
+     * Whitespace as defined by regular expressions ("\s").
+     */
+    private static boolean isWhitespace(char c)
+    {
+      return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+package org.ggp.base.util.symbol.grammar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A scoped alternative to the SymbolPool's list pool.  Lists interned in an
+ * arena are shared only with other lists from the same arena, and are all
+ * dropped when the arena is released - typically at the end of a match -
+ * rather than accumulating in the global pool until it's drained.
+ *
+ * Atoms are still taken from the SymbolPool, because GDL translation relies on
+ * there being a single atom for each value.
+ */
+public final class SymbolArena
+{
+  private final ConcurrentMap<List<Symbol>, SymbolList> listPool = new ConcurrentHashMap<>();
+
+  public SymbolAtom getAtom(String value)
+  {
+    return SymbolPool.getAtom(value);
+  }
+
+  /**
+   * @return the arena's list with the given contents.  The contents are copied
+   * if a new list is created, so the caller may go on to reuse them.
+   */
+  public SymbolList getList(List<Symbol> contents)
+  {
+    SymbolList ret = listPool.get(contents);
+    if (ret == null)
+    {
+      List<Symbol> copy = new ArrayList<>(contents);
+      ret = new SymbolList(copy);
+      SymbolList prevValue = listPool.putIfAbsent(copy, ret);
+      if (prevValue != null)
+      {
+        ret = prevValue;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return the number of lists interned in the arena.
+   */
+  public int size()
+  {
+    return listPool.size();
+  }
+
+  /**
+   * Drop all the lists interned in the arena.  Lists already handed out remain
+   * valid, but won't be shared with lists interned subsequently.
+   */
+  public void release()
+  {
+    listPool.clear();
+  }
+}
@@ -0,0 +1,172 @@
+package org.ggp.base.apps.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.player.gamer.statemachine.sancho.RoleOrdering;
+import org.ggp.base.player.gamer.statemachine.sancho.RuntimeGameCharacteristics;
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveInfo;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * The fixed corpus of games over which the benchmarks run, and helpers for setting up the objects under test.
+ *
+ * Games are loaded from the local game directories (games/test, games/all_games and games/games) rather than a
+ * remote repository, so that results are reproducible and don't depend on network access.  The learned state in
+ * data/games is deliberately not used - benchmarks always start from a clean slate.
+ */
+public final class BenchmarkCorpus
+{
+  /**
+   * Directories in which to look for a game's rules, in order.  In the first a game is held as &lt;name&gt;.kif, in
+   * the others as &lt;name&gt;/&lt;rulesheet&gt;, where the rulesheet is named in &lt;name&gt;/METADATA.
+   */
+  private static final File   TEST_GAMES_DIR  = new File("games", "test");
+  private static final File[] GAME_REPOSITORY_DIRS = {new File("games", "all_games"), new File("games", "games")};
+
+  /**
+   * Seed for all randomness in benchmark setup.
+   */
+  public static final long    SEED = 1;
+
+  private BenchmarkCorpus()
+  {
+    // Not instantiable.
+  }
+
+  /**
+   * Load the rules for a game in the corpus.
+   *
+   * @param xiName - the game name.
+   *
+   * @return the game's rules.
+   */
+  public static List<Gdl> loadRules(String xiName)
+  {
+    File lFile = new File(TEST_GAMES_DIR, xiName + ".kif");
+    for (int lii = 0; lii < GAME_REPOSITORY_DIRS.length && !lFile.exists(); lii++)
+    {
+      File lGameDir = new File(GAME_REPOSITORY_DIRS[lii], xiName);
+      File lMetadataFile = new File(lGameDir, "METADATA");
+      if (lMetadataFile.exists())
+      {
+        try
+        {
+          JSONObject lMetadata = new JSONObject(FileUtils.readFileAsString(lMetadataFile));
+          lFile = new File(lGameDir, lMetadata.getString("rulesheet"));
+        }
+        catch (JSONException lEx)
+        {
+          throw new IllegalArgumentException("Invalid metadata for game: " + xiName, lEx);
+        }
+      }
+    }
+
+    if (!lFile.exists())
+    {
+      throw new IllegalArgumentException("Game not found: " + xiName);
+    }
+
+    return Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(lFile))).getRules();
+  }
+
+  /**
+   * Create a fully initialized state machine for a game, configured as Sancho's game searcher would use it.
+   *
+   * @param xiRules        - the game's rules.
+   * @param xiMaxInstances - the number of state machine instances that will be required.
+   *
+   * @return the state machine.
+   */
+  public static ForwardDeadReckonPropnetStateMachine createStateMachine(List<Gdl> xiRules, int xiMaxInstances)
+  {
+    ForwardDeadReckonPropnetStateMachine lStateMachine =
+                          new ForwardDeadReckonPropnetStateMachine(xiMaxInstances,
+                                                                   System.currentTimeMillis() + 60000,
+                                                                   null,
+                                                                   new RuntimeGameCharacteristics(null));
+    lStateMachine.initialize(xiRules);
+    lStateMachine.enableGreedyRollouts(false, true);
+    lStateMachine.optimizeStateTransitionMechanism(System.currentTimeMillis() + 5000);
+
+    return lStateMachine;
+  }
+
+  /**
+   * A non-terminal state and a legal joint move in it (in internal role order).
+   */
+  public static class Transition
+  {
+    /**
+     * The state.
+     */
+    public final ForwardDeadReckonInternalMachineState mState;
+
+    /**
+     * The joint move.
+     */
+    public final ForwardDeadReckonLegalMoveInfo[]      mJointMove;
+
+    Transition(ForwardDeadReckonInternalMachineState xiState, ForwardDeadReckonLegalMoveInfo[] xiJointMove)
+    {
+      mState = xiState;
+      mJointMove = xiJointMove;
+    }
+  }
+
+  /**
+   * Sample transitions by playing random games from the initial state.  The sample is determined by the game and
+   * SEED alone, so every run of a benchmark sees the same states.
+   *
+   * @param xiStateMachine    - the state machine.
+   * @param xiNumTransitions  - the number of transitions to sample.
+   *
+   * @return the transitions.
+   */
+  public static Transition[] sampleTransitions(ForwardDeadReckonPropnetStateMachine xiStateMachine,
+                                               int xiNumTransitions)
+  {
+    Random lRandom = new Random(SEED);
+    RoleOrdering lRoleOrdering = xiStateMachine.getRoleOrdering();
+    int lNumRoles = xiStateMachine.getRoles().length;
+    ForwardDeadReckonInternalMachineState lInitialState =
+                                         xiStateMachine.createInternalState(xiStateMachine.getInitialState());
+
+    List<Transition> lTransitions = new ArrayList<>(xiNumTransitions);
+    ForwardDeadReckonInternalMachineState lState = new ForwardDeadReckonInternalMachineState(lInitialState);
+
+    while (lTransitions.size() < xiNumTransitions)
+    {
+      if (xiStateMachine.isTerminal(lState))
+      {
+        lState = new ForwardDeadReckonInternalMachineState(lInitialState);
+      }
+
+      ForwardDeadReckonLegalMoveSet lLegalMoves = xiStateMachine.getLegalMoveSet(lState);
+      ForwardDeadReckonLegalMoveInfo[] lJointMove = new ForwardDeadReckonLegalMoveInfo[lNumRoles];
+      for (int lRoleIndex = 0; lRoleIndex < lNumRoles; lRoleIndex++)
+      {
+        int lRawRoleIndex = lRoleOrdering.roleIndexToRawRoleIndex(lRoleIndex);
+        lJointMove[lRoleIndex] = lLegalMoves.getMove(lRawRoleIndex,
+                                                     lRandom.nextInt(lLegalMoves.getNumChoices(lRawRoleIndex)));
+      }
+      lTransitions.add(new Transition(lState, lJointMove));
+
+      ForwardDeadReckonInternalMachineState lNextState = new ForwardDeadReckonInternalMachineState(lInitialState);
+      xiStateMachine.getNextState(lState, null, lJointMove, lNextState);
+      lState = lNextState;
+    }
+
+    return lTransitions.toArray(new Transition[lTransitions.size()]);
+  }
+}
@@ -0,0 +1,66 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.player.gamer.statemachine.sancho.RuntimeGameCharacteristics;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of propnet construction and optimization - i.e. the meta-gaming cost of state machine initialization.
+ *
+ * Each invocation builds a state machine from scratch, so this is measured as single-shot time.  The propnet cache is
+ * never used, since the game characteristics have no game directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx2g", "-XX:+UseG1GC"})
+public class PropNetConstructionBenchmark
+{
+  /**
+   * The game under test.  (Public and unprefixed as required by JMH, which also uses it as the parameter name.)
+   */
+  @Param({"ticTacToe", "connectFour", "BrkThru", "kalaha6x2x4", "blocker", "eightPuzzle"})
+  public String game;
+
+  private List<Gdl> mRules;
+
+  /**
+   * Load the game's rules.
+   */
+  @Setup
+  public void setup()
+  {
+    mRules = BenchmarkCorpus.loadRules(game);
+  }
+
+  /**
+   * @return a newly initialized state machine.
+   */
+  @Benchmark
+  public ForwardDeadReckonPropnetStateMachine initialize()
+  {
+    ForwardDeadReckonPropnetStateMachine lStateMachine =
+                          new ForwardDeadReckonPropnetStateMachine(1,
+                                                                   System.currentTimeMillis() + 60000,
+                                                                   null,
+                                                                   new RuntimeGameCharacteristics(null));
+    lStateMachine.initialize(mRules);
+    return lStateMachine;
+  }
+}
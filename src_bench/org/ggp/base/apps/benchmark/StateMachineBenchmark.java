@@ -0,0 +1,115 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.apps.benchmark.BenchmarkCorpus.Transition;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonLegalMoveSet;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the core propnet state machine operations, as used by the search and rollout threads.
+ *
+ * The single-step operations cycle through a fixed sample of transitions from random games, so that they see a
+ * realistic spread of states (and propnet changes between consecutive calls) rather than repeatedly hitting the same
+ * state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx2g", "-XX:+UseG1GC"})
+public class StateMachineBenchmark
+{
+  private static final int NUM_TRANSITIONS = 1024;
+
+  /**
+   * The game under test.  (Public and unprefixed as required by JMH, which also uses it as the parameter name.)
+   */
+  @Param({"ticTacToe", "connectFour", "BrkThru", "kalaha6x2x4", "blocker", "eightPuzzle"})
+  public String game;
+
+  private ForwardDeadReckonPropnetStateMachine          mStateMachine;
+  private Transition[]                                  mTransitions;
+  private ForwardDeadReckonInternalMachineState         mInitialState;
+  private ForwardDeadReckonInternalMachineState         mNextState;
+  private ForwardDeadReckonPropnetStateMachine.PlayoutInfo mPlayoutInfo;
+  private int                                           mNextTransition;
+
+  /**
+   * Build the state machine and sample the transitions.
+   */
+  @Setup
+  public void setup()
+  {
+    mStateMachine = BenchmarkCorpus.createStateMachine(BenchmarkCorpus.loadRules(game), 1);
+    mTransitions = BenchmarkCorpus.sampleTransitions(mStateMachine, NUM_TRANSITIONS);
+    mInitialState = mStateMachine.createInternalState(mStateMachine.getInitialState());
+    mNextState = new ForwardDeadReckonInternalMachineState(mInitialState);
+
+    mPlayoutInfo = mStateMachine.new PlayoutInfo(-1);
+    mPlayoutInfo.factor = null;
+    mPlayoutInfo.cutoffDepth = 1000;
+
+    mNextTransition = 0;
+  }
+
+  private Transition nextTransition()
+  {
+    Transition lTransition = mTransitions[mNextTransition];
+    mNextTransition = (mNextTransition + 1) % mTransitions.length;
+    return lTransition;
+  }
+
+  /**
+   * @return the state following a sampled transition.
+   */
+  @Benchmark
+  public ForwardDeadReckonInternalMachineState getNextState()
+  {
+    Transition lTransition = nextTransition();
+    mStateMachine.getNextState(lTransition.mState, null, lTransition.mJointMove, mNextState);
+    return mNextState;
+  }
+
+  /**
+   * @return the number of legal moves (for the first role) in a sampled state.
+   */
+  @Benchmark
+  public int getLegalMoveSet()
+  {
+    ForwardDeadReckonLegalMoveSet lLegalMoves = mStateMachine.getLegalMoveSet(nextTransition().mState);
+    return lLegalMoves.getNumChoices(0);
+  }
+
+  /**
+   * @return whether a sampled state is terminal.
+   */
+  @Benchmark
+  public boolean isTerminal()
+  {
+    return mStateMachine.isTerminal(nextTransition().mState);
+  }
+
+  /**
+   * @return the length of a random playout from the initial state.
+   */
+  @Benchmark
+  public int playout()
+  {
+    mStateMachine.getDepthChargeResult(mInitialState, mPlayoutInfo);
+    return mPlayoutInfo.playoutLength;
+  }
+}
@@ -0,0 +1,116 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.player.gamer.statemachine.sancho.GameSearcher;
+import org.ggp.base.player.gamer.statemachine.sancho.RoleOrdering;
+import org.ggp.base.player.gamer.statemachine.sancho.RuntimeGameCharacteristics;
+import org.ggp.base.player.gamer.statemachine.sancho.ThreadControl;
+import org.ggp.base.player.gamer.statemachine.sancho.heuristic.CombinedHeuristic;
+import org.ggp.base.player.gamer.statemachine.sancho.heuristic.Heuristic;
+import org.ggp.base.util.propnet.polymorphic.forwardDeadReckon.ForwardDeadReckonInternalMachineState;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.forwardDeadReckon.ForwardDeadReckonPropnetStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of MCTS tree growth - each invocation is a single synchronous iteration (select, expand, rollout and
+ * back-propagate) of the game searcher.
+ *
+ * This is set up in the same way as StateMachinePerformanceAnalyser's synchronous mode.  A single searcher is used
+ * for the whole trial (the state machine only supports a fixed number of instances), so later iterations include the
+ * cost of node pool trimming once the tree fills - as in a real match.  Only games which can't be solved within a
+ * trial are included in the corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx2g", "-XX:+UseG1GC"})
+public class TreeSearchBenchmark
+{
+  private static final int NODE_TABLE_SIZE = 200000;
+
+  /**
+   * The game under test.  (Public and unprefixed as required by JMH, which also uses it as the parameter name.)
+   */
+  @Param({"connectFour", "BrkThru", "kalaha6x2x4"})
+  public String game;
+
+  private ForwardDeadReckonPropnetStateMachine  mStateMachine;
+  private RuntimeGameCharacteristics            mGameCharacteristics;
+  private ForwardDeadReckonInternalMachineState mInitialState;
+  private GameSearcher                          mGameSearcher;
+
+  /**
+   * Build the state machine and a searcher, rooted at the initial state.
+   */
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    mGameCharacteristics = new RuntimeGameCharacteristics(null);
+    mStateMachine = new ForwardDeadReckonPropnetStateMachine(ThreadControl.CPU_INTENSIVE_THREADS,
+                                                             System.currentTimeMillis() + 60000,
+                                                             null,
+                                                             mGameCharacteristics);
+    mStateMachine.initialize(BenchmarkCorpus.loadRules(game));
+    mStateMachine.enableGreedyRollouts(false, true);
+    mGameCharacteristics.setRolloutSampleSize(1);
+    mStateMachine.optimizeStateTransitionMechanism(System.currentTimeMillis() + 5000);
+
+    mInitialState = mStateMachine.createInternalState(mStateMachine.getInitialState());
+
+    Heuristic lHeuristic = new CombinedHeuristic();
+    lHeuristic.tuningComplete();
+
+    mGameSearcher = new GameSearcher(NODE_TABLE_SIZE, mStateMachine.getRoles().length, "Benchmark");
+    mGameSearcher.setup(mStateMachine,
+                        mInitialState,
+                        new RoleOrdering(mStateMachine, mStateMachine.getRoles()[0]),
+                        mGameCharacteristics,
+                        true,
+                        lHeuristic,
+                        null,
+                        null);
+    mGameSearcher.startSearch(Long.MAX_VALUE, mInitialState, (short)0, null);
+  }
+
+  /**
+   * Release the searcher's threads.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    mGameSearcher.terminate();
+    mGameSearcher = null;
+  }
+
+  /**
+   * @return whether the search is complete.
+   *
+   * @throws MoveDefinitionException
+   * @throws TransitionDefinitionException
+   * @throws GoalDefinitionException
+   */
+  @Benchmark
+  public boolean growTree()
+    throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException
+  {
+    return mGameSearcher.expandSearch(true);
+  }
+}